@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.api.io;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Guesses the format of a document out of its first bytes.
+ *
+ * <p>For XML documents, the prolog (XML declaration, comments, processing instructions and
+ * document type declaration) is skipped, and the format is determined out of the name and the
+ * namespaces of the root element. JSON documents are assumed to be GeoJSON documents. Binary
+ * documents are recognised by their magic number.
+ *
+ * @author Xavier Sosnovsky
+ */
+final class FormatSniffer {
+
+  /** The maximum number of bytes needed to guess the format of a document. */
+  static final int PREFIX_SIZE = 8192;
+
+  private static final byte[] BINARY_MAGIC = {'P', 'T', 'R', 'L', 1};
+  private static final Pattern ATTRIBUTE =
+      Pattern.compile("([\\w:.-]+)\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)')");
+
+  private FormatSniffer() {
+    super();
+  }
+
+  /**
+   * Returns the format of the document starting with the supplied bytes.
+   *
+   * @param prefix the first bytes of the document
+   * @param length the number of bytes in the prefix
+   * @return the format of the document, or null if it cannot be guessed
+   */
+  static Formats sniff(final byte[] prefix, final int length) {
+    if (isBinary(prefix, length)) {
+      return Formats.PINETRAIL_BINARY_1_0;
+    }
+    final String text = decode(prefix, length);
+    int pos = skipWhitespace(text, 0);
+    if (pos < text.length() && '{' == text.charAt(pos)) {
+      return Formats.GEOJSON_1_0;
+    }
+    while (pos < text.length() && '<' == text.charAt(pos)) {
+      if (text.startsWith("<?", pos)) {
+        pos = skipPast(text, pos, "?>");
+      } else if (text.startsWith("<!--", pos)) {
+        pos = skipPast(text, pos, "-->");
+      } else if (text.startsWith("<!", pos)) {
+        pos = skipDoctype(text, pos);
+      } else {
+        return sniffRoot(text, pos);
+      }
+      pos = skipWhitespace(text, pos);
+    }
+    return null;
+  }
+
+  private static boolean isBinary(final byte[] prefix, final int length) {
+    if (length < BINARY_MAGIC.length) {
+      return false;
+    }
+    for (int i = 0; i < BINARY_MAGIC.length; i++) {
+      if (BINARY_MAGIC[i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static Formats sniffRoot(final String text, final int start) {
+    final int end = text.indexOf('>', start);
+    if (end < 0) {
+      return null;
+    }
+    final String tag = text.substring(start + 1, end);
+    int nameEnd = 0;
+    while (nameEnd < tag.length()
+        && !Character.isWhitespace(tag.charAt(nameEnd))
+        && '/' != tag.charAt(nameEnd)) {
+      nameEnd++;
+    }
+    final String qualifiedName = tag.substring(0, nameEnd);
+    final String name = qualifiedName.substring(qualifiedName.indexOf(':') + 1);
+    final StringBuilder namespaces = new StringBuilder();
+    String version = "";
+    final Matcher matcher = ATTRIBUTE.matcher(tag).region(nameEnd, tag.length());
+    while (matcher.find()) {
+      final String value = null == matcher.group(2) ? matcher.group(3) : matcher.group(2);
+      if (matcher.group(1).startsWith("xmlns")) {
+        namespaces.append(value).append(' ');
+      } else if ("version".equals(matcher.group(1))) {
+        version = value.trim();
+      }
+    }
+    final String ns = namespaces.toString().toLowerCase(Locale.ROOT);
+    switch (name.toLowerCase(Locale.ROOT)) {
+      case "gpx":
+        if (ns.contains("topografix.com/gpx/1/1")) {
+          return Formats.GPX_1_1;
+        } else if (ns.contains("topografix.com/gpx/1/0")) {
+          return Formats.GPX_1_0;
+        } else if ("1.1".equals(version)) {
+          return Formats.GPX_1_1;
+        } else if ("1.0".equals(version)) {
+          return Formats.GPX_1_0;
+        }
+        return null;
+      case "kml":
+        if (ns.contains("kml/2.2")) {
+          return Formats.KML_2_2_0;
+        } else if (ns.contains("kml/2.1")) {
+          return Formats.KML_2_1_0;
+        }
+        return null;
+      default:
+        return null;
+    }
+  }
+
+  /*
+   * Markup is ASCII, so that any ASCII compatible encoding can be decoded as ISO-8859-1. Only
+   * UTF-16 needs to be detected, using the byte order mark or the first character.
+   */
+  private static String decode(final byte[] prefix, final int length) {
+    Charset charset = StandardCharsets.ISO_8859_1;
+    int offset = 0;
+    if (length >= 3
+        && (byte) 0xEF == prefix[0]
+        && (byte) 0xBB == prefix[1]
+        && (byte) 0xBF == prefix[2]) {
+      offset = 3;
+    } else if (length >= 2 && (byte) 0xFE == prefix[0] && (byte) 0xFF == prefix[1]) {
+      charset = StandardCharsets.UTF_16BE;
+      offset = 2;
+    } else if (length >= 2 && (byte) 0xFF == prefix[0] && (byte) 0xFE == prefix[1]) {
+      charset = StandardCharsets.UTF_16LE;
+      offset = 2;
+    } else if (length >= 2 && 0 == prefix[0] && 0 != prefix[1]) {
+      charset = StandardCharsets.UTF_16BE;
+    } else if (length >= 2 && 0 != prefix[0] && 0 == prefix[1]) {
+      charset = StandardCharsets.UTF_16LE;
+    }
+    return new String(prefix, offset, Math.max(0, length - offset), charset);
+  }
+
+  private static int skipWhitespace(final String text, final int start) {
+    int pos = start;
+    while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+      pos++;
+    }
+    return pos;
+  }
+
+  private static int skipPast(final String text, final int start, final String end) {
+    final int idx = text.indexOf(end, start);
+    return idx < 0 ? text.length() : idx + end.length();
+  }
+
+  /*
+   * The document type declaration may contain an internal subset, between brackets.
+   */
+  private static int skipDoctype(final String text, final int start) {
+    final int bracket = text.indexOf('[', start);
+    final int close = text.indexOf('>', start);
+    if (bracket >= 0 && (close < 0 || bracket < close)) {
+      return skipPast(text, bracket, "]>");
+    }
+    return close < 0 ? text.length() : close + 1;
+  }
+}
@@ -16,6 +16,8 @@
 package ws.sosna.pinetrail.api.io;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import ws.sosna.pinetrail.utils.error.ExecutionError;
@@ -45,36 +47,29 @@ public enum Formats {
    * Version 2.2.0 of the Keyhole Markup Language, an international standard of the Open Geospatial
    * Consortium, developed by Keyhole Inc and Google.
    */
-  KML_2_2_0;
+  KML_2_2_0,
+  /** Version 1.0 of the compact binary format of Pinetrail, holding trails as they were built. */
+  PINETRAIL_BINARY_1_0;
 
   /**
    * Guess the format of the file stored at the supplied location.
    *
    * <p>This is a helper method so as to be able to call the {@link
-   * Readers#newReader(ws.sosna.pinetrail.api.io.Formats)} method when the format is unknown.
+   * Readers#newReader(ws.sosna.pinetrail.api.io.Formats)} method when the format is unknown. Only
+   * the first few kilobytes of the file are read. When the file is to be read afterwards, {@link
+   * #of(InputStream)} should be preferred, so that the file is opened only once.
    *
    * @param fileLocation the file whose format needs to be guessed
    * @return the format of the file stored at the supplied location
    * @throws ExecutionError if the format cannot be guessed or the file is not found.
    */
   public static Formats of(final Path fileLocation) {
-    try {
-      final String content = new String(Files.readAllBytes(fileLocation));
-      if (content.contains("http://www.topografix.com/GPX/1/1")) {
-        return GPX_1_1;
-      } else if (content.contains("http://www.topografix.com/GPX/1/0")) {
-        return GPX_1_0;
-      } else {
-        throw new ExecutionError(
-            "The file does '"
-                + fileLocation.toAbsolutePath().normalize()
-                + " does not seem to be in "
-                + "one of the supported formats.",
-            null,
-            Markers.IO.getMarker(),
-            Actions.OPEN,
-            StatusCodes.NOT_ACCEPTABLE);
-      }
+    try (InputStream input = Files.newInputStream(fileLocation)) {
+      final byte[] prefix = new byte[FormatSniffer.PREFIX_SIZE];
+      return guess(
+          prefix,
+          readPrefix(input, prefix),
+          "The file '" + fileLocation.toAbsolutePath().normalize() + "'");
     } catch (IOException ex) {
       throw new ExecutionError(
           "Could not find file " + fileLocation.toAbsolutePath().normalize(),
@@ -84,4 +79,79 @@ public enum Formats {
           StatusCodes.NOT_FOUND);
     }
   }
+
+  /**
+   * Guess the format of the document that can be read from the supplied stream.
+   *
+   * <p>The first few kilobytes of the document are read, and the stream is then reset to its
+   * initial position, so that it can be handed to the {@code Reader} processing the document (see
+   * {@link Reader#apply(InputStream, Path)}). The stream must therefore support the {@code mark}
+   * and {@code reset} methods, as a {@code BufferedInputStream} does.
+   *
+   * @param input the stream from which the document can be read
+   * @return the format of the document
+   * @throws ExecutionError if the format cannot be guessed or the stream cannot be read.
+   * @throws IllegalArgumentException if the stream does not support {@code mark} and {@code
+   *     reset}.
+   */
+  public static Formats of(final InputStream input) {
+    if (!input.markSupported()) {
+      throw new IllegalArgumentException("The stream must support mark and reset");
+    }
+    try {
+      final byte[] prefix = new byte[FormatSniffer.PREFIX_SIZE];
+      input.mark(prefix.length);
+      final int length = readPrefix(input, prefix);
+      input.reset();
+      return guess(prefix, length, "The document");
+    } catch (IOException ex) {
+      throw new ExecutionError(
+          "Could not read document",
+          ex,
+          Markers.IO.getMarker(),
+          Actions.OPEN,
+          StatusCodes.INTERNAL_ERROR);
+    }
+  }
+
+  /**
+   * Guess the format of the document held in the supplied buffer (see {@link InputBuffers}).
+   *
+   * <p>Only the first few kilobytes of the document, starting at the position of the buffer, are
+   * considered. Neither the position nor the limit of the buffer are modified, so that it can be
+   * handed to the {@code Reader} processing the document (see {@link Reader#apply(ByteBuffer,
+   * Path)}).
+   *
+   * @param input the buffer holding the document
+   * @return the format of the document
+   * @throws ExecutionError if the format cannot be guessed.
+   */
+  public static Formats of(final ByteBuffer input) {
+    final byte[] prefix = new byte[Math.min(FormatSniffer.PREFIX_SIZE, input.remaining())];
+    input.duplicate().get(prefix);
+    return guess(prefix, prefix.length, "The document");
+  }
+
+  private static Formats guess(final byte[] prefix, final int length, final String source) {
+    final Formats format = FormatSniffer.sniff(prefix, length);
+    if (null == format) {
+      throw new ExecutionError(
+          source + " does not seem to be in one of the supported formats.",
+          null,
+          Markers.IO.getMarker(),
+          Actions.OPEN,
+          StatusCodes.NOT_ACCEPTABLE);
+    }
+    return format;
+  }
+
+  private static int readPrefix(final InputStream input, final byte[] prefix) throws IOException {
+    int length = 0;
+    int read = 0;
+    while (length < prefix.length && read >= 0) {
+      read = input.read(prefix, length, prefix.length - length);
+      length += Math.max(0, read);
+    }
+    return length;
+  }
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.api.io;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * The content of a file, held in a {@code ByteBuffer} (see {@link InputBuffers}).
+ *
+ * <p>The buffer must not be used once the input has been closed, as it may then be handed over to
+ * another file.
+ *
+ * @author Xavier Sosnovsky
+ */
+public final class InputBuffer implements AutoCloseable {
+
+  private final Path location;
+  private final ByteBuffer content;
+  private final ByteBuffer pooled;
+  private boolean closed;
+
+  InputBuffer(final Path location, final ByteBuffer content, final ByteBuffer pooled) {
+    super();
+    this.location = location;
+    this.content = content.asReadOnlyBuffer();
+    this.pooled = pooled;
+  }
+
+  /**
+   * Returns the location of the file.
+   *
+   * @return the location of the file
+   */
+  public Path getLocation() {
+    return location;
+  }
+
+  /**
+   * Returns the content of the file, between the position and the limit of the buffer. The buffer
+   * is read-only.
+   *
+   * @return the content of the file
+   */
+  public ByteBuffer getBuffer() {
+    return content;
+  }
+
+  /**
+   * Whether the file is memory-mapped, rather than read into a pooled buffer.
+   *
+   * @return whether the file is memory-mapped
+   */
+  public boolean isMapped() {
+    return null == pooled;
+  }
+
+  /**
+   * Releases the buffer. Pooled buffers are returned to the pool, and mapped buffers are left to
+   * the garbage collector, which unmaps them.
+   */
+  @Override
+  public void close() {
+    if (!closed) {
+      closed = true;
+      if (null != pooled) {
+        InputBuffers.INSTANCE.release(pooled);
+      }
+    }
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.api.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import ws.sosna.pinetrail.utils.error.ExecutionError;
+import ws.sosna.pinetrail.utils.logging.Actions;
+import ws.sosna.pinetrail.utils.logging.Markers;
+import ws.sosna.pinetrail.utils.logging.StatusCodes;
+
+/**
+ * Utility class that loads files into {@code ByteBuffers}, so that readers can process them without
+ * going through streams (see {@link Reader#apply(ByteBuffer, Path)}).
+ *
+ * <p>The strategy depends on the size of the file:
+ *
+ * <ul>
+ *   <li>Files up to {@value #POOLED_BUFFER_SIZE} bytes are read into direct buffers, taken from a
+ *       pool. Once the file has been processed, the buffer is returned to the pool, so that
+ *       processing thousands of small files does not allocate thousands of buffers;
+ *   <li>Larger files are memory-mapped, so that their content is never copied into the heap.
+ * </ul>
+ *
+ * <p>The pool holds at most two buffers per available processor. Buffers returned to a full pool
+ * are left to the garbage collector.
+ *
+ * @author Xavier Sosnovsky
+ */
+public enum InputBuffers {
+
+  /** Singleton instance of the input buffers. */
+  INSTANCE;
+
+  /** The size of the pooled buffers, i.e. the maximum size of the files that are not mapped. */
+  public static final int POOLED_BUFFER_SIZE = 1 << 20;
+
+  private final BlockingQueue<ByteBuffer> pool;
+
+  InputBuffers() {
+    pool = new ArrayBlockingQueue<>(2 * Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Loads the file stored at the supplied location.
+   *
+   * <p>The returned input must be closed once the file has been processed.
+   *
+   * @param fileLocation the file to be loaded
+   * @return the content of the file
+   * @throws ExecutionError if the file cannot be read.
+   */
+  public InputBuffer open(final Path fileLocation) {
+    try (FileChannel channel = FileChannel.open(fileLocation, StandardOpenOption.READ)) {
+      final long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new ExecutionError(
+            "The file " + fileLocation.toAbsolutePath().normalize() + " is too large",
+            null,
+            Markers.IO.getMarker(),
+            Actions.OPEN,
+            StatusCodes.NOT_ACCEPTABLE);
+      } else if (size > POOLED_BUFFER_SIZE) {
+        // The mapping remains valid once the channel is closed
+        return new InputBuffer(
+            fileLocation, channel.map(FileChannel.MapMode.READ_ONLY, 0, size), null);
+      }
+      final ByteBuffer buffer = acquire();
+      try {
+        buffer.limit((int) size);
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+          // Keep reading until the buffer is full or the end of the file is reached
+        }
+        buffer.flip();
+      } catch (final IOException e) {
+        release(buffer);
+        throw e;
+      }
+      return new InputBuffer(fileLocation, buffer, buffer);
+    } catch (final IOException e) {
+      throw new ExecutionError(
+          "Could not read file " + fileLocation.toAbsolutePath().normalize(),
+          e,
+          Markers.IO.getMarker(),
+          Actions.OPEN,
+          StatusCodes.NOT_FOUND);
+    }
+  }
+
+  private ByteBuffer acquire() {
+    final ByteBuffer buffer = pool.poll();
+    return null == buffer ? ByteBuffer.allocateDirect(POOLED_BUFFER_SIZE) : buffer;
+  }
+
+  void release(final ByteBuffer buffer) {
+    buffer.clear();
+    pool.offer(buffer);
+  }
+}
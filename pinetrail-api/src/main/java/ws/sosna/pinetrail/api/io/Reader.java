@@ -15,6 +15,8 @@
  */
 package ws.sosna.pinetrail.api.io;
 
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.util.Set;
 import java.util.function.Function;
@@ -53,4 +55,46 @@ public interface Reader extends Function<Path, Set<Trail>> {
    */
   @Override
   Set<Trail> apply(final Path fileLocation);
+
+  /**
+   * Triggers the extraction of information about trails from the supplied stream.
+   *
+   * <p>This allows clients to open a file only once, guessing its format (see {@link
+   * Formats#of(InputStream)}) before handing the same stream to the reader. The stream is not
+   * closed by this method.
+   *
+   * <p>The default implementation ignores the stream and reads the file at the supplied location.
+   * Implementations able to process a stream should override it.
+   *
+   * @param input the stream from which the trail information will be extracted
+   * @param fileLocation the location of the file the stream is read from, used for reporting
+   *     purposes
+   * @return the trails found in the stream
+   * @throws ws.sosna.pinetrail.utils.error.ExecutionError issue preventing the extraction process
+   *     to finish successfully.
+   */
+  default Set<Trail> apply(final InputStream input, final Path fileLocation) {
+    return apply(fileLocation);
+  }
+
+  /**
+   * Triggers the extraction of information about trails from the supplied buffer.
+   *
+   * <p>This allows clients to load a file only once (see {@link InputBuffers}), guessing its format
+   * (see {@link Formats#of(ByteBuffer)}) before handing the same buffer to the reader. The content
+   * is read from the position to the limit of the buffer, which are not modified.
+   *
+   * <p>The default implementation ignores the buffer and reads the file at the supplied location.
+   * Implementations able to process a buffer should override it.
+   *
+   * @param input the buffer from which the trail information will be extracted
+   * @param fileLocation the location of the file the buffer has been loaded from, used for
+   *     reporting purposes
+   * @return the trails found in the buffer
+   * @throws ws.sosna.pinetrail.utils.error.ExecutionError issue preventing the extraction process
+   *     to finish successfully.
+   */
+  default Set<Trail> apply(final ByteBuffer input, final Path fileLocation) {
+    return apply(fileLocation);
+  }
 }
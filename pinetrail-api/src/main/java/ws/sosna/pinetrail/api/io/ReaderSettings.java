@@ -48,4 +48,17 @@ public interface ReaderSettings {
    * @return whether the trail crosses country borders
    */
   boolean crossBorder();
+
+  /**
+   * How long, in milliseconds, the points of a trail may wait for the points of other trails, so
+   * that they are sent to a remote elevation source in the same requests.
+   *
+   * <p>This is worth it when several files are read at the same time. A negative value means that
+   * the {@code elevationBatchDelay} user setting applies.
+   *
+   * <p>Defaults to -1.
+   *
+   * @return the delay, in milliseconds
+   */
+  long elevationBatchDelay();
 }
@@ -31,6 +31,7 @@ public final class ReaderSettingsBuilder {
 
   private boolean groupSubTrails;
   private boolean crossBorder;
+  private long elevationBatchDelay = -1;
 
   private static final Logger LOGGER = LoggerFactory.getLogger(ReaderSettings.class);
 
@@ -74,24 +75,44 @@ public final class ReaderSettingsBuilder {
     return this;
   }
 
+  /**
+   * How long, in milliseconds, the points of a trail may wait for the points of other trails, so
+   * that they are sent to a remote elevation source in the same requests.
+   *
+   * <p>This applies to the trails read with these settings only. A negative value means that the
+   * {@code elevationBatchDelay} user setting applies.
+   *
+   * <p>Defaults to -1.
+   *
+   * @param elevationBatchDelay the delay, in milliseconds
+   * @return the builder with an updated value for elevationBatchDelay.
+   */
+  public ReaderSettingsBuilder elevationBatchDelay(final long elevationBatchDelay) {
+    this.elevationBatchDelay = elevationBatchDelay;
+    return this;
+  }
+
   /**
    * Builds a new immutable instance of the {@code ReaderWork} interface.
    *
    * @return a new immutable instance of the ReaderWork interface
    */
   public ReaderSettings build() {
-    return new ReaderWorkImpl(groupSubTrails, crossBorder);
+    return new ReaderWorkImpl(groupSubTrails, crossBorder, elevationBatchDelay);
   }
 
   private static final class ReaderWorkImpl implements ReaderSettings {
 
     private final boolean groupSubTrails;
     private final boolean crossBorder;
+    private final long elevationBatchDelay;
 
-    ReaderWorkImpl(final boolean groupSubTrails, final boolean crossBorder) {
+    ReaderWorkImpl(
+        final boolean groupSubTrails, final boolean crossBorder, final long elevationBatchDelay) {
       super();
       this.groupSubTrails = groupSubTrails;
       this.crossBorder = crossBorder;
+      this.elevationBatchDelay = elevationBatchDelay;
       LOGGER.debug(
           Markers.IO.getMarker(),
           "{} | {} | Built a new " + "ReaderWork. Group subtrails: {}. Cross-borders: {}",
@@ -113,6 +134,12 @@ public final class ReaderSettingsBuilder {
       return crossBorder;
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public long elevationBatchDelay() {
+      return elevationBatchDelay;
+    }
+
     @Override
     public String toString() {
       return "ReaderWorkImpl{groupSubTrails=" + groupSubTrails + "crossBorder=" + crossBorder + '}';
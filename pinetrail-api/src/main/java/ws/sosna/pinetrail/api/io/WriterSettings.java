@@ -60,4 +60,14 @@ public interface WriterSettings {
    * @return whether the trail should contain time information
    */
   boolean writeRoute();
+
+  /**
+   * The tolerance, in metres, used to simplify the trail before writing it. Points are left out as
+   * long as none of them lies further than the tolerance from the written path, which greatly
+   * reduces the size of trails meant to be shared or displayed on a map. Defaults to 0, i.e. all
+   * points are written.
+   *
+   * @return the simplification tolerance in metres, or 0 if the trail should not be simplified
+   */
+  double simplificationTolerance();
 }
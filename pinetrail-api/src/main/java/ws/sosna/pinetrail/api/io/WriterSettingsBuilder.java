@@ -27,6 +27,7 @@ public final class WriterSettingsBuilder {
   private boolean writeOutliers;
   private boolean writeIdlePoints;
   private boolean writeRoute;
+  private double simplificationTolerance;
 
   /** Instantiates a new WriterSettingsBuilder. */
   public WriterSettingsBuilder() {
@@ -36,6 +37,7 @@ public final class WriterSettingsBuilder {
     writeOutliers = false;
     writeIdlePoints = false;
     writeRoute = false;
+    simplificationTolerance = 0;
   }
 
   /**
@@ -94,6 +96,18 @@ public final class WriterSettingsBuilder {
     return this;
   }
 
+  /**
+   * Returns the builder, with the simplification tolerance set.
+   *
+   * @param meters the maximum distance, in metres, between the points left out and the written
+   *     path. Use 0 to write all points.
+   * @return the builder with the updated simplification tolerance
+   */
+  public WriterSettingsBuilder simplificationTolerance(final double meters) {
+    simplificationTolerance = meters;
+    return this;
+  }
+
   /**
    * Builds an immutable implementation of the WriterSettings interface.
    *
@@ -101,7 +115,12 @@ public final class WriterSettingsBuilder {
    */
   public WriterSettings build() {
     return new WriterSettingsImpl(
-        prettyPrinting, overwriteIfExists, writeOutliers, writeIdlePoints, writeRoute);
+        prettyPrinting,
+        overwriteIfExists,
+        writeOutliers,
+        writeIdlePoints,
+        writeRoute,
+        simplificationTolerance);
   }
 
   private static final class WriterSettingsImpl implements WriterSettings {
@@ -111,19 +130,22 @@ public final class WriterSettingsBuilder {
     private final boolean writeOutliers;
     private final boolean writeIdlePoints;
     private final boolean writeRoute;
+    private final double simplificationTolerance;
 
     WriterSettingsImpl(
         final boolean pretty,
         final boolean overwrite,
         final boolean withOutliers,
         final boolean withInactive,
-        final boolean asRoute) {
+        final boolean asRoute,
+        final double tolerance) {
       super();
       prettyPrinting = pretty;
       overwriteIfExists = overwrite;
       writeIdlePoints = withInactive;
       writeOutliers = withOutliers;
       writeRoute = asRoute;
+      simplificationTolerance = tolerance;
     }
 
     /** {@inheritDoc} */
@@ -155,5 +177,11 @@ public final class WriterSettingsBuilder {
     public boolean writeRoute() {
       return writeRoute;
     }
+
+    /** {@inheritDoc} */
+    @Override
+    public double simplificationTolerance() {
+      return simplificationTolerance;
+    }
   }
 }
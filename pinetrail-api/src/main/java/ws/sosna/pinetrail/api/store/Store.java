@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.api.store;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import ws.sosna.pinetrail.model.Trail;
+
+/**
+ * Contract for services persisting trails.
+ *
+ * <p>A store keeps the trails as they have been built, i.e. including the elevation data, the
+ * countries and the statistics, so that they can be loaded again without processing the original
+ * files a second time. Each trail is stored under an identifier chosen by the client, and the store
+ * keeps an index of the time range and of the bounding box of the trails (see {@link TrailEntry}),
+ * as well as a spatial index of their paths.
+ *
+ * <p>Implementers of this interface are expected to be safe for use by multiple threads, and to
+ * report any issue preventing their process to complete successfully using an {@code
+ * ExecutionError}.
+ *
+ * @author Xavier Sosnovsky
+ * @see ws.sosna.pinetrail.model.Trail
+ * @see ws.sosna.pinetrail.utils.error.ExecutionError
+ */
+public interface Store extends AutoCloseable {
+
+  /**
+   * Stores the supplied trail, replacing the trail stored under the same identifier, if any.
+   *
+   * @param id the identifier of the trail
+   * @param trail the trail to be stored
+   * @return the index entry of the stored trail
+   * @throws ws.sosna.pinetrail.utils.error.ExecutionError issue preventing the trail to be stored.
+   */
+  TrailEntry put(final String id, final Trail trail);
+
+  /**
+   * Loads the trail stored under the supplied identifier.
+   *
+   * @param id the identifier of the trail
+   * @return the trail stored under the supplied identifier, or null if there is no such trail
+   * @throws ws.sosna.pinetrail.utils.error.ExecutionError issue preventing the trail to be loaded.
+   */
+  Trail get(final String id);
+
+  /**
+   * Returns the index entry of the trail stored under the supplied identifier.
+   *
+   * @param id the identifier of the trail
+   * @return the index entry of the trail, or null if there is no such trail
+   */
+  TrailEntry getEntry(final String id);
+
+  /**
+   * Returns the index entries of all the trails in the store.
+   *
+   * @return the index entries of all the trails in the store
+   */
+  Collection<TrailEntry> getEntries();
+
+  /**
+   * Returns the index entries of the trails recorded, at least partly, within the supplied period.
+   *
+   * @param from the start of the period (inclusive)
+   * @param to the end of the period (inclusive)
+   * @return the index entries of the trails overlapping the period, sorted by start time
+   */
+  List<TrailEntry> findByTime(final Instant from, final Instant to);
+
+  /**
+   * Returns the index entries of the trails passing through the supplied area, i.e. of the trails
+   * with at least one point or segment within the area.
+   *
+   * @param minLatitude the southern limit of the area
+   * @param minLongitude the western limit of the area
+   * @param maxLatitude the northern limit of the area
+   * @param maxLongitude the eastern limit of the area
+   * @return the index entries of the trails passing through the area, sorted by start time
+   */
+  List<TrailEntry> findByArea(
+      final double minLatitude,
+      final double minLongitude,
+      final double maxLatitude,
+      final double maxLongitude);
+
+  /**
+   * Returns the index entries of the trails passing within the supplied distance of the supplied
+   * point.
+   *
+   * @param latitude the latitude of the point
+   * @param longitude the longitude of the point
+   * @param radius the distance, in meters
+   * @return the index entries of the trails passing near the point, from the closest to the
+   *     farthest
+   */
+  List<TrailEntry> findNear(final double latitude, final double longitude, final double radius);
+
+  /**
+   * Returns the index entries of the trails passing closest to the supplied point.
+   *
+   * @param latitude the latitude of the point
+   * @param longitude the longitude of the point
+   * @param count the maximum number of trails to be returned
+   * @return the index entries of the closest trails, from the closest to the farthest
+   */
+  List<TrailEntry> findNearest(final double latitude, final double longitude, final int count);
+
+  /**
+   * Flushes the pending changes and releases the resources held by the store.
+   *
+   * @throws ws.sosna.pinetrail.utils.error.ExecutionError issue preventing the store to be closed.
+   */
+  @Override
+  void close();
+}
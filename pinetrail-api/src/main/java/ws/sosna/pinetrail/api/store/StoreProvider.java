@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.api.store;
+
+import java.nio.file.Path;
+
+/**
+ * Contract for providers of {@code Store}s.
+ *
+ * <p>This is the service provider interface (SPI), introduced with Java SE 6. Implementations
+ * should register themselves, by placing a text file called
+ * ws.sosna.pinetrail.api.store.StoreProvider below META-INF/services. See Java Service Provider
+ * implementations (SPI) for additional information.
+ *
+ * @author Xavier Sosnovsky
+ */
+public interface StoreProvider {
+
+  /**
+   * Opens the store at the supplied location if the location is supported, returns null otherwise.
+   *
+   * @param location the location of the store
+   * @return the store at the supplied location, or null if the location is not supported by the
+   *     provider
+   * @throws ws.sosna.pinetrail.utils.error.ExecutionError issue preventing the store to be opened.
+   */
+  Store newStore(final Path location);
+}
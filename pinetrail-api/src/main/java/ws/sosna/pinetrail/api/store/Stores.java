@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.api.store;
+
+import java.nio.file.Path;
+import java.util.ServiceLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ws.sosna.pinetrail.utils.logging.Actions;
+import ws.sosna.pinetrail.utils.logging.Markers;
+import ws.sosna.pinetrail.utils.logging.StatusCodes;
+
+/**
+ * Utility class that opens stores of trails.
+ *
+ * <p>In the background, this class uses a ServiceLoader to find the {@code StoreProviders} that
+ * will be used to open the {@code Stores} returned to the client. The first provider supporting the
+ * supplied location is used.
+ *
+ * @author Xavier Sosnovsky
+ */
+public enum Stores {
+
+  /** Singleton instance of Pinetrail stores. */
+  INSTANCE;
+
+  private final Logger LOGGER = LoggerFactory.getLogger(Stores.class);
+  private final ServiceLoader<StoreProvider> loader;
+
+  Stores() {
+    LOGGER.info(
+        Markers.CONFIG.getMarker(),
+        "{} | {} | Created a registry " + "for accessing store services.",
+        Actions.CREATE,
+        StatusCodes.OK.getCode());
+    loader = ServiceLoader.load(StoreProvider.class);
+  }
+
+  /**
+   * Opens the store at the supplied location.
+   *
+   * @param location the location of the store
+   * @return the store at the supplied location
+   * @throws UnsupportedOperationException if there is no provider supporting the supplied location
+   * @throws ws.sosna.pinetrail.utils.error.ExecutionError issue preventing the store to be opened.
+   */
+  public Store newStore(final Path location) {
+    synchronized (loader) {
+      for (final StoreProvider provider : loader) {
+        final Store store = provider.newStore(location);
+        if (null != store) {
+          LOGGER.debug(
+              Markers.DB.getMarker(),
+              "{} | {} | Opened store {} ({}).",
+              Actions.GET,
+              StatusCodes.OK.getCode(),
+              location,
+              provider.getClass().getCanonicalName());
+          return store;
+        }
+      }
+    }
+    LOGGER.warn(
+        Markers.DB.getMarker(),
+        "{} | {} | Could not find a store for {}.",
+        Actions.GET,
+        StatusCodes.NOT_FOUND.getCode(),
+        location);
+    throw new UnsupportedOperationException("Could not find a store for " + location);
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.api.store;
+
+import java.time.Instant;
+
+/**
+ * The information kept about a trail in the index of a {@code Store}.
+ *
+ * <p>Entries allow to select the trails to be loaded (see {@link Store#get(String)}) by time range
+ * or by area, without loading the trails themselves.
+ *
+ * @author Xavier Sosnovsky
+ */
+public interface TrailEntry {
+
+  /**
+   * Returns the identifier under which the trail has been stored.
+   *
+   * @return the identifier of the trail
+   */
+  String getId();
+
+  /**
+   * Returns the time of the first point of the trail.
+   *
+   * @return the time of the first point of the trail
+   */
+  Instant getStart();
+
+  /**
+   * Returns the time of the last point of the trail.
+   *
+   * @return the time of the last point of the trail
+   */
+  Instant getEnd();
+
+  /**
+   * Returns the southernmost latitude of the points of the trail.
+   *
+   * @return the southernmost latitude of the points of the trail
+   */
+  double getMinLatitude();
+
+  /**
+   * Returns the northernmost latitude of the points of the trail.
+   *
+   * @return the northernmost latitude of the points of the trail
+   */
+  double getMaxLatitude();
+
+  /**
+   * Returns the westernmost longitude of the points of the trail.
+   *
+   * @return the westernmost longitude of the points of the trail
+   */
+  double getMinLongitude();
+
+  /**
+   * Returns the easternmost longitude of the points of the trail.
+   *
+   * @return the easternmost longitude of the points of the trail
+   */
+  double getMaxLongitude();
+
+  /**
+   * Returns the number of points of the trail.
+   *
+   * @return the number of points of the trail
+   */
+  int getSize();
+}
@@ -15,7 +15,14 @@
  */
 package ws.sosna.pinetrail.api.io;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 import org.junit.Test;
@@ -62,4 +69,86 @@ public class FormatsTest {
       }
     }
   }
+
+  @Test
+  public void sniffStream() throws IOException {
+    try (InputStream input =
+        new BufferedInputStream(
+            Files.newInputStream(
+                FileSystems.getDefault().getPath(".", "src/test/resources/gpx1_1.gpx")))) {
+      assertEquals(Formats.GPX_1_1, Formats.of(input));
+      // The sniffed bytes are still available to the reader
+      final byte[] start = new byte[5];
+      assertEquals(5, input.read(start));
+      assertEquals("<?xml", new String(start, StandardCharsets.US_ASCII));
+    }
+  }
+
+  @Test
+  public void sniffPrologAndNamespaces() {
+    assertEquals(
+        Formats.GPX_1_0,
+        sniff(
+            "\uFEFF<?xml version=\"1.0\"?>\n<!-- A comment with <gpx> -->"
+                + "<!DOCTYPE gpx [<!ENTITY x \"y\">]><?pi data?>\n"
+                + "<gpx version=\"1.0\" creator=\"test\">"));
+    assertEquals(
+        Formats.GPX_1_1,
+        sniff("<g:gpx xmlns:g='http://www.topografix.com/GPX/1/1' version='1.0'/>"));
+    assertEquals(
+        Formats.KML_2_2_0, sniff("<kml xmlns=\"http://www.opengis.net/kml/2.2\"><Document>"));
+    assertEquals(
+        Formats.KML_2_1_0, sniff("<kml xmlns=\"http://earth.google.com/kml/2.1\"><Document>"));
+    assertEquals(
+        Formats.GEOJSON_1_0, sniff("  {\"type\": \"FeatureCollection\", \"features\": []}"));
+  }
+
+  @Test
+  public void sniffUtf16() {
+    final byte[] bytes =
+        "\uFEFF<gpx xmlns=\"http://www.topografix.com/GPX/1/0\">"
+            .getBytes(StandardCharsets.UTF_16BE);
+    assertEquals(
+        Formats.GPX_1_0,
+        Formats.of(new BufferedInputStream(new ByteArrayInputStream(bytes))));
+  }
+
+  @Test
+  public void sniffBinary() {
+    final byte[] bytes = {'P', 'T', 'R', 'L', 1, 0, 0, 0, 0};
+    assertEquals(Formats.PINETRAIL_BINARY_1_0, Formats.of(ByteBuffer.wrap(bytes)));
+    assertEquals(
+        Formats.PINETRAIL_BINARY_1_0,
+        Formats.of(new BufferedInputStream(new ByteArrayInputStream(bytes))));
+  }
+
+  @Test
+  public void sniffUnknown() {
+    final String[] contents = {
+      "", "<html><body/></html>", "<gpx>", "<kml>", "not xml", "<!-- <gpx", "PTRL"
+    };
+    for (final String content : contents) {
+      try {
+        sniff(content);
+        fail("Expected 406 for " + content);
+      } catch (final ExecutionError e) {
+        assertEquals(StatusCodes.NOT_ACCEPTABLE, e.getErrorCode());
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void markNotSupported() throws IOException {
+    try (InputStream input =
+        Files.newInputStream(
+            FileSystems.getDefault().getPath(".", "src/test/resources/gpx1_1.gpx"))) {
+      Formats.of(input);
+    }
+  }
+
+  private Formats sniff(final String content) {
+    return Formats.of(
+        new BufferedInputStream(
+            new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8))));
+  }
 }
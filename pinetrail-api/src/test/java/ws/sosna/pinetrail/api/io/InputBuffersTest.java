@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.api.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ws.sosna.pinetrail.utils.error.ExecutionError;
+import ws.sosna.pinetrail.utils.logging.StatusCodes;
+
+/** @author Xavier Sosnovsky */
+public class InputBuffersTest {
+
+  private Path file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = Files.createTempFile("pinetrail-input", ".gpx");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(file);
+  }
+
+  @Test
+  public void smallFile() throws IOException {
+    final byte[] content = "<gpx version=\"1.1\"/>".getBytes(StandardCharsets.UTF_8);
+    Files.write(file, content);
+    try (InputBuffer input = InputBuffers.INSTANCE.open(file)) {
+      assertFalse(input.isMapped());
+      assertEquals(file, input.getLocation());
+      assertTrue(input.getBuffer().isReadOnly());
+      assertEquals(content.length, input.getBuffer().remaining());
+      assertEquals(Formats.GPX_1_1, Formats.of(input.getBuffer()));
+      assertEquals(content.length, input.getBuffer().remaining());
+      final byte[] read = new byte[content.length];
+      input.getBuffer().get(read);
+      assertTrue(Arrays.equals(content, read));
+    }
+  }
+
+  @Test
+  public void reusedBuffers() throws IOException {
+    Files.write(file, "first file, a bit longer".getBytes(StandardCharsets.UTF_8));
+    InputBuffers.INSTANCE.open(file).close();
+    Files.write(file, "second".getBytes(StandardCharsets.UTF_8));
+    try (InputBuffer input = InputBuffers.INSTANCE.open(file)) {
+      final byte[] read = new byte[input.getBuffer().remaining()];
+      input.getBuffer().get(read);
+      assertEquals("second", new String(read, StandardCharsets.UTF_8));
+    }
+  }
+
+  @Test
+  public void largeFile() throws IOException {
+    final byte[] content = new byte[InputBuffers.POOLED_BUFFER_SIZE + 1];
+    Arrays.fill(content, (byte) 'x');
+    content[content.length - 1] = 'y';
+    Files.write(file, content);
+    try (InputBuffer input = InputBuffers.INSTANCE.open(file)) {
+      assertTrue(input.isMapped());
+      final ByteBuffer buffer = input.getBuffer();
+      assertEquals(content.length, buffer.remaining());
+      assertEquals('x', buffer.get(0));
+      assertEquals('y', buffer.get(content.length - 1));
+    }
+  }
+
+  @Test
+  public void emptyFile() {
+    try (InputBuffer input = InputBuffers.INSTANCE.open(file)) {
+      assertEquals(0, input.getBuffer().remaining());
+    }
+  }
+
+  @Test
+  public void fileNotFound() throws IOException {
+    Files.delete(file);
+    try {
+      InputBuffers.INSTANCE.open(file);
+      fail("Expected 404");
+    } catch (final ExecutionError e) {
+      assertEquals(StatusCodes.NOT_FOUND, e.getErrorCode());
+    }
+  }
+}
@@ -85,4 +85,17 @@ public class WriterSettingsBuilderTest {
     instance.writeRoute(true);
     assertTrue(instance.build().writeRoute());
   }
+
+  @Test
+  public void simplificationToleranceDefault() {
+    final WriterSettingsBuilder instance = new WriterSettingsBuilder();
+    assertEquals(0, instance.build().simplificationTolerance(), 0);
+  }
+
+  @Test
+  public void simplificationTolerance() {
+    final WriterSettingsBuilder instance = new WriterSettingsBuilder();
+    instance.simplificationTolerance(5);
+    assertEquals(5, instance.build().simplificationTolerance(), 0);
+  }
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.api.store;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import ws.sosna.pinetrail.model.Trail;
+
+/** @author Xavier Sosnovsky */
+public class TestStoreProvider implements StoreProvider {
+
+  public TestStoreProvider() {
+    super();
+  }
+
+  @Override
+  public Store newStore(final Path location) {
+    return location.toString().endsWith(".test") ? new TestStore() : null;
+  }
+
+  private static final class TestStore implements Store {
+
+    public TestStore() {
+      super();
+    }
+
+    @Override
+    public TrailEntry put(final String id, final Trail trail) {
+      return null;
+    }
+
+    @Override
+    public Trail get(final String id) {
+      return null;
+    }
+
+    @Override
+    public TrailEntry getEntry(final String id) {
+      return null;
+    }
+
+    @Override
+    public Collection<TrailEntry> getEntries() {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public List<TrailEntry> findByTime(final Instant from, final Instant to) {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public List<TrailEntry> findByArea(
+        final double minLatitude,
+        final double minLongitude,
+        final double maxLatitude,
+        final double maxLongitude) {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public List<TrailEntry> findNear(
+        final double latitude, final double longitude, final double radius) {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public List<TrailEntry> findNearest(
+        final double latitude, final double longitude, final int count) {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public void close() {}
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.bench;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.prefs.Preferences;
+
+/**
+ * Settings shared by the benchmarks.
+ *
+ * <p>Benchmarks must not depend on the network, nor alter the settings and caches of the user
+ * running them. The preferences are therefore held in memory (see {@link
+ * MemoryPreferencesFactory}), and the user settings used by the library are overridden before a
+ * benchmark runs (see {@link #isolate()}):
+ *
+ * <ul>
+ *   <li>Elevation data comes from {@link StubElevationSource}, which is registered using the
+ *       {@code ServiceLoader} mechanism, and the elevation cache is disabled;
+ *   <li>No MapQuest key and no country boundaries are set, so that countries are not guessed;
+ *   <li>Outliers and idle points are removed, as with the default settings.
+ * </ul>
+ *
+ * @author Xavier Sosnovsky
+ */
+public final class BenchSettings {
+
+  private static final String USER_SETTINGS = "ws.sosna.pinetrail.UserSettings";
+  private static final String TRAIL_SETTINGS = "ws.sosna.pinetrail.model.Trail";
+  private static final Map<String, String> OVERRIDES = new LinkedHashMap<>();
+
+  static {
+    OVERRIDES.put(USER_SETTINGS + "/mapQuestKey", "");
+    OVERRIDES.put(USER_SETTINGS + "/elevationTiles", "");
+    OVERRIDES.put(USER_SETTINGS + "/elevationCacheEntries", "0");
+    OVERRIDES.put(USER_SETTINGS + "/elevationBatchDelay", "0");
+    OVERRIDES.put(USER_SETTINGS + "/countryBoundaries", "");
+    OVERRIDES.put(TRAIL_SETTINGS + "/keepOutliers", "false");
+    OVERRIDES.put(TRAIL_SETTINGS + "/keepIdlePoints", "false");
+    OVERRIDES.put(TRAIL_SETTINGS + "/cleanupPasses", "3");
+    OVERRIDES.put(TRAIL_SETTINGS + "/crossBorder", "false");
+  }
+
+  private BenchSettings() {
+    super();
+  }
+
+  /**
+   * Overrides the user settings.
+   *
+   * @throws IllegalStateException if the preferences are not held in memory, i.e. if the
+   *     benchmarks have not been started by the build
+   */
+  public static synchronized void isolate() {
+    if (!MemoryPreferencesFactory.isActive()) {
+      throw new IllegalStateException(
+          "The preferences of the user would be overwritten: run the benchmarks with"
+              + " -Djava.util.prefs.PreferencesFactory="
+              + MemoryPreferencesFactory.class.getName());
+    }
+    for (final Map.Entry<String, String> entry : OVERRIDES.entrySet()) {
+      getNode(entry.getKey()).put(getKey(entry.getKey()), entry.getValue());
+    }
+  }
+
+  /**
+   * Returns the location of one of the GPX files bundled with the tests. The directory containing
+   * the files is set by the build, using the {@code pinetrail.bench.data} system property.
+   *
+   * @param file the name of the file
+   * @return the location of the file
+   */
+  public static Path getDataFile(final String file) {
+    return Paths.get(System.getProperty("pinetrail.bench.data", "src/test/resources"), file);
+  }
+
+  private static Preferences getNode(final String setting) {
+    return Preferences.userRoot().node(setting.substring(0, setting.lastIndexOf('/')));
+  }
+
+  private static String getKey(final String setting) {
+    return setting.substring(setting.lastIndexOf('/') + 1);
+  }
+}
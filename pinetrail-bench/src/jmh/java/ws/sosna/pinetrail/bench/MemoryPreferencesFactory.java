@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.bench;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.prefs.AbstractPreferences;
+import java.util.prefs.Preferences;
+import java.util.prefs.PreferencesFactory;
+
+/**
+ * Supplies preferences held in memory, lost when the process ends.
+ *
+ * <p>The build registers this factory in the processes running the benchmarks, using the {@code
+ * java.util.prefs.PreferencesFactory} system property, so that the settings overridden by {@code
+ * BenchSettings} never reach the preferences of the user running them.
+ *
+ * @author Xavier Sosnovsky
+ */
+public final class MemoryPreferencesFactory implements PreferencesFactory {
+
+  private static final Preferences USER_ROOT = new MemoryPreferences(null, "");
+  private static final Preferences SYSTEM_ROOT = new MemoryPreferences(null, "");
+
+  /** Creates a new factory. */
+  public MemoryPreferencesFactory() {
+    super();
+  }
+
+  /**
+   * Whether the preferences supplied by the {@code Preferences} class are the ones of this factory.
+   *
+   * @return whether the preferences are held in memory
+   */
+  static boolean isActive() {
+    return USER_ROOT == Preferences.userRoot();
+  }
+
+  @Override
+  public Preferences userRoot() {
+    return USER_ROOT;
+  }
+
+  @Override
+  public Preferences systemRoot() {
+    return SYSTEM_ROOT;
+  }
+
+  /*
+   * AbstractPreferences takes care of the locking and of the cache of child nodes: only the values
+   * need to be kept.
+   */
+  private static final class MemoryPreferences extends AbstractPreferences {
+
+    private final Map<String, String> values = new LinkedHashMap<>();
+
+    MemoryPreferences(final MemoryPreferences parent, final String name) {
+      super(parent, name);
+    }
+
+    @Override
+    protected void putSpi(final String key, final String value) {
+      values.put(key, value);
+    }
+
+    @Override
+    protected String getSpi(final String key) {
+      return values.get(key);
+    }
+
+    @Override
+    protected void removeSpi(final String key) {
+      values.remove(key);
+    }
+
+    @Override
+    protected void removeNodeSpi() {
+      values.clear();
+    }
+
+    @Override
+    protected String[] keysSpi() {
+      return values.keySet().toArray(new String[0]);
+    }
+
+    @Override
+    protected String[] childrenNamesSpi() {
+      return new String[0];
+    }
+
+    @Override
+    protected AbstractPreferences childSpi(final String name) {
+      return new MemoryPreferences(this, name);
+    }
+
+    @Override
+    protected void syncSpi() {
+      // Nothing to be read from a backing store
+    }
+
+    @Override
+    protected void flushSpi() {
+      // Nothing to be written to a backing store
+    }
+  }
+}
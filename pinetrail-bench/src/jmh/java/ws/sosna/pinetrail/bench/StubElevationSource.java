@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.bench;
+
+import ws.sosna.pinetrail.model.ElevationSource;
+import ws.sosna.pinetrail.model.WaypointColumns;
+
+/**
+ * Elevation source returning the elevations recorded in the trail, without any delay.
+ *
+ * <p>It replaces the remote services during benchmarks, so that the measurements include the
+ * handling of elevation data, but not the network.
+ *
+ * @author Xavier Sosnovsky
+ */
+public final class StubElevationSource implements ElevationSource {
+
+  /** Creates a new source. */
+  public StubElevationSource() {
+    super();
+  }
+
+  @Override
+  public double[] getElevations(final WaypointColumns points, final int from, final int to) {
+    final double[] elevations = new double[to - from];
+    for (int i = from; i < to; i++) {
+      elevations[i - from] = points.getElevation(i);
+    }
+    return elevations;
+  }
+
+  @Override
+  public String getName() {
+    return "Stub";
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.bench;
+
+import java.util.Random;
+import ws.sosna.pinetrail.model.WaypointColumns;
+import ws.sosna.pinetrail.model.WaypointColumnsBuilder;
+
+/**
+ * Generates synthetic trails of any size.
+ *
+ * <p>The points are recorded every second, by someone walking at about 4.5 km/h, with a few idle
+ * periods and, from time to time, an elevation reading way off the mark (i.e. an outlier). The
+ * same seed always produces the same trail.
+ *
+ * @author Xavier Sosnovsky
+ */
+public final class SyntheticTrails {
+
+  private static final long START = 1400401532L;
+  private static final double METERS_PER_DEGREE = 111_320;
+  private static final int OUTLIER_INTERVAL = 500;
+  private static final int IDLE_INTERVAL = 1800;
+  private static final int IDLE_DURATION = 120;
+
+  private SyntheticTrails() {
+    super();
+  }
+
+  /**
+   * Returns the columns holding a new synthetic trail.
+   *
+   * @param size the number of points
+   * @param seed the seed of the random generator
+   * @return the columns holding the points
+   */
+  public static WaypointColumns newTrail(final int size, final long seed) {
+    final Random random = new Random(seed);
+    final WaypointColumnsBuilder builder = new WaypointColumnsBuilder(size).validate(false);
+    double latitude = 50.1181208342;
+    double longitude = 7.9630853701;
+    double elevation = 214;
+    double heading = random.nextDouble() * 2 * Math.PI;
+    for (int i = 0; i < size; i++) {
+      if (i % IDLE_INTERVAL >= IDLE_DURATION) {
+        heading += random.nextGaussian() * 0.1;
+        final double step = 1.25 + random.nextGaussian() * 0.2;
+        latitude += step * Math.cos(heading) / METERS_PER_DEGREE;
+        longitude +=
+            step * Math.sin(heading) / (METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude)));
+        elevation = Math.max(0, elevation + random.nextGaussian() * 0.3);
+      }
+      final double recorded =
+          0 == (i + 1) % OUTLIER_INTERVAL ? elevation + 300 + random.nextDouble() * 200 : elevation;
+      builder.add(START + i, 0, longitude, latitude, recorded);
+    }
+    return builder.build();
+  }
+}
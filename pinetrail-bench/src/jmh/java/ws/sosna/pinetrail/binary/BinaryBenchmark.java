@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.binary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import ws.sosna.pinetrail.api.io.Formats;
+import ws.sosna.pinetrail.api.io.Reader;
+import ws.sosna.pinetrail.api.io.ReaderSettingsBuilder;
+import ws.sosna.pinetrail.api.io.Readers;
+import ws.sosna.pinetrail.api.io.Writer;
+import ws.sosna.pinetrail.api.io.Writers;
+import ws.sosna.pinetrail.bench.BenchSettings;
+import ws.sosna.pinetrail.model.Trail;
+
+/**
+ * Benchmarks the reading and writing of the trails of the GPX files bundled with the tests, once
+ * converted to the compact binary format. The results can be compared with those of {@code
+ * GpxBenchmark}, run with the same files.
+ *
+ * @author Xavier Sosnovsky
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BinaryBenchmark {
+
+  @Param({"2014-05-18_Wispertal.gpx", "test_bike.gpx", "long_route.gpx"})
+  private String file;
+
+  private Path location;
+  private ByteBuffer content;
+  private Reader reader;
+  private Writer writer;
+  private Trail trail;
+  private Path output;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    BenchSettings.isolate();
+    final Path gpx = BenchSettings.getDataFile(file);
+    final ByteBuffer gpxContent = ByteBuffer.wrap(Files.readAllBytes(gpx));
+    trail =
+        Readers.INSTANCE
+            .newReader(Formats.of(gpxContent.duplicate()))
+            .configure(new ReaderSettingsBuilder().groupSubTrails(true).build())
+            .apply(gpxContent, gpx)
+            .iterator()
+            .next();
+    writer = Writers.INSTANCE.newWriter(Formats.PINETRAIL_BINARY_1_0);
+    reader = Readers.INSTANCE.newReader(Formats.PINETRAIL_BINARY_1_0);
+    location = Files.createTempFile("pinetrail-bench", ".ptb");
+    writer.accept(trail, location);
+    content = ByteBuffer.wrap(Files.readAllBytes(location));
+    output = Files.createTempFile("pinetrail-bench", ".ptb");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(location);
+    Files.deleteIfExists(output);
+  }
+
+  /**
+   * Decodes the trails, without analysing them again.
+   *
+   * @return the trails
+   */
+  @Benchmark
+  public Set<Trail> read() {
+    return reader.apply(content.duplicate(), location);
+  }
+
+  /**
+   * Writes the trail into a temporary file.
+   *
+   * @return the location of the file
+   */
+  @Benchmark
+  public Path write() {
+    writer.accept(trail, output);
+    return output;
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.gpx;
+
+import io.jenetics.jpx.GPX;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import ws.sosna.pinetrail.api.io.Formats;
+import ws.sosna.pinetrail.api.io.Reader;
+import ws.sosna.pinetrail.api.io.ReaderSettingsBuilder;
+import ws.sosna.pinetrail.api.io.Readers;
+import ws.sosna.pinetrail.api.io.Writer;
+import ws.sosna.pinetrail.api.io.WriterSettingsBuilder;
+import ws.sosna.pinetrail.api.io.Writers;
+import ws.sosna.pinetrail.bench.BenchSettings;
+import ws.sosna.pinetrail.model.Trail;
+
+/**
+ * Benchmarks the reading and writing of the GPX files bundled with the tests.
+ *
+ * <p>Files are loaded into memory once, so that the disk is not part of the measurements, except
+ * when writing. Trails are built as usual, i.e. including the correction of elevation data (see
+ * {@code StubElevationSource}), the computation of statistics and the removal of outliers.
+ *
+ * @author Xavier Sosnovsky
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class GpxBenchmark {
+
+  @Param({"2014-05-18_Wispertal.gpx", "test_bike.gpx", "long_route.gpx"})
+  private String file;
+
+  private Path location;
+  private ByteBuffer content;
+  private GPX gpx;
+  private Reader reader;
+  private FromJpx mapper;
+  private Writer writer;
+  private Trail trail;
+  private Path output;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    BenchSettings.isolate();
+    location = BenchSettings.getDataFile(file);
+    content = ByteBuffer.wrap(Files.readAllBytes(location));
+    final Formats format = Formats.of(content.duplicate());
+    gpx =
+        GPX.reader(Formats.GPX_1_0 == format ? GPX.Version.V10 : GPX.Version.V11).read(location);
+    reader =
+        Readers.INSTANCE
+            .newReader(format)
+            .configure(new ReaderSettingsBuilder().groupSubTrails(true).build());
+    mapper = new FromJpx(true);
+    writer =
+        Writers.INSTANCE.newWriter(Formats.GPX_1_1).configure(new WriterSettingsBuilder().build());
+    trail = reader.apply(content.duplicate(), location).iterator().next();
+    output = Files.createTempFile("pinetrail-bench", ".gpx");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(output);
+  }
+
+  /**
+   * Parses the file and builds the trails.
+   *
+   * @return the trails
+   */
+  @Benchmark
+  public Set<Trail> read() {
+    return reader.apply(content.duplicate(), location);
+  }
+
+  /**
+   * Builds the trails out of the JPX object graph, parsed beforehand.
+   *
+   * @return the trails
+   */
+  @Benchmark
+  public Set<Trail> mapToTrails() {
+    return mapper.mapToTrails(gpx);
+  }
+
+  /**
+   * Writes the trail into a temporary file.
+   *
+   * @return the location of the file
+   */
+  @Benchmark
+  public Path write() {
+    writer.accept(trail, output);
+    return output;
+  }
+
+  /**
+   * Guesses the format of the file, out of its first bytes.
+   *
+   * @return the format
+   */
+  @Benchmark
+  public Formats guessFormat() {
+    return Formats.of(content.duplicate());
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import ws.sosna.pinetrail.bench.BenchSettings;
+import ws.sosna.pinetrail.bench.SyntheticTrails;
+
+/**
+ * Benchmarks the analysis of synthetic trails (see {@code SyntheticTrails}) of various sizes.
+ *
+ * @author Xavier Sosnovsky
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ModelBenchmark {
+
+  private static final int CLEANUP_PASSES = 3;
+
+  @Param({"1000", "10000", "100000"})
+  private int size;
+
+  private WaypointColumns points;
+  private WaypointColumns augmented;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    BenchSettings.isolate();
+    points = SyntheticTrails.newTrail(size, 42);
+    augmented = PointsAugmenter.INSTANCE.apply(points);
+  }
+
+  /**
+   * Adds distance, speed, grade, etc. to the points.
+   *
+   * @return the augmented points
+   */
+  @Benchmark
+  public WaypointColumns augment() {
+    return PointsAugmenter.INSTANCE.apply(points);
+  }
+
+  /**
+   * Computes the statistics of the trail.
+   *
+   * @return the statistics
+   */
+  @Benchmark
+  public TrailStatistics statistics() {
+    return StatisticsProvider.INSTANCE.apply(augmented);
+  }
+
+  /**
+   * Removes the outliers, as done when building a trail.
+   *
+   * @return the remaining points
+   */
+  @Benchmark
+  public WaypointColumns removeOutliers() {
+    final TrailCleaner cleaner = new TrailCleaner(augmented);
+    int i = 1;
+    while (i < CLEANUP_PASSES && cleaner.removeOutliers()) {
+      i++;
+    }
+    return cleaner.getPoints();
+  }
+
+  /**
+   * Builds the trail, i.e. corrects the elevations, augments the points, computes the statistics
+   * and removes the outliers.
+   *
+   * @return the trail
+   */
+  @Benchmark
+  public Trail build() {
+    return new TrailBuilder(points).build();
+  }
+}
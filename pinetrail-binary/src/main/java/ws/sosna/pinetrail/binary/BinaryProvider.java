@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.binary;
+
+import ws.sosna.pinetrail.api.io.Formats;
+import ws.sosna.pinetrail.api.io.Reader;
+import ws.sosna.pinetrail.api.io.ReaderProvider;
+import ws.sosna.pinetrail.api.io.Writer;
+import ws.sosna.pinetrail.api.io.WriterProvider;
+
+/**
+ * Provider of services reading/writing from/to files in the compact binary format of Pinetrail.
+ *
+ * @author Xavier Sosnovsky
+ */
+public final class BinaryProvider implements ReaderProvider, WriterProvider {
+
+  /** Creates a new provider of binary readers and writers. */
+  public BinaryProvider() {
+    super();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Reader newReader(final Formats format) {
+    return Formats.PINETRAIL_BINARY_1_0 == format ? new BinaryReader() : null;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Writer newWriter(final Formats format) {
+    return Formats.PINETRAIL_BINARY_1_0 == format ? new BinaryWriter() : null;
+  }
+}
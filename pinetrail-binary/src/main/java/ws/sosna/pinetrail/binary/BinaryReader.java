@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.binary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ws.sosna.pinetrail.api.io.InputBuffer;
+import ws.sosna.pinetrail.api.io.InputBuffers;
+import ws.sosna.pinetrail.api.io.Reader;
+import ws.sosna.pinetrail.api.io.ReaderSettings;
+import ws.sosna.pinetrail.model.Trail;
+import ws.sosna.pinetrail.model.TrailCodec;
+import ws.sosna.pinetrail.utils.error.ExecutionError;
+import ws.sosna.pinetrail.utils.logging.Actions;
+import ws.sosna.pinetrail.utils.logging.Markers;
+import ws.sosna.pinetrail.utils.logging.StatusCodes;
+import ws.sosna.pinetrail.utils.metrics.Counter;
+import ws.sosna.pinetrail.utils.metrics.Metrics;
+import ws.sosna.pinetrail.utils.metrics.Stages;
+
+/**
+ * Reader of files in the compact binary format of Pinetrail (see {@code BinaryWriter}).
+ *
+ * <p>The trails are restored as they were written, without being analysed again. The reader
+ * settings are therefore ignored.
+ *
+ * @author Xavier Sosnovsky
+ */
+final class BinaryReader implements Reader {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(BinaryReader.class);
+  private static final Counter PARSED_BYTES = Metrics.INSTANCE.counter("parsed_bytes");
+  private static final Counter PARSED_POINTS = Metrics.INSTANCE.counter("parsed_points");
+
+  BinaryReader() {
+    super();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Reader configure(final ReaderSettings settings) {
+    return this;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Set<Trail> apply(final Path fileLocation) {
+    try (InputBuffer input = InputBuffers.INSTANCE.open(fileLocation)) {
+      return apply(input.getBuffer(), fileLocation);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Set<Trail> apply(final InputStream input, final Path fileLocation) {
+    try {
+      return apply(ByteBuffer.wrap(input.readAllBytes()), fileLocation);
+    } catch (IOException e) {
+      throw new ExecutionError(
+          "Could not read file", e, Markers.IO.getMarker(), Actions.GET, StatusCodes.SYNTAX_ERROR);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Set<Trail> apply(final ByteBuffer input, final Path fileLocation) {
+    final String location = fileLocation.toAbsolutePath().normalize().toString();
+    final ByteBuffer buffer = input.duplicate().order(ByteOrder.BIG_ENDIAN);
+    try {
+      LOGGER.info(
+          Markers.IO.getMarker(),
+          "{} | {} | {}.",
+          Actions.PARSE,
+          StatusCodes.OK.getCode(),
+          "Started parsing binary file " + location);
+      final long start = System.nanoTime();
+      final int bytes = buffer.remaining();
+      final Set<Trail> trails = parse(buffer);
+      final long elapsed = System.nanoTime() - start;
+      Metrics.INSTANCE.record(Stages.PARSE, elapsed);
+      PARSED_BYTES.add(bytes);
+      for (final Trail trail : trails) {
+        PARSED_POINTS.add(trail.getColumns().size());
+      }
+      LOGGER.info(
+          Markers.PERFORMANCE.getMarker(),
+          "{} | {} | {}",
+          Actions.PARSE,
+          StatusCodes.OK.getCode(),
+          "Processed " + location + " in " + TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms");
+      return trails;
+    } catch (final BufferUnderflowException e) {
+      throw new ExecutionError(
+          "Could not parse file",
+          e,
+          Markers.IO.getMarker(),
+          Actions.PARSE,
+          StatusCodes.SYNTAX_ERROR);
+    } catch (final ExecutionError e) {
+      LOGGER.error(
+          e.getMarker(),
+          "{} | {} | {}.",
+          e.getAction(),
+          e.getErrorCode().getCode(),
+          e.getMessage() + (null == e.getCause() ? "" : ": " + e.getCause().getMessage()));
+      throw e;
+    }
+  }
+
+  private static Set<Trail> parse(final ByteBuffer buffer) {
+    for (final byte b : BinaryWriter.HEADER) {
+      if (b != buffer.get()) {
+        throw new ExecutionError(
+            "Not a binary file of a supported version",
+            null,
+            Markers.IO.getMarker(),
+            Actions.PARSE,
+            StatusCodes.SYNTAX_ERROR);
+      }
+    }
+    final int count = buffer.getInt();
+    final Set<Trail> trails = new LinkedHashSet<>();
+    for (int i = 0; i < count; i++) {
+      final int length = buffer.getInt();
+      if (length < 0 || length > buffer.remaining()) {
+        throw new BufferUnderflowException();
+      }
+      final ByteBuffer body = buffer.slice();
+      body.limit(length);
+      trails.add(TrailCodec.INSTANCE.decode(body));
+      buffer.position(buffer.position() + length);
+    }
+    return trails;
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.binary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ws.sosna.pinetrail.api.io.Writer;
+import ws.sosna.pinetrail.api.io.WriterSettings;
+import ws.sosna.pinetrail.api.io.WriterSettingsBuilder;
+import ws.sosna.pinetrail.model.Trail;
+import ws.sosna.pinetrail.model.TrailCodec;
+import ws.sosna.pinetrail.utils.error.ExecutionError;
+import ws.sosna.pinetrail.utils.logging.Actions;
+import ws.sosna.pinetrail.utils.logging.Markers;
+import ws.sosna.pinetrail.utils.logging.StatusCodes;
+import ws.sosna.pinetrail.utils.metrics.Counter;
+import ws.sosna.pinetrail.utils.metrics.Metrics;
+import ws.sosna.pinetrail.utils.metrics.Stages;
+
+/**
+ * Writes a trail in the compact binary format of Pinetrail.
+ *
+ * <p>A file starts with the magic number {@code PTRL}, followed by the version of the format (one
+ * byte) and the number of trails (4 bytes). Each trail is then stored as its length (4 bytes),
+ * followed by its binary representation (see {@code TrailCodec}).
+ *
+ * <p>The format is meant to archive trails as they were built: the whole trail is always written,
+ * including the outliers and the idle points, so that only the {@code overwriteIfExists} setting
+ * is taken into account.
+ *
+ * @author Xavier Sosnovsky
+ */
+final class BinaryWriter implements Writer {
+
+  /** The first bytes of a file, i.e. the magic number and the version of the format. */
+  static final byte[] HEADER = {'P', 'T', 'R', 'L', 1};
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(BinaryWriter.class);
+  private static final Counter WRITTEN_BYTES = Metrics.INSTANCE.counter("written_bytes");
+  private static final Counter WRITTEN_POINTS = Metrics.INSTANCE.counter("written_points");
+  private WriterSettings settings;
+
+  BinaryWriter() {
+    super();
+    this.settings = new WriterSettingsBuilder().build();
+  }
+
+  @Override
+  public Writer configure(final WriterSettings settings) {
+    this.settings = settings;
+    return this;
+  }
+
+  @Override
+  public void accept(final Trail trail, final Path location) {
+    final String path = location.toAbsolutePath().normalize().toString();
+    try {
+      LOGGER.info(
+          Markers.IO.getMarker(),
+          "{} | {} | {}.",
+          Actions.CREATE,
+          StatusCodes.OK.getCode(),
+          "Started writing binary file " + path);
+      if (!settings.overwriteIfExists() && Files.exists(location)) {
+        throw new ExecutionError(
+            path + " already exists and writer is not allowed to overwrite existing files",
+            null,
+            Markers.IO.getMarker(),
+            Actions.CREATE,
+            StatusCodes.SYNTAX_ERROR);
+      }
+      final long start = System.nanoTime();
+      final byte[] body = TrailCodec.INSTANCE.encode(trail);
+      final ByteBuffer output = ByteBuffer.allocate(HEADER.length + 8 + body.length);
+      output.put(HEADER).putInt(1).putInt(body.length).put(body);
+      Files.write(
+          location,
+          output.array(),
+          StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING,
+          StandardOpenOption.WRITE);
+      WRITTEN_POINTS.add(trail.getColumns().size());
+      WRITTEN_BYTES.add(output.capacity());
+      final long elapsed = System.nanoTime() - start;
+      Metrics.INSTANCE.record(Stages.WRITE, elapsed);
+      LOGGER.info(
+          Markers.PERFORMANCE.getMarker(),
+          "{} | {} | {}.",
+          Actions.CREATE,
+          StatusCodes.OK.getCode(),
+          "Written " + path + " in " + TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms");
+    } catch (final IOException e) {
+      LOGGER.error(
+          Markers.IO.getMarker(),
+          "{} | {} | {}.",
+          Actions.CREATE,
+          StatusCodes.INTERNAL_ERROR.getCode(),
+          e.getMessage());
+      throw new ExecutionError(
+          e.getMessage(), e, Markers.IO.getMarker(), Actions.CREATE, StatusCodes.SYNTAX_ERROR);
+    } catch (final ExecutionError e) {
+      LOGGER.error(
+          e.getMarker(),
+          "{} | {} | {}.",
+          e.getAction(),
+          e.getErrorCode().getCode(),
+          e.getMessage() + (null == e.getCause() ? "" : ": " + e.getCause().getMessage()));
+      throw e;
+    }
+  }
+}
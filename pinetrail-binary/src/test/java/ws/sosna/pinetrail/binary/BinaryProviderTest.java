@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.binary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+import java.util.prefs.Preferences;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import ws.sosna.pinetrail.api.io.Formats;
+import ws.sosna.pinetrail.api.io.Readers;
+import ws.sosna.pinetrail.api.io.WriterSettingsBuilder;
+import ws.sosna.pinetrail.api.io.Writers;
+import ws.sosna.pinetrail.model.Trail;
+import ws.sosna.pinetrail.model.TrailBuilder;
+import ws.sosna.pinetrail.model.WaypointColumnsBuilder;
+import ws.sosna.pinetrail.utils.error.ExecutionError;
+import ws.sosna.pinetrail.utils.logging.StatusCodes;
+
+/** @author Xavier Sosnovsky */
+public class BinaryProviderTest {
+
+  private static final long SECOND = 1400401532L;
+  private static Boolean keepIdlePoints;
+  private Path location;
+
+  @BeforeClass
+  public static void init() {
+    keepIdlePoints =
+        Boolean.valueOf(
+            Preferences.userRoot()
+                .node("ws.sosna.pinetrail.model.Trail")
+                .get("keepIdlePoints", "false"));
+    Preferences.userRoot().node("ws.sosna.pinetrail.model.Trail").put("keepIdlePoints", "true");
+  }
+
+  @AfterClass
+  public static void cleanup() {
+    Preferences.userRoot()
+        .node("ws.sosna.pinetrail.model.Trail")
+        .put("keepIdlePoints", keepIdlePoints.toString());
+  }
+
+  @Before
+  public void setup() throws IOException {
+    location = Files.createTempFile("pinetrail-binary", ".ptb");
+  }
+
+  @After
+  public void delete() throws IOException {
+    Files.deleteIfExists(location);
+  }
+
+  @Test
+  public void wrongFormat() {
+    assertNull(new BinaryProvider().newReader(Formats.GPX_1_1));
+    assertNull(new BinaryProvider().newWriter(Formats.GPX_1_1));
+  }
+
+  @Test
+  public void writeAndRead() throws IOException {
+    final Trail trail = newTrail(100);
+    Writers.INSTANCE.newWriter(Formats.PINETRAIL_BINARY_1_0).accept(trail, location);
+    assertEquals(Formats.PINETRAIL_BINARY_1_0, Formats.of(location));
+    final Set<Trail> trails =
+        Readers.INSTANCE.newReader(Formats.PINETRAIL_BINARY_1_0).apply(location);
+    assertEquals(1, trails.size());
+    final Trail read = trails.iterator().next();
+    assertEquals(trail.getWaypoints(), read.getWaypoints());
+    assertEquals(trail.getCountries(), read.getCountries());
+    assertEquals(trail.getStatistics(), read.getStatistics());
+    try (InputStream input = new BufferedInputStream(Files.newInputStream(location))) {
+      final Formats format = Formats.of(input);
+      assertEquals(
+          trail.getWaypoints(),
+          Readers.INSTANCE
+              .newReader(format)
+              .apply(input, location)
+              .iterator()
+              .next()
+              .getWaypoints());
+    }
+  }
+
+  @Test
+  public void smallerThanGpx() throws IOException {
+    final Trail trail = newRecordedTrail(1000);
+    final Path gpx = Files.createTempFile("pinetrail-binary", ".gpx");
+    try {
+      Writers.INSTANCE.newWriter(Formats.GPX_1_1).accept(trail, gpx);
+      Writers.INSTANCE.newWriter(Formats.PINETRAIL_BINARY_1_0).accept(trail, location);
+      // Approx. 10 times smaller with these points
+      assertTrue(Files.size(location) * 5 < Files.size(gpx));
+    } finally {
+      Files.deleteIfExists(gpx);
+    }
+  }
+
+  @Test
+  public void doNotOverwrite() {
+    try {
+      Writers.INSTANCE
+          .newWriter(Formats.PINETRAIL_BINARY_1_0)
+          .configure(new WriterSettingsBuilder().overwriteIfExists(false).build())
+          .accept(newTrail(10), location);
+      fail("Expected an error as the file already exists");
+    } catch (final ExecutionError e) {
+      assertEquals(StatusCodes.SYNTAX_ERROR, e.getErrorCode());
+    }
+  }
+
+  @Test
+  public void truncatedFile() throws IOException {
+    Writers.INSTANCE.newWriter(Formats.PINETRAIL_BINARY_1_0).accept(newTrail(100), location);
+    final byte[] bytes = Files.readAllBytes(location);
+    Files.write(location, Arrays.copyOf(bytes, bytes.length - 10));
+    try {
+      new BinaryProvider().newReader(Formats.PINETRAIL_BINARY_1_0).apply(location);
+      fail("Expected a syntax error");
+    } catch (final ExecutionError e) {
+      assertEquals(StatusCodes.SYNTAX_ERROR, e.getErrorCode());
+    }
+  }
+
+  private Trail newTrail(final int size) {
+    final WaypointColumnsBuilder builder = new WaypointColumnsBuilder(size);
+    for (int i = 0; i < size; i++) {
+      builder.add(SECOND + i * 5, 0, 7.96, (50_100_000 + i * 100) / 1e6, 200 + i % 7);
+    }
+    return new TrailBuilder(builder.build()).countries(Collections.singleton("DE")).build();
+  }
+
+  /*
+   * Points with irregular times and as many decimal digits as the ones recorded by GPS devices.
+   */
+  private Trail newRecordedTrail(final int size) {
+    final Random random = new Random(42);
+    final WaypointColumnsBuilder builder = new WaypointColumnsBuilder(size);
+    long time = SECOND;
+    double latitude = 50.1;
+    double longitude = 7.96;
+    double elevation = 200;
+    for (int i = 0; i < size; i++) {
+      time += 1 + random.nextInt(5);
+      latitude += random.nextGaussian() / 20_000;
+      longitude += random.nextGaussian() / 20_000;
+      elevation += random.nextGaussian() / 2;
+      builder.add(
+          time,
+          0,
+          Math.round(longitude * 1e10) / 1e10,
+          Math.round(latitude * 1e10) / 1e10,
+          Math.round(elevation * 100) / 100.0);
+    }
+    return new TrailBuilder(builder.build()).countries(Collections.singleton("DE")).build();
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.cli;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ws.sosna.pinetrail.utils.logging.Actions;
+import ws.sosna.pinetrail.utils.logging.Markers;
+import ws.sosna.pinetrail.utils.logging.StatusCodes;
+
+/**
+ * Processes a batch of files in three stages: loading the files, analysing them (i.e. parsing the
+ * file and building the trails, including the retrieval of elevation data and the reverse
+ * geocoding) and writing the results.
+ *
+ * <p>Each stage has its own pool of threads and a bounded number of slots, i.e. of files being
+ * processed or waiting to be processed by the stage. A file is handed over to the next stage once
+ * the current one is done with it: when all the slots of the next stage are taken, the thread
+ * handing the file over waits until one is released. The number of files held in memory is
+ * therefore bounded, and slow writes or slow remote services throttle the loading of new files,
+ * instead of letting them pile up. Loading, analysing and writing overlap across files, without
+ * one kind of work starving the others.
+ *
+ * <p>The remote requests for elevation data are sent by the pool of the elevation source (see
+ * {@code ElevationRequests}), whose limits apply to all the files being analysed.
+ *
+ * <p>A file for which a stage returns {@code null}, or throws an exception, is dropped: the error
+ * is logged, and the other files are processed as usual. Errors (e.g. {@code OutOfMemoryError}) are
+ * not caught, but the file is still accounted for, so that the batch does not wait for it forever.
+ *
+ * @author Xavier Sosnovsky
+ */
+final class BatchExecutor {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(BatchExecutor.class);
+  private final int loadThreads;
+  private final int analysisThreads;
+  private final int writeThreads;
+  private final int queueSize;
+
+  /**
+   * Creates a new executor. Values lower than 1 are replaced by 1 (0 for the queue size).
+   *
+   * @param loadThreads the number of files loaded at the same time
+   * @param analysisThreads the number of files analysed at the same time
+   * @param writeThreads the number of files written at the same time
+   * @param queueSize the number of files waiting for each stage, in addition to those being
+   *     processed
+   */
+  BatchExecutor(
+      final int loadThreads,
+      final int analysisThreads,
+      final int writeThreads,
+      final int queueSize) {
+    super();
+    this.loadThreads = Math.max(1, loadThreads);
+    this.analysisThreads = Math.max(1, analysisThreads);
+    this.writeThreads = Math.max(1, writeThreads);
+    this.queueSize = Math.max(0, queueSize);
+  }
+
+  /**
+   * Processes the supplied files, and waits until they have all been processed.
+   *
+   * @param <L> the type of the loaded files
+   * @param <A> the type of the results of the analysis
+   * @param files the files to be processed
+   * @param load the function loading a file. It may return {@code null} if the file cannot be
+   *     processed.
+   * @param analyse the function analysing a loaded file. It may return {@code null} if there is
+   *     nothing to be written. The function is responsible for releasing the resources held by the
+   *     loaded file.
+   * @param write the function writing the results of the analysis
+   */
+  <L, A> void run(
+      final Collection<Path> files,
+      final Function<Path, L> load,
+      final Function<L, A> analyse,
+      final Consumer<A> write) {
+    final Stage loadStage = new Stage("load", loadThreads, queueSize);
+    final Stage analysisStage = new Stage("analysis", analysisThreads, queueSize);
+    final Stage writeStage = new Stage("write", writeThreads, queueSize);
+    final CountDownLatch done = new CountDownLatch(files.size());
+    final Function<A, Void> writeAll =
+        results -> {
+          write.accept(results);
+          return null;
+        };
+    try {
+      for (final Path file : files) {
+        submit(
+            loadStage,
+            file,
+            file,
+            load,
+            loaded ->
+                submit(
+                    analysisStage,
+                    file,
+                    loaded,
+                    analyse,
+                    results -> submit(writeStage, file, results, writeAll, none -> {}, done),
+                    done),
+            done);
+      }
+      done.await();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOGGER.error(
+          Markers.IO.getMarker(),
+          "{} | {} | {}.",
+          Actions.GET,
+          StatusCodes.INTERNAL_ERROR.getCode(),
+          "Interrupted while processing files");
+    } finally {
+      loadStage.shutdown();
+      analysisStage.shutdown();
+      writeStage.shutdown();
+    }
+  }
+
+  /*
+   * Hands the item over to the stage, waiting for a free slot. The slot is released once the item
+   * has been handed over to the next stage, so that a full stage holds back the previous one.
+   */
+  private static <T, R> void submit(
+      final Stage stage,
+      final Path file,
+      final T item,
+      final Function<T, R> task,
+      final Consumer<R> next,
+      final CountDownLatch done) {
+    try {
+      stage.submit(
+          () -> {
+            // Until the file has been handed over, this stage is responsible for counting it
+            boolean handedOver = false;
+            try {
+              final R result = task.apply(item);
+              if (null != result) {
+                next.accept(result);
+                handedOver = true;
+              }
+            } catch (final RuntimeException e) {
+              LOGGER.error(
+                  Markers.IO.getMarker(),
+                  "{} | {} | {}.",
+                  Actions.GET,
+                  StatusCodes.INTERNAL_ERROR.getCode(),
+                  "Could not process " + file + " (" + stage.name + "): " + e.getMessage());
+            } finally {
+              if (!handedOver) {
+                done.countDown();
+              }
+            }
+          });
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      done.countDown();
+    }
+  }
+
+  private static final class Stage {
+
+    private final String name;
+    private final ExecutorService executor;
+    private final Semaphore slots;
+
+    Stage(final String name, final int threads, final int queueSize) {
+      super();
+      this.name = name;
+      final AtomicInteger counter = new AtomicInteger();
+      executor =
+          Executors.newFixedThreadPool(
+              threads,
+              r -> {
+                final Thread thread =
+                    new Thread(r, "pinetrail-" + name + "-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+              });
+      slots = new Semaphore(threads + queueSize);
+    }
+
+    void submit(final Runnable task) throws InterruptedException {
+      slots.acquire();
+      try {
+        executor.execute(
+            () -> {
+              try {
+                task.run();
+              } finally {
+                slots.release();
+              }
+            });
+      } catch (final RejectedExecutionException e) {
+        slots.release();
+        throw e;
+      }
+    }
+
+    void shutdown() {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -16,9 +16,12 @@
 package ws.sosna.pinetrail.cli;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.prefs.Preferences;
@@ -27,6 +30,8 @@ import org.kohsuke.args4j.Option;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ws.sosna.pinetrail.api.io.Formats;
+import ws.sosna.pinetrail.api.io.InputBuffer;
+import ws.sosna.pinetrail.api.io.InputBuffers;
 import ws.sosna.pinetrail.api.io.Reader;
 import ws.sosna.pinetrail.api.io.ReaderSettings;
 import ws.sosna.pinetrail.api.io.ReaderSettingsBuilder;
@@ -35,15 +40,20 @@ import ws.sosna.pinetrail.api.io.Writer;
 import ws.sosna.pinetrail.api.io.WriterSettings;
 import ws.sosna.pinetrail.api.io.WriterSettingsBuilder;
 import ws.sosna.pinetrail.api.io.Writers;
+import ws.sosna.pinetrail.api.store.Store;
+import ws.sosna.pinetrail.api.store.Stores;
 import ws.sosna.pinetrail.model.Trail;
+import ws.sosna.pinetrail.utils.error.ExecutionError;
 import ws.sosna.pinetrail.utils.logging.Actions;
 import ws.sosna.pinetrail.utils.logging.Markers;
 import ws.sosna.pinetrail.utils.logging.StatusCodes;
+import ws.sosna.pinetrail.utils.metrics.Metrics;
 
 /** @author Xavier Sosnovsky */
 final class Cleaner implements Runnable {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(Pinalyzr.class);
+  private static final String BINARY_EXTENSION = "ptb";
 
   private String inputFile;
 
@@ -56,7 +66,19 @@ final class Cleaner implements Runnable {
   private boolean prettyPrinting = false;
   private boolean groupSubTrails = false;
   private boolean writeRoute = false;
+  private boolean writeBinary = false;
+  private double simplificationTolerance = 0;
   private boolean crossBorder = false;
+  private int loadThreads = 2;
+  private int analysisThreads = Runtime.getRuntime().availableProcessors();
+  private int writeThreads = 2;
+  private int queueSize = 4;
+  private long elevationBatchDelay = 250;
+  private long batchDelay;
+  private String metricsFile;
+  private String storeLocation;
+  private Store store;
+  private String analysisFingerprint;
 
   Cleaner() {
     super();
@@ -84,6 +106,78 @@ final class Cleaner implements Runnable {
     Preferences.userRoot().node("ws.sosna.pinetrail.UserSettings").put("mapQuestKey", key);
   }
 
+  @Option(
+      name = "-e",
+      aliases = {"--elevation-tiles"},
+      metaVar = "directory",
+      usage =
+          "A directory containing SRTM elevation tiles (.hgt files). If set, "
+              + "elevation data will be corrected using these tiles, without any "
+              + "network access, and the MapQuest key will not be used. This is a "
+              + "sticky option: Once it has been set, the value will be retained for "
+              + "future uses. Use an empty string to unset it.")
+  void setElevationTiles(final String directory) {
+    Preferences.userRoot().node("ws.sosna.pinetrail.UserSettings").put("elevationTiles", directory);
+  }
+
+  @Option(
+      name = "-ec",
+      aliases = {"--elevation-concurrency"},
+      metaVar = "integer",
+      usage =
+          "How many requests for elevation data may be sent at the same time to "
+              + "a remote service, such as MapQuest. By default, 4 requests may be "
+              + "sent at the same time. This is a sticky option: Once it has been "
+              + "set, the value will be retained for future uses.")
+  void setElevationConcurrency(final int concurrency) {
+    Preferences.userRoot()
+        .node("ws.sosna.pinetrail.UserSettings")
+        .putInt("elevationConcurrency", concurrency);
+  }
+
+  @Option(
+      name = "-er",
+      aliases = {"--elevation-rate"},
+      metaVar = "number",
+      usage =
+          "How many requests for elevation data may be sent per second to a "
+              + "remote service, such as MapQuest. By default, the rate supported by "
+              + "the service is used. This is a sticky option: Once it has been set, "
+              + "the value will be retained for future uses. Use 0 to restore the "
+              + "default.")
+  void setElevationRate(final double rate) {
+    Preferences.userRoot()
+        .node("ws.sosna.pinetrail.UserSettings")
+        .putDouble("elevationRateLimit", rate);
+  }
+
+  @Option(
+      name = "-eb",
+      aliases = {"--elevation-batching"},
+      metaVar = "milliseconds",
+      usage =
+          "When several files are processed, how long to wait for the points of "
+              + "other trails, so that they can be sent to a remote service, such as "
+              + "MapQuest, in the same requests. Defaults to 250 milliseconds. Use 0 "
+              + "to send the points of each trail separately.")
+  void setElevationBatchDelay(final long delay) {
+    this.elevationBatchDelay = delay;
+  }
+
+  @Option(
+      name = "-b",
+      aliases = {"--country-boundaries"},
+      metaVar = "file",
+      usage =
+          "A GeoJSON file containing country boundaries (e.g. the admin 0 "
+              + "countries of Natural Earth). If set, the countries crossed by the "
+              + "trails will be determined without any network access. This is a "
+              + "sticky option: Once it has been set, the value will be retained for "
+              + "future uses. Use an empty string to unset it.")
+  void setCountryBoundaries(final String file) {
+    Preferences.userRoot().node("ws.sosna.pinetrail.UserSettings").put("countryBoundaries", file);
+  }
+
   @Option(
       name = "-r",
       aliases = {"--retain"},
@@ -199,6 +293,32 @@ final class Cleaner implements Runnable {
     this.writeRoute = flag;
   }
 
+  @Option(
+      name = "-sp",
+      aliases = {"--simplify"},
+      metaVar = "metres",
+      usage =
+          "Simplifies the trails before writing them, leaving out points as long as "
+              + "none of them lies further than the supplied distance (in metres) from "
+              + "the written path. Useful, together with --route, when sharing an "
+              + "itinerary or displaying it on a map. By default, all points are written.")
+  void setSimplificationTolerance(final double tolerance) {
+    this.simplificationTolerance = tolerance;
+  }
+
+  @Option(
+      name = "-pb",
+      aliases = {"--binary"},
+      metaVar = "boolean",
+      usage =
+          "Whether the trails should be written in the compact binary format "
+              + "of Pinetrail (.ptb files) instead of GPX 1.1. Binary files hold "
+              + "the whole trail, as analysed, and can be read again without being "
+              + "analysed again. Defaults to false.")
+  void writeBinary(final boolean flag) {
+    this.writeBinary = flag;
+  }
+
   @Option(
       name = "-x",
       aliases = {"--cross-border"},
@@ -211,6 +331,74 @@ final class Cleaner implements Runnable {
     this.crossBorder = flag;
   }
 
+  @Option(
+      name = "-lt",
+      aliases = {"--load-threads"},
+      metaVar = "integer",
+      usage = "How many files may be loaded at the same time. Defaults to 2.")
+  void setLoadThreads(final int threads) {
+    this.loadThreads = threads;
+  }
+
+  @Option(
+      name = "-at",
+      aliases = {"--analysis-threads"},
+      metaVar = "integer",
+      usage =
+          "How many files may be analysed (i.e. parsed, corrected and "
+              + "reverse geocoded) at the same time. Defaults to the number of "
+              + "available processors.")
+  void setAnalysisThreads(final int threads) {
+    this.analysisThreads = threads;
+  }
+
+  @Option(
+      name = "-wt",
+      aliases = {"--write-threads"},
+      metaVar = "integer",
+      usage = "How many files may be written at the same time. Defaults to 2.")
+  void setWriteThreads(final int threads) {
+    this.writeThreads = threads;
+  }
+
+  @Option(
+      name = "-qs",
+      aliases = {"--queue-size"},
+      metaVar = "integer",
+      usage =
+          "How many files may wait for each processing step (loading, "
+              + "analysis, writing), in addition to those being processed. A "
+              + "larger queue uses more memory. Defaults to 4.")
+  void setQueueSize(final int size) {
+    this.queueSize = size;
+  }
+
+  @Option(
+      name = "-s",
+      aliases = {"--store"},
+      metaVar = "directory",
+      usage =
+          "A directory in which the analysed trails are stored. Files that "
+              + "have already been analysed with the same settings, and have not been "
+              + "modified since, are loaded from the store instead of being parsed and "
+              + "analysed again.")
+  void setStoreLocation(final String location) {
+    this.storeLocation = location;
+  }
+
+  @Option(
+      name = "-m",
+      aliases = {"--metrics"},
+      metaVar = "file",
+      usage =
+          "A file into which the processing metrics (counters, throughput "
+              + "and latency histograms of each processing step) are written "
+              + "at the end of the run. Files ending with .json are written as "
+              + "JSON, other files in the Prometheus text format.")
+  void setMetricsFile(final String file) {
+    this.metricsFile = file;
+  }
+
   @Override
   public void run() {
     if (null == inputFile) {
@@ -227,18 +415,59 @@ final class Cleaner implements Runnable {
         .node("ws.sosna.pinetrail.model.Trail")
         .put("crossBorder", Boolean.toString(crossBorder));
     final Set<Path> files = getInputFiles(FileSystems.getDefault().getPath(".", inputFile));
-    files.parallelStream()
-        .map(path -> processJob(path))
-        .filter(i -> i != null)
-        .forEach(r -> handleResults(r));
+    // Only worth it for this run if there are other files to wait for: not saved as a user setting
+    batchDelay = files.size() > 1 ? elevationBatchDelay : 0;
+    Metrics.INSTANCE.reset();
+    Metrics.INSTANCE.gauge("input_files").set(files.size());
+    Metrics.INSTANCE.gauge("analysis_threads").set(analysisThreads);
+    try (Store trailStore =
+        null == storeLocation
+            ? null
+            : Stores.INSTANCE.newStore(FileSystems.getDefault().getPath(".", storeLocation))) {
+      store = trailStore;
+      analysisFingerprint = getAnalysisFingerprint();
+      new BatchExecutor(loadThreads, analysisThreads, writeThreads, queueSize)
+          .run(files, this::loadJob, this::processJob, this::handleResults);
+    } finally {
+      store = null;
+    }
+    if (null != metricsFile) {
+      exportMetrics(FileSystems.getDefault().getPath(".", metricsFile));
+    }
   }
 
-  private Results processJob(final Path path) {
-    final ReaderSettings settings =
-        new ReaderSettingsBuilder().groupSubTrails(groupSubTrails).crossBorder(crossBorder).build();
-    final Formats format = Formats.of(path);
-    final Reader reader = Readers.INSTANCE.newReader(format);
+  private void exportMetrics(final Path path) {
+    try {
+      Metrics.INSTANCE.export(path);
+    } catch (final ExecutionError e) {
+      LOGGER.error(
+          Markers.IO.getMarker(),
+          "{} | {} | {}.",
+          Actions.CREATE,
+          StatusCodes.INTERNAL_ERROR.getCode(),
+          "Could not write metrics to " + path.toString() + ": " + e.getMessage());
+    }
+  }
+
+  /*
+   * The file is loaded only once (memory-mapped or read into a pooled buffer): its format is
+   * guessed out of the first bytes of the buffer, which is then handed to the reader.
+   */
+  private Job loadJob(final Path path) {
+    final Set<Trail> stored = loadStoredTrails(path);
+    if (null != stored) {
+      return new Job(path, stored);
+    }
+    final InputBuffer input = InputBuffers.INSTANCE.open(path);
+    final Reader reader;
+    try {
+      reader = Readers.INSTANCE.newReader(Formats.of(input.getBuffer()));
+    } catch (final RuntimeException e) {
+      input.close();
+      throw e;
+    }
     if (null == reader) {
+      input.close();
       LOGGER.error(
           Markers.IO.getMarker(),
           "{} | {} | {}.",
@@ -247,23 +476,140 @@ final class Cleaner implements Runnable {
           "Could not find reader for " + path.toString());
       return null;
     } else {
-      final Set<Trail> trails = reader.configure(settings).apply(path);
+      return new Job(path, input, reader);
+    }
+  }
+
+  private Results processJob(final Job job) {
+    if (null != job.trails) {
+      return new Results(job.path, job.trails);
+    }
+    final ReaderSettings settings =
+        new ReaderSettingsBuilder()
+            .groupSubTrails(groupSubTrails)
+            .crossBorder(crossBorder)
+            .elevationBatchDelay(batchDelay)
+            .build();
+    try (InputBuffer input = job.input) {
+      final Set<Trail> trails = job.reader.configure(settings).apply(input.getBuffer(), job.path);
       if (0 == trails.size()) {
         return null;
       } else {
-        return new Results(path, trails);
+        storeTrails(job.path, trails);
+        return new Results(job.path, trails);
+      }
+    }
+  }
+
+  /*
+   * The trails of a file are stored under the location and modification time of the file, and the
+   * fingerprint of the analysis settings, followed by their rank. They are stored last to first,
+   * so that finding the first trail means that all the trails of the file have been stored.
+   */
+  private Set<Trail> loadStoredTrails(final Path path) {
+    final String key = getStoreKey(path);
+    if (null == key) {
+      return null;
+    }
+    final Set<Trail> trails = new LinkedHashSet<>();
+    try {
+      for (int i = 1; null != store.getEntry(key + "#" + i); i++) {
+        trails.add(store.get(key + "#" + i));
+      }
+    } catch (final ExecutionError e) {
+      return null;
+    }
+    if (trails.isEmpty()) {
+      return null;
+    }
+    LOGGER.info(
+        Markers.DB.getMarker(),
+        "{} | {} | {}.",
+        Actions.GET,
+        StatusCodes.OK.getCode(),
+        "Loaded " + trails.size() + " trails of " + path.toString() + " from the store");
+    return trails;
+  }
+
+  private void storeTrails(final Path path, final Set<Trail> trails) {
+    final String key = getStoreKey(path);
+    if (null == key) {
+      return;
+    }
+    final Trail[] items = trails.toArray(new Trail[0]);
+    try {
+      for (int i = items.length; i > 0; i--) {
+        store.put(key + "#" + i, items[i - 1]);
       }
+    } catch (final ExecutionError e) {
+      LOGGER.error(
+          Markers.DB.getMarker(),
+          "{} | {} | {}.",
+          Actions.PERSIST,
+          StatusCodes.INTERNAL_ERROR.getCode(),
+          "Could not store the trails of " + path.toString() + ": " + e.getMessage());
+    }
+  }
+
+  private String getStoreKey(final Path path) {
+    if (null == store) {
+      return null;
+    }
+    try {
+      return path.toAbsolutePath().normalize().toString()
+          + "@"
+          + Files.getLastModifiedTime(path).toMillis()
+          + "@"
+          + analysisFingerprint;
+    } catch (final IOException e) {
+      return null;
+    }
+  }
+
+  /*
+   * Digest of the settings that change the outcome of the analysis, so that trails analysed with
+   * other settings are not loaded from the store. The writer settings are not part of it, as they
+   * are applied to the trails each time they are written.
+   */
+  private String getAnalysisFingerprint() {
+    final Preferences trailSettings =
+        Preferences.userRoot().node("ws.sosna.pinetrail.model.Trail");
+    final Preferences userSettings = Preferences.userRoot().node("ws.sosna.pinetrail.UserSettings");
+    final String settings =
+        String.join(
+            "|",
+            "groupSubTrails=" + groupSubTrails,
+            "crossBorder=" + crossBorder,
+            "keepOutliers=" + trailSettings.get("keepOutliers", ""),
+            "keepIdlePoints=" + trailSettings.get("keepIdlePoints", ""),
+            "cleanupPasses=" + trailSettings.get("cleanupPasses", ""),
+            "mapQuestKey=" + userSettings.get("mapQuestKey", ""),
+            "elevationTiles=" + userSettings.get("elevationTiles", ""),
+            "countryBoundaries=" + userSettings.get("countryBoundaries", ""));
+    try {
+      final byte[] digest =
+          MessageDigest.getInstance("SHA-256").digest(settings.getBytes(StandardCharsets.UTF_8));
+      final StringBuilder fingerprint = new StringBuilder();
+      for (int i = 0; i < 8; i++) {
+        fingerprint.append(String.format("%02x", digest[i]));
+      }
+      return fingerprint.toString();
+    } catch (final NoSuchAlgorithmException e) {
+      // SHA-256 is supported by every Java platform
+      throw new IllegalStateException(e);
     }
   }
 
   private void handleResults(final Results results) {
-    final Writer writer = Writers.INSTANCE.newWriter(Formats.GPX_1_1);
+    final Writer writer =
+        Writers.INSTANCE.newWriter(writeBinary ? Formats.PINETRAIL_BINARY_1_0 : Formats.GPX_1_1);
     final WriterSettings settings =
         new WriterSettingsBuilder()
             .writeIdlePoints(keepIdlePoints)
             .writeOutliers(keepOutliers)
             .prettyPrinting(prettyPrinting)
             .writeRoute(writeRoute)
+            .simplificationTolerance(simplificationTolerance)
             .build();
     writer.configure(settings);
 
@@ -273,6 +619,7 @@ final class Cleaner implements Runnable {
       writer.accept(trail, getOutname(counter, results.path.toString()));
       counter++;
     }
+    Metrics.INSTANCE.counter("processed_files").increment();
 
     if (!isQuiet) {
       for (final Trail trail : results.trails) {
@@ -310,7 +657,14 @@ final class Cleaner implements Runnable {
   private Path getOutname(final int counter, final String path) {
     final int extPos = path.lastIndexOf('.');
     final String basename = path.substring(0, extPos);
-    final String ext = extPos > 0 ? path.substring(extPos + 1) : "";
+    final String ext;
+    if (writeBinary) {
+      ext = BINARY_EXTENSION;
+    } else if (extPos > 0 && !BINARY_EXTENSION.equals(path.substring(extPos + 1))) {
+      ext = path.substring(extPos + 1);
+    } else {
+      ext = "gpx";
+    }
     final StringBuilder location = new StringBuilder();
     location.append(basename);
     location.append("_clean");
@@ -325,6 +679,30 @@ final class Cleaner implements Runnable {
     return FileSystems.getDefault().getPath(".", location.toString());
   }
 
+  private static final class Job {
+
+    private final Path path;
+    private final InputBuffer input;
+    private final Reader reader;
+    private final Set<Trail> trails;
+
+    Job(final Path path, final InputBuffer input, final Reader reader) {
+      super();
+      this.path = path;
+      this.input = input;
+      this.reader = reader;
+      this.trails = null;
+    }
+
+    Job(final Path path, final Set<Trail> trails) {
+      super();
+      this.path = path;
+      this.input = null;
+      this.reader = null;
+      this.trails = trails;
+    }
+  }
+
   private static final class Results {
 
     private final Path path;
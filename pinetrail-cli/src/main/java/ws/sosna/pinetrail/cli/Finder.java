@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.cli;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import org.kohsuke.args4j.Option;
+import ws.sosna.pinetrail.api.store.Store;
+import ws.sosna.pinetrail.api.store.Stores;
+import ws.sosna.pinetrail.api.store.TrailEntry;
+import ws.sosna.pinetrail.model.Trail;
+import ws.sosna.pinetrail.model.Waypoint;
+
+/**
+ * Finds the trails of a store (see the {@code --store} option of the cleaner) passing through an
+ * area or near a point, or recorded within a period, and lists them, one per line. When looking
+ * for the trails recorded at a given time, the position at that time is listed as well.
+ *
+ * @author Xavier Sosnovsky
+ */
+final class Finder implements Runnable {
+
+  private String storeLocation;
+  private double[] area;
+  private double[] point;
+  private double radius = 200;
+  private int count;
+  private Instant from;
+  private Instant to;
+
+  Finder() {
+    super();
+  }
+
+  @Option(
+      name = "-s",
+      aliases = {"--store"},
+      metaVar = "directory",
+      required = true,
+      usage = "The directory holding the store of trails (mandatory).")
+  void setStoreLocation(final String location) {
+    this.storeLocation = location;
+  }
+
+  @Option(
+      name = "-a",
+      aliases = {"--area"},
+      metaVar = "minLat,minLon,maxLat,maxLon",
+      usage = "Finds the trails passing through the supplied area.")
+  void setArea(final String value) {
+    this.area = parse(value, 4);
+  }
+
+  @Option(
+      name = "-n",
+      aliases = {"--near"},
+      metaVar = "lat,lon",
+      usage =
+          "Finds the trails passing near the supplied point, i.e. within the "
+              + "radius, or the closest ones if a number of trails is supplied.")
+  void setPoint(final String value) {
+    this.point = parse(value, 2);
+  }
+
+  @Option(
+      name = "-r",
+      aliases = {"--radius"},
+      metaVar = "meters",
+      usage = "The maximum distance to the point, in meters. Defaults to 200.")
+  void setRadius(final double radius) {
+    this.radius = radius;
+  }
+
+  @Option(
+      name = "-k",
+      aliases = {"--nearest"},
+      metaVar = "integer",
+      usage = "Finds the supplied number of trails passing closest to the point.")
+  void setCount(final int count) {
+    this.count = count;
+  }
+
+  @Option(
+      name = "-t",
+      aliases = {"--time"},
+      metaVar = "from[,to]",
+      usage =
+          "Finds the trails recorded within the supplied period, or at the "
+              + "supplied time, e.g. 2014-05-18T12:32:00Z.")
+  void setTime(final String value) {
+    final String[] parts = value.split(",");
+    try {
+      from = Instant.parse(parts[0].trim());
+      to = 1 == parts.length ? from : Instant.parse(parts[1].trim());
+    } catch (final DateTimeParseException e) {
+      throw new IllegalArgumentException("Invalid time: " + value, e);
+    }
+  }
+
+  @Override
+  public void run() {
+    if (null == area && null == point && null == from) {
+      throw new IllegalArgumentException("Either an area, a point or a time must be supplied.");
+    }
+    // Opening a store creates its directory: a mistyped location must not give an empty store
+    final Path location = FileSystems.getDefault().getPath(".", storeLocation);
+    if (!Files.isDirectory(location)) {
+      throw new IllegalArgumentException("Store not found: " + location.normalize());
+    }
+    try (Store store = Stores.INSTANCE.newStore(location)) {
+      final List<TrailEntry> entries;
+      if (null != from) {
+        entries = store.findByTime(from, to);
+      } else if (null != area) {
+        entries = store.findByArea(area[0], area[1], area[2], area[3]);
+      } else if (0 < count) {
+        entries = store.findNearest(point[0], point[1], count);
+      } else {
+        entries = store.findNear(point[0], point[1], radius);
+      }
+      for (final TrailEntry entry : entries) {
+        System.out.println(
+            entry.getId()
+                + " | "
+                + entry.getStart()
+                + " | "
+                + entry.getEnd()
+                + " | "
+                + entry.getSize()
+                + " points"
+                + (null != from && from.equals(to) ? getPosition(store, entry) : ""));
+      }
+    }
+  }
+
+  private String getPosition(final Store store, final TrailEntry entry) {
+    final Trail trail = store.get(entry.getId());
+    final Waypoint point = null == trail ? null : trail.getWaypointAt(from);
+    return null == point
+        ? ""
+        : " | "
+            + point.getCoordinates().getLatitude()
+            + ","
+            + point.getCoordinates().getLongitude();
+  }
+
+  private static double[] parse(final String value, final int size) {
+    final String[] parts = value.split(",");
+    if (size != parts.length) {
+      throw new IllegalArgumentException(
+          "Expected " + size + " comma-separated numbers, got " + value);
+    }
+    final double[] numbers = new double[size];
+    for (int i = 0; i < size; i++) {
+      numbers[i] = Double.parseDouble(parts[i].trim());
+    }
+    return numbers;
+  }
+}
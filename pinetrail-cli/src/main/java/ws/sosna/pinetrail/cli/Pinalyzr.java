@@ -15,26 +15,38 @@
  */
 package ws.sosna.pinetrail.cli;
 
+import java.util.Arrays;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 
 /**
  * Small utility to test the analysis of a GPX 1.1 file.
  *
+ * <p>The first argument may name the command to be executed: {@code clean} analyses and sanitizes
+ * the files (see {@code Cleaner}), while {@code find} searches the trails of a store (see {@code
+ * Finder}). The remaining arguments are the options of that command. When the first argument names
+ * no command, the files are cleaned, so that {@code clean} only needs to be given for a file named
+ * like a command, e.g. {@code clean find}.
+ *
  * @author Xavier Sosnovsky
  */
 public final class Pinalyzr {
 
+  private static final String CLEAN = "clean";
+  private static final String FIND = "find";
+
   private Pinalyzr() {
     super();
   }
 
   public static void main(final String[] args) {
-    final Cleaner cleaner = new Cleaner();
-    final CmdLineParser parser = new CmdLineParser(cleaner);
+    final String name = 0 < args.length ? args[0] : "";
+    final boolean named = CLEAN.equals(name) || FIND.equals(name);
+    final Runnable command = FIND.equals(name) ? new Finder() : new Cleaner();
+    final CmdLineParser parser = new CmdLineParser(command);
     try {
-      parser.parseArgument(args);
-      cleaner.run();
+      parser.parseArgument(named ? Arrays.copyOfRange(args, 1, args.length) : args);
+      command.run();
     } catch (final CmdLineException e) {
       // handling of wrong arguments
       System.err.println(e.getMessage());
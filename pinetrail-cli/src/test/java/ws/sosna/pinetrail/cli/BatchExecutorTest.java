@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/** @author Xavier Sosnovsky */
+public class BatchExecutorTest {
+
+  @Test(timeout = 10000)
+  public void throwingTasks() {
+    final AtomicInteger written = new AtomicInteger();
+    new BatchExecutor(2, 2, 2, 1)
+        .run(
+            newFiles(30),
+            file -> file,
+            file -> {
+              final int idx = getIndex(file);
+              if (0 == idx % 3) {
+                throw new AssertionError("Failed analysing " + file);
+              } else if (1 == idx % 3) {
+                throw new IllegalStateException("Failed analysing " + file);
+              }
+              return file;
+            },
+            file -> written.incrementAndGet());
+    assertEquals(10, written.get());
+  }
+
+  @Test(timeout = 10000)
+  public void throwingWrites() {
+    final AtomicInteger written = new AtomicInteger();
+    new BatchExecutor(1, 1, 1, 0)
+        .run(
+            newFiles(10),
+            file -> file,
+            file -> file,
+            file -> {
+              if (0 == getIndex(file) % 2) {
+                throw new OutOfMemoryError("Failed writing " + file);
+              }
+              written.incrementAndGet();
+            });
+    assertEquals(5, written.get());
+  }
+
+  @Test(timeout = 10000)
+  public void fullQueues() {
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicInteger maxInFlight = new AtomicInteger();
+    final AtomicInteger written = new AtomicInteger();
+    new BatchExecutor(1, 1, 1, 0)
+        .run(
+            newFiles(50),
+            file -> {
+              maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+              return file;
+            },
+            file -> file,
+            file -> {
+              try {
+                Thread.sleep(2);
+              } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              inFlight.decrementAndGet();
+              written.incrementAndGet();
+            });
+    assertEquals(50, written.get());
+    // One file per stage at most
+    assertTrue(maxInFlight.get() <= 3);
+  }
+
+  private List<Path> newFiles(final int count) {
+    final List<Path> files = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      files.add(Paths.get("file" + i + ".gpx"));
+    }
+    return files;
+  }
+
+  private int getIndex(final Path file) {
+    final String name = file.getFileName().toString();
+    return Integer.parseInt(name.substring(4, name.indexOf('.')));
+  }
+}
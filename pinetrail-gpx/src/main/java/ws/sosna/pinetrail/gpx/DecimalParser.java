@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.gpx;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses decimal numbers (e.g. coordinates and elevations) straight out of a {@code ByteBuffer},
+ * without creating any object.
+ *
+ * <p>The digits are accumulated into a {@code long}, and the result is then computed as follows:
+ *
+ * <ol>
+ *   <li>When both the digits and the power of ten can be represented exactly as a {@code double},
+ *       a single multiplication or division gives the correctly rounded result (Clinger's fast
+ *       path). This covers most coordinates and elevations;
+ *   <li>Otherwise, the digits are multiplied by a 128-bit approximation of the power of ten, as
+ *       described by Daniel Lemire in <i>Number Parsing at a Gigabyte per Second</i> (the
+ *       Eisel-Lemire algorithm). This gives the correctly rounded result, unless the result is a
+ *       subnormal number or an infinity;
+ *   <li>In the remaining cases (more than 19 significant digits, subnormal numbers, infinities,
+ *       values that are not plain decimal numbers, etc.), the text is handed to {@code
+ *       Double.parseDouble}.
+ * </ol>
+ *
+ * <p>The result is therefore always the same as the one of {@code Double.parseDouble}, except that
+ * leading and trailing whitespace is ignored and that text that is not a number gives NaN instead
+ * of an exception.
+ *
+ * @author Xavier Sosnovsky
+ */
+final class DecimalParser {
+
+  private static final int MAX_DIGITS = 19;
+  private static final int MAX_EXPONENT = 9999;
+  private static final long MAX_EXACT_MANTISSA = 1L << 53;
+  private static final int MAX_EXACT_POWER = 22;
+  private static final int MIN_POWER = -342;
+  private static final int MAX_POWER = 308;
+  private static final int MANTISSA_BITS = 52;
+  private static final int MIN_BINARY_EXPONENT = -1023;
+  private static final double[] EXACT_POWERS = new double[MAX_EXACT_POWER + 1];
+  // 128-bit approximations of the powers of five, as (high, low) pairs
+  private static final long[] POWERS_OF_FIVE = new long[2 * (MAX_POWER - MIN_POWER + 1)];
+
+  static {
+    EXACT_POWERS[0] = 1;
+    for (int i = 1; i <= MAX_EXACT_POWER; i++) {
+      EXACT_POWERS[i] = EXACT_POWERS[i - 1] * 10;
+    }
+    computePowersOfFive();
+  }
+
+  private DecimalParser() {
+    super();
+  }
+
+  /**
+   * Parses the decimal number found between the supplied positions of the buffer. The position and
+   * the limit of the buffer are not used, nor modified.
+   *
+   * @param source the buffer holding the number
+   * @param from the position of the first byte of the number
+   * @param to the position following the last byte of the number
+   * @return the number, or NaN if the text is not a number
+   */
+  static double parse(final ByteBuffer source, final int from, final int to) {
+    int start = from;
+    int end = to;
+    while (start < end && isSpace(source.get(start))) {
+      start++;
+    }
+    while (end > start && isSpace(source.get(end - 1))) {
+      end--;
+    }
+    int i = start;
+    final boolean negative = i < end && '-' == source.get(i);
+    if (i < end && (negative || '+' == source.get(i))) {
+      i++;
+    }
+    long mantissa = 0;
+    int digits = 0;
+    int exponent = 0;
+    boolean found = false;
+    boolean fraction = false;
+    for (; i < end; i++) {
+      final byte current = source.get(i);
+      if ('.' == current && !fraction) {
+        fraction = true;
+        continue;
+      } else if (current < '0' || current > '9') {
+        break;
+      }
+      found = true;
+      if (0 != mantissa || '0' != current) {
+        if (MAX_DIGITS == digits) {
+          return parseSlowly(source, start, end);
+        }
+        mantissa = 10 * mantissa + (current - '0');
+        digits++;
+      }
+      if (fraction) {
+        exponent--;
+      }
+    }
+    if (!found) {
+      return parseSlowly(source, start, end);
+    }
+    if (i < end && ('e' == source.get(i) || 'E' == source.get(i))) {
+      i++;
+      final boolean negativeExponent = i < end && '-' == source.get(i);
+      if (i < end && (negativeExponent || '+' == source.get(i))) {
+        i++;
+      }
+      int explicit = 0;
+      final int digitsStart = i;
+      for (; i < end && source.get(i) >= '0' && source.get(i) <= '9'; i++) {
+        explicit = Math.min(MAX_EXPONENT, 10 * explicit + source.get(i) - '0');
+      }
+      if (digitsStart == i) {
+        return parseSlowly(source, start, end);
+      }
+      exponent += negativeExponent ? -explicit : explicit;
+    }
+    if (i != end) {
+      return parseSlowly(source, start, end);
+    }
+    final double value = toDouble(mantissa, exponent);
+    if (Double.isNaN(value)) {
+      return parseSlowly(source, start, end);
+    }
+    return negative ? -value : value;
+  }
+
+  /*
+   * Returns the value of mantissa * 10^exponent, or NaN if it cannot be computed exactly here. The
+   * mantissa is unsigned: 19 digits may not fit in a signed long.
+   */
+  private static double toDouble(final long mantissa, final int exponent) {
+    if (0 == mantissa) {
+      return 0;
+    } else if (Long.compareUnsigned(mantissa, MAX_EXACT_MANTISSA) <= 0
+        && exponent >= -MAX_EXACT_POWER
+        && exponent <= MAX_EXACT_POWER) {
+      return exponent < 0
+          ? mantissa / EXACT_POWERS[-exponent]
+          : mantissa * EXACT_POWERS[exponent];
+    } else if (exponent < MIN_POWER || exponent > MAX_POWER) {
+      return Double.NaN;
+    }
+    return eiselLemire(mantissa, exponent);
+  }
+
+  private static double eiselLemire(final long mantissa, final int exponent) {
+    final int leadingZeros = Long.numberOfLeadingZeros(mantissa);
+    final long normalized = mantissa << leadingZeros;
+    final int index = 2 * (exponent - MIN_POWER);
+    long high = multiplyHigh(normalized, POWERS_OF_FIVE[index]);
+    long low = normalized * POWERS_OF_FIVE[index];
+    // The second half of the power is only needed when the first product is not precise enough
+    final long precisionMask = -1L >>> (MANTISSA_BITS + 3);
+    if ((high & precisionMask) == precisionMask) {
+      final long carry = multiplyHigh(normalized, POWERS_OF_FIVE[index + 1]);
+      low += carry;
+      if (Long.compareUnsigned(low, carry) < 0) {
+        high++;
+      }
+    }
+    if (-1L == low && (exponent < -27 || exponent > 55)) {
+      return Double.NaN;
+    }
+    final int upperBit = (int) (high >>> 63);
+    long bits = high >>> (upperBit + 64 - MANTISSA_BITS - 3);
+    int power = (((152_170 + 65_536) * exponent) >> 16) + 63 + upperBit - leadingZeros
+        - MIN_BINARY_EXPONENT;
+    if (power <= 0) {
+      return Double.NaN;
+    }
+    // Halfway between two doubles: round to even
+    if (Long.compareUnsigned(low, 1) <= 0
+        && exponent >= -4
+        && exponent <= 23
+        && 1 == (bits & 3)
+        && bits << (upperBit + 64 - MANTISSA_BITS - 3) == high) {
+      bits &= ~1L;
+    }
+    bits += bits & 1;
+    bits >>>= 1;
+    if (bits >= 2L << MANTISSA_BITS) {
+      bits = 1L << MANTISSA_BITS;
+      power++;
+    }
+    if (power >= 0x7FF) {
+      return Double.NaN;
+    }
+    bits &= ~(1L << MANTISSA_BITS);
+    return Double.longBitsToDouble(bits | (long) power << MANTISSA_BITS);
+  }
+
+  private static long multiplyHigh(final long first, final long second) {
+    return Math.multiplyHigh(first, second)
+        + (first >> 63 & second)
+        + (second >> 63 & first);
+  }
+
+  private static double parseSlowly(final ByteBuffer source, final int from, final int to) {
+    final byte[] bytes = new byte[to - from];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = source.get(from + i);
+    }
+    try {
+      return Double.parseDouble(new String(bytes, StandardCharsets.ISO_8859_1));
+    } catch (final NumberFormatException e) {
+      return Double.NaN;
+    }
+  }
+
+  private static boolean isSpace(final byte value) {
+    return ' ' == value || '\n' == value || '\r' == value || '\t' == value;
+  }
+
+  /*
+   * Negative powers are stored as 2^b / 5^-q + 1, truncated to 128 bits, and positive powers as
+   * 5^q, truncated to 128 bits, with their most significant bit set.
+   */
+  private static void computePowersOfFive() {
+    final BigInteger two128 = BigInteger.ONE.shiftLeft(128);
+    for (int q = MIN_POWER; q <= MAX_POWER; q++) {
+      BigInteger power;
+      if (q < 0) {
+        final BigInteger five = BigInteger.valueOf(5).pow(-q);
+        final int z = five.subtract(BigInteger.ONE).bitLength();
+        final int shift = q >= -27 ? z + 127 : 2 * z + 128;
+        power = BigInteger.ONE.shiftLeft(shift).divide(five).add(BigInteger.ONE);
+        while (power.compareTo(two128) >= 0) {
+          power = power.shiftRight(1);
+        }
+      } else {
+        power = BigInteger.valueOf(5).pow(q);
+        final int excess = power.bitLength() - 128;
+        power = excess > 0 ? power.shiftRight(excess) : power.shiftLeft(-excess);
+      }
+      final int index = 2 * (q - MIN_POWER);
+      POWERS_OF_FIVE[index] = power.shiftRight(64).longValue();
+      POWERS_OF_FIVE[index + 1] = power.longValue();
+    }
+  }
+}
@@ -38,7 +38,10 @@ import ws.sosna.pinetrail.utils.logging.Markers;
 import ws.sosna.pinetrail.utils.logging.StatusCodes;
 
 /**
- * Performs mapping to the Pinetrail model.
+ * Performs mapping to the Pinetrail model, from the object graph built by the JPX library.
+ *
+ * <p>The GPX reader relies on {@code GpxParser} instead. This class is only kept as the baseline
+ * of the GPX benchmark, which compares it with the streaming parser.
  *
  * @author Xavier Sosnovsky
  */
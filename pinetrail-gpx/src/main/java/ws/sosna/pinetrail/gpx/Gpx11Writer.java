@@ -15,39 +15,49 @@
  */
 package ws.sosna.pinetrail.gpx;
 
-import io.jenetics.jpx.GPX;
-import io.jenetics.jpx.Track;
-import io.jenetics.jpx.TrackSegment;
-import io.jenetics.jpx.WayPoint;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.LinkedHashSet;
-import java.util.List;
-import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
-import java.util.stream.Collectors;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ws.sosna.pinetrail.api.io.Writer;
 import ws.sosna.pinetrail.api.io.WriterSettings;
 import ws.sosna.pinetrail.api.io.WriterSettingsBuilder;
+import ws.sosna.pinetrail.model.PathSimplifier;
+import ws.sosna.pinetrail.model.Statistics;
 import ws.sosna.pinetrail.model.Trail;
+import ws.sosna.pinetrail.model.TrailStatistics;
 import ws.sosna.pinetrail.model.Waypoint;
+import ws.sosna.pinetrail.model.WaypointColumns;
 import ws.sosna.pinetrail.utils.error.ExecutionError;
 import ws.sosna.pinetrail.utils.logging.Actions;
 import ws.sosna.pinetrail.utils.logging.Markers;
 import ws.sosna.pinetrail.utils.logging.StatusCodes;
+import ws.sosna.pinetrail.utils.metrics.Counter;
+import ws.sosna.pinetrail.utils.metrics.Metrics;
+import ws.sosna.pinetrail.utils.metrics.Stages;
 
 /**
  * Writes a trail in GPX 1.1 format.
  *
+ * <p>The document is streamed to the file (see {@code GpxOutput}): the points of the trail are
+ * visited once, in chronological order, and the points that should not be written (outliers,
+ * inactive points, points left out by the simplification) are skipped on the fly. No object is
+ * created per point. When the trail is written as a route, the points are written as route points,
+ * without time information.
+ *
  * @author Xavier Sosnovsky
  */
 final class Gpx11Writer implements Writer {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(Gpx11Writer.class);
+  private static final String PROLOG = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+  private static final String ROOT =
+      "<gpx xmlns=\"http://www.topografix.com/GPX/1/1\" version=\"1.1\" creator=\"Pinetrail\">";
+  private static final Counter WRITTEN_BYTES = Metrics.INSTANCE.counter("written_bytes");
+  private static final Counter WRITTEN_POINTS = Metrics.INSTANCE.counter("written_points");
   private WriterSettings settings;
 
   Gpx11Writer() {
@@ -78,13 +88,13 @@ final class Gpx11Writer implements Writer {
         throw new ExecutionError(
             msg, null, Markers.IO.getMarker(), Actions.CREATE, StatusCodes.SYNTAX_ERROR);
       }
-      final long start = System.currentTimeMillis();
-      final List<WayPoint> pts = getPoints(trail);
-      final TrackSegment seg = TrackSegment.builder().points(pts).build();
-      final Track track = Track.builder().addSegment(seg).build();
-      final GPX gpx = GPX.builder().addTrack(track).build();
-      GPX.write(gpx, location);
-      final long end = System.currentTimeMillis();
+      final long start = System.nanoTime();
+      try (GpxOutput output = new GpxOutput(location, settings.prettyPrinting())) {
+        WRITTEN_POINTS.add(write(trail, output));
+        WRITTEN_BYTES.add(output.getSize());
+      }
+      final long elapsed = System.nanoTime() - start;
+      Metrics.INSTANCE.record(Stages.WRITE, elapsed);
       LOGGER.info(
           Markers.PERFORMANCE.getMarker(),
           "{} | {} | {}.",
@@ -93,7 +103,7 @@ final class Gpx11Writer implements Writer {
           "Written "
               + location.toAbsolutePath().normalize().toString()
               + " in "
-              + (end - start)
+              + TimeUnit.NANOSECONDS.toMillis(elapsed)
               + "ms");
     } catch (final IOException e) {
       LOGGER.error(
@@ -115,52 +125,81 @@ final class Gpx11Writer implements Writer {
     }
   }
 
-  private List<WayPoint> getPoints(final Trail trail) {
-    Set<Waypoint> points = handleOutliers(trail);
-    points = handleIdlePoints(points);
-    return points.stream().map(this::getPoint).collect(Collectors.toList());
+  /*
+   * Returns the number of points written.
+   */
+  private int write(final Trail trail, final GpxOutput output) throws IOException {
+    final WaypointColumns columns = trail.getColumns();
+    final BitSet selected = getSelectedPoints(trail, columns);
+    final boolean route = settings.writeRoute();
+    output.append(PROLOG).newLine(0).append(ROOT).newLine(1);
+    if (route) {
+      output.append("<rte>");
+    } else {
+      output.append("<trk>").newLine(2).append("<trkseg>");
+    }
+    final int depth = route ? 2 : 3;
+    final String element = route ? "rtept" : "trkpt";
+    int written = 0;
+    for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+      written++;
+      output.newLine(depth).append("<").append(element).append(" lat=\"");
+      output.appendDecimal(columns.getLatitude(i)).append("\" lon=\"");
+      output.appendDecimal(columns.getLongitude(i)).append("\">");
+      final double elevation = columns.getElevation(i);
+      if (!Double.isNaN(elevation)) {
+        output.newLine(depth + 1).append("<ele>").appendDecimal(elevation).append("</ele>");
+      }
+      if (!route) {
+        output.newLine(depth + 1).append("<time>");
+        output.appendTime(columns.getEpochSecond(i), columns.getNano(i)).append("</time>");
+      }
+      output.newLine(depth).append("</").append(element).append(">");
+    }
+    if (route) {
+      output.newLine(1).append("</rte>");
+    } else {
+      output.newLine(2).append("</trkseg>").newLine(1).append("</trk>");
+    }
+    output.newLine(0).append("</gpx>").newLine(0);
+    return written;
   }
 
-  private SortedSet<Waypoint> handleIdlePoints(final Set<Waypoint> input) {
-    final SortedSet<Waypoint> points = new TreeSet<>();
-    if (settings.writeIdlePoints()) {
-      points.addAll(input);
-    } else {
-      points.addAll(input.stream().filter(Waypoint::isActive).collect(Collectors.toSet()));
+  private BitSet getSelectedPoints(final Trail trail, final WaypointColumns columns) {
+    final BitSet selected = new BitSet(columns.size());
+    selected.set(0, columns.size());
+    if (!settings.writeOutliers()) {
+      selected.andNot(getOutliers(trail, columns));
+    }
+    if (!settings.writeIdlePoints()) {
+      for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+        if (!columns.isActive(i)) {
+          selected.clear(i);
+        }
+      }
     }
-    return points;
+    return PathSimplifier.INSTANCE.simplify(
+        columns, selected, settings.simplificationTolerance());
   }
 
-  private Set<Waypoint> getOutliers(final Trail trail) {
-    final Set<Waypoint> outliers = new LinkedHashSet<>();
-    outliers.addAll(trail.getStatistics().getDistanceSummary().getOutliers());
-    outliers.addAll(trail.getStatistics().getElevationDifferenceSummary().getOutliers());
-    outliers.addAll(trail.getStatistics().getElevationSummary().getOutliers());
-    outliers.addAll(trail.getStatistics().getGradeSummary().getOutliers());
-    outliers.addAll(trail.getStatistics().getSpeedSummary().getOutliers());
+  private BitSet getOutliers(final Trail trail, final WaypointColumns columns) {
+    final BitSet outliers = new BitSet(columns.size());
+    final TrailStatistics statistics = trail.getStatistics();
+    addOutliers(statistics.getDistanceSummary(), columns, outliers);
+    addOutliers(statistics.getElevationDifferenceSummary(), columns, outliers);
+    addOutliers(statistics.getElevationSummary(), columns, outliers);
+    addOutliers(statistics.getGradeSummary(), columns, outliers);
+    addOutliers(statistics.getSpeedSummary(), columns, outliers);
     return outliers;
   }
 
-  private Set<Waypoint> handleOutliers(final Trail trail) {
-    final Set<Waypoint> outliers = getOutliers(trail);
-    final SortedSet<Waypoint> points = new TreeSet<>();
-    if (settings.writeOutliers()) {
-      points.addAll(trail.getWaypoints());
-    } else {
-      points.addAll(
-          trail.getWaypoints().stream()
-              .filter(item -> !(outliers.contains(item)))
-              .collect(Collectors.toSet()));
+  private void addOutliers(
+      final Statistics summary, final WaypointColumns columns, final BitSet outliers) {
+    for (final Waypoint outlier : summary.getOutliers()) {
+      final int index = columns.indexOf(outlier);
+      if (-1 < index) {
+        outliers.set(index);
+      }
     }
-    return points;
-  }
-
-  private WayPoint getPoint(final Waypoint pt) {
-    return WayPoint.builder()
-        .lat(pt.getCoordinates().getLatitude())
-        .lon(pt.getCoordinates().getLongitude())
-        .ele(pt.getCoordinates().getElevation())
-        .time(pt.getTime())
-        .build();
   }
 }
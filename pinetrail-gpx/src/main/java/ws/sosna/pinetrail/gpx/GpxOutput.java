@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.gpx;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+
+/**
+ * Buffered output of XML documents made of ASCII characters only, written straight to a {@code
+ * FileChannel}.
+ *
+ * <p>Numbers and timestamps are formatted directly into the buffer, without creating any
+ * intermediate string:
+ *
+ * <ul>
+ *   <li>Decimal numbers are written with the smallest number of fraction digits (up to 9) that
+ *       gives back the exact same {@code double} when parsed. Numbers requiring more digits are
+ *       written using {@code Double.toString};
+ *   <li>Timestamps are written in UTC, using the ISO-8601 format, with as many fraction digits as
+ *       needed. The date part is cached, as consecutive points are usually recorded on the same
+ *       day.
+ * </ul>
+ *
+ * <p>Instances are not thread-safe, and are meant to write a single document.
+ *
+ * @author Xavier Sosnovsky
+ */
+final class GpxOutput implements Closeable {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final int MAX_FRACTION_DIGITS = 9;
+  private static final double MAX_FIXED_VALUE = 1e6;
+  private static final long SECONDS_PER_DAY = 86_400L;
+  private static final long[] POWERS = {
+    1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L, 1_000_000_000L
+  };
+  private final FileChannel channel;
+  private final ByteBuffer buffer;
+  private final boolean prettyPrinting;
+  private final byte[] digits;
+  private final byte[] date;
+  private long day;
+  private long flushed;
+
+  /**
+   * Opens the file to be written, replacing its content if it already exists.
+   *
+   * @param location the file to be written
+   * @param prettyPrinting whether line breaks and indentation should be added
+   * @throws IOException if the file cannot be opened
+   */
+  GpxOutput(final Path location, final boolean prettyPrinting) throws IOException {
+    super();
+    channel =
+        FileChannel.open(
+            location,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE);
+    buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    this.prettyPrinting = prettyPrinting;
+    digits = new byte[20];
+    date = new byte[10];
+    day = Long.MIN_VALUE;
+  }
+
+  /**
+   * Appends the supplied ASCII text.
+   *
+   * @param text the text to be written
+   * @return the output
+   * @throws IOException if the buffer cannot be flushed
+   */
+  GpxOutput append(final String text) throws IOException {
+    final int length = text.length();
+    for (int i = 0; i < length; i++) {
+      ensure(1);
+      buffer.put((byte) text.charAt(i));
+    }
+    return this;
+  }
+
+  /**
+   * Starts a new line indented to the supplied depth, if pretty printing has been requested.
+   *
+   * @param depth the depth of the element that follows
+   * @return the output
+   * @throws IOException if the buffer cannot be flushed
+   */
+  GpxOutput newLine(final int depth) throws IOException {
+    if (prettyPrinting) {
+      ensure(1 + 2 * depth);
+      buffer.put((byte) '\n');
+      for (int i = 0; i < 2 * depth; i++) {
+        buffer.put((byte) ' ');
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Appends the supplied decimal number, using the shortest representation that can be parsed back
+   * to the same value.
+   *
+   * @param value the number to be written
+   * @return the output
+   * @throws IOException if the buffer cannot be flushed
+   */
+  GpxOutput appendDecimal(final double value) throws IOException {
+    if (Double.isNaN(value) || Math.abs(value) >= MAX_FIXED_VALUE) {
+      return append(Double.toString(value));
+    }
+    final double magnitude = Math.abs(value);
+    for (int scale = 0; scale <= MAX_FRACTION_DIGITS; scale++) {
+      final long unscaled = Math.round(magnitude * POWERS[scale]);
+      // Division by a power of ten is correctly rounded, and so is parsing
+      if ((double) unscaled / POWERS[scale] == magnitude) {
+        ensure(digits.length + 2);
+        if (Double.doubleToRawLongBits(value) < 0) {
+          buffer.put((byte) '-');
+        }
+        appendFixed(unscaled, scale);
+        return this;
+      }
+    }
+    return append(Double.toString(value));
+  }
+
+  /**
+   * Appends the supplied point in time, in UTC, using the ISO-8601 format.
+   *
+   * @param second the seconds since the epoch
+   * @param nano the nanoseconds within the second
+   * @return the output
+   * @throws IOException if the buffer cannot be flushed
+   */
+  GpxOutput appendTime(final long second, final int nano) throws IOException {
+    final long epochDay = Math.floorDiv(second, SECONDS_PER_DAY);
+    if (epochDay != day && !cacheDate(epochDay)) {
+      return append(Instant.ofEpochSecond(second, nano).toString());
+    }
+    final int secondOfDay = (int) Math.floorMod(second, SECONDS_PER_DAY);
+    ensure(date.length + 20);
+    buffer.put(date);
+    buffer.put((byte) 'T');
+    putTwoDigits(secondOfDay / 3600);
+    buffer.put((byte) ':');
+    putTwoDigits(secondOfDay / 60 % 60);
+    buffer.put((byte) ':');
+    putTwoDigits(secondOfDay % 60);
+    if (0 != nano) {
+      int fraction = nano;
+      int length = MAX_FRACTION_DIGITS;
+      while (0 == fraction % 10) {
+        fraction /= 10;
+        length--;
+      }
+      buffer.put((byte) '.');
+      for (int i = length - 1; i >= 0; i--) {
+        buffer.put((byte) ('0' + fraction / POWERS[i] % 10));
+      }
+    }
+    buffer.put((byte) 'Z');
+    return this;
+  }
+
+  /**
+   * Returns the number of bytes written so far, including those not yet flushed to the file.
+   *
+   * @return the number of bytes written so far
+   */
+  long getSize() {
+    return flushed + buffer.position();
+  }
+
+  /**
+   * Writes the remaining content of the buffer to the file, and closes it.
+   *
+   * @throws IOException if the content cannot be written or the file cannot be closed
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      channel.close();
+    }
+  }
+
+  private void appendFixed(final long unscaled, final int scale) {
+    long remaining = unscaled;
+    int pos = digits.length;
+    for (int i = 0; i < scale; i++) {
+      digits[--pos] = (byte) ('0' + remaining % 10);
+      remaining /= 10;
+    }
+    if (0 < scale) {
+      digits[--pos] = '.';
+    }
+    do {
+      digits[--pos] = (byte) ('0' + remaining % 10);
+      remaining /= 10;
+    } while (0 < remaining);
+    buffer.put(digits, pos, digits.length - pos);
+  }
+
+  /*
+   * Years outside of 0000-9999 are not expected in GPX files, and are left to Instant.toString.
+   */
+  private boolean cacheDate(final long epochDay) {
+    final LocalDate localDate = LocalDate.ofEpochDay(epochDay);
+    final int year = localDate.getYear();
+    if (year < 0 || year > 9999) {
+      return false;
+    }
+    date[0] = (byte) ('0' + year / 1000);
+    date[1] = (byte) ('0' + year / 100 % 10);
+    date[2] = (byte) ('0' + year / 10 % 10);
+    date[3] = (byte) ('0' + year % 10);
+    date[4] = '-';
+    date[5] = (byte) ('0' + localDate.getMonthValue() / 10);
+    date[6] = (byte) ('0' + localDate.getMonthValue() % 10);
+    date[7] = '-';
+    date[8] = (byte) ('0' + localDate.getDayOfMonth() / 10);
+    date[9] = (byte) ('0' + localDate.getDayOfMonth() % 10);
+    day = epochDay;
+    return true;
+  }
+
+  private void putTwoDigits(final int value) {
+    buffer.put((byte) ('0' + value / 10));
+    buffer.put((byte) ('0' + value % 10));
+  }
+
+  private void ensure(final int length) throws IOException {
+    if (buffer.remaining() < length) {
+      flush();
+    }
+  }
+
+  private void flush() throws IOException {
+    flushed += buffer.position();
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.gpx;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.ResourceBundle;
+import java.util.Set;
+import javax.validation.ValidationException;
+import javax.xml.stream.XMLStreamException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ws.sosna.pinetrail.model.Trail;
+import ws.sosna.pinetrail.model.TrailBuilder;
+import ws.sosna.pinetrail.model.WaypointColumns;
+import ws.sosna.pinetrail.model.WaypointColumnsBuilder;
+import ws.sosna.pinetrail.utils.error.ExecutionError;
+import ws.sosna.pinetrail.utils.logging.Actions;
+import ws.sosna.pinetrail.utils.logging.Markers;
+import ws.sosna.pinetrail.utils.logging.StatusCodes;
+
+/**
+ * Streaming parser of GPX 1.0 and 1.1 documents, mapping the extracted information to the Pinetrail
+ * model.
+ *
+ * <p>The document is read straight from a {@code ByteBuffer} (see {@code XmlCursor}), and the
+ * points are added into a {@code WaypointColumnsBuilder}, segment by segment, without building any
+ * intermediate object graph. Elements other than the ones holding points are skipped without being
+ * decoded. Documents encoded in UTF-16 are converted to UTF-8 first.
+ *
+ * <p>The information is mapped as follows:
+ *
+ * <ul>
+ *   <li>Each track segment makes up a trail, unless sub trails are grouped, in which case each
+ *       track makes up a trail;
+ *   <li>Waypoints (i.e. {@code wpt} elements) are added to the trail, unless there are several
+ *       tracks, or several segments that are not grouped;
+ *   <li>Routes are ignored;
+ *   <li>Invalid points are ignored, and so are invalid trails.
+ * </ul>
+ *
+ * <p>Instances are not thread-safe, and are meant to parse a single document.
+ *
+ * @author Xavier Sosnovsky
+ */
+final class GpxParser {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(GpxParser.class);
+  private static final byte[] GPX = {'g', 'p', 'x'};
+  private static final byte[] WPT = {'w', 'p', 't'};
+  private static final byte[] RTE = {'r', 't', 'e'};
+  private static final byte[] TRK = {'t', 'r', 'k'};
+  private static final byte[] TRKSEG = {'t', 'r', 'k', 's', 'e', 'g'};
+  private static final byte[] TRKPT = {'t', 'r', 'k', 'p', 't'};
+  private static final byte[] ELE = {'e', 'l', 'e'};
+  private static final byte[] TIME = {'t', 'i', 'm', 'e'};
+  private static final byte[] LAT = {'l', 'a', 't'};
+  private static final byte[] LON = {'l', 'o', 'n'};
+  private final ResourceBundle logMessages;
+  private final boolean groupSubTrails;
+  private final long elevationBatchDelay;
+  private final Set<Trail> trails;
+  private final WaypointColumnsBuilder waypoints;
+  private WaypointColumns waypointColumns;
+  private List<WaypointColumnsBuilder> pendingTrack;
+  private int tracks;
+  private boolean routes;
+
+  GpxParser(final boolean groupSubTrails) {
+    this(groupSubTrails, -1);
+  }
+
+  GpxParser(final boolean groupSubTrails, final long elevationBatchDelay) {
+    super();
+    logMessages = ResourceBundle.getBundle("GpxLogMessages", Locale.getDefault());
+    this.groupSubTrails = groupSubTrails;
+    this.elevationBatchDelay = elevationBatchDelay;
+    trails = new LinkedHashSet<>();
+    waypoints = new WaypointColumnsBuilder(1).skipInvalidPoints(true);
+  }
+
+  /**
+   * Parses the supplied GPX document.
+   *
+   * @param input the stream from which the document is read. The stream is not closed.
+   * @return the trails found in the document
+   * @throws IOException if the stream cannot be read
+   * @throws XMLStreamException if the document is not well-formed
+   * @throws ExecutionError if the document is not a GPX document
+   */
+  Set<Trail> parse(final InputStream input) throws IOException, XMLStreamException {
+    return parse(ByteBuffer.wrap(input.readAllBytes()));
+  }
+
+  /**
+   * Parses the GPX document held in the supplied buffer, from its position to its limit.
+   *
+   * @param input the buffer holding the document. Its position and limit are not modified.
+   * @return the trails found in the document
+   * @throws XMLStreamException if the document is not well-formed
+   * @throws ExecutionError if the document is not a GPX document
+   */
+  Set<Trail> parse(final ByteBuffer input) throws XMLStreamException {
+    final XmlCursor xml = new XmlCursor(toUtf8(input));
+    if (!xml.nextChild()) {
+      throw new XMLStreamException("No root element found");
+    } else if (!xml.isElement(GPX)) {
+      throw new ExecutionError(
+          "Expected a gpx root element but found " + xml.getName(),
+          null,
+          Markers.IO.getMarker(),
+          Actions.PARSE,
+          StatusCodes.SYNTAX_ERROR);
+    }
+    while (xml.nextChild()) {
+      if (xml.isElement(WPT)) {
+        readPoint(xml, waypoints);
+      } else if (xml.isElement(RTE)) {
+        routes = true;
+        xml.skip();
+      } else if (xml.isElement(TRK)) {
+        readTrack(xml);
+      } else {
+        xml.skip();
+      }
+    }
+    finish();
+    return trails;
+  }
+
+  private void readTrack(final XmlCursor xml) throws XMLStreamException {
+    tracks++;
+    if (2 == tracks && 0 < waypoints.size()) {
+      LOGGER.warn(
+          Markers.IO.getMarker(),
+          "{} | {} | {}.",
+          Actions.PARSE,
+          StatusCodes.NOT_ACCEPTABLE.getCode(),
+          logMessages.getString("Error.WaypointsForManyTracks"));
+      if (null != pendingTrack) {
+        mapTrack(pendingTrack, false);
+        pendingTrack = null;
+      }
+    }
+    final List<WaypointColumnsBuilder> segments = new ArrayList<>(1);
+    while (xml.nextChild()) {
+      if (xml.isElement(TRKSEG)) {
+        final WaypointColumnsBuilder segment;
+        if (groupSubTrails && !segments.isEmpty()) {
+          segment = segments.get(0);
+        } else {
+          segment = new WaypointColumnsBuilder().skipInvalidPoints(true);
+          segments.add(segment);
+        }
+        while (xml.nextChild()) {
+          if (xml.isElement(TRKPT)) {
+            readPoint(xml, segment);
+          } else {
+            xml.skip();
+          }
+        }
+      } else {
+        xml.skip();
+      }
+    }
+    // The waypoints belong to the track only if it is the only one
+    if (1 == tracks && 0 < waypoints.size()) {
+      pendingTrack = segments;
+    } else {
+      mapTrack(segments, false);
+    }
+  }
+
+  private void finish() {
+    if (null != pendingTrack) {
+      mapTrack(pendingTrack, true);
+      pendingTrack = null;
+    }
+    if (0 == tracks) {
+      LOGGER.warn(
+          Markers.IO.getMarker(),
+          "{} | {} | {}.",
+          Actions.PARSE,
+          StatusCodes.NOT_FOUND.getCode(),
+          logMessages.getString("Error.NoTrack"));
+    }
+    if (routes) {
+      LOGGER.warn(
+          Markers.IO.getMarker(),
+          "{} | {} | {}.",
+          Actions.PARSE,
+          StatusCodes.NOT_ACCEPTABLE.getCode(),
+          logMessages.getString("Error.Route"));
+    }
+  }
+
+  private void mapTrack(final List<WaypointColumnsBuilder> segments, final boolean withWaypoints) {
+    if (segments.isEmpty()) {
+      LOGGER.warn(
+          Markers.IO.getMarker(),
+          "{} | {} | {}.",
+          Actions.PARSE,
+          StatusCodes.NOT_FOUND.getCode(),
+          logMessages.getString("Error.NoSegment"));
+      if (groupSubTrails) {
+        final WaypointColumnsBuilder points = new WaypointColumnsBuilder(1);
+        addTrail(withWaypoints ? addWaypoints(points) : points);
+      }
+    } else if (1 == segments.size()) {
+      addTrail(withWaypoints ? addWaypoints(segments.get(0)) : segments.get(0));
+    } else {
+      if (withWaypoints) {
+        LOGGER.warn(
+            Markers.IO.getMarker(),
+            "{} | {} | {}.",
+            Actions.PARSE,
+            StatusCodes.NOT_ACCEPTABLE.getCode(),
+            logMessages.getString("Error.WaypointsForManySegs"));
+      }
+      for (final WaypointColumnsBuilder segment : segments) {
+        addTrail(segment);
+      }
+    }
+  }
+
+  private WaypointColumnsBuilder addWaypoints(final WaypointColumnsBuilder points) {
+    if (null == waypointColumns) {
+      waypointColumns = waypoints.build();
+    }
+    for (int i = 0; i < waypointColumns.size(); i++) {
+      points.add(waypointColumns.get(i));
+    }
+    return points;
+  }
+
+  private void addTrail(final WaypointColumnsBuilder points) {
+    final WaypointColumns columns = points.build();
+    if (columns.isEmpty()) {
+      LOGGER.warn(
+          Markers.IO.getMarker(),
+          "{} | {} | {}.",
+          Actions.PARSE,
+          StatusCodes.NOT_FOUND.getCode(),
+          logMessages.getString("Error.NoPoint"));
+      return;
+    }
+    try {
+      trails.add(new TrailBuilder(columns).elevationBatchDelay(elevationBatchDelay).build());
+      LOGGER.info(
+          Markers.IO.getMarker(),
+          "{} | {} | {}.",
+          Actions.PARSE,
+          StatusCodes.OK.getCode(),
+          "Mapped one trail," + " containing " + columns.size() + " point(s)");
+    } catch (final ValidationException e) {
+      LOGGER.warn(
+          Markers.IO.getMarker(),
+          "{} | {} | {}",
+          Actions.CREATE,
+          StatusCodes.SYNTAX_ERROR.getCode(),
+          "Bean validation failed. Trail will be ignored. Problem was: "
+              + e.getLocalizedMessage());
+    }
+  }
+
+  /*
+   * Reads a wpt or trkpt element. Elements other than the elevation and the time (name, extensions,
+   * etc.) are skipped. Missing or malformed values are reported when the points are validated.
+   */
+  private void readPoint(final XmlCursor xml, final WaypointColumnsBuilder points)
+      throws XMLStreamException {
+    final double latitude = xml.getDoubleAttribute(LAT);
+    final double longitude = xml.getDoubleAttribute(LON);
+    double elevation = Double.NaN;
+    long second = Instant.MAX.getEpochSecond();
+    int nano = 0;
+    while (xml.nextChild()) {
+      if (xml.isElement(ELE)) {
+        elevation = xml.readDouble();
+      } else if (xml.isElement(TIME)) {
+        final long millis = xml.readTime();
+        if (TimestampParser.UNSUPPORTED == millis) {
+          final Instant time = parseTime(xml.getText());
+          second = null == time ? Instant.MAX.getEpochSecond() : time.getEpochSecond();
+          nano = null == time ? 0 : time.getNano();
+        } else {
+          second = Math.floorDiv(millis, 1000);
+          nano = (int) Math.floorMod(millis, 1000) * 1_000_000;
+        }
+      } else {
+        xml.skip();
+      }
+    }
+    points.add(second, nano, longitude, latitude, elevation);
+  }
+
+  /*
+   * GPX times are in UTC, with an optional offset (e.g. 2014-05-18T08:25:32Z). Used for the times
+   * the TimestampParser does not support, e.g. with a precision finer than the millisecond.
+   */
+  private static Instant parseTime(final String value) {
+    try {
+      final TemporalAccessor time = DateTimeFormatter.ISO_DATE_TIME.parse(value.trim());
+      return time.isSupported(ChronoField.OFFSET_SECONDS)
+          ? Instant.from(time)
+          : LocalDateTime.from(time).toInstant(ZoneOffset.UTC);
+    } catch (final DateTimeParseException e) {
+      return null;
+    }
+  }
+
+  /*
+   * UTF-16 documents are recognised by their byte order mark, or by their first character, which
+   * is expected to be '<'. Other encodings are expected to be compatible with ASCII.
+   */
+  private static ByteBuffer toUtf8(final ByteBuffer input) {
+    if (input.remaining() < 2) {
+      return input;
+    }
+    final int first = input.get(input.position()) & 0xFF;
+    final int second = input.get(input.position() + 1) & 0xFF;
+    final boolean bigEndian = 0xFE == first && 0xFF == second || 0 == first && '<' == second;
+    final boolean littleEndian = 0xFF == first && 0xFE == second || '<' == first && 0 == second;
+    if (!bigEndian && !littleEndian) {
+      return input;
+    }
+    final String document =
+        (bigEndian ? StandardCharsets.UTF_16BE : StandardCharsets.UTF_16LE)
+            .decode(input.duplicate())
+            .toString();
+    return ByteBuffer.wrap(document.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -17,10 +17,16 @@ package ws.sosna.pinetrail.gpx;
 
 import io.jenetics.jpx.GPX;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.xml.stream.XMLStreamException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ws.sosna.pinetrail.api.io.InputBuffer;
+import ws.sosna.pinetrail.api.io.InputBuffers;
 import ws.sosna.pinetrail.api.io.Reader;
 import ws.sosna.pinetrail.api.io.ReaderSettings;
 import ws.sosna.pinetrail.model.Trail;
@@ -28,21 +34,32 @@ import ws.sosna.pinetrail.utils.error.ExecutionError;
 import ws.sosna.pinetrail.utils.logging.Actions;
 import ws.sosna.pinetrail.utils.logging.Markers;
 import ws.sosna.pinetrail.utils.logging.StatusCodes;
+import ws.sosna.pinetrail.utils.metrics.Counter;
+import ws.sosna.pinetrail.utils.metrics.Metrics;
+import ws.sosna.pinetrail.utils.metrics.Stages;
 
 /**
  * Reader of GPX files that map the extracted information to the Pinetrail model.
  *
+ * <p>Files are loaded into a {@code ByteBuffer} (see {@code InputBuffers}), i.e. memory-mapped when
+ * large and read into a pooled buffer otherwise, and parsed straight from the buffer (see {@code
+ * GpxParser}).
+ *
  * @author Xavier Sosnovsky
  */
 class GpxReader implements Reader {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(GpxReader.class);
+  private static final Counter PARSED_BYTES = Metrics.INSTANCE.counter("parsed_bytes");
+  private static final Counter PARSED_POINTS = Metrics.INSTANCE.counter("parsed_points");
   private boolean groupSubTrails;
+  private long elevationBatchDelay;
   private final GPX.Version version;
 
   GpxReader(final GPX.Version version) {
     super();
     groupSubTrails = false;
+    elevationBatchDelay = -1;
     this.version = version;
   }
 
@@ -50,43 +67,63 @@ class GpxReader implements Reader {
   @Override
   public Reader configure(final ReaderSettings settings) {
     groupSubTrails = settings.groupSubTrails();
+    elevationBatchDelay = settings.elevationBatchDelay();
     return this;
   }
 
   /** {@inheritDoc} */
   @Override
   public Set<Trail> apply(final Path fileLocation) {
+    try (InputBuffer input = InputBuffers.INSTANCE.open(fileLocation)) {
+      return apply(input.getBuffer(), fileLocation);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Set<Trail> apply(final InputStream input, final Path fileLocation) {
+    try {
+      return apply(ByteBuffer.wrap(input.readAllBytes()), fileLocation);
+    } catch (IOException e) {
+      throw new ExecutionError(
+          "Could not read file", e, Markers.IO.getMarker(), Actions.GET, StatusCodes.SYNTAX_ERROR);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Set<Trail> apply(final ByteBuffer input, final Path fileLocation) {
+    final String location = fileLocation.toAbsolutePath().normalize().toString();
     try {
       LOGGER.info(
           Markers.IO.getMarker(),
           "{} | {} | {}.",
           Actions.PARSE,
           StatusCodes.OK.getCode(),
-          "Started parsing GPX file " + fileLocation.toAbsolutePath().normalize().toString());
-      final long start = System.currentTimeMillis();
-      final GPX gpx = GPX.reader(version).read(fileLocation);
-      final long parsingTime = System.currentTimeMillis() - start;
-      final long startMapping = System.currentTimeMillis();
-      final Set<Trail> trails = new FromJpx(groupSubTrails).mapToTrails(gpx);
-      final long end = System.currentTimeMillis();
+          "Started parsing GPX " + version.getValue() + " file " + location);
+      final long start = System.nanoTime();
+      final int bytes = input.remaining();
+      final Set<Trail> trails = new GpxParser(groupSubTrails, elevationBatchDelay).parse(input);
+      final long elapsed = System.nanoTime() - start;
+      Metrics.INSTANCE.record(Stages.PARSE, elapsed);
+      PARSED_BYTES.add(bytes);
+      for (final Trail trail : trails) {
+        PARSED_POINTS.add(trail.getColumns().size());
+      }
       LOGGER.info(
           Markers.PERFORMANCE.getMarker(),
           "{} | {} | {}",
           Actions.PARSE,
           StatusCodes.OK.getCode(),
-          "Processed "
-              + fileLocation.toAbsolutePath().normalize().toString()
-              + " in "
-              + (end - start)
-              + "ms (parsing: "
-              + parsingTime
-              + " - mapping: "
-              + (end - startMapping)
-              + ")");
+          "Processed " + location + " in " + TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms");
       return trails;
-    } catch (IOException e) {
+    } catch (XMLStreamException e) {
       throw new ExecutionError(
-          "Could not read file", e, Markers.IO.getMarker(), Actions.GET, StatusCodes.SYNTAX_ERROR);
+          "Could not parse file",
+          e,
+          Markers.IO.getMarker(),
+          Actions.PARSE,
+          StatusCodes.SYNTAX_ERROR);
     } catch (final ExecutionError e) {
       LOGGER.error(
           e.getMarker(),
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.gpx;
+
+import java.nio.ByteBuffer;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+
+/**
+ * Parses GPX timestamps straight out of a {@code ByteBuffer}, into milliseconds since the epoch.
+ *
+ * <p>The supported layout is the one found in virtually all GPX files, i.e. {@code
+ * yyyy-MM-ddTHH:mm:ss}, followed by an optional fraction of up to 3 significant digits and an
+ * optional offset ({@code Z} or {@code +HH:mm}). Timestamps without offset are considered to be in
+ * UTC. The date part usually does not change from one point to the next, so the day it stands for
+ * is cached, and only the time part is parsed for most points.
+ *
+ * <p>Other layouts (e.g. sub-millisecond precision, missing seconds, region-based zones), as well
+ * as invalid timestamps, are not parsed, so that callers can hand them over to a complete ISO-8601
+ * parser.
+ *
+ * <p>Instances are not thread-safe, and are meant to parse the timestamps of a single document.
+ *
+ * @author Xavier Sosnovsky
+ */
+final class TimestampParser {
+
+  /** Returned when the timestamp is not in the supported layout. */
+  static final long UNSUPPORTED = Long.MIN_VALUE;
+
+  private static final int DATE_LENGTH = 10;
+  private static final int DATE_TIME_LENGTH = 19;
+  private static final int MAX_OFFSET_HOURS = 18;
+  private static final int INVALID_OFFSET = Integer.MIN_VALUE;
+  private static final long SECONDS_PER_DAY = 86_400L;
+  private final byte[] date;
+  private long day;
+
+  /** Creates a new parser, with an empty cache. */
+  TimestampParser() {
+    super();
+    date = new byte[DATE_LENGTH];
+    day = UNSUPPORTED;
+  }
+
+  /**
+   * Parses the timestamp found between the supplied positions of the buffer. The position and the
+   * limit of the buffer are not used, nor modified. Leading and trailing whitespace is ignored.
+   *
+   * @param source the buffer holding the timestamp
+   * @param from the position of the first byte of the timestamp
+   * @param to the position following the last byte of the timestamp
+   * @return the milliseconds since the epoch, or {@link #UNSUPPORTED} if the timestamp is not in
+   *     the supported layout
+   */
+  long parse(final ByteBuffer source, final int from, final int to) {
+    int start = from;
+    int end = to;
+    while (start < end && isSpace(source.get(start))) {
+      start++;
+    }
+    while (end > start && isSpace(source.get(end - 1))) {
+      end--;
+    }
+    if (end - start < DATE_TIME_LENGTH
+        || 'T' != source.get(start + 10)
+        || ':' != source.get(start + 13)
+        || ':' != source.get(start + 16)) {
+      return UNSUPPORTED;
+    }
+    final long epochDay = getDay(source, start);
+    final int hour = getNumber(source, start + 11, 2);
+    final int minute = getNumber(source, start + 14, 2);
+    final int second = getNumber(source, start + 17, 2);
+    if (UNSUPPORTED == epochDay
+        || hour < 0
+        || hour > 23
+        || minute < 0
+        || minute > 59
+        || second < 0
+        || second > 59) {
+      return UNSUPPORTED;
+    }
+    int i = start + DATE_TIME_LENGTH;
+    int millis = 0;
+    if (i < end && '.' == source.get(i)) {
+      final int fractionStart = ++i;
+      for (; i < end && isDigit(source.get(i)); i++) {
+        final int digit = source.get(i) - '0';
+        if (i - fractionStart < 3) {
+          millis = 10 * millis + digit;
+        } else if (0 != digit) {
+          return UNSUPPORTED;
+        }
+      }
+      if (fractionStart == i || i - fractionStart > 9) {
+        return UNSUPPORTED;
+      }
+      for (int j = i - fractionStart; j < 3; j++) {
+        millis *= 10;
+      }
+    }
+    final int offset = getOffset(source, i, end);
+    if (INVALID_OFFSET == offset) {
+      return UNSUPPORTED;
+    }
+    final long seconds = epochDay * SECONDS_PER_DAY + hour * 3600 + minute * 60 + second - offset;
+    return seconds * 1000 + millis;
+  }
+
+  /*
+   * Returns the offset in seconds, or INVALID_OFFSET if it is not in the supported layout.
+   */
+  private static int getOffset(final ByteBuffer source, final int start, final int end) {
+    if (start == end) {
+      return 0;
+    } else if (start + 1 == end && 'Z' == source.get(start)) {
+      return 0;
+    } else if (start + 6 != end || ':' != source.get(start + 3)) {
+      return INVALID_OFFSET;
+    }
+    final byte sign = source.get(start);
+    final int hours = getNumber(source, start + 1, 2);
+    final int minutes = getNumber(source, start + 4, 2);
+    if ('+' != sign && '-' != sign
+        || hours < 0
+        || hours > MAX_OFFSET_HOURS
+        || minutes < 0
+        || minutes > 59) {
+      return INVALID_OFFSET;
+    }
+    final int offset = hours * 3600 + minutes * 60;
+    return '-' == sign ? -offset : offset;
+  }
+
+  /*
+   * Returns the day since the epoch, out of the cache if the date is the same as the one of the
+   * previous timestamp.
+   */
+  private long getDay(final ByteBuffer source, final int start) {
+    boolean same = UNSUPPORTED != day;
+    for (int i = 0; same && i < DATE_LENGTH; i++) {
+      same = date[i] == source.get(start + i);
+    }
+    if (same) {
+      return day;
+    }
+    final int year = getNumber(source, start, 4);
+    final int month = getNumber(source, start + 5, 2);
+    final int dayOfMonth = getNumber(source, start + 8, 2);
+    if (year < 0
+        || month < 0
+        || dayOfMonth < 0
+        || '-' != source.get(start + 4)
+        || '-' != source.get(start + 7)) {
+      return UNSUPPORTED;
+    }
+    try {
+      day = LocalDate.of(year, month, dayOfMonth).toEpochDay();
+    } catch (final DateTimeException e) {
+      day = UNSUPPORTED;
+      return UNSUPPORTED;
+    }
+    for (int i = 0; i < DATE_LENGTH; i++) {
+      date[i] = source.get(start + i);
+    }
+    return day;
+  }
+
+  /*
+   * Returns the number made of the supplied count of digits, or -1 if one of them is not a digit.
+   */
+  private static int getNumber(final ByteBuffer source, final int start, final int count) {
+    int number = 0;
+    for (int i = start; i < start + count; i++) {
+      final byte current = source.get(i);
+      if (!isDigit(current)) {
+        return -1;
+      }
+      number = 10 * number + current - '0';
+    }
+    return number;
+  }
+
+  private static boolean isDigit(final byte value) {
+    return value >= '0' && value <= '9';
+  }
+
+  private static boolean isSpace(final byte value) {
+    return ' ' == value || '\n' == value || '\r' == value || '\t' == value;
+  }
+}
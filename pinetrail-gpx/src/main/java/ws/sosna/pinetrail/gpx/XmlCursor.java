@@ -0,0 +1,534 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.gpx;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Minimal pull parser of XML documents, reading straight from a {@code ByteBuffer}.
+ *
+ * <p>The cursor moves from element to element (see {@link #nextChild()}), and only extracts the
+ * values the caller asks for (attributes, text content). Names are compared byte by byte, and
+ * numbers and timestamps are parsed straight out of the buffer (see {@code DecimalParser} and
+ * {@code TimestampParser}), so that no object is created for elements, attributes and values. The
+ * buffer is read using absolute positions only: neither its position nor its limit are modified.
+ *
+ * <p>The cursor checks that the tags are well-formed and properly nested, but does not validate
+ * the whole document. In particular:
+ *
+ * <ul>
+ *   <li>The document must be encoded using an ASCII-compatible character set (UTF-8, ISO-8859-1,
+ *       etc.). Non-ASCII characters are allowed in text and attribute values, which are not decoded
+ *       unless requested;
+ *   <li>Document type declarations are skipped, and entities other than the predefined ones are
+ *       not supported;
+ *   <li>Namespaces are not resolved: elements are matched using their local name, and attributes
+ *       using their full name.
+ * </ul>
+ *
+ * <p>Instances are not thread-safe, and are meant to parse a single document.
+ *
+ * @author Xavier Sosnovsky
+ */
+final class XmlCursor {
+
+  private static final byte[] AMP = {'a', 'm', 'p'};
+  private static final byte[] LT = {'l', 't'};
+  private static final byte[] GT = {'g', 't'};
+  private static final byte[] QUOT = {'q', 'u', 'o', 't'};
+  private static final byte[] APOS = {'a', 'p', 'o', 's'};
+  private final ByteBuffer buffer;
+  private final int limit;
+  private int position;
+  private int nameStart;
+  private int nameEnd;
+  private int[] attributes;
+  private int attributeCount;
+  private boolean empty;
+  private int[] openElements;
+  private int depth;
+  private byte[] text;
+  private ByteBuffer textBuffer;
+  private int textLength;
+  private final TimestampParser timestamps;
+
+  /**
+   * Creates a cursor reading the document held in the supplied buffer, from its position to its
+   * limit.
+   *
+   * @param buffer the buffer holding the document
+   */
+  XmlCursor(final ByteBuffer buffer) {
+    super();
+    this.buffer = buffer;
+    limit = buffer.limit();
+    position = buffer.position();
+    attributes = new int[16];
+    openElements = new int[32];
+    text = new byte[64];
+    textBuffer = ByteBuffer.wrap(text);
+    timestamps = new TimestampParser();
+  }
+
+  /**
+   * Moves to the next child element of the current element (or to the root element, when called
+   * for the first time). Text, comments and processing instructions are skipped.
+   *
+   * @return true if the cursor moved to a child element, false if it reached the end of the current
+   *     element instead
+   * @throws XMLStreamException if the document is not well-formed
+   */
+  boolean nextChild() throws XMLStreamException {
+    if (empty) {
+      empty = false;
+      return false;
+    }
+    while (true) {
+      final int start = indexOf((byte) '<', position);
+      if (start < 0) {
+        if (0 < depth) {
+          throw error("Unexpected end of document", limit);
+        }
+        position = limit;
+        return false;
+      }
+      final byte next = at(start + 1);
+      if ('/' == next) {
+        readEndTag(start);
+        return false;
+      } else if ('!' == next || '?' == next) {
+        skipMarkup(start);
+      } else {
+        readStartTag(start);
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Skips the current element, including its children.
+   *
+   * @throws XMLStreamException if the document is not well-formed
+   */
+  void skip() throws XMLStreamException {
+    if (empty) {
+      empty = false;
+      return;
+    }
+    final int target = depth - 1;
+    while (depth > target) {
+      nextChild();
+    }
+  }
+
+  /**
+   * Whether the current element has the supplied local name, i.e. its name without prefix.
+   *
+   * @param localName the local name, in ASCII
+   * @return whether the current element has the supplied local name
+   */
+  boolean isElement(final byte[] localName) {
+    int start = nameStart;
+    for (int i = nameStart; i < nameEnd; i++) {
+      if (':' == buffer.get(i)) {
+        start = i + 1;
+      }
+    }
+    return matches(start, nameEnd, localName);
+  }
+
+  /**
+   * Returns the name of the current element. Meant for reporting purposes only.
+   *
+   * @return the name of the current element
+   */
+  String getName() {
+    return decode(nameStart, nameEnd);
+  }
+
+  /**
+   * Returns the value of the supplied attribute of the current element, as a decimal number.
+   *
+   * @param name the name of the attribute, in ASCII
+   * @return the value of the attribute, or NaN if the attribute is missing or not a number
+   */
+  double getDoubleAttribute(final byte[] name) {
+    for (int i = 0; i < attributeCount; i += 4) {
+      if (matches(attributes[i], attributes[i + 1], name)) {
+        return DecimalParser.parse(buffer, attributes[i + 2], attributes[i + 3]);
+      }
+    }
+    return Double.NaN;
+  }
+
+  /**
+   * Reads the text content of the current element, as a decimal number, and moves to the end of
+   * the element.
+   *
+   * @return the text content of the element, or NaN if it is not a number
+   * @throws XMLStreamException if the document is not well-formed, or the element has children
+   */
+  double readDouble() throws XMLStreamException {
+    readText();
+    return DecimalParser.parse(textBuffer, 0, textLength);
+  }
+
+  /**
+   * Reads the text content of the current element, as a timestamp (see {@code TimestampParser}),
+   * and moves to the end of the element.
+   *
+   * @return the milliseconds since the epoch, or {@code TimestampParser.UNSUPPORTED} if the text
+   *     is not a timestamp in the layout supported by the parser. The text can then be obtained
+   *     using {@link #getText()}.
+   * @throws XMLStreamException if the document is not well-formed, or the element has children
+   */
+  long readTime() throws XMLStreamException {
+    readText();
+    return timestamps.parse(textBuffer, 0, textLength);
+  }
+
+  /**
+   * Reads the text content of the current element, and moves to the end of the element.
+   *
+   * @return the text content of the element
+   * @throws XMLStreamException if the document is not well-formed, or the element has children
+   */
+  String readString() throws XMLStreamException {
+    readText();
+    return getText();
+  }
+
+  /**
+   * Returns the text content of the element read last.
+   *
+   * @return the text content of the element read last
+   */
+  String getText() {
+    return new String(text, 0, textLength, StandardCharsets.UTF_8);
+  }
+
+  /*
+   * Copies the text content of the current element into the text array. Comments are skipped,
+   * CDATA sections are copied as is, and predefined entities are decoded.
+   */
+  private void readText() throws XMLStreamException {
+    textLength = 0;
+    if (empty) {
+      empty = false;
+      return;
+    }
+    while (true) {
+      final int start = indexOf((byte) '<', position);
+      if (start < 0) {
+        throw error("Unexpected end of document", limit);
+      }
+      appendText(position, start);
+      if (startsWith(start, "<![CDATA[")) {
+        final int end = indexOf("]]>", start + 9);
+        appendRaw(start + 9, end);
+        position = end + 3;
+      } else if (startsWith(start, "<!--")) {
+        position = indexOf("-->", start + 4) + 3;
+      } else if ('/' == at(start + 1)) {
+        readEndTag(start);
+        return;
+      } else {
+        throw error("Unexpected element in text-only element " + getName(), start);
+      }
+    }
+  }
+
+  private void appendText(final int from, final int to) throws XMLStreamException {
+    int i = from;
+    while (i < to) {
+      final byte current = buffer.get(i);
+      if ('&' != current) {
+        appendByte(current);
+        i++;
+        continue;
+      }
+      final int end = indexOf((byte) ';', i);
+      if (end < 0 || end > to) {
+        throw error("Unterminated entity reference", i);
+      }
+      if (matches(i + 1, end, AMP)) {
+        appendByte((byte) '&');
+      } else if (matches(i + 1, end, LT)) {
+        appendByte((byte) '<');
+      } else if (matches(i + 1, end, GT)) {
+        appendByte((byte) '>');
+      } else if (matches(i + 1, end, QUOT)) {
+        appendByte((byte) '"');
+      } else if (matches(i + 1, end, APOS)) {
+        appendByte((byte) '\'');
+      } else if ('#' == at(i + 1)) {
+        appendCharacter(i, end);
+      } else {
+        throw error("Undeclared entity " + decode(i, end + 1), i);
+      }
+      i = end + 1;
+    }
+  }
+
+  private void appendCharacter(final int start, final int end) throws XMLStreamException {
+    try {
+      final String reference = decode(start + 2, end);
+      final int codePoint =
+          reference.startsWith("x")
+              ? Integer.parseInt(reference.substring(1), 16)
+              : Integer.parseInt(reference);
+      for (final byte b :
+          new String(Character.toChars(codePoint)).getBytes(StandardCharsets.UTF_8)) {
+        appendByte(b);
+      }
+    } catch (final IllegalArgumentException e) {
+      throw error("Invalid character reference " + decode(start, end + 1), start);
+    }
+  }
+
+  private void appendRaw(final int from, final int to) {
+    for (int i = from; i < to; i++) {
+      appendByte(buffer.get(i));
+    }
+  }
+
+  private void appendByte(final byte value) {
+    if (textLength == text.length) {
+      text = Arrays.copyOf(text, 2 * text.length);
+      textBuffer = ByteBuffer.wrap(text);
+    }
+    text[textLength++] = value;
+  }
+
+  private void readStartTag(final int start) throws XMLStreamException {
+    nameStart = start + 1;
+    nameEnd = readName(nameStart);
+    attributeCount = 0;
+    int i = nameEnd;
+    while (true) {
+      final int afterSpaces = skipSpaces(i);
+      final byte current = at(afterSpaces);
+      if ('>' == current) {
+        position = afterSpaces + 1;
+        push();
+        return;
+      } else if ('/' == current) {
+        if ('>' != at(afterSpaces + 1)) {
+          throw error("Expected '>'", afterSpaces + 1);
+        }
+        position = afterSpaces + 2;
+        empty = true;
+        return;
+      } else if (afterSpaces == i) {
+        throw error("Expected whitespace, '>' or '/>' in element " + getName(), i);
+      }
+      i = readAttribute(afterSpaces);
+    }
+  }
+
+  private int readAttribute(final int start) throws XMLStreamException {
+    final int end = readName(start);
+    int i = skipSpaces(end);
+    if ('=' != at(i)) {
+      throw error("Expected '=' after attribute " + decode(start, end), i);
+    }
+    i = skipSpaces(i + 1);
+    final byte quote = at(i);
+    if ('"' != quote && '\'' != quote) {
+      throw error("Expected a quoted value for attribute " + decode(start, end), i);
+    }
+    final int valueEnd = indexOf(quote, i + 1);
+    if (valueEnd < 0) {
+      throw error("Unterminated value of attribute " + decode(start, end), i);
+    }
+    for (int j = i + 1; j < valueEnd; j++) {
+      if ('<' == buffer.get(j)) {
+        throw error("Unexpected '<' in value of attribute " + decode(start, end), j);
+      }
+    }
+    if (attributeCount + 4 > attributes.length) {
+      attributes = Arrays.copyOf(attributes, 2 * attributes.length);
+    }
+    attributes[attributeCount++] = start;
+    attributes[attributeCount++] = end;
+    attributes[attributeCount++] = i + 1;
+    attributes[attributeCount++] = valueEnd;
+    return valueEnd + 1;
+  }
+
+  private void readEndTag(final int start) throws XMLStreamException {
+    if (0 == depth) {
+      throw error("Unexpected end tag", start);
+    }
+    final int end = readName(start + 2);
+    final int openStart = openElements[2 * depth - 2];
+    final int openEnd = openElements[2 * depth - 1];
+    boolean same = end - start - 2 == openEnd - openStart;
+    for (int i = 0; same && i < openEnd - openStart; i++) {
+      same = buffer.get(start + 2 + i) == buffer.get(openStart + i);
+    }
+    if (!same) {
+      throw error(
+          "Expected end tag of " + decode(openStart, openEnd) + " but found "
+              + decode(start + 2, end),
+          start);
+    }
+    final int close = skipSpaces(end);
+    if ('>' != at(close)) {
+      throw error("Expected '>'", close);
+    }
+    position = close + 1;
+    depth--;
+  }
+
+  private void push() {
+    if (2 * depth + 2 > openElements.length) {
+      openElements = Arrays.copyOf(openElements, 2 * openElements.length);
+    }
+    openElements[2 * depth] = nameStart;
+    openElements[2 * depth + 1] = nameEnd;
+    depth++;
+  }
+
+  /*
+   * Comments, CDATA sections, processing instructions and document type declarations. The latter
+   * may contain an internal subset, between square brackets.
+   */
+  private void skipMarkup(final int start) throws XMLStreamException {
+    if (startsWith(start, "<!--")) {
+      position = indexOf("-->", start + 4) + 3;
+    } else if (startsWith(start, "<![CDATA[")) {
+      position = indexOf("]]>", start + 9) + 3;
+    } else if (startsWith(start, "<?")) {
+      position = indexOf("?>", start + 2) + 2;
+    } else if (startsWith(start, "<!DOCTYPE") && 0 == depth) {
+      int i = start + 9;
+      int brackets = 0;
+      while ('>' != at(i) || 0 < brackets) {
+        if ('[' == at(i)) {
+          brackets++;
+        } else if (']' == at(i)) {
+          brackets--;
+        }
+        i++;
+      }
+      position = i + 1;
+    } else {
+      throw error("Unexpected markup", start);
+    }
+  }
+
+  private int readName(final int start) throws XMLStreamException {
+    int i = start;
+    while (i < limit && isNameByte(buffer.get(i))) {
+      i++;
+    }
+    if (i == start) {
+      throw error("Expected a name", start);
+    }
+    return i;
+  }
+
+  private int skipSpaces(final int start) {
+    int i = start;
+    while (i < limit && isSpace(buffer.get(i))) {
+      i++;
+    }
+    return i;
+  }
+
+  private byte at(final int index) throws XMLStreamException {
+    if (index >= limit) {
+      throw error("Unexpected end of document", limit);
+    }
+    return buffer.get(index);
+  }
+
+  private int indexOf(final byte value, final int from) {
+    for (int i = from; i < limit; i++) {
+      if (value == buffer.get(i)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private int indexOf(final String value, final int from) throws XMLStreamException {
+    final byte first = (byte) value.charAt(0);
+    for (int i = indexOf(first, from); i >= 0; i = indexOf(first, i + 1)) {
+      if (startsWith(i, value)) {
+        return i;
+      }
+    }
+    throw error("Expected " + value, limit);
+  }
+
+  private boolean startsWith(final int start, final String value) {
+    if (start + value.length() > limit) {
+      return false;
+    }
+    for (int i = 0; i < value.length(); i++) {
+      if (buffer.get(start + i) != value.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean matches(final int start, final int end, final byte[] name) {
+    if (end - start != name.length) {
+      return false;
+    }
+    for (int i = 0; i < name.length; i++) {
+      if (buffer.get(start + i) != name[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String decode(final int start, final int end) {
+    final byte[] bytes = new byte[end - start];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = buffer.get(start + i);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private XMLStreamException error(final String message, final int index) {
+    return new XMLStreamException(message + " at offset " + (index - buffer.position()));
+  }
+
+  private static boolean isSpace(final byte value) {
+    return ' ' == value || '\n' == value || '\r' == value || '\t' == value;
+  }
+
+  private static boolean isNameByte(final byte value) {
+    return !isSpace(value)
+        && '<' != value
+        && '>' != value
+        && '/' != value
+        && '=' != value
+        && '"' != value
+        && '\'' != value
+        && '&' != value
+        && '?' != value
+        && '!' != value;
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.gpx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.Test;
+
+/** @author Xavier Sosnovsky */
+public class DecimalParserTest {
+
+  @Test
+  public void coordinates() {
+    check("50.1181208342");
+    check("-7.9630853701");
+    check("+214.03");
+    check("49.993740000");
+    check("0");
+    check("-0");
+    check("-0.0");
+    check("1.");
+    check(".5");
+    check("000123.4500");
+    check("180");
+    check("-450.1");
+  }
+
+  @Test
+  public void exponents() {
+    check("1e10");
+    check("1.5E-7");
+    check("2.2250738585072014E-308");
+    check("4.9e-324");
+    check("1e-400");
+    check("1.7976931348623157e308");
+    check("1e309");
+    check("123456789012345678e-30");
+    check("9007199254740993");
+    check("9999999999999999999");
+    check("0.1e-5");
+  }
+
+  @Test
+  public void manyDigits() {
+    check("3.14159265358979323846264338327950288419716939937510");
+    check("12345678901234567890");
+    check("0.30000000000000000000000000000000000001");
+    check("2.00000000000000011102230246251565404236316680908203125");
+    check("2.00000000000000011102230246251565404236316680908203124");
+  }
+
+  @Test
+  public void halfwayCases() {
+    // Halfway between two consecutive doubles, i.e. ties to be rounded to even
+    check("9007199254740993");
+    check("9007199254740995");
+    check("1.00000000000000011102230246251565404236316680908203125");
+    check("1.7976931348623158e308");
+  }
+
+  @Test
+  public void notNumbers() {
+    assertTrue(Double.isNaN(parse("")));
+    assertTrue(Double.isNaN(parse("   ")));
+    assertTrue(Double.isNaN(parse("n/a")));
+    assertTrue(Double.isNaN(parse(".")));
+    assertTrue(Double.isNaN(parse("-")));
+    assertTrue(Double.isNaN(parse("1e")));
+    assertTrue(Double.isNaN(parse("1..2")));
+    assertTrue(Double.isNaN(parse("1,5")));
+    assertTrue(Double.isNaN(parse("12 34")));
+    assertTrue(Double.isNaN(parse("NaN")));
+    assertEquals(Double.POSITIVE_INFINITY, parse("Infinity"), 0);
+  }
+
+  @Test
+  public void whitespace() {
+    assertEquals(214.03, parse(" \n\t214.03\r\n "), 0);
+  }
+
+  @Test
+  public void randomNumbers() {
+    final Random random = new Random(42);
+    for (int i = 0; i < 200_000; i++) {
+      final double value;
+      switch (i % 4) {
+        case 0:
+          value = random.nextDouble() * 360 - 180;
+          break;
+        case 1:
+          value = Double.longBitsToDouble(random.nextLong());
+          break;
+        case 2:
+          value = Math.round(random.nextDouble() * 1e9) / 1e7;
+          break;
+        default:
+          value = random.nextGaussian() * Math.pow(10, random.nextInt(40) - 20);
+          break;
+      }
+      if (!Double.isNaN(value)) {
+        check(Double.toString(value));
+        check(String.format(Locale.ROOT, "%.9f", value));
+        check(String.format(Locale.ROOT, "%.17e", value));
+      }
+      final long digits = random.nextLong() >>> random.nextInt(64);
+      check(digits + "e" + (random.nextInt(700) - 350));
+      check(Long.toUnsignedString(random.nextLong()) + "e" + (random.nextInt(60) - 30));
+    }
+  }
+
+  @Test
+  public void gpxFile() throws IOException {
+    final String gpx =
+        new String(
+            Files.readAllBytes(
+                FileSystems.getDefault().getPath(".", "src/test/resources/test_bike.gpx")),
+            StandardCharsets.UTF_8);
+    final Matcher matcher =
+        Pattern.compile("lat=\"([^\"]*)\"|lon=\"([^\"]*)\"|<ele>([^<]*)</ele>").matcher(gpx);
+    int count = 0;
+    while (matcher.find()) {
+      for (int group = 1; group <= 3; group++) {
+        if (null != matcher.group(group)) {
+          check(matcher.group(group));
+          count++;
+        }
+      }
+    }
+    assertTrue(count > 10_000);
+  }
+
+  @Test
+  public void partOfBuffer() {
+    final ByteBuffer buffer = ByteBuffer.wrap("lat=\"50.11\"".getBytes(StandardCharsets.US_ASCII));
+    assertEquals(50.11, DecimalParser.parse(buffer, 5, 10), 0);
+    assertEquals(0, buffer.position());
+  }
+
+  private void check(final String text) {
+    final double expected = Double.parseDouble(text);
+    assertEquals(
+        text,
+        Double.doubleToRawLongBits(expected),
+        Double.doubleToRawLongBits(parse(text)));
+  }
+
+  private double parse(final String text) {
+    final byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+    return DecimalParser.parse(ByteBuffer.wrap(bytes), 0, bytes.length);
+  }
+}
@@ -17,9 +17,13 @@ package ws.sosna.pinetrail.gpx;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import io.jenetics.jpx.GPX.Version;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.LinkedHashSet;
 import java.util.Set;
@@ -249,7 +253,7 @@ public class Gpx11WriterTest {
   }
 
   @Test
-  public void writeRoute() {
+  public void writeRoute() throws IOException {
     final Reader reader = new GpxReader(Version.V11);
     final Set<Trail> trails =
         reader.apply(
@@ -264,23 +268,45 @@ public class Gpx11WriterTest {
     final WriterSettings settings = new WriterSettingsBuilder().writeRoute(true).build();
     writer.configure(settings).accept(trail, path);
 
-    /*try (final BufferedReader routeReader
-        = Files.newBufferedReader(path)) {
-        final Unmarshaller u = Gpx11JaxbUtils.INSTANCE.getGpx11Context().
-            createUnmarshaller();
-        u.setSchema(Gpx11JaxbUtils.INSTANCE.getGpx11Schema());
-        final Set<String> validationIssues = new LinkedHashSet<>();
-        u.setEventHandler(event -> validationIssues.add(event.toString()));
-        final JAXBElement<GpxType> root = u.unmarshal(new StreamSource(
-            routeReader), GpxType.class);
-        if (!validationIssues.isEmpty()) {
-            fail("Found validation error");
-        }
-    } catch (final JAXBException e) {
-        fail("Received unexpected JAXBException");
-    } catch (final IOException e) {
-        fail("Received unexpected IOException");
-    }*/
+    final String content = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+    assertTrue(content.contains("<rte><rtept lat="));
+    assertFalse(content.contains("<trk"));
+    assertFalse(content.contains("<time>"));
+  }
+
+  @Test
+  public void writeSimplifiedFile() {
+    final Reader reader = new GpxReader(Version.V11);
+    final Set<Trail> trails =
+        reader.apply(
+            FileSystems.getDefault()
+                .getPath(".", "src/test/resources/2014-05-18_Wispertal_Full.gpx"));
+    assertEquals(1, trails.size());
+    final Trail trail = (Trail) trails.toArray()[0];
+
+    final Writer writer = new Gpx11Writer();
+    final WriterSettings settings =
+        new WriterSettingsBuilder()
+            .writeIdlePoints(true)
+            .writeOutliers(true)
+            .simplificationTolerance(10)
+            .build();
+    final Path path =
+        FileSystems.getDefault().getPath(".", "src/test/resources/2014-05-18_Wispertal.out.gpx");
+    writer.configure(settings).accept(trail, path);
+
+    final Reader reader2 = new GpxReader(Version.V11);
+    final Set<Trail> trails2 = reader2.apply(path);
+    assertEquals(1, trails2.size());
+    final Trail trail2 = (Trail) trails2.toArray()[0];
+
+    assertTrue(trail2.getWaypoints().size() < trail.getWaypoints().size() / 2);
+    assertEquals(
+        trail.getWaypoints().first().getCoordinates(),
+        trail2.getWaypoints().first().getCoordinates());
+    assertEquals(
+        trail.getWaypoints().last().getCoordinates(),
+        trail2.getWaypoints().last().getCoordinates());
   }
 
   @Test
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.gpx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** @author Xavier Sosnovsky */
+public class GpxOutputTest {
+
+  private Path file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = Files.createTempFile("pinetrail-output", ".gpx");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(file);
+  }
+
+  @Test
+  public void decimals() throws IOException {
+    final double[] values = {
+      0, -0.0, 1, -1, 50.1183273643, 7.9631012119, 215.47, -450, 8999.999, 0.1, 1e-12, 123456.5,
+      1234567.25, -179.99999999999997
+    };
+    try (GpxOutput output = new GpxOutput(file, false)) {
+      for (final double value : values) {
+        output.appendDecimal(value).append(" ");
+      }
+    }
+    final String[] written = read().trim().split(" ");
+    assertEquals(values.length, written.length);
+    for (int i = 0; i < values.length; i++) {
+      assertEquals(Double.valueOf(values[i]), Double.valueOf(written[i]));
+    }
+    assertEquals("50.1183273643", written[4]);
+    assertEquals("-450", written[7]);
+  }
+
+  @Test
+  public void randomDecimals() throws IOException {
+    final Random random = new Random(42);
+    final double[] values = new double[10_000];
+    for (int i = 0; i < values.length; i++) {
+      final double value = random.nextDouble() * 360 - 180;
+      values[i] = i % 2 == 0 ? value : Math.round(value * 1e7) / 1e7;
+    }
+    try (GpxOutput output = new GpxOutput(file, false)) {
+      for (final double value : values) {
+        output.appendDecimal(value).append(" ");
+      }
+    }
+    final String[] written = read().trim().split(" ");
+    for (int i = 0; i < values.length; i++) {
+      assertEquals(values[i], Double.parseDouble(written[i]), 0);
+    }
+  }
+
+  @Test
+  public void times() throws IOException {
+    final Instant[] times = {
+      Instant.parse("2014-05-18T08:27:02Z"),
+      Instant.parse("2014-05-18T23:59:59.5Z"),
+      Instant.parse("2014-05-19T00:00:00.000000001Z"),
+      Instant.parse("1969-12-31T23:59:59.123Z"),
+      Instant.parse("+12345-01-01T00:00:00Z")
+    };
+    try (GpxOutput output = new GpxOutput(file, false)) {
+      for (final Instant time : times) {
+        output.appendTime(time.getEpochSecond(), time.getNano()).append(" ");
+      }
+    }
+    final String[] written = read().trim().split(" ");
+    assertEquals("2014-05-18T08:27:02Z", written[0]);
+    assertEquals("2014-05-18T23:59:59.5Z", written[1]);
+    for (int i = 0; i < times.length; i++) {
+      assertEquals(times[i], Instant.parse(written[i]));
+    }
+  }
+
+  @Test
+  public void prettyPrinting() throws IOException {
+    try (GpxOutput output = new GpxOutput(file, true)) {
+      output.append("<a>").newLine(1).append("<b/>").newLine(0).append("</a>");
+    }
+    assertEquals("<a>\n  <b/>\n</a>", read());
+    try (GpxOutput output = new GpxOutput(file, false)) {
+      output.append("<a>").newLine(1).append("<b/>").newLine(0).append("</a>");
+    }
+    assertEquals("<a><b/></a>", read());
+  }
+
+  @Test
+  public void largeDocument() throws IOException {
+    try (GpxOutput output = new GpxOutput(file, false)) {
+      for (int i = 0; i < 100_000; i++) {
+        output.append("<p>").appendDecimal(i / 4.0).append("</p>");
+      }
+    }
+    final String content = read();
+    assertTrue(content.startsWith("<p>0</p><p>0.25</p><p>0.5</p>"));
+    assertTrue(content.endsWith("<p>24999.75</p>"));
+  }
+
+  private String read() throws IOException {
+    return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.gpx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Set;
+import java.util.prefs.Preferences;
+import javax.xml.stream.XMLStreamException;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import ws.sosna.pinetrail.model.Trail;
+import ws.sosna.pinetrail.model.Waypoint;
+import ws.sosna.pinetrail.utils.error.ExecutionError;
+
+/** @author Xavier Sosnovsky */
+public class GpxParserTest {
+
+  private static Boolean keepOutliers;
+  private static Boolean keepIdlePoints;
+
+  @BeforeClass
+  public static void setup() {
+    keepOutliers =
+        Boolean.valueOf(
+            Preferences.userRoot()
+                .node("ws.sosna.pinetrail.model.Trail")
+                .get("keepOutliers", "false"));
+    Preferences.userRoot().node("ws.sosna.pinetrail.model.Trail").put("keepOutliers", "true");
+    keepIdlePoints =
+        Boolean.valueOf(
+            Preferences.userRoot()
+                .node("ws.sosna.pinetrail.model.Trail")
+                .get("keepIdlePoints", "false"));
+    Preferences.userRoot().node("ws.sosna.pinetrail.model.Trail").put("keepIdlePoints", "true");
+  }
+
+  @AfterClass
+  public static void cleanup() {
+    Preferences.userRoot()
+        .node("ws.sosna.pinetrail.model.Trail")
+        .put("keepOutliers", keepOutliers.toString());
+    Preferences.userRoot()
+        .node("ws.sosna.pinetrail.model.Trail")
+        .put("keepIdlePoints", keepIdlePoints.toString());
+  }
+
+  @Test
+  public void parsePoints() throws XMLStreamException {
+    final String gpx =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<gpx xmlns=\"http://www.topografix.com/GPX/1/1\" version=\"1.1\""
+            + " xmlns:ext=\"http://example.org/ext\">"
+            + "<metadata><time>2015-01-01T00:00:00Z</time></metadata>"
+            + "<trk><name>Test</name><trkseg>"
+            + point("50.1181208342", "7.9630853701", "214.03", "2014-05-18T10:25:32+02:00")
+            + "<trkpt lat=\"50.1181007177\" lon=\"7.9629951809\">"
+            + "<time>2014-05-18T08:26:14.500Z</time>"
+            + "<extensions><ext:time>2000-01-01T00:00:00Z</ext:time></extensions>"
+            + "</trkpt>"
+            + point("95.0", "7.9631012119", "216.43", "2014-05-18T08:27:02Z")
+            + point("50.1184399333", "7.9631571192", "215.47", "not a time")
+            + "</trkseg></trk></gpx>";
+    final Set<Trail> trails = parse(gpx, false);
+    assertEquals(1, trails.size());
+    final Trail trail = trails.iterator().next();
+    assertEquals(2, trail.getWaypoints().size());
+    final Waypoint first = trail.getWaypoints().first();
+    assertEquals(Instant.parse("2014-05-18T08:25:32Z"), first.getTime());
+    assertEquals(50.1181208342, first.getCoordinates().getLatitude(), 0);
+    assertEquals(7.9630853701, first.getCoordinates().getLongitude(), 0);
+    assertEquals(214.03, first.getCoordinates().getElevation(), 0);
+    final Waypoint last = trail.getWaypoints().last();
+    assertEquals(Instant.parse("2014-05-18T08:26:14.500Z"), last.getTime());
+    assertEquals(null, last.getCoordinates().getElevation());
+  }
+
+  @Test
+  public void mergeSegments() throws XMLStreamException {
+    final String gpx =
+        "<gpx xmlns=\"http://www.topografix.com/GPX/1/0\" version=\"1.0\">"
+            + "<wpt lat=\"50.12\" lon=\"7.96\"><time>2014-05-18T08:00:00Z</time></wpt>"
+            + "<trk><trkseg>"
+            + point("50.1181208342", "7.9630853701", "214.03", "2014-05-18T08:25:32Z")
+            + "</trkseg><trkseg>"
+            + point("50.1181007177", "7.9629951809", "215.47", "2014-05-18T08:26:14Z")
+            + "</trkseg></trk></gpx>";
+    assertEquals(2, parse(gpx, false).size());
+    final Set<Trail> merged = parse(gpx, true);
+    assertEquals(1, merged.size());
+    assertEquals(3, merged.iterator().next().getWaypoints().size());
+  }
+
+  @Test
+  public void waypointsForManyTracks() throws XMLStreamException {
+    final String gpx =
+        "<gpx xmlns=\"http://www.topografix.com/GPX/1/1\" version=\"1.1\">"
+            + "<wpt lat=\"50.12\" lon=\"7.96\"><time>2014-05-18T08:00:00Z</time></wpt>"
+            + "<trk><trkseg>"
+            + point("50.1181208342", "7.9630853701", "214.03", "2014-05-18T08:25:32Z")
+            + "</trkseg></trk><trk><trkseg>"
+            + point("50.1181007177", "7.9629951809", "215.47", "2014-05-18T08:26:14Z")
+            + "</trkseg></trk></gpx>";
+    final Set<Trail> trails = parse(gpx, false);
+    assertEquals(2, trails.size());
+    for (final Trail trail : trails) {
+      assertEquals(1, trail.getWaypoints().size());
+    }
+  }
+
+  @Test
+  public void emptyDocument() throws XMLStreamException {
+    assertTrue(parse("<gpx version=\"1.1\"><rte/></gpx>", false).isEmpty());
+  }
+
+  @Test
+  public void subMillisecondTimes() throws XMLStreamException {
+    final String gpx =
+        "<gpx version=\"1.1\"><trk><trkseg>"
+            + point("50.1181208342", "7.9630853701", "214.03", "2014-05-18T08:25:32.123456789Z")
+            + point("50.1181007177", "7.9629951809", "215.47", "2014-05-18T08:25:33.250Z")
+            + "</trkseg></trk></gpx>";
+    final Trail trail = parse(gpx, false).iterator().next();
+    assertEquals(
+        Instant.parse("2014-05-18T08:25:32.123456789Z"), trail.getWaypoints().first().getTime());
+    assertEquals(Instant.parse("2014-05-18T08:25:33.250Z"), trail.getWaypoints().last().getTime());
+  }
+
+  @Test
+  public void utf16Document() throws XMLStreamException {
+    final String gpx =
+        "\uFEFF<?xml version=\"1.0\" encoding=\"UTF-16\"?>"
+            + "<gpx version=\"1.1\"><trk><name>Wispertal \u00e0 pied</name><trkseg>"
+            + point("50.1181208342", "7.9630853701", "214.03", "2014-05-18T08:25:32Z")
+            + "</trkseg></trk></gpx>";
+    for (final Charset charset :
+        new Charset[] {StandardCharsets.UTF_16BE, StandardCharsets.UTF_16LE}) {
+      final Set<Trail> trails = new GpxParser(false).parse(ByteBuffer.wrap(gpx.getBytes(charset)));
+      assertEquals(1, trails.size());
+      assertEquals(
+          214.03,
+          trails.iterator().next().getWaypoints().first().getCoordinates().getElevation(),
+          0);
+    }
+  }
+
+  @Test(expected = XMLStreamException.class)
+  public void notWellFormed() throws XMLStreamException {
+    parse("<gpx version=\"1.1\"><trk <name>Test</name></trk></gpx>", false);
+  }
+
+  @Test(expected = ExecutionError.class)
+  public void notGpx() throws XMLStreamException {
+    parse("<kml xmlns=\"http://www.opengis.net/kml/2.2\"/>", false);
+  }
+
+  private Set<Trail> parse(final String gpx, final boolean groupSubTrails)
+      throws XMLStreamException {
+    final ByteBuffer input = ByteBuffer.wrap(gpx.getBytes(StandardCharsets.UTF_8));
+    return new GpxParser(groupSubTrails).parse(input);
+  }
+
+  private String point(
+      final String latitude, final String longitude, final String elevation, final String time) {
+    return "<trkpt lat=\""
+        + latitude
+        + "\" lon=\""
+        + longitude
+        + "\"><ele>"
+        + elevation
+        + "</ele><time>"
+        + time
+        + "</time></trkpt>";
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.gpx;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+import org.junit.Test;
+
+/** @author Xavier Sosnovsky */
+public class TimestampParserTest {
+
+  @Test
+  public void supportedLayouts() {
+    final TimestampParser parser = new TimestampParser();
+    check(parser, "2014-05-18T08:25:32Z", "2014-05-18T08:25:32Z");
+    check(parser, "2014-05-18T08:25:33.5Z", "2014-05-18T08:25:33.500Z");
+    check(parser, "2015-05-14T10:53:08.985Z", "2015-05-14T10:53:08.985Z");
+    check(parser, "2015-05-14T10:53:08.98500Z", "2015-05-14T10:53:08.985Z");
+    check(parser, "2014-05-18T10:25:32+02:00", "2014-05-18T08:25:32Z");
+    check(parser, "2014-05-18T00:25:32-02:30", "2014-05-18T02:55:32Z");
+    check(parser, "2014-05-18T08:25:32", "2014-05-18T08:25:32Z");
+    check(parser, " \n2014-05-18T08:25:32Z\n ", "2014-05-18T08:25:32Z");
+    check(parser, "1969-12-31T23:59:59.999Z", "1969-12-31T23:59:59.999Z");
+    check(parser, "2016-02-29T12:00:00Z", "2016-02-29T12:00:00Z");
+  }
+
+  @Test
+  public void unsupportedLayouts() {
+    final TimestampParser parser = new TimestampParser();
+    unsupported(parser, "");
+    unsupported(parser, "not a time");
+    unsupported(parser, "2014-05-18T08:25:32.0001Z");
+    unsupported(parser, "2014-05-18T08:25Z");
+    unsupported(parser, "2014-05-18 08:25:32Z");
+    unsupported(parser, "2014-05-18T08:25:32+0200");
+    unsupported(parser, "2014-05-18T08:25:32Z[Europe/Berlin]");
+    unsupported(parser, "2014-05-18T08:25:32.Z");
+    unsupported(parser, "2014-05-18T24:00:00Z");
+    unsupported(parser, "2014-05-18T08:60:00Z");
+    unsupported(parser, "2014-05-18T08:25:60Z");
+    unsupported(parser, "2015-02-29T08:25:32Z");
+    unsupported(parser, "2014-13-18T08:25:32Z");
+    unsupported(parser, "2014-05-18T08:25:32+19:00");
+    unsupported(parser, "+12014-05-18T08:25:32Z");
+    unsupported(parser, "2014-05-1aT08:25:32Z");
+  }
+
+  @Test
+  public void cachedDays() {
+    final TimestampParser parser = new TimestampParser();
+    check(parser, "2014-05-18T23:59:59Z", "2014-05-18T23:59:59Z");
+    unsupported(parser, "2014-02-30T00:00:00Z");
+    check(parser, "2014-05-18T23:59:59.999Z", "2014-05-18T23:59:59.999Z");
+    check(parser, "2014-05-19T00:00:00Z", "2014-05-19T00:00:00Z");
+    check(parser, "2014-05-18T12:00:00Z", "2014-05-18T12:00:00Z");
+  }
+
+  @Test
+  public void randomTimes() {
+    final TimestampParser parser = new TimestampParser();
+    final Random random = new Random(42);
+    long millis = Instant.parse("2014-05-18T08:25:32Z").toEpochMilli();
+    for (int i = 0; i < 100_000; i++) {
+      millis += i % 1000 == 0 ? random.nextInt(Integer.MAX_VALUE) : random.nextInt(5_000);
+      final ZoneOffset offset = ZoneOffset.ofTotalSeconds(60 * (random.nextInt(24 * 60) - 720));
+      final String text =
+          DateTimeFormatter.ISO_OFFSET_DATE_TIME.format(
+              OffsetDateTime.ofInstant(Instant.ofEpochMilli(millis), offset));
+      assertEquals(text, millis, parse(parser, text));
+    }
+  }
+
+  private void check(final TimestampParser parser, final String text, final String expected) {
+    assertEquals(text, Instant.parse(expected).toEpochMilli(), parse(parser, text));
+  }
+
+  private void unsupported(final TimestampParser parser, final String text) {
+    assertEquals(text, TimestampParser.UNSUPPORTED, parse(parser, text));
+  }
+
+  private long parse(final TimestampParser parser, final String text) {
+    final byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+    return parser.parse(ByteBuffer.wrap(bytes), 0, bytes.length);
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.gpx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import javax.xml.stream.XMLStreamException;
+import org.junit.Test;
+
+/** @author Xavier Sosnovsky */
+public class XmlCursorTest {
+
+  private static final byte[] A = {'a'};
+  private static final byte[] B = {'b'};
+  private static final byte[] C = {'c'};
+  private static final byte[] X = {'x'};
+
+  @Test
+  public void navigate() throws XMLStreamException {
+    final XmlCursor xml =
+        cursor(
+            "<?xml version=\"1.0\"?><!DOCTYPE a [<!ENTITY e \"e\">]><!-- comment -->"
+                + "<ns:a x='1.5'>text<b><c/><c>skipped <![CDATA[<c>]]></c></b>"
+                + "<c x=\" 2 \" y=\"z\"/><b/></ns:a>");
+    assertTrue(xml.nextChild());
+    assertTrue(xml.isElement(A));
+    assertEquals("ns:a", xml.getName());
+    assertEquals(1.5, xml.getDoubleAttribute(X), 0);
+    assertTrue(xml.nextChild());
+    assertTrue(xml.isElement(B));
+    xml.skip();
+    assertTrue(xml.nextChild());
+    assertTrue(xml.isElement(C));
+    assertEquals(2, xml.getDoubleAttribute(X), 0);
+    assertTrue(Double.isNaN(xml.getDoubleAttribute(B)));
+    assertFalse(xml.nextChild());
+    assertTrue(xml.nextChild());
+    assertTrue(xml.isElement(B));
+    assertFalse(xml.nextChild());
+    assertFalse(xml.nextChild());
+    assertFalse(xml.nextChild());
+  }
+
+  @Test
+  public void readText() throws XMLStreamException {
+    final XmlCursor xml =
+        cursor(
+            "<a><b> 214.03 </b><b>1<!-- comment -->2<![CDATA[3]]></b><c>&lt;&#233;&#x20;&amp;"
+                + "</c><c/><b>n/a</b></a>");
+    assertTrue(xml.nextChild());
+    assertTrue(xml.nextChild());
+    assertEquals(214.03, xml.readDouble(), 0);
+    assertTrue(xml.nextChild());
+    assertEquals(123, xml.readDouble(), 0);
+    assertTrue(xml.nextChild());
+    assertEquals("<\u00e9 &", xml.readString());
+    assertTrue(xml.nextChild());
+    assertEquals("", xml.readString());
+    assertTrue(xml.nextChild());
+    assertTrue(Double.isNaN(xml.readDouble()));
+    assertFalse(xml.nextChild());
+  }
+
+  @Test(expected = XMLStreamException.class)
+  public void mismatchedTags() throws XMLStreamException {
+    final XmlCursor xml = cursor("<a><b></a></b>");
+    xml.nextChild();
+    xml.skip();
+  }
+
+  @Test(expected = XMLStreamException.class)
+  public void unterminatedDocument() throws XMLStreamException {
+    final XmlCursor xml = cursor("<a><b></b>");
+    xml.nextChild();
+    xml.skip();
+  }
+
+  @Test(expected = XMLStreamException.class)
+  public void invalidAttribute() throws XMLStreamException {
+    cursor("<a x=1/>").nextChild();
+  }
+
+  @Test(expected = XMLStreamException.class)
+  public void elementInText() throws XMLStreamException {
+    final XmlCursor xml = cursor("<a><b>1<c/></b></a>");
+    xml.nextChild();
+    xml.nextChild();
+    xml.readDouble();
+  }
+
+  @Test
+  public void bufferIsNotModified() throws XMLStreamException {
+    final ByteBuffer buffer = ByteBuffer.wrap("xx<a><b/></a>yy".getBytes(StandardCharsets.UTF_8));
+    buffer.position(2).limit(13);
+    final XmlCursor xml = new XmlCursor(buffer);
+    assertTrue(xml.nextChild());
+    xml.skip();
+    assertFalse(xml.nextChild());
+    assertEquals(2, buffer.position());
+    assertEquals(13, buffer.limit());
+  }
+
+  private XmlCursor cursor(final String document) {
+    return new XmlCursor(ByteBuffer.wrap(document.getBytes(StandardCharsets.UTF_8)));
+  }
+}
@@ -0,0 +1,491 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.index;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A spatial index over the paths of many trails, answering questions such as "which trails pass
+ * through this area?" or "which trails pass within 200 meters of this point?" without loading the
+ * trails themselves.
+ *
+ * <p>The index is an R-tree (see {@link SpatialIndexBuilder}). Its entries are chunks of up to 32
+ * consecutive segments of the path of a trail, and each node of the tree groups up to 16 entries
+ * or nodes of the level below. The tree is packed: the nodes are implied by the order of the
+ * entries, so that only the entries need to be stored, the bounding boxes of the nodes being
+ * computed again when the index is loaded.
+ *
+ * <p>Queries first select the entries whose bounding box is close enough to the query, and then
+ * check the segments of these entries. Coordinates are held as {@code float}s, i.e. rounded to a
+ * grid of at most 2^-17 degree (approx. 0.85 meter) for latitudes and for longitudes below 128
+ * degrees, and of 2^-16 degree (approx. 1.7 meter at the equator) for longitudes beyond: positions
+ * are off by less than one meter. Distances are computed on an equirectangular projection centred
+ * on the query point: they are accurate to a few meters within tens of kilometers, which is what
+ * proximity queries are about. Paths crossing the antimeridian are not supported.
+ *
+ * <p>Instances are immutable, and therefore safe for use by multiple threads.
+ *
+ * @author Xavier Sosnovsky
+ */
+public final class SpatialIndex {
+
+  /** The maximum number of segments in an entry of the index. */
+  static final int CHUNK_SIZE = 32;
+
+  /** The maximum number of children of a node of the tree. */
+  static final int NODE_SIZE = 16;
+
+  private static final int MAGIC = 0x50545349;
+  private static final int VERSION = 1;
+  private static final double METERS_PER_DEGREE = 6_371_000 * Math.PI / 180;
+  private final String[] ids;
+  private final float[][] paths;
+  private final int[] chunkTrails;
+  private final int[] chunkFroms;
+  private final int[] chunkTos;
+  private final double[][] boxes;
+
+  /**
+   * Creates a new index. The chunks must be supplied in the order in which they have been packed.
+   *
+   * @param ids the identifiers of the trails
+   * @param paths the paths of the trails, as pairs of latitude and longitude
+   * @param chunkTrails the trail of each chunk
+   * @param chunkFroms the position of the first point of each chunk in the path of its trail
+   * @param chunkTos the position of the last point of each chunk in the path of its trail
+   */
+  SpatialIndex(
+      final String[] ids,
+      final float[][] paths,
+      final int[] chunkTrails,
+      final int[] chunkFroms,
+      final int[] chunkTos) {
+    super();
+    this.ids = ids;
+    this.paths = paths;
+    this.chunkTrails = chunkTrails;
+    this.chunkFroms = chunkFroms;
+    this.chunkTos = chunkTos;
+    final List<double[]> levels = new ArrayList<>();
+    if (0 < chunkTrails.length) {
+      double[] level = new double[chunkTrails.length * 4];
+      for (int i = 0; i < chunkTrails.length; i++) {
+        final float[] path = paths[chunkTrails[i]];
+        Arrays.fill(level, i * 4, i * 4 + 2, Double.POSITIVE_INFINITY);
+        Arrays.fill(level, i * 4 + 2, i * 4 + 4, Double.NEGATIVE_INFINITY);
+        for (int p = chunkFroms[i]; p <= chunkTos[i]; p++) {
+          extend(level, i, path[p * 2], path[p * 2 + 1], path[p * 2], path[p * 2 + 1]);
+        }
+      }
+      levels.add(level);
+      while (4 < level.length) {
+        final int count = (level.length / 4 + NODE_SIZE - 1) / NODE_SIZE;
+        final double[] parent = new double[count * 4];
+        for (int i = 0; i < count; i++) {
+          Arrays.fill(parent, i * 4, i * 4 + 2, Double.POSITIVE_INFINITY);
+          Arrays.fill(parent, i * 4 + 2, i * 4 + 4, Double.NEGATIVE_INFINITY);
+          for (int c = i * NODE_SIZE; c < Math.min((i + 1) * NODE_SIZE, level.length / 4); c++) {
+            extend(parent, i, level[c * 4], level[c * 4 + 1], level[c * 4 + 2], level[c * 4 + 3]);
+          }
+        }
+        levels.add(parent);
+        level = parent;
+      }
+    }
+    boxes = levels.toArray(new double[0][]);
+  }
+
+  /**
+   * Returns the number of trails in the index.
+   *
+   * @return the number of trails
+   */
+  public int size() {
+    return ids.length;
+  }
+
+  /**
+   * Returns the identifiers of the trails whose path goes through the supplied area, i.e. of the
+   * trails with at least one point or segment within the area.
+   *
+   * @param minLatitude the southern limit of the area
+   * @param minLongitude the western limit of the area
+   * @param maxLatitude the northern limit of the area
+   * @param maxLongitude the eastern limit of the area
+   * @return the identifiers of the trails, in the order in which they have been added
+   */
+  public List<String> findByArea(
+      final double minLatitude,
+      final double minLongitude,
+      final double maxLatitude,
+      final double maxLongitude) {
+    final BitSet found = new BitSet(ids.length);
+    final double[] clip = new double[2];
+    final int[] stack = new int[boxes.length * NODE_SIZE * 2 + 2];
+    int top = push(stack, 0, boxes.length - 1, 0);
+    while (0 < top) {
+      final int node = stack[--top];
+      final int level = stack[--top];
+      final double[] box = boxes[level];
+      if (box[node * 4] > maxLatitude
+          || box[node * 4 + 1] > maxLongitude
+          || box[node * 4 + 2] < minLatitude
+          || box[node * 4 + 3] < minLongitude) {
+        continue;
+      }
+      if (0 < level) {
+        top = pushChildren(stack, top, level, node);
+      } else if (!found.get(chunkTrails[node])
+          && crosses(node, minLatitude, minLongitude, maxLatitude, maxLongitude, clip)) {
+        found.set(chunkTrails[node]);
+      }
+    }
+    final List<String> result = new ArrayList<>(found.cardinality());
+    for (int t = found.nextSetBit(0); t >= 0; t = found.nextSetBit(t + 1)) {
+      result.add(ids[t]);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the identifiers of the trails whose path goes within the supplied distance of the
+   * supplied point.
+   *
+   * @param latitude the latitude of the point
+   * @param longitude the longitude of the point
+   * @param radius the distance, in meters
+   * @return the identifiers of the trails, from the closest to the farthest
+   */
+  public List<String> findNear(final double latitude, final double longitude, final double radius) {
+    final Projection projection = new Projection(latitude, longitude);
+    final double[] distances = new double[ids.length];
+    Arrays.fill(distances, Double.POSITIVE_INFINITY);
+    final int[] stack = new int[boxes.length * NODE_SIZE * 2 + 2];
+    int top = push(stack, 0, boxes.length - 1, 0);
+    while (0 < top) {
+      final int node = stack[--top];
+      final int level = stack[--top];
+      if (projection.toBox(boxes[level], node) > radius) {
+        continue;
+      }
+      if (0 < level) {
+        top = pushChildren(stack, top, level, node);
+      } else {
+        final int trail = chunkTrails[node];
+        distances[trail] = Math.min(distances[trail], projection.toChunk(this, node));
+      }
+    }
+    final List<Integer> found = new ArrayList<>();
+    for (int t = 0; t < ids.length; t++) {
+      if (distances[t] <= radius) {
+        found.add(t);
+      }
+    }
+    found.sort(Comparator.comparingDouble(t -> distances[t]));
+    final List<String> result = new ArrayList<>(found.size());
+    for (final int t : found) {
+      result.add(ids[t]);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the identifiers of the trails whose path goes closest to the supplied point.
+   *
+   * @param latitude the latitude of the point
+   * @param longitude the longitude of the point
+   * @param count the maximum number of trails to be returned
+   * @return the identifiers of the closest trails, from the closest to the farthest
+   */
+  public List<String> findNearest(final double latitude, final double longitude, final int count) {
+    final List<String> result = new ArrayList<>();
+    if (0 == boxes.length || 0 >= count) {
+      return result;
+    }
+    final Projection projection = new Projection(latitude, longitude);
+    final BitSet found = new BitSet(ids.length);
+    // Nodes and chunks are visited by increasing distance, a chunk whose segments have been
+    // checked being queued again with its exact distance
+    final PriorityQueue<Candidate> queue =
+        new PriorityQueue<>(Comparator.comparingDouble(c -> c.distance));
+    queue.add(new Candidate(boxes.length - 1, 0, 0, false));
+    while (!queue.isEmpty() && result.size() < count) {
+      final Candidate candidate = queue.poll();
+      if (candidate.exact) {
+        final int trail = chunkTrails[candidate.node];
+        if (!found.get(trail)) {
+          found.set(trail);
+          result.add(ids[trail]);
+        }
+      } else if (0 == candidate.level) {
+        if (!found.get(chunkTrails[candidate.node])) {
+          queue.add(
+              new Candidate(0, candidate.node, projection.toChunk(this, candidate.node), true));
+        }
+      } else {
+        final int children = boxes[candidate.level - 1].length / 4;
+        for (int c = candidate.node * NODE_SIZE;
+            c < Math.min((candidate.node + 1) * NODE_SIZE, children);
+            c++) {
+          queue.add(
+              new Candidate(
+                  candidate.level - 1, c, projection.toBox(boxes[candidate.level - 1], c), false));
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Writes the index to the supplied output.
+   *
+   * @param output the output to which the index is written
+   * @throws IOException if the index cannot be written
+   */
+  public void write(final DataOutput output) throws IOException {
+    output.writeInt(MAGIC);
+    output.writeInt(VERSION);
+    output.writeInt(ids.length);
+    for (int t = 0; t < ids.length; t++) {
+      output.writeUTF(ids[t]);
+      output.writeInt(paths[t].length);
+      for (final float value : paths[t]) {
+        output.writeFloat(value);
+      }
+    }
+    output.writeInt(chunkTrails.length);
+    for (int i = 0; i < chunkTrails.length; i++) {
+      output.writeInt(chunkTrails[i]);
+      output.writeInt(chunkFroms[i]);
+      output.writeInt(chunkTos[i]);
+    }
+  }
+
+  /**
+   * Reads an index written by {@link #write(DataOutput)}.
+   *
+   * @param input the input from which the index is read
+   * @return the index
+   * @throws IOException if the index cannot be read, or if the data is not a valid index
+   */
+  public static SpatialIndex read(final DataInput input) throws IOException {
+    if (MAGIC != input.readInt() || VERSION != input.readInt()) {
+      throw new IOException("Not a spatial index, or unsupported version");
+    }
+    final String[] ids = new String[checkSize(input.readInt())];
+    final float[][] paths = new float[ids.length][];
+    for (int t = 0; t < ids.length; t++) {
+      ids[t] = input.readUTF();
+      final int length = checkSize(input.readInt());
+      if (0 != length % 2) {
+        throw new IOException("Invalid path for trail " + ids[t]);
+      }
+      paths[t] = new float[length];
+      for (int i = 0; i < length; i++) {
+        paths[t][i] = input.readFloat();
+      }
+    }
+    final int count = checkSize(input.readInt());
+    final int[] trails = new int[count];
+    final int[] froms = new int[count];
+    final int[] tos = new int[count];
+    for (int i = 0; i < count; i++) {
+      trails[i] = input.readInt();
+      froms[i] = input.readInt();
+      tos[i] = input.readInt();
+      if (0 > trails[i]
+          || trails[i] >= ids.length
+          || 0 > froms[i]
+          || froms[i] > tos[i]
+          || tos[i] >= paths[trails[i]].length / 2) {
+        throw new IOException("Invalid entry in spatial index");
+      }
+    }
+    return new SpatialIndex(ids, paths, trails, froms, tos);
+  }
+
+  String getId(final int trail) {
+    return ids[trail];
+  }
+
+  float[] getPath(final int trail) {
+    return paths[trail];
+  }
+
+  private static int checkSize(final int size) throws IOException {
+    if (0 > size) {
+      throw new IOException("Invalid size in spatial index: " + size);
+    }
+    return size;
+  }
+
+  private static void extend(
+      final double[] box,
+      final int node,
+      final double minLatitude,
+      final double minLongitude,
+      final double maxLatitude,
+      final double maxLongitude) {
+    box[node * 4] = Math.min(box[node * 4], minLatitude);
+    box[node * 4 + 1] = Math.min(box[node * 4 + 1], minLongitude);
+    box[node * 4 + 2] = Math.max(box[node * 4 + 2], maxLatitude);
+    box[node * 4 + 3] = Math.max(box[node * 4 + 3], maxLongitude);
+  }
+
+  private static int push(final int[] stack, final int top, final int level, final int node) {
+    if (0 > level) {
+      return top;
+    }
+    stack[top] = level;
+    stack[top + 1] = node;
+    return top + 2;
+  }
+
+  private int pushChildren(final int[] stack, final int top, final int level, final int node) {
+    final int children = boxes[level - 1].length / 4;
+    int newTop = top;
+    for (int c = node * NODE_SIZE; c < Math.min((node + 1) * NODE_SIZE, children); c++) {
+      newTop = push(stack, newTop, level - 1, c);
+    }
+    return newTop;
+  }
+
+  /*
+   * Whether one of the points or segments of the chunk is within the area.
+   */
+  private boolean crosses(
+      final int chunk,
+      final double minLatitude,
+      final double minLongitude,
+      final double maxLatitude,
+      final double maxLongitude,
+      final double[] clip) {
+    final float[] path = paths[chunkTrails[chunk]];
+    final int from = chunkFroms[chunk];
+    final int to = chunkTos[chunk];
+    if (from == to) {
+      return path[from * 2] >= minLatitude
+          && path[from * 2] <= maxLatitude
+          && path[from * 2 + 1] >= minLongitude
+          && path[from * 2 + 1] <= maxLongitude;
+    }
+    for (int p = from; p < to; p++) {
+      final double lat = path[p * 2];
+      final double lon = path[p * 2 + 1];
+      final double dLat = path[p * 2 + 2] - lat;
+      final double dLon = path[p * 2 + 3] - lon;
+      // Liang-Barsky clipping of the segment against the area
+      clip[0] = 0;
+      clip[1] = 1;
+      if (clip(-dLat, lat - minLatitude, clip)
+          && clip(dLat, maxLatitude - lat, clip)
+          && clip(-dLon, lon - minLongitude, clip)
+          && clip(dLon, maxLongitude - lon, clip)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean clip(final double p, final double q, final double[] clip) {
+    if (0 == p) {
+      return q >= 0;
+    }
+    final double r = q / p;
+    if (p < 0) {
+      if (r > clip[1]) {
+        return false;
+      }
+      clip[0] = Math.max(clip[0], r);
+    } else {
+      if (r < clip[0]) {
+        return false;
+      }
+      clip[1] = Math.min(clip[1], r);
+    }
+    return true;
+  }
+
+  /*
+   * Equirectangular projection centred on the query point, in meters.
+   */
+  private static final class Projection {
+
+    private final double latitude;
+    private final double longitude;
+    private final double xScale;
+
+    Projection(final double latitude, final double longitude) {
+      super();
+      this.latitude = latitude;
+      this.longitude = longitude;
+      xScale = METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+    }
+
+    double toBox(final double[] box, final int node) {
+      final double dy =
+          Math.max(0, Math.max(box[node * 4] - latitude, latitude - box[node * 4 + 2]));
+      final double dx =
+          Math.max(0, Math.max(box[node * 4 + 1] - longitude, longitude - box[node * 4 + 3]));
+      return Math.hypot(dx * xScale, dy * METERS_PER_DEGREE);
+    }
+
+    double toChunk(final SpatialIndex index, final int chunk) {
+      final float[] path = index.paths[index.chunkTrails[chunk]];
+      final int from = index.chunkFroms[chunk];
+      final int to = index.chunkTos[chunk];
+      double ax = (path[from * 2 + 1] - longitude) * xScale;
+      double ay = (path[from * 2] - latitude) * METERS_PER_DEGREE;
+      double min = Math.hypot(ax, ay);
+      for (int p = from + 1; p <= to; p++) {
+        final double bx = (path[p * 2 + 1] - longitude) * xScale;
+        final double by = (path[p * 2] - latitude) * METERS_PER_DEGREE;
+        final double dx = bx - ax;
+        final double dy = by - ay;
+        final double length = dx * dx + dy * dy;
+        final double t = 0 == length ? 0 : Math.max(0, Math.min(1, -(ax * dx + ay * dy) / length));
+        min = Math.min(min, Math.hypot(ax + t * dx, ay + t * dy));
+        ax = bx;
+        ay = by;
+      }
+      return min;
+    }
+  }
+
+  private static final class Candidate {
+
+    private final int level;
+    private final int node;
+    private final double distance;
+    private final boolean exact;
+
+    Candidate(final int level, final int node, final double distance, final boolean exact) {
+      super();
+      this.level = level;
+      this.node = node;
+      this.distance = distance;
+      this.exact = exact;
+    }
+  }
+}
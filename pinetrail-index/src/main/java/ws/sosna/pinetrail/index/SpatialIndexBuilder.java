@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import ws.sosna.pinetrail.model.Trail;
+import ws.sosna.pinetrail.model.WaypointColumns;
+
+/**
+ * Collects the paths of trails, and builds a {@code SpatialIndex} over them.
+ *
+ * <p>The index is bulk-loaded, using Sort-Tile-Recursive packing: the paths are cut into chunks of
+ * consecutive segments, the chunks are sorted into vertical slices by longitude, and each slice is
+ * sorted by latitude. Consecutive chunks are then grouped into the nodes of the tree, which are
+ * therefore nearly full and cover small, barely overlapping areas.
+ *
+ * <p>A builder can be used to build several indexes, e.g. after more trails have been added. It is
+ * not safe for use by multiple threads.
+ *
+ * @author Xavier Sosnovsky
+ */
+public final class SpatialIndexBuilder {
+
+  private final Map<String, float[]> paths;
+
+  /** Creates a new builder, without any trail. */
+  public SpatialIndexBuilder() {
+    super();
+    paths = new LinkedHashMap<>();
+  }
+
+  /**
+   * Creates a new builder, holding the trails of the supplied index.
+   *
+   * @param index the index whose trails are to be copied
+   */
+  public SpatialIndexBuilder(final SpatialIndex index) {
+    this();
+    for (int i = 0; i < index.size(); i++) {
+      paths.put(index.getId(i), index.getPath(i));
+    }
+  }
+
+  /**
+   * Adds the supplied trail, replacing the trail added under the same identifier, if any.
+   *
+   * @param id the identifier of the trail
+   * @param trail the trail to be added
+   * @return this builder
+   */
+  public SpatialIndexBuilder add(final String id, final Trail trail) {
+    return add(id, trail.getColumns());
+  }
+
+  /**
+   * Adds the path going through the supplied points, replacing the path added under the same
+   * identifier, if any. Points without coordinates are skipped.
+   *
+   * @param id the identifier of the trail
+   * @param points the points of the trail
+   * @return this builder
+   */
+  public SpatialIndexBuilder add(final String id, final WaypointColumns points) {
+    final float[] path = new float[points.size() * 2];
+    int size = 0;
+    for (int i = 0; i < points.size(); i++) {
+      final double latitude = points.getLatitude(i);
+      final double longitude = points.getLongitude(i);
+      if (!Double.isNaN(latitude) && !Double.isNaN(longitude)) {
+        path[size++] = (float) latitude;
+        path[size++] = (float) longitude;
+      }
+    }
+    paths.put(id, Arrays.copyOf(path, size));
+    return this;
+  }
+
+  /**
+   * Removes the trail added under the supplied identifier, if any.
+   *
+   * @param id the identifier of the trail
+   * @return this builder
+   */
+  public SpatialIndexBuilder remove(final String id) {
+    paths.remove(id);
+    return this;
+  }
+
+  /**
+   * Returns the number of trails added so far.
+   *
+   * @return the number of trails
+   */
+  public int size() {
+    return paths.size();
+  }
+
+  /**
+   * Builds a new index over the trails added so far.
+   *
+   * @return a new index
+   */
+  public SpatialIndex build() {
+    final String[] ids = paths.keySet().toArray(new String[0]);
+    final float[][] coordinates = paths.values().toArray(new float[0][]);
+    final List<int[]> chunks = new ArrayList<>();
+    for (int t = 0; t < coordinates.length; t++) {
+      final int points = coordinates[t].length / 2;
+      if (1 == points) {
+        chunks.add(new int[] {t, 0, 0});
+      }
+      for (int from = 0; from < points - 1; from += SpatialIndex.CHUNK_SIZE) {
+        chunks.add(new int[] {t, from, Math.min(from + SpatialIndex.CHUNK_SIZE, points - 1)});
+      }
+    }
+    final int[][] packed = pack(chunks.toArray(new int[0][]), coordinates);
+    final int[] trails = new int[packed.length];
+    final int[] froms = new int[packed.length];
+    final int[] tos = new int[packed.length];
+    for (int i = 0; i < packed.length; i++) {
+      trails[i] = packed[i][0];
+      froms[i] = packed[i][1];
+      tos[i] = packed[i][2];
+    }
+    return new SpatialIndex(ids, coordinates, trails, froms, tos);
+  }
+
+  /*
+   * Sort-Tile-Recursive packing of the chunks. Slices are visited alternately from south to north
+   * and from north to south, so that consecutive slices join up.
+   */
+  private static int[][] pack(final int[][] chunks, final float[][] coordinates) {
+    final int count = chunks.length;
+    final double[] latitudes = new double[count];
+    final double[] longitudes = new double[count];
+    final Integer[] order = new Integer[count];
+    for (int i = 0; i < count; i++) {
+      final float[] path = coordinates[chunks[i][0]];
+      final int from = chunks[i][1] * 2;
+      final int to = chunks[i][2] * 2;
+      latitudes[i] = (path[from] + (double) path[to]) / 2;
+      longitudes[i] = (path[from + 1] + (double) path[to + 1]) / 2;
+      order[i] = i;
+    }
+    Arrays.sort(order, Comparator.comparingDouble(i -> longitudes[i]));
+    final int nodes = (count + SpatialIndex.NODE_SIZE - 1) / SpatialIndex.NODE_SIZE;
+    final int sliceSize = (int) Math.ceil(Math.sqrt(nodes)) * SpatialIndex.NODE_SIZE;
+    for (int from = 0, slice = 0; from < count; from += sliceSize, slice++) {
+      final Comparator<Integer> byLatitude = Comparator.comparingDouble(i -> latitudes[i]);
+      Arrays.sort(
+          order,
+          from,
+          Math.min(from + sliceSize, count),
+          0 == slice % 2 ? byLatitude : byLatitude.reversed());
+    }
+    final int[][] packed = new int[count][];
+    for (int i = 0; i < count; i++) {
+      packed[i] = chunks[order[i]];
+    }
+    return packed;
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.index;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An index over the time spans of many trails, answering questions such as "which trails have been
+ * recorded between these dates?" or "which trail was recorded at that time?" without loading the
+ * trails themselves.
+ *
+ * <p>The index is an interval tree: the time spans are sorted by start, and form an implicit
+ * balanced binary search tree, each node knowing the latest end of the spans below it. Finding the
+ * spans overlapping a period takes {@code O(log n + m)} time, for {@code m} matching spans.
+ *
+ * <p>Instances are immutable, and therefore safe for use by multiple threads.
+ *
+ * @author Xavier Sosnovsky
+ * @see TimeIndexBuilder
+ */
+public final class TimeIndex {
+
+  private final String[] ids;
+  private final Instant[] starts;
+  private final Instant[] ends;
+  private final Instant[] maxEnds;
+
+  /**
+   * Creates a new index. The spans must be sorted by start.
+   *
+   * @param ids the identifiers of the trails
+   * @param starts the start of the time span of each trail
+   * @param ends the end of the time span of each trail
+   */
+  TimeIndex(final String[] ids, final Instant[] starts, final Instant[] ends) {
+    super();
+    this.ids = ids;
+    this.starts = starts;
+    this.ends = ends;
+    maxEnds = new Instant[ids.length];
+    computeMaxEnds(0, ids.length);
+  }
+
+  /**
+   * Returns the number of trails in the index.
+   *
+   * @return the number of trails
+   */
+  public int size() {
+    return ids.length;
+  }
+
+  /**
+   * Returns the identifiers of the trails recorded, at least partly, within the supplied period.
+   *
+   * @param from the start of the period (inclusive)
+   * @param to the end of the period (inclusive)
+   * @return the identifiers of the trails overlapping the period, sorted by start time
+   */
+  public List<String> find(final Instant from, final Instant to) {
+    final List<String> result = new ArrayList<>();
+    find(0, ids.length, from, to, result);
+    return result;
+  }
+
+  /**
+   * Returns the identifiers of the trails being recorded at the supplied time.
+   *
+   * @param time the moment in time
+   * @return the identifiers of the trails whose time span includes the supplied time, sorted by
+   *     start time
+   */
+  public List<String> findAt(final Instant time) {
+    return find(time, time);
+  }
+
+  String getId(final int index) {
+    return ids[index];
+  }
+
+  Instant getStart(final int index) {
+    return starts[index];
+  }
+
+  Instant getEnd(final int index) {
+    return ends[index];
+  }
+
+  /*
+   * The node of the range is its middle, the left and right halves being its subtrees.
+   */
+  private Instant computeMaxEnds(final int from, final int to) {
+    if (from >= to) {
+      return Instant.MIN;
+    }
+    final int node = (from + to) >>> 1;
+    Instant max = ends[node];
+    final Instant left = computeMaxEnds(from, node);
+    final Instant right = computeMaxEnds(node + 1, to);
+    max = left.isAfter(max) ? left : max;
+    max = right.isAfter(max) ? right : max;
+    maxEnds[node] = max;
+    return max;
+  }
+
+  private void find(
+      final int from,
+      final int to,
+      final Instant periodStart,
+      final Instant periodEnd,
+      final List<String> result) {
+    if (from >= to) {
+      return;
+    }
+    final int node = (from + to) >>> 1;
+    if (maxEnds[node].isBefore(periodStart)) {
+      return;
+    }
+    find(from, node, periodStart, periodEnd, result);
+    if (starts[node].isAfter(periodEnd)) {
+      return;
+    }
+    if (!ends[node].isBefore(periodStart)) {
+      result.add(ids[node]);
+    }
+    find(node + 1, to, periodStart, periodEnd, result);
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.index;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import ws.sosna.pinetrail.model.Trail;
+import ws.sosna.pinetrail.model.WaypointColumns;
+
+/**
+ * Collects the time spans of trails, and builds a {@code TimeIndex} over them.
+ *
+ * <p>A builder can be used to build several indexes, e.g. after more trails have been added. It is
+ * not safe for use by multiple threads.
+ *
+ * @author Xavier Sosnovsky
+ */
+public final class TimeIndexBuilder {
+
+  private final Map<String, Instant[]> spans;
+
+  /** Creates a new builder, without any trail. */
+  public TimeIndexBuilder() {
+    super();
+    spans = new LinkedHashMap<>();
+  }
+
+  /**
+   * Creates a new builder, holding the trails of the supplied index.
+   *
+   * @param index the index whose trails are to be copied
+   */
+  public TimeIndexBuilder(final TimeIndex index) {
+    this();
+    for (int i = 0; i < index.size(); i++) {
+      add(index.getId(i), index.getStart(i), index.getEnd(i));
+    }
+  }
+
+  /**
+   * Adds the time span of the supplied trail, replacing the trail added under the same identifier,
+   * if any. Trails without any point are ignored.
+   *
+   * @param id the identifier of the trail
+   * @param trail the trail to be added
+   * @return this builder
+   */
+  public TimeIndexBuilder add(final String id, final Trail trail) {
+    final WaypointColumns points = trail.getColumns();
+    return points.isEmpty()
+        ? remove(id)
+        : add(id, points.getTime(0), points.getTime(points.size() - 1));
+  }
+
+  /**
+   * Adds the supplied time span, replacing the one added under the same identifier, if any.
+   *
+   * @param id the identifier of the trail
+   * @param start the time of the first point of the trail
+   * @param end the time of the last point of the trail
+   * @return this builder
+   * @throws IllegalArgumentException if the end is before the start
+   */
+  public TimeIndexBuilder add(final String id, final Instant start, final Instant end) {
+    if (end.isBefore(start)) {
+      throw new IllegalArgumentException("The end of the time span is before its start: " + id);
+    }
+    spans.put(id, new Instant[] {start, end});
+    return this;
+  }
+
+  /**
+   * Removes the trail added under the supplied identifier, if any.
+   *
+   * @param id the identifier of the trail
+   * @return this builder
+   */
+  public TimeIndexBuilder remove(final String id) {
+    spans.remove(id);
+    return this;
+  }
+
+  /**
+   * Returns the number of trails added so far.
+   *
+   * @return the number of trails
+   */
+  public int size() {
+    return spans.size();
+  }
+
+  /**
+   * Builds a new index over the trails added so far.
+   *
+   * @return a new index
+   */
+  public TimeIndex build() {
+    final List<Map.Entry<String, Instant[]>> sorted = new ArrayList<>(spans.entrySet());
+    sorted.sort(
+        Comparator.comparing((Map.Entry<String, Instant[]> e) -> e.getValue()[0])
+            .thenComparing(Map.Entry::getKey));
+    final String[] ids = new String[sorted.size()];
+    final Instant[] starts = new Instant[sorted.size()];
+    final Instant[] ends = new Instant[sorted.size()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = sorted.get(i).getKey();
+      starts[i] = sorted.get(i).getValue()[0];
+      ends[i] = sorted.get(i).getValue()[1];
+    }
+    return new TimeIndex(ids, starts, ends);
+  }
+}
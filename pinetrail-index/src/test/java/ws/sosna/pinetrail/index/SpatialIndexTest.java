@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import ws.sosna.pinetrail.model.WaypointColumns;
+import ws.sosna.pinetrail.model.WaypointColumnsBuilder;
+
+/** @author Xavier Sosnovsky */
+public class SpatialIndexTest {
+
+  private static final long SECOND = 1400401532L;
+
+  @Test
+  public void findByArea() {
+    final SpatialIndex index =
+        new SpatialIndexBuilder()
+            .add("north", newLine(50.1, 7.9, 50.1, 8.1, 100))
+            .add("south", newLine(49.1, 7.9, 49.1, 8.1, 100))
+            .add("diagonal", newLine(49, 7, 51, 9, 2))
+            .build();
+    assertEquals(Arrays.asList("north", "diagonal"), index.findByArea(50, 7.95, 50.2, 8.05));
+    // No point within the area, but the only segment crosses it
+    assertEquals(Collections.singletonList("diagonal"), index.findByArea(49.9, 7.8, 50.05, 8.05));
+    assertTrue(index.findByArea(40, 7, 41, 9).isEmpty());
+  }
+
+  @Test
+  public void findNear() {
+    final SpatialIndex index =
+        new SpatialIndexBuilder()
+            .add("near", newLine(50.1, 7.9, 50.1, 8.1, 100))
+            .add("closer", newLine(50.1008, 7.9, 50.1008, 8.1, 2))
+            .add("far", newLine(50.2, 7.9, 50.2, 8.1, 100))
+            .build();
+    // 0.001 degree of latitude is about 111 meters
+    assertEquals(Arrays.asList("closer", "near"), index.findNear(50.101, 8.0, 200));
+    assertEquals(Collections.singletonList("closer"), index.findNear(50.101, 8.0, 50));
+    assertTrue(index.findNear(50.15, 8.0, 200).isEmpty());
+  }
+
+  @Test
+  public void findNearestMatchesFullScan() {
+    final Random random = new Random(42);
+    final SpatialIndexBuilder builder = new SpatialIndexBuilder();
+    final List<String> ids = new ArrayList<>();
+    for (int i = 0; i < 300; i++) {
+      final double latitude = 50 + random.nextDouble();
+      final double longitude = 8 + random.nextDouble();
+      builder.add(
+          "t" + i,
+          newLine(
+              latitude, longitude, latitude + random.nextDouble() / 50,
+              longitude + random.nextDouble() / 50, 2 + random.nextInt(200)));
+      ids.add("t" + i);
+    }
+    final SpatialIndex index = builder.build();
+    assertEquals(300, index.size());
+    final List<String> all = index.findNear(50.5, 8.5, 1e6);
+    assertEquals(300, all.size());
+    assertEquals(all.subList(0, 10), index.findNearest(50.5, 8.5, 10));
+    final List<String> inArea = index.findByArea(50, 8, 51, 9);
+    Collections.sort(inArea);
+    Collections.sort(ids);
+    assertEquals(ids, inArea);
+  }
+
+  @Test
+  public void replaceAndRemove() {
+    final SpatialIndex first =
+        new SpatialIndexBuilder()
+            .add("a", newLine(50.1, 7.9, 50.1, 8.1, 10))
+            .add("b", newLine(49.1, 7.9, 49.1, 8.1, 10))
+            .build();
+    final SpatialIndex second =
+        new SpatialIndexBuilder(first)
+            .add("a", newLine(48.1, 7.9, 48.1, 8.1, 10))
+            .remove("b")
+            .add("c", newLine(50.1, 7.9, 50.1, 8.1, 1))
+            .build();
+    assertEquals(2, second.size());
+    assertEquals(Collections.singletonList("c"), second.findByArea(50, 7, 51, 9));
+    assertEquals(Collections.singletonList("a"), second.findNearest(48, 8, 1));
+    assertEquals(Collections.singletonList("a"), first.findByArea(50, 7, 51, 9));
+  }
+
+  @Test
+  public void writeAndRead() throws IOException {
+    final SpatialIndex index =
+        new SpatialIndexBuilder()
+            .add("north", newLine(50.1, 7.9, 50.1, 8.1, 100))
+            .add("south", newLine(49.1, 7.9, 49.1, 8.1, 100))
+            .build();
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    index.write(new DataOutputStream(bytes));
+    final SpatialIndex read =
+        SpatialIndex.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    assertEquals(2, read.size());
+    assertEquals(Collections.singletonList("south"), read.findNearest(49, 8, 1));
+    assertEquals(index.findNear(50, 8, 20_000), read.findNear(50, 8, 20_000));
+  }
+
+  @Test(expected = IOException.class)
+  public void readInvalid() throws IOException {
+    SpatialIndex.read(new DataInputStream(new ByteArrayInputStream(new byte[] {1, 2, 3, 4})));
+  }
+
+  @Test
+  public void empty() {
+    final SpatialIndex index = new SpatialIndexBuilder().build();
+    assertTrue(index.findByArea(-90, -180, 90, 180).isEmpty());
+    assertTrue(index.findNear(50, 8, 1000).isEmpty());
+    assertTrue(index.findNearest(50, 8, 5).isEmpty());
+  }
+
+  private WaypointColumns newLine(
+      final double fromLatitude,
+      final double fromLongitude,
+      final double toLatitude,
+      final double toLongitude,
+      final int size) {
+    final WaypointColumnsBuilder builder = new WaypointColumnsBuilder(size).validate(false);
+    for (int i = 0; i < size; i++) {
+      final double ratio = 1 == size ? 0 : i / (size - 1.0);
+      builder.add(
+          SECOND + i,
+          0,
+          fromLongitude + ratio * (toLongitude - fromLongitude),
+          fromLatitude + ratio * (toLatitude - fromLatitude),
+          Double.NaN);
+    }
+    return builder.build();
+  }
+}
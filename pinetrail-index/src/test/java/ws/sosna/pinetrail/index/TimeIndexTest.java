@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+/** @author Xavier Sosnovsky */
+public class TimeIndexTest {
+
+  private static final long SECOND = 1400401532L;
+
+  @Test
+  public void find() {
+    final TimeIndex index =
+        new TimeIndexBuilder()
+            .add("second", at(3600), at(7200))
+            .add("first", at(0), at(1800))
+            .add("long", at(600), at(86400))
+            .build();
+    assertEquals(3, index.size());
+    assertEquals(Arrays.asList("first", "long"), index.find(at(1000), at(2000)));
+    assertEquals(Arrays.asList("long", "second"), index.find(at(1801), at(3600)));
+    assertEquals(Arrays.asList("long", "second"), index.findAt(at(7200)));
+    assertEquals(Collections.singletonList("first"), index.findAt(at(0)));
+    assertTrue(index.find(at(-100), at(-1)).isEmpty());
+    assertTrue(index.findAt(at(86401)).isEmpty());
+  }
+
+  @Test
+  public void matchesFullScan() {
+    final Random random = new Random(42);
+    final TimeIndexBuilder builder = new TimeIndexBuilder();
+    final long[][] spans = new long[1000][];
+    for (int i = 0; i < spans.length; i++) {
+      final long start = random.nextInt(365 * 86400);
+      spans[i] = new long[] {start, start + random.nextInt(6 * 3600)};
+      builder.add("t" + i, at(spans[i][0]), at(spans[i][1]));
+    }
+    final TimeIndex index = builder.build();
+    for (int q = 0; q < 100; q++) {
+      final long from = random.nextInt(365 * 86400);
+      final long to = from + random.nextInt(86400);
+      final List<String> expected = new ArrayList<>();
+      for (int i = 0; i < spans.length; i++) {
+        if (spans[i][0] <= to && spans[i][1] >= from) {
+          expected.add("t" + i);
+        }
+      }
+      final List<String> found = index.find(at(from), at(to));
+      for (int i = 1; i < found.size(); i++) {
+        final long previous = spans[Integer.parseInt(found.get(i - 1).substring(1))][0];
+        assertTrue(previous <= spans[Integer.parseInt(found.get(i).substring(1))][0]);
+      }
+      Collections.sort(expected);
+      Collections.sort(found);
+      assertEquals(expected, found);
+    }
+  }
+
+  @Test
+  public void replaceAndRemove() {
+    final TimeIndex first =
+        new TimeIndexBuilder().add("a", at(0), at(100)).add("b", at(200), at(300)).build();
+    final TimeIndex second =
+        new TimeIndexBuilder(first).add("a", at(1000), at(1100)).remove("b").build();
+    assertEquals(1, second.size());
+    assertTrue(second.findAt(at(50)).isEmpty());
+    assertEquals(Collections.singletonList("a"), second.findAt(at(1050)));
+    assertEquals(Collections.singletonList("a"), first.findAt(at(50)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void endBeforeStart() {
+    new TimeIndexBuilder().add("a", at(100), at(0));
+  }
+
+  @Test
+  public void empty() {
+    assertTrue(new TimeIndexBuilder().build().findAt(at(0)).isEmpty());
+  }
+
+  private Instant at(final long offset) {
+    return Instant.ofEpochSecond(SECOND + offset);
+  }
+}
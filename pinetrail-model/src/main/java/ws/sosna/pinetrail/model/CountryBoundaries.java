@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ws.sosna.pinetrail.utils.error.ExecutionError;
+import ws.sosna.pinetrail.utils.logging.Actions;
+import ws.sosna.pinetrail.utils.logging.Markers;
+import ws.sosna.pinetrail.utils.logging.StatusCodes;
+
+/**
+ * Resolves the country in which a point is located, without any network access, out of country
+ * boundaries stored in a local GeoJSON file (for example, the admin 0 countries of Natural Earth).
+ *
+ * <p>The file must contain a feature collection, with one feature per country, and a polygon or
+ * multipolygon geometry. The ISO 3166-1 two-letter country code is taken out of the first of the
+ * following properties holding a two-letter code: {@code ISO_A2_EH}, {@code ISO_A2}, {@code
+ * ISO3166-1-Alpha-2}, {@code iso_a2} and {@code country_code}.
+ *
+ * <p>The bounding boxes of the polygons are stored in an R-tree, bulk-loaded using the
+ * Sort-Tile-Recursive algorithm. Resolving a point is therefore a matter of a few bounding box
+ * checks, followed by a point-in-polygon test for the (typically one) candidate polygon.
+ *
+ * <p>Instances are immutable and safe for use by multiple threads.
+ *
+ * @author Xavier Sosnovsky
+ */
+public final class CountryBoundaries {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(CountryBoundaries.class);
+  private static final int NODE_CAPACITY = 16;
+  private static final String[] CODE_PROPERTIES = {
+    "ISO_A2_EH", "ISO_A2", "ISO3166-1-Alpha-2", "iso_a2", "country_code"
+  };
+  private final Node root;
+  private final int polygons;
+  private final int depth;
+
+  private CountryBoundaries(final List<Polygon> polygons) {
+    super();
+    this.polygons = polygons.size();
+    int levels = 0;
+    List<? extends Box> level = polygons;
+    while (level.size() > 1 || 0 == levels && !level.isEmpty()) {
+      level = packLevel(level);
+      levels++;
+    }
+    root = level.isEmpty() ? null : (Node) level.get(0);
+    depth = levels;
+  }
+
+  /**
+   * Loads the country boundaries stored in the supplied GeoJSON file.
+   *
+   * @param file the GeoJSON file containing the country boundaries
+   * @return the country boundaries
+   * @throws ExecutionError if the file cannot be read or is not a valid GeoJSON file
+   */
+  public static CountryBoundaries load(final Path file) {
+    final long start = System.currentTimeMillis();
+    final Object json;
+    try {
+      json = JsonParser.parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+    } catch (final IOException e) {
+      throw new ExecutionError(
+          "Could not read country boundaries from " + file,
+          e,
+          Markers.IO.getMarker(),
+          Actions.OPEN,
+          StatusCodes.INTERNAL_ERROR);
+    } catch (final IllegalArgumentException e) {
+      throw new ExecutionError(
+          "Could not parse country boundaries from " + file,
+          e,
+          Markers.IO.getMarker(),
+          Actions.PARSE,
+          StatusCodes.SYNTAX_ERROR);
+    }
+    final List<Polygon> polygons = new ArrayList<>();
+    try {
+      for (final Object feature : (List<?>) ((Map<?, ?>) json).get("features")) {
+        addFeature((Map<?, ?>) feature, polygons);
+      }
+    } catch (final ClassCastException | NullPointerException e) {
+      throw new ExecutionError(
+          file + " is not a GeoJSON feature collection",
+          e,
+          Markers.IO.getMarker(),
+          Actions.PARSE,
+          StatusCodes.SYNTAX_ERROR);
+    }
+    final CountryBoundaries boundaries = new CountryBoundaries(polygons);
+    LOGGER.info(
+        Markers.PERFORMANCE.getMarker(),
+        "{} | {} | Loaded {} country polygons from {} in {} ms",
+        Actions.PARSE,
+        StatusCodes.OK.getCode(),
+        polygons.size(),
+        file,
+        System.currentTimeMillis() - start);
+    return boundaries;
+  }
+
+  /**
+   * Returns the ISO 3166-1 two-letter code of the country in which the supplied location is.
+   *
+   * @param latitude the latitude of the location, in decimal degrees
+   * @param longitude the longitude of the location, in decimal degrees
+   * @return the country code, in upper case, or null if the location is not in any country (e.g.
+   *     at sea)
+   */
+  public String getCountry(final double latitude, final double longitude) {
+    final Polygon polygon = find(longitude, latitude);
+    return null == polygon ? null : polygon.country;
+  }
+
+  /**
+   * Returns the countries in which the points are located.
+   *
+   * <p>All the points are checked. As consecutive points are usually in the same country, the
+   * polygon found for the previous point is checked first.
+   *
+   * @param points the columns holding the points
+   * @return the codes of the countries, in the order in which they are crossed
+   */
+  public Set<String> getCountries(final WaypointColumns points) {
+    final Set<String> countries = new LinkedHashSet<>();
+    Polygon previous = null;
+    for (int i = 0; i < points.size(); i++) {
+      final double x = points.getLongitude(i);
+      final double y = points.getLatitude(i);
+      if (null == previous || !previous.contains(x, y)) {
+        previous = find(x, y);
+        if (null != previous) {
+          countries.add(previous.country);
+        }
+      }
+    }
+    return countries;
+  }
+
+  /**
+   * Returns the number of polygons describing the country boundaries.
+   *
+   * @return the number of polygons
+   */
+  public int size() {
+    return polygons;
+  }
+
+  private Polygon find(final double x, final double y) {
+    if (null == root || Double.isNaN(x) || Double.isNaN(y)) {
+      return null;
+    }
+    final Box[] stack = new Box[depth * NODE_CAPACITY + 1];
+    int top = 0;
+    stack[top++] = root;
+    while (top > 0) {
+      final Box box = stack[--top];
+      if (!box.covers(x, y)) {
+        continue;
+      }
+      if (box instanceof Polygon) {
+        final Polygon polygon = (Polygon) box;
+        if (polygon.contains(x, y)) {
+          return polygon;
+        }
+      } else {
+        for (final Box child : ((Node) box).children) {
+          stack[top++] = child;
+        }
+      }
+    }
+    return null;
+  }
+
+  private static void addFeature(final Map<?, ?> feature, final List<Polygon> polygons) {
+    final String country = getCode((Map<?, ?>) feature.get("properties"));
+    final Map<?, ?> geometry = (Map<?, ?>) feature.get("geometry");
+    if (null == country || null == geometry) {
+      LOGGER.debug(
+          Markers.IO.getMarker(),
+          "{} | {} | Ignored feature without country code or geometry: {}",
+          Actions.PARSE,
+          StatusCodes.NOT_FOUND.getCode(),
+          feature.get("properties"));
+      return;
+    }
+    final List<?> coordinates = (List<?>) geometry.get("coordinates");
+    final String type = (String) geometry.get("type");
+    if ("Polygon".equals(type)) {
+      polygons.add(new Polygon(country, coordinates));
+    } else if ("MultiPolygon".equals(type)) {
+      for (final Object polygon : coordinates) {
+        polygons.add(new Polygon(country, (List<?>) polygon));
+      }
+    }
+  }
+
+  private static String getCode(final Map<?, ?> properties) {
+    if (null != properties) {
+      for (final String property : CODE_PROPERTIES) {
+        final Object code = properties.get(property);
+        if (code instanceof String && ((String) code).matches("[A-Za-z]{2}")) {
+          return ((String) code).toUpperCase(Locale.ROOT);
+        }
+      }
+    }
+    return null;
+  }
+
+  /*
+   * Sort-Tile-Recursive bulk loading: the boxes are sorted by longitude, splitted into vertical
+   * slices, each slice is sorted by latitude and packed into nodes. The process is repeated on the
+   * nodes, until there is only one left.
+   */
+  private static List<Node> packLevel(final List<? extends Box> boxes) {
+    final Box[] items = boxes.toArray(new Box[0]);
+    final int nodeCount = (items.length + NODE_CAPACITY - 1) / NODE_CAPACITY;
+    final int sliceCount = (int) Math.ceil(Math.sqrt(nodeCount));
+    final int sliceSize = sliceCount * NODE_CAPACITY;
+    Arrays.sort(items, Comparator.comparingDouble(b -> b.minX + b.maxX));
+    final List<Node> nodes = new ArrayList<>(nodeCount);
+    for (int slice = 0; slice < items.length; slice += sliceSize) {
+      final int sliceEnd = Math.min(items.length, slice + sliceSize);
+      Arrays.sort(items, slice, sliceEnd, Comparator.comparingDouble(b -> b.minY + b.maxY));
+      for (int i = slice; i < sliceEnd; i += NODE_CAPACITY) {
+        nodes.add(new Node(Arrays.copyOfRange(items, i, Math.min(sliceEnd, i + NODE_CAPACITY))));
+      }
+    }
+    return nodes;
+  }
+
+  private abstract static class Box {
+
+    double minX = Double.POSITIVE_INFINITY;
+    double minY = Double.POSITIVE_INFINITY;
+    double maxX = Double.NEGATIVE_INFINITY;
+    double maxY = Double.NEGATIVE_INFINITY;
+
+    final boolean covers(final double x, final double y) {
+      return x >= minX && x <= maxX && y >= minY && y <= maxY;
+    }
+
+    final void extend(final double x, final double y) {
+      minX = Math.min(minX, x);
+      minY = Math.min(minY, y);
+      maxX = Math.max(maxX, x);
+      maxY = Math.max(maxY, y);
+    }
+  }
+
+  private static final class Node extends Box {
+
+    private final Box[] children;
+
+    Node(final Box[] children) {
+      super();
+      this.children = children;
+      for (final Box child : children) {
+        extend(child.minX, child.minY);
+        extend(child.maxX, child.maxY);
+      }
+    }
+  }
+
+  private static final class Polygon extends Box {
+
+    private final String country;
+    /* The exterior ring first, then the holes, with interleaved longitudes and latitudes. */
+    private final double[][] rings;
+
+    Polygon(final String country, final List<?> rings) {
+      super();
+      this.country = country;
+      this.rings = new double[rings.size()][];
+      for (int r = 0; r < this.rings.length; r++) {
+        final List<?> positions = (List<?>) rings.get(r);
+        final double[] ring = new double[positions.size() * 2];
+        for (int i = 0; i < positions.size(); i++) {
+          final List<?> position = (List<?>) positions.get(i);
+          ring[2 * i] = ((Number) position.get(0)).doubleValue();
+          ring[2 * i + 1] = ((Number) position.get(1)).doubleValue();
+          if (0 == r) {
+            extend(ring[2 * i], ring[2 * i + 1]);
+          }
+        }
+        this.rings[r] = ring;
+      }
+    }
+
+    /*
+     * Even-odd rule (ray casting) over all the rings, so that holes are excluded.
+     */
+    boolean contains(final double x, final double y) {
+      if (!covers(x, y)) {
+        return false;
+      }
+      boolean inside = false;
+      for (final double[] ring : rings) {
+        final int n = ring.length / 2;
+        for (int i = 0, j = n - 1; i < n; j = i++) {
+          final double xi = ring[2 * i];
+          final double yi = ring[2 * i + 1];
+          final double xj = ring[2 * j];
+          final double yj = ring[2 * j + 1];
+          if ((yi > y) != (yj > y) && x < (xj - xi) * (y - yi) / (yj - yi) + xi) {
+            inside = !inside;
+          }
+        }
+      }
+      return inside;
+    }
+  }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ws.sosna.pinetrail.utils.error.ExecutionError;
+import ws.sosna.pinetrail.utils.logging.Actions;
+import ws.sosna.pinetrail.utils.logging.Markers;
+import ws.sosna.pinetrail.utils.logging.StatusCodes;
+
+/**
+ * Cache of the results of reverse geocoding, keyed by geohash cells.
+ *
+ * <p>Two kinds of cells are stored:
+ *
+ * <ul>
+ *   <li>Large cells (4 characters, i.e. approx. 39 x 20 km). The first time a point falls into
+ *       such a cell, the corners of the cell are geocoded as well. If they all belong to the
+ *       country of the point, the cell is considered to be wholly inside that country, and any
+ *       point falling into the cell is resolved without calling the geocoder. Otherwise, the cell
+ *       is marked as mixed.
+ *   <li>Small cells (7 characters, i.e. approx. 150 x 150 m), storing the result of each call to
+ *       the geocoder. They are used for points falling into mixed cells, typically close to a
+ *       border.
+ * </ul>
+ *
+ * <p>Checking the corners only is a heuristic: an enclave or a border coming back into the cell
+ * between two corners would go unnoticed. This is deemed acceptable for determining the countries
+ * crossed by a trail.
+ *
+ * <p>Borders do not move, so entries never expire. They are appended to a plain text file (one
+ * {@code geohash code} pair per line), loaded when the cache is opened.
+ *
+ * <p>Instances are safe for use by multiple threads. Two threads resolving points of the same
+ * unknown cell at the same time may both call the geocoder, which does not harm.
+ *
+ * @author Xavier Sosnovsky
+ */
+final class CountryCache {
+
+  /** Resolves a location into a country code, typically by calling a remote service. */
+  @FunctionalInterface
+  interface Geocoder {
+
+    /**
+     * Returns the code of the country where the supplied location is.
+     *
+     * @param latitude the latitude of the location, in decimal degrees
+     * @param longitude the longitude of the location, in decimal degrees
+     * @return the ISO 3166-1 alpha-2 code of the country, in upper case
+     * @throws ExecutionError if the location cannot be resolved
+     */
+    String getCountry(double latitude, double longitude);
+  }
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(CountryCache.class);
+  private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+  private static final int CELL_PRECISION = 4;
+  private static final int POINT_PRECISION = 7;
+  private static final String MIXED = "-";
+  private static final double INSET = 1e-6;
+  private final Map<String, String> cells;
+  private Path file;
+
+  private CountryCache(final Path file) {
+    super();
+    this.file = file;
+    cells = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Opens (or creates) the cache stored in the supplied file.
+   *
+   * @param file the file holding the cache
+   * @return the cache
+   * @throws ExecutionError if the file cannot be read
+   */
+  static CountryCache open(final Path file) {
+    final CountryCache cache = new CountryCache(file);
+    if (Files.exists(file)) {
+      try {
+        final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        for (final String line : lines) {
+          final String[] entry = line.trim().split("\\s+");
+          if (2 == entry.length && !entry[0].startsWith("#")) {
+            cache.cells.put(entry[0], entry[1]);
+          }
+        }
+      } catch (final IOException e) {
+        throw new ExecutionError(
+            "Could not read country cache " + file,
+            e,
+            Markers.IO.getMarker(),
+            Actions.OPEN,
+            StatusCodes.INTERNAL_ERROR);
+      }
+    }
+    LOGGER.debug(
+        Markers.IO.getMarker(),
+        "{} | {} | Opened country cache {} ({} cells)",
+        Actions.OPEN,
+        StatusCodes.OK.getCode(),
+        file,
+        cache.cells.size());
+    return cache;
+  }
+
+  /**
+   * Creates a cache held in memory, lost when the process ends.
+   *
+   * @return the cache
+   */
+  static CountryCache inMemory() {
+    return new CountryCache(null);
+  }
+
+  /**
+   * Returns the country where the supplied location is, calling the geocoder only if the location
+   * cannot be resolved using the cache.
+   *
+   * @param latitude the latitude of the location, in decimal degrees
+   * @param longitude the longitude of the location, in decimal degrees
+   * @param geocoder the geocoder to be used for locations not in the cache
+   * @return the ISO 3166-1 alpha-2 code of the country
+   * @throws ExecutionError if the location is not in the cache and cannot be geocoded
+   */
+  String getCountry(final double latitude, final double longitude, final Geocoder geocoder) {
+    final String cell = encode(latitude, longitude, CELL_PRECISION);
+    final String cellCountry = cells.get(cell);
+    if (null != cellCountry && !MIXED.equals(cellCountry)) {
+      return cellCountry;
+    }
+    final String country = getPointCountry(latitude, longitude, geocoder);
+    if (null == cellCountry) {
+      classify(cell, country, geocoder);
+    }
+    return country;
+  }
+
+  /**
+   * Returns the number of cells in the cache.
+   *
+   * @return the number of cells in the cache
+   */
+  int size() {
+    return cells.size();
+  }
+
+  private String getPointCountry(
+      final double latitude, final double longitude, final Geocoder geocoder) {
+    final String point = encode(latitude, longitude, POINT_PRECISION);
+    final String cached = cells.get(point);
+    if (null != cached) {
+      return cached;
+    }
+    final String country = geocoder.getCountry(latitude, longitude);
+    store(point, country);
+    return country;
+  }
+
+  /*
+   * Geocodes the corners of the cell (slightly inside, so that they belong to the cell). A failure
+   * leaves the cell unclassified, so that it is checked again next time.
+   */
+  private void classify(final String cell, final String country, final Geocoder geocoder) {
+    final double[] box = decode(cell);
+    final double[][] corners = {
+      {box[0] + INSET, box[2] + INSET},
+      {box[0] + INSET, box[3] - INSET},
+      {box[1] - INSET, box[2] + INSET},
+      {box[1] - INSET, box[3] - INSET}
+    };
+    boolean uniform = true;
+    try {
+      for (final double[] corner : corners) {
+        if (!country.equals(getPointCountry(corner[0], corner[1], geocoder))) {
+          uniform = false;
+          break;
+        }
+      }
+    } catch (final ExecutionError e) {
+      LOGGER.debug(
+          e.getMarker(),
+          "{} | {} | Could not check whether cell {} is in a single country: {}",
+          e.getAction(),
+          e.getErrorCode().getCode(),
+          cell,
+          e.getMessage());
+      return;
+    }
+    store(cell, uniform ? country : MIXED);
+  }
+
+  /*
+   * Entries are appended to the file as soon as they are known. If the file cannot be written, the
+   * cache keeps working in memory.
+   */
+  private synchronized void store(final String cell, final String country) {
+    if (null != cells.putIfAbsent(cell, country) || null == file) {
+      return;
+    }
+    try {
+      if (null != file.getParent()) {
+        Files.createDirectories(file.getParent());
+      }
+      try (BufferedWriter writer =
+          Files.newBufferedWriter(
+              file,
+              StandardCharsets.UTF_8,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.APPEND)) {
+        writer.write(cell + " " + country);
+        writer.newLine();
+      }
+    } catch (final IOException e) {
+      LOGGER.warn(
+          Markers.IO.getMarker(),
+          "{} | {} | Could not write country cache {}: {}. The cache will not be persisted.",
+          Actions.PERSIST,
+          StatusCodes.INTERNAL_ERROR.getCode(),
+          file,
+          e.getMessage());
+      file = null;
+    }
+  }
+
+  /**
+   * Returns the geohash of the supplied location.
+   *
+   * @param latitude the latitude of the location, in decimal degrees
+   * @param longitude the longitude of the location, in decimal degrees
+   * @param precision the number of characters of the geohash
+   * @return the geohash of the location
+   */
+  static String encode(final double latitude, final double longitude, final int precision) {
+    final double[] lat = {-90, 90};
+    final double[] lon = {-180, 180};
+    final StringBuilder hash = new StringBuilder(precision);
+    boolean even = true;
+    int bits = 0;
+    int ch = 0;
+    while (hash.length() < precision) {
+      final double[] range = even ? lon : lat;
+      final double value = even ? longitude : latitude;
+      final double mid = (range[0] + range[1]) / 2;
+      ch <<= 1;
+      if (value >= mid) {
+        ch |= 1;
+        range[0] = mid;
+      } else {
+        range[1] = mid;
+      }
+      even = !even;
+      if (++bits == 5) {
+        hash.append(BASE32.charAt(ch));
+        bits = 0;
+        ch = 0;
+      }
+    }
+    return hash.toString();
+  }
+
+  /**
+   * Returns the bounding box of the supplied geohash.
+   *
+   * @param hash the geohash
+   * @return the min latitude, max latitude, min longitude and max longitude of the cell
+   */
+  static double[] decode(final String hash) {
+    final double[] lat = {-90, 90};
+    final double[] lon = {-180, 180};
+    boolean even = true;
+    for (int i = 0; i < hash.length(); i++) {
+      final int ch = BASE32.indexOf(hash.charAt(i));
+      for (int bit = 4; bit >= 0; bit--) {
+        final double[] range = even ? lon : lat;
+        final double mid = (range[0] + range[1]) / 2;
+        if (0 != (ch >> bit & 1)) {
+          range[0] = mid;
+        } else {
+          range[1] = mid;
+        }
+        even = !even;
+      }
+    }
+    return new double[] {lat[0], lat[1], lon[0], lon[1]};
+  }
+}
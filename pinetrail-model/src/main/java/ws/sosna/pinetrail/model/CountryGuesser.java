@@ -20,10 +20,13 @@ import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Random;
 import java.util.Set;
 import java.util.SortedSet;
@@ -48,8 +51,12 @@ import ws.sosna.pinetrail.utils.logging.StatusCodes;
 /**
  * Determines the countries crossed by the trail.
  *
- * <p>This is possible thanks to the reverse geocoding facility kindly offered by mapquest
- * (http://open.mapquestapi.com/nominatim/).
+ * <p>If a file containing country boundaries has been set using the {@code countryBoundaries} user
+ * setting, countries are resolved offline (see {@link CountryBoundaries}). Otherwise, this is
+ * possible thanks to the reverse geocoding facility kindly offered by mapquest
+ * (http://open.mapquestapi.com/nominatim/). The results of reverse geocoding are kept in a
+ * persistent cache (see {@link CountryCache}), so that trails located in areas already known are
+ * resolved without any network call.
  *
  * @author Xavier Sosnovsky
  */
@@ -61,6 +68,9 @@ enum CountryGuesser implements Function<SortedSet<Waypoint>, Set<String>> {
   private static final Logger LOGGER = LoggerFactory.getLogger(CountryGuesser.class);
   private static final int DEFAULT_TIME_OUT = 3000;
   private String mapQuestKey;
+  private transient Path boundariesFile;
+  private transient CountryBoundaries boundaries;
+  private transient CountryCache cache;
 
   /**
    * Determines the countries crossed by the trail, using reverse geocoding.
@@ -71,6 +81,11 @@ enum CountryGuesser implements Function<SortedSet<Waypoint>, Set<String>> {
   @Override
   public Set<String> apply(final SortedSet<Waypoint> points) {
     final Set<String> countries = new LinkedHashSet<>();
+    final CountryBoundaries offline = getBoundaries();
+    if (null != offline) {
+      countries.addAll(guessOffline(offline, points));
+      return countries;
+    }
     mapQuestKey =
         Preferences.userRoot().node("ws.sosna.pinetrail.UserSettings").get("mapQuestKey", "");
     if (mapQuestKey.isEmpty()) {
@@ -83,11 +98,16 @@ enum CountryGuesser implements Function<SortedSet<Waypoint>, Set<String>> {
       return countries;
     }
 
+    final CountryCache known = getCache();
     try {
       countries.addAll(
           getSelectedPoints(points).parallelStream()
-              .map(p -> getCountry(parseXml(askMapquest(p))))
-              .map(String::toUpperCase)
+              .map(
+                  p ->
+                      known.getCountry(
+                          p.getCoordinates().getLatitude(),
+                          p.getCoordinates().getLongitude(),
+                          this::reverseGeocode))
               .collect(Collectors.toSet()));
       return countries;
     } catch (final ExecutionError e) {
@@ -101,6 +121,91 @@ enum CountryGuesser implements Function<SortedSet<Waypoint>, Set<String>> {
     }
   }
 
+  /*
+   * When crossing borders, all the points are checked, as this only takes a few microseconds per
+   * point. Otherwise, as with online reverse geocoding, only one point is checked.
+   */
+  private Set<String> guessOffline(
+      final CountryBoundaries offline, final SortedSet<Waypoint> points) {
+    final Set<String> countries = new LinkedHashSet<>();
+    if (points.isEmpty()) {
+      return countries;
+    }
+    if (Boolean.parseBoolean(
+        Preferences.userRoot()
+            .node("ws.sosna.pinetrail.model.Trail")
+            .get("crossBorder", "false"))) {
+      countries.addAll(offline.getCountries(WaypointColumns.of(points)));
+    } else {
+      for (final Waypoint point : getSelectedPoints(points)) {
+        final String country =
+            offline.getCountry(
+                point.getCoordinates().getLatitude(), point.getCoordinates().getLongitude());
+        if (null != country) {
+          countries.add(country);
+        }
+      }
+    }
+    if (countries.isEmpty()) {
+      LOGGER.warn(
+          Markers.MODEL.getMarker(),
+          "{} | {} | {}",
+          Actions.ANALYSE,
+          StatusCodes.NOT_FOUND.getCode(),
+          "The trail is not located in any of the known countries.");
+    }
+    return countries;
+  }
+
+  /*
+   * The boundaries are loaded once, and kept as long as the file does not change.
+   */
+  private synchronized CountryBoundaries getBoundaries() {
+    final String file =
+        Preferences.userRoot()
+            .node("ws.sosna.pinetrail.UserSettings")
+            .get("countryBoundaries", "");
+    if (file.isEmpty()) {
+      return null;
+    }
+    final Path path = Paths.get(file);
+    if (!path.equals(boundariesFile)) {
+      boundariesFile = path;
+      try {
+        boundaries = CountryBoundaries.load(path);
+      } catch (final ExecutionError e) {
+        LOGGER.warn(
+            e.getMarker(),
+            "{} | {} | {}",
+            e.getAction(),
+            e.getErrorCode().getCode(),
+            e.getMessage() + (null == e.getCause() ? "" : ": " + e.getCause().getMessage()));
+        boundaries = null;
+      }
+    }
+    return boundaries;
+  }
+
+  /*
+   * The cache is opened once. If the file cannot be read, a cache held in memory is used instead.
+   */
+  private synchronized CountryCache getCache() {
+    if (null == cache) {
+      try {
+        cache = CountryCache.open(UserFiles.getConfigDirectory().resolve("countries.cache"));
+      } catch (final ExecutionError e) {
+        LOGGER.warn(
+            e.getMarker(),
+            "{} | {} | {}",
+            e.getAction(),
+            e.getErrorCode().getCode(),
+            e.getMessage() + (null == e.getCause() ? "" : ": " + e.getCause().getMessage()));
+        cache = CountryCache.inMemory();
+      }
+    }
+    return cache;
+  }
+
   /*
    * Returns the point selected for reverse geocoding out of the supplied
    * collection of waypoints. The default strategy is to randomely select one
@@ -147,17 +252,24 @@ enum CountryGuesser implements Function<SortedSet<Waypoint>, Set<String>> {
   }
 
   /*
-   * Performs the reverse geocoding of the supplied point, using the service
+   * Returns the code of the country where the supplied location is, in upper case.
+   */
+  private String reverseGeocode(final double latitude, final double longitude) {
+    return getCountry(parseXml(askMapquest(latitude, longitude))).toUpperCase(Locale.ROOT);
+  }
+
+  /*
+   * Performs the reverse geocoding of the supplied location, using the service
    * provided by Mapquest.
    */
-  private InputStream askMapquest(final Waypoint point) {
+  private InputStream askMapquest(final double latitude, final double longitude) {
     final String url =
         "http://open.mapquestapi.com/nominatim/v1/"
             + "reverse.php?format=xml"
             + "&lat="
-            + point.getCoordinates().getLatitude()
+            + latitude
             + "&lon="
-            + point.getCoordinates().getLongitude()
+            + longitude
             + "&key="
             + mapQuestKey;
     try {
@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ws.sosna.pinetrail.utils.error.ExecutionError;
+import ws.sosna.pinetrail.utils.logging.Actions;
+import ws.sosna.pinetrail.utils.logging.Markers;
+import ws.sosna.pinetrail.utils.logging.StatusCodes;
+
+/**
+ * Groups the points of several trails into the same requests for elevation data.
+ *
+ * <p>When many short trails are analysed at the same time (e.g. when cleaning a directory), each
+ * of them would otherwise send at least one request of its own, even though a single request could
+ * hold the points of several trails. Instead, the first trail asking for elevation data waits for
+ * a short delay, during which the points of the other trails asking for elevation data are added
+ * to the batch. The delay is cut short once the batch holds enough points to fill all the requests
+ * that can be in flight at the same time. The trail that waited then sends the whole batch (see
+ * {@code ElevationRequests}), while the others wait for their elevations, and the next trail asking
+ * for elevation data starts a new batch.
+ *
+ * <p>Within a batch, points falling into the same cell of the elevation cache are sent only once,
+ * and the elevation of the cell is copied to all of them.
+ *
+ * <p>Instances are safe for use by multiple threads.
+ *
+ * @author Xavier Sosnovsky
+ */
+final class ElevationBatch {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ElevationBatch.class);
+  private final ElevationRequests requests;
+  private final int maxPoints;
+  private final long delay;
+  private final Object lock;
+  private List<Pending> pending;
+  private int pendingPoints;
+  private boolean collecting;
+
+  /**
+   * Creates a new batch, sending its requests using the supplied instance.
+   *
+   * @param requests the instance sending the requests
+   * @param maxPoints the number of points after which the batch is sent without waiting any longer
+   * @param delay the maximum time, in milliseconds, during which points are collected
+   */
+  ElevationBatch(final ElevationRequests requests, final int maxPoints, final long delay) {
+    super();
+    this.requests = requests;
+    this.maxPoints = Math.max(1, maxPoints);
+    this.delay = TimeUnit.MILLISECONDS.toNanos(Math.max(0, delay));
+    lock = new Object();
+    pending = new ArrayList<>();
+  }
+
+  /**
+   * Fills the elevations of the supplied points, together with the points of the other trails
+   * asking for elevation data at the same time.
+   *
+   * @param points the columns holding the points
+   * @param elevations the array receiving the elevations, with one entry per point. Entries are
+   *     set to {@code Double.NaN} for the points whose elevation could not be retrieved
+   * @throws ExecutionError if the elevation data cannot be retrieved
+   */
+  void fetch(final WaypointColumns points, final double[] elevations) {
+    final Pending own = new Pending(points, elevations);
+    final List<Pending> batch;
+    synchronized (lock) {
+      pending.add(own);
+      pendingPoints += points.size();
+      if (collecting) {
+        if (pendingPoints >= maxPoints) {
+          lock.notifyAll();
+        }
+        batch = null;
+      } else {
+        collecting = true;
+        collect();
+        batch = pending;
+        pending = new ArrayList<>();
+        pendingPoints = 0;
+        collecting = false;
+      }
+    }
+    if (null == batch) {
+      own.await();
+    } else {
+      send(batch);
+    }
+    if (null != own.error) {
+      throw own.error;
+    }
+  }
+
+  /**
+   * Returns the instance sending the requests.
+   *
+   * @return the instance sending the requests
+   */
+  ElevationRequests getRequests() {
+    return requests;
+  }
+
+  /*
+   * Called with the lock held. Waits until the delay is over or the batch is full.
+   */
+  private void collect() {
+    final long deadline = System.nanoTime() + delay;
+    long remaining = delay;
+    while (pendingPoints < maxPoints && remaining > 0) {
+      try {
+        TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      remaining = deadline - System.nanoTime();
+    }
+  }
+
+  private void send(final List<Pending> batch) {
+    try {
+      if (1 == batch.size()) {
+        final Pending single = batch.get(0);
+        requests.fetch(single.points, single.elevations);
+        return;
+      }
+      int total = 0;
+      for (final Pending item : batch) {
+        total += item.points.size();
+      }
+      final Map<Long, Integer> cells = new HashMap<>();
+      final int[] cellOf = new int[total];
+      final WaypointColumnsBuilder unique = new WaypointColumnsBuilder().validate(false);
+      int idx = 0;
+      for (final Pending item : batch) {
+        for (int i = 0; i < item.points.size(); i++) {
+          final double latitude = item.points.getLatitude(i);
+          final double longitude = item.points.getLongitude(i);
+          final long key = ElevationCache.getKey(latitude, longitude);
+          Integer cell = 0 == key ? null : cells.get(key);
+          if (null == cell) {
+            cell = unique.size();
+            unique.add(cell, 0, longitude, latitude, Double.NaN);
+            if (0 != key) {
+              cells.put(key, cell);
+            }
+          }
+          cellOf[idx++] = cell;
+        }
+      }
+      final WaypointColumns points = unique.build();
+      final double[] fetched = new double[points.size()];
+      requests.fetch(points, fetched);
+      idx = 0;
+      for (final Pending item : batch) {
+        for (int i = 0; i < item.points.size(); i++) {
+          item.elevations[i] = fetched[cellOf[idx++]];
+        }
+      }
+      LOGGER.info(
+          Markers.MODEL.getMarker(),
+          "{} | {} | Requested elevation data for {} trails at once ({} points, {} distinct cells)",
+          Actions.GET,
+          StatusCodes.OK.getCode(),
+          batch.size(),
+          total,
+          points.size());
+    } catch (final ExecutionError e) {
+      for (final Pending item : batch) {
+        item.error = e;
+      }
+    } catch (final RuntimeException e) {
+      final ExecutionError error =
+          new ExecutionError(
+              "Error retrieving elevation data",
+              e,
+              Markers.NETWORK.getMarker(),
+              Actions.GET,
+              StatusCodes.INTERNAL_ERROR);
+      for (final Pending item : batch) {
+        item.error = error;
+      }
+    } finally {
+      for (final Pending item : batch) {
+        item.done.countDown();
+      }
+    }
+  }
+
+  private static final class Pending {
+
+    private final WaypointColumns points;
+    private final double[] elevations;
+    private final CountDownLatch done;
+    private volatile ExecutionError error;
+
+    Pending(final WaypointColumns points, final double[] elevations) {
+      super();
+      this.points = points;
+      this.elevations = elevations;
+      done = new CountDownLatch(1);
+    }
+
+    void await() {
+      try {
+        done.await();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ExecutionError(
+            "Interrupted while waiting for elevation data",
+            e,
+            Markers.NETWORK.getMarker(),
+            Actions.GET,
+            StatusCodes.INTERNAL_ERROR);
+      }
+    }
+  }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ws.sosna.pinetrail.utils.error.ExecutionError;
+import ws.sosna.pinetrail.utils.logging.Actions;
+import ws.sosna.pinetrail.utils.logging.Markers;
+import ws.sosna.pinetrail.utils.logging.StatusCodes;
+
+/**
+ * Persistent cache of elevation data, keyed by source and by cells of 0.0001 degree of latitude and
+ * longitude (i.e. approx. 11 meters).
+ *
+ * <p>Sources are told apart by a 20 bits hash of their name, so that the elevations returned by one
+ * source are not served once another source is used.
+ *
+ * <p>The cache is a hash table of fixed size, stored in a memory-mapped file, so that it survives
+ * between runs without any explicit loading or saving. The table is made of buckets of 8 entries.
+ * A cell is always stored in the bucket matching its hash and, when the bucket is full, the least
+ * recently used entry of the bucket is evicted. The size of the file is therefore bounded by the
+ * number of entries set when the cache is created.
+ *
+ * <p>Each entry takes 16 bytes: the key of the cell (8 bytes), the elevation (4 bytes) and the
+ * time of the last access (4 bytes, taken from a counter stored in the header of the file).
+ *
+ * <p>Instances are safe for use by multiple threads: each bucket is protected by one of a set of
+ * striped locks. The file is locked while in use, so that only one process at a time writes into
+ * it. Other processes fall back to a cache held in memory.
+ *
+ * @author Xavier Sosnovsky
+ */
+final class ElevationCache {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ElevationCache.class);
+  private static final int MAGIC = 0x50544543;
+  private static final int VERSION = 2;
+  private static final int HEADER_SIZE = 16;
+  private static final int CLOCK_OFFSET = 12;
+  private static final int SLOT_SIZE = 16;
+  private static final int BUCKET_SLOTS = 8;
+  private static final int BUCKET_SIZE = SLOT_SIZE * BUCKET_SLOTS;
+  private static final int LOCKS = 64;
+  private static final double PRECISION = 1e4;
+  private static final long LATITUDE_OFFSET = 1_000_000L;
+  private static final long LONGITUDE_OFFSET = 2_000_000L;
+  private static final int CELL_BITS = 43;
+  private static final int SOURCE_MASK = (1 << 20) - 1;
+  private final ByteBuffer table;
+  private final int buckets;
+  private final Object[] locks;
+  private final AtomicInteger clock;
+  private final FileChannel channel;
+
+  private ElevationCache(final ByteBuffer table, final int buckets, final FileChannel channel) {
+    super();
+    this.table = table;
+    this.buckets = buckets;
+    this.channel = channel;
+    locks = new Object[LOCKS];
+    for (int i = 0; i < LOCKS; i++) {
+      locks[i] = new Object();
+    }
+    clock = new AtomicInteger(table.getInt(CLOCK_OFFSET));
+  }
+
+  /**
+   * Opens (or creates) the cache stored in the supplied file.
+   *
+   * <p>A file created with a different number of entries, or by a previous version, is discarded.
+   * If the file is already in use by another process, a cache held in memory is returned instead.
+   *
+   * @param file the file holding the cache
+   * @param entries the maximum number of entries in the cache
+   * @return the cache
+   * @throws ExecutionError if the file cannot be opened
+   */
+  static ElevationCache open(final Path file, final int entries) {
+    final int buckets = getBuckets(entries);
+    final long size = HEADER_SIZE + (long) buckets * BUCKET_SIZE;
+    try {
+      if (null != file.getParent()) {
+        Files.createDirectories(file.getParent());
+      }
+      final FileChannel channel =
+          FileChannel.open(
+              file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      FileLock lock;
+      try {
+        lock = channel.tryLock();
+      } catch (final OverlappingFileLockException e) {
+        lock = null;
+      }
+      if (null == lock) {
+        channel.close();
+        LOGGER.warn(
+            Markers.IO.getMarker(),
+            "{} | {} | Elevation cache {} is in use by another process. A temporary cache will"
+                + " be used instead.",
+            Actions.OPEN,
+            StatusCodes.NOT_ACCEPTABLE.getCode(),
+            file);
+        return inMemory(entries);
+      }
+      final boolean valid = channel.size() == size && hasValidHeader(channel, buckets);
+      if (!valid) {
+        channel.truncate(0);
+      }
+      final ByteBuffer table = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      if (!valid) {
+        writeHeader(table, buckets);
+      }
+      // The lock remains valid as long as the channel is open, i.e. until the cache is closed or
+      // the process ends.
+      LOGGER.debug(
+          Markers.IO.getMarker(),
+          "{} | {} | Opened elevation cache {} ({} entries)",
+          Actions.OPEN,
+          StatusCodes.OK.getCode(),
+          file,
+          buckets * BUCKET_SLOTS);
+      return new ElevationCache(table, buckets, channel);
+    } catch (final IOException e) {
+      throw new ExecutionError(
+          "Could not open elevation cache " + file,
+          e,
+          Markers.IO.getMarker(),
+          Actions.OPEN,
+          StatusCodes.INTERNAL_ERROR);
+    }
+  }
+
+  /**
+   * Creates a cache held in memory, lost when the process ends.
+   *
+   * @param entries the maximum number of entries in the cache
+   * @return the cache
+   */
+  static ElevationCache inMemory(final int entries) {
+    final int buckets = getBuckets(entries);
+    final ByteBuffer table = ByteBuffer.allocate(HEADER_SIZE + buckets * BUCKET_SIZE);
+    writeHeader(table, buckets);
+    return new ElevationCache(table, buckets, null);
+  }
+
+  /**
+   * Returns the elevation stored for the cell containing the supplied location.
+   *
+   * @param source the name of the source that returned the elevation
+   * @param latitude the latitude of the location, in decimal degrees
+   * @param longitude the longitude of the location, in decimal degrees
+   * @return the elevation, or {@code Double.NaN} if the cell is not in the cache
+   */
+  double get(final String source, final double latitude, final double longitude) {
+    final long key = getKey(source, latitude, longitude);
+    if (0 == key) {
+      return Double.NaN;
+    }
+    final int bucket = getBucket(key);
+    final int start = HEADER_SIZE + bucket * BUCKET_SIZE;
+    synchronized (locks[bucket % LOCKS]) {
+      for (int pos = start; pos < start + BUCKET_SIZE; pos += SLOT_SIZE) {
+        if (table.getLong(pos) == key) {
+          table.putInt(pos + 12, tick());
+          return table.getFloat(pos + 8);
+        }
+      }
+    }
+    return Double.NaN;
+  }
+
+  /**
+   * Stores the elevation of the cell containing the supplied location.
+   *
+   * @param source the name of the source that returned the elevation
+   * @param latitude the latitude of the location, in decimal degrees
+   * @param longitude the longitude of the location, in decimal degrees
+   * @param elevation the elevation, in meters
+   */
+  void put(
+      final String source, final double latitude, final double longitude, final double elevation) {
+    final long key = getKey(source, latitude, longitude);
+    if (0 == key || Double.isNaN(elevation)) {
+      return;
+    }
+    final int bucket = getBucket(key);
+    final int start = HEADER_SIZE + bucket * BUCKET_SIZE;
+    synchronized (locks[bucket % LOCKS]) {
+      int target = start;
+      int oldest = Integer.MAX_VALUE;
+      for (int pos = start; pos < start + BUCKET_SIZE; pos += SLOT_SIZE) {
+        final long current = table.getLong(pos);
+        if (current == key || 0 == current) {
+          target = pos;
+          break;
+        }
+        final int stamp = table.getInt(pos + 12);
+        if (stamp < oldest) {
+          oldest = stamp;
+          target = pos;
+        }
+      }
+      table.putLong(target, key);
+      table.putFloat(target + 8, (float) elevation);
+      table.putInt(target + 12, tick());
+    }
+  }
+
+  /**
+   * Writes the cache to disk and releases the file. The cache must not be used afterwards.
+   *
+   * <p>Closing the cache is not required for the entries to be persisted: the operating system
+   * writes the mapped memory to disk, at the latest when the process ends.
+   *
+   * @throws ExecutionError if the file cannot be written
+   */
+  void close() {
+    if (null != channel) {
+      try {
+        ((MappedByteBuffer) table).force();
+        channel.close();
+      } catch (final IOException e) {
+        throw new ExecutionError(
+            "Could not close elevation cache",
+            e,
+            Markers.IO.getMarker(),
+            Actions.CLOSE,
+            StatusCodes.INTERNAL_ERROR);
+      }
+    }
+  }
+
+  /**
+   * Returns the maximum number of entries in the cache.
+   *
+   * @return the maximum number of entries in the cache
+   */
+  int capacity() {
+    return buckets * BUCKET_SLOTS;
+  }
+
+  /*
+   * The clock is persisted in the header, so that the recency of the entries survives between
+   * runs. It is only written after being incremented, so concurrent writes do not matter much: at
+   * worst, the persisted value is slightly behind.
+   */
+  private int tick() {
+    final int now = clock.incrementAndGet();
+    table.putInt(CLOCK_OFFSET, now);
+    return now;
+  }
+
+  private int getBucket(final long key) {
+    final long hash = key * 0x9E3779B97F4A7C15L;
+    return (int) ((hash >>> 33) % buckets);
+  }
+
+  /**
+   * Returns the key of the cell holding the supplied coordinates.
+   *
+   * <p>0 is reserved for empty slots. Keys built out of valid coordinates are never 0, thanks to
+   * the offsets. They fit in the lowest 43 bits, the latitude taking 21 bits and the longitude 22.
+   *
+   * @param latitude the latitude, in decimal degrees
+   * @param longitude the longitude, in decimal degrees
+   * @return the key of the cell, or 0 if one of the coordinates is not a number
+   */
+  static long getKey(final double latitude, final double longitude) {
+    if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+      return 0;
+    }
+    final long lat = Math.round(latitude * PRECISION) + LATITUDE_OFFSET;
+    final long lon = Math.round(longitude * PRECISION) + LONGITUDE_OFFSET;
+    return lat << 22 | lon;
+  }
+
+  private static long getKey(final String source, final double latitude, final double longitude) {
+    final long cell = getKey(latitude, longitude);
+    return 0 == cell ? 0 : (long) (source.hashCode() & SOURCE_MASK) << CELL_BITS | cell;
+  }
+
+  private static int getBuckets(final int entries) {
+    return Math.max(1, (entries + BUCKET_SLOTS - 1) / BUCKET_SLOTS);
+  }
+
+  private static boolean hasValidHeader(final FileChannel channel, final int buckets)
+      throws IOException {
+    final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    channel.read(header, 0);
+    return MAGIC == header.getInt(0) && VERSION == header.getInt(4) && buckets == header.getInt(8);
+  }
+
+  private static void writeHeader(final ByteBuffer table, final int buckets) {
+    table.putInt(0, MAGIC);
+    table.putInt(4, VERSION);
+    table.putInt(8, buckets);
+    table.putInt(CLOCK_OFFSET, 0);
+  }
+}
@@ -15,31 +15,19 @@
  */
 package ws.sosna.pinetrail.model;
 
-import java.io.DataOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.SocketTimeoutException;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.LinkedHashSet;
-import java.util.List;
-import java.util.Set;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.ServiceLoader;
 import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.prefs.Preferences;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 import ws.sosna.pinetrail.utils.error.ExecutionError;
 import ws.sosna.pinetrail.utils.logging.Actions;
 import ws.sosna.pinetrail.utils.logging.Markers;
@@ -49,8 +37,31 @@ import ws.sosna.pinetrail.utils.logging.StatusCodes;
  * Determines the elevation of the points in the trail.
  *
  * <p>Regardless of whether the barometric pressure or the GPS signal is used to measure the
- * elevation, GPX files often contain elevation data of questionable accuracy. Therefore, the
- * elevation web service kindly offered by MapQuest is used to get better elevation data.
+ * elevation, GPX files often contain elevation data of questionable accuracy. Therefore, an {@code
+ * ElevationSource} is used to get better elevation data. The source is selected as follows:
+ *
+ * <ol>
+ *   <li>A source registered using the {@code ServiceLoader} mechanism, if any;
+ *   <li>Local SRTM height tiles, if a directory has been set using the {@code elevationTiles} user
+ *       setting;
+ *   <li>The elevation web service kindly offered by MapQuest, if a key has been set using the
+ *       {@code mapQuestKey} user setting.
+ * </ol>
+ *
+ * <p>The elevations retrieved from remote sources (i.e. sources with a rate limit) are stored in a
+ * persistent cache, keyed by source (see {@code ElevationCache}), and only the points that are not
+ * in the cache are sent to the source. Other sources, such as the SRTM tiles, are cheap to query
+ * and bypass the cache, which would round their results to the cells of the cache. The points are
+ * sent in chunks sized according to the limits of the source, concurrently for remote sources (see
+ * {@code ElevationRequests}). The number of requests in flight and the number of
+ * requests per second can be set using the {@code elevationConcurrency} and {@code
+ * elevationRateLimit} user settings.
+ *
+ * <p>When many trails are analysed at the same time, the points of several trails can be sent in
+ * the same requests to remote sources (see {@code ElevationBatch}), by setting the {@code
+ * elevationBatchDelay} user setting to the number of milliseconds during which points are
+ * collected, or by passing the delay for a given trail (see {@code
+ * TrailBuilder#elevationBatchDelay}). Batching is disabled by default.
  *
  * @author Xavier Sosnovsky
  */
@@ -60,11 +71,20 @@ enum ElevationFixer implements Function<SortedSet<Waypoint>, SortedSet<Waypoint>
   INSTANCE;
 
   private static final Logger LOGGER = LoggerFactory.getLogger(ElevationFixer.class);
-  private static final int DEFAULT_TIME_OUT = 5000;
-  private static final int ASCII_QM = 63;
-  private static final int HEXA_32 = 0x20;
-  private static final int HEXA_31 = 0x1f;
-  private static final int BITS_CHUNK_SIZE = 5;
+  private static final int DEFAULT_CACHE_ENTRIES = 1 << 20;
+  private static final int DEFAULT_CONCURRENCY = 4;
+  private final transient ElevationSource plugin;
+  private transient SrtmElevationSource tiles;
+  private transient ElevationCache cache;
+  private transient boolean cacheOpened;
+  private transient ElevationRequests requests;
+  private transient ElevationBatch batch;
+  private transient long batchDelay;
+
+  ElevationFixer() {
+    final Iterator<ElevationSource> sources = ServiceLoader.load(ElevationSource.class).iterator();
+    plugin = sources.hasNext() ? sources.next() : null;
+  }
 
   /**
    * Determines the elevation of the points in the trail.
@@ -74,267 +94,252 @@ enum ElevationFixer implements Function<SortedSet<Waypoint>, SortedSet<Waypoint>
    */
   @Override
   public SortedSet<Waypoint> apply(final SortedSet<Waypoint> points) {
-    final String key =
-        Preferences.userRoot().node("ws.sosna.pinetrail.UserSettings").get("mapQuestKey", "");
-    final SortedSet<Waypoint> response = new TreeSet<>();
-    if (key.isEmpty()) {
+    return apply(WaypointColumns.of(points)).asSortedSet();
+  }
+
+  /**
+   * Determines the elevation of the points in the trail, out of their columnar representation.
+   *
+   * <p>The supplied columns are returned untouched when elevation data cannot be corrected.
+   * Otherwise, only the column of elevations is replaced, and the new elevations are validated in
+   * bulk, before the points are returned.
+   *
+   * @param points the columns holding the points that make up the trail
+   * @return the columns holding the points, with corrected elevation data
+   * @throws javax.validation.ValidationException if the new elevations are not valid
+   */
+  WaypointColumns apply(final WaypointColumns points) {
+    return apply(points, -1);
+  }
+
+  /**
+   * Determines the elevation of the points in the trail, batching the requests sent to remote
+   * sources with the ones of other trails during the supplied delay.
+   *
+   * @param points the columns holding the points that make up the trail
+   * @param batchDelay how long to wait for the points of other trails, in milliseconds, or a
+   *     negative value to use the {@code elevationBatchDelay} user setting
+   * @return the columns holding the points, with corrected elevation data
+   * @throws javax.validation.ValidationException if the new elevations are not valid
+   */
+  WaypointColumns apply(final WaypointColumns points, final long batchDelay) {
+    final ElevationSource source = getSource();
+    if (null == source) {
       LOGGER.warn(
           Markers.MODEL.getMarker(),
           "{} | {} | {}",
           Actions.ANALYSE,
           StatusCodes.NOT_FOUND.getCode(),
-          "MapQuest key not found: Elevation data will not be" + " corrected.");
-      response.addAll(points);
-    } else if (points.isEmpty()) {
+          "Neither elevation tiles nor MapQuest key found: Elevation data will not be"
+              + " corrected.");
+      return points;
+    }
+    final long delay =
+        batchDelay >= 0
+            ? batchDelay
+            : Preferences.userRoot()
+                .node("ws.sosna.pinetrail.UserSettings")
+                .getLong("elevationBatchDelay", 0);
+    return apply(points, source, this::getCache, delay);
+  }
+
+  /**
+   * Determines the elevation of the points in the trail, using the supplied source and cache. The
+   * cache is only used for sources with a rate limit.
+   *
+   * @param points the columns holding the points that make up the trail
+   * @param source the source of elevation data
+   * @param cache supplies the cache of elevation data, which is {@code null} if caching is disabled
+   * @param batchDelay how long to wait for the points of other trails, in milliseconds
+   * @return the columns holding the points, with corrected elevation data
+   * @throws javax.validation.ValidationException if the new elevations are not valid
+   */
+  WaypointColumns apply(
+      final WaypointColumns points,
+      final ElevationSource source,
+      final Supplier<ElevationCache> cache,
+      final long batchDelay) {
+    if (points.isEmpty()) {
       LOGGER.info(
           Markers.MODEL.getMarker(),
           "{} | {} | {}",
           Actions.ANALYSE,
           StatusCodes.NOT_FOUND.getCode(),
           "No elevation data to be corrected.");
-    } else {
-      try {
-        final String input = compressPoints(points);
-        final List<Double> elevations = processResponse(parseXml(askMapQuest(input, key)));
-        response.addAll(replaceElevation(points, elevations));
-        LOGGER.info(
-            Markers.MODEL.getMarker(),
-            "{} | {} | {}",
-            Actions.ANALYSE,
-            StatusCodes.OK.getCode(),
-            "Successfully retrieved elevation data with MapQuest");
-      } catch (final ExecutionError e) {
-        if (StatusCodes.NOT_ACCEPTABLE == e.getErrorCode()) {
-          final Set<SortedSet<Waypoint>> slices = new LinkedHashSet<>();
-          final int idx = Math.round(points.size() / 3);
-          LOGGER.info(
-              Markers.MODEL.getMarker(),
-              "{} | {} | {}.",
-              Actions.ANALYSE,
-              StatusCodes.NOT_ACCEPTABLE.getCode(),
-              "Route is too long for MapQuest. It will be " + " splitted and resubmitted again.");
-          final List<Waypoint> ls = new ArrayList<>(points);
-          slices.add(new TreeSet(ls.subList(0, idx)));
-          slices.add(new TreeSet(ls.subList(idx, idx * 2)));
-          slices.add(new TreeSet(ls.subList(idx * 2, points.size())));
-          for (final SortedSet<Waypoint> slice : slices) {
-            try {
-              Thread.sleep(1500);
-            } catch (final InterruptedException ex) {
-              throw new ExecutionError(
-                  ex.getMessage(),
-                  ex.getCause(),
-                  Markers.NETWORK.getMarker(),
-                  Actions.GET,
-                  StatusCodes.INTERNAL_ERROR);
-            }
-            response.addAll(apply(slice));
-          }
-        } else {
-          LOGGER.warn(
-              Markers.MODEL.getMarker(),
-              "{} | {} | {}",
-              Actions.ANALYSE,
-              StatusCodes.INTERNAL_ERROR.getCode(),
-              "There was an error getting elevation data from "
-                  + "MapQuest. Initial elevation data will be used "
-                  + "instead. The error was: "
-                  + e.getMessage());
-          response.addAll(points);
+      return points;
+    }
+    final ElevationCache store =
+        Double.isInfinite(source.getMaxRequestsPerSecond()) ? null : cache.get();
+    final double[] elevations = getCachedElevations(points, source.getName(), store);
+    final BitSet misses = new BitSet(points.size());
+    for (int i = 0; i < elevations.length; i++) {
+      misses.set(i, Double.isNaN(elevations[i]));
+    }
+    if (!misses.isEmpty()) {
+      final WaypointColumns missing =
+          misses.cardinality() == points.size() ? points : points.filter(misses);
+      final double[] fetched = new double[missing.size()];
+      fetch(source, missing, fetched, batchDelay);
+      int idx = 0;
+      for (int i = misses.nextSetBit(0); i >= 0; i = misses.nextSetBit(i + 1)) {
+        if (null != store) {
+          store.put(source.getName(), points.getLatitude(i), points.getLongitude(i), fetched[idx]);
         }
+        elevations[i] = fetched[idx++];
+      }
+    }
+    for (int i = 0; i < elevations.length; i++) {
+      if (Double.isNaN(elevations[i])) {
+        elevations[i] = points.getElevation(i);
       }
     }
-    return response;
+    final WaypointColumns elePoints = points.withElevations(elevations);
+    PointsValidator.INSTANCE.check(elePoints);
+    return elePoints;
   }
 
   /*
-   * Retrieve elevation data using the service provided by MapQuest.
+   * Returns the elevations found in the cache, NaN for the cells that are not in the cache.
    */
-  private InputStream askMapQuest(final String compressedInput, final String key) {
-    final String url = "http://open.mapquestapi.com/elevation/v1/profile?key=" + key;
-    final String params =
-        "outFormat=xml"
-            + "&shapeFormat=cmp6"
-            + "&useFilter=true"
-            + "&latLngCollection="
-            + compressedInput;
-    final byte[] postData = params.getBytes(StandardCharsets.UTF_8);
-    final int postDataLength = postData.length;
+  private double[] getCachedElevations(
+      final WaypointColumns points, final String source, final ElevationCache store) {
+    final double[] elevations = new double[points.size()];
+    if (null == store) {
+      Arrays.fill(elevations, Double.NaN);
+      return elevations;
+    }
+    int hits = 0;
+    for (int i = 0; i < elevations.length; i++) {
+      elevations[i] = store.get(source, points.getLatitude(i), points.getLongitude(i));
+      if (!Double.isNaN(elevations[i])) {
+        hits++;
+      }
+    }
+    LOGGER.debug(
+        Markers.MODEL.getMarker(),
+        "{} | {} | Found {} of {} elevations in the cache",
+        Actions.ANALYSE,
+        StatusCodes.OK.getCode(),
+        hits,
+        elevations.length);
+    return elevations;
+  }
 
-    try {
-      final URL target = new URL(url);
-      LOGGER.debug(
-          Markers.NETWORK.getMarker(),
-          "{} | {} | Created URL " + "for reverse elevation: {}",
-          Actions.CREATE,
-          StatusCodes.OK.getCode(),
-          url);
-      final HttpURLConnection conn = (HttpURLConnection) target.openConnection();
-      // Abort after 5 seconds
-      conn.setConnectTimeout(DEFAULT_TIME_OUT);
-      conn.setRequestMethod("POST");
-      conn.setDoOutput(true);
-      conn.setInstanceFollowRedirects(false);
-      conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-      conn.setRequestProperty("charset", "utf-8");
-      conn.setRequestProperty("Content-Length", Integer.toString(postDataLength));
-      conn.setUseCaches(false);
-      try (DataOutputStream wr = new DataOutputStream(conn.getOutputStream())) {
-        wr.write(postData);
-        wr.flush();
+  /*
+   * The cache is opened once, the first time it is needed. It can be disabled by setting the
+   * elevationCacheEntries user setting to 0.
+   */
+  private synchronized ElevationCache getCache() {
+    if (!cacheOpened) {
+      cacheOpened = true;
+      final int entries =
+          Preferences.userRoot()
+              .node("ws.sosna.pinetrail.UserSettings")
+              .getInt("elevationCacheEntries", DEFAULT_CACHE_ENTRIES);
+      if (entries > 0) {
+        try {
+          cache =
+              ElevationCache.open(
+                  UserFiles.getConfigDirectory().resolve("elevation.cache"), entries);
+        } catch (final ExecutionError e) {
+          LOGGER.warn(
+              e.getMarker(),
+              "{} | {} | {}",
+              e.getAction(),
+              e.getErrorCode().getCode(),
+              e.getMessage() + (null == e.getCause() ? "" : ": " + e.getCause().getMessage()));
+          cache = ElevationCache.inMemory(entries);
+        }
       }
-      // conn.connect();
-      return conn.getInputStream();
-    } catch (final SocketTimeoutException e) {
-      throw new ExecutionError(
-          "Connection to MapQuest timed out",
-          e,
-          Markers.NETWORK.getMarker(),
-          Actions.GET,
-          StatusCodes.TIME_OUT);
-    } catch (final IOException e) {
-      throw new ExecutionError(
-          e.getMessage(),
-          e.getCause(),
-          Markers.NETWORK.getMarker(),
-          Actions.OPEN,
-          StatusCodes.INTERNAL_ERROR);
     }
+    return cache;
   }
 
-  private Document parseXml(final InputStream xmlInput) {
-    final DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-    try {
-      final DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-      final Document doc = dBuilder.parse(xmlInput);
-      LOGGER.debug(
-          Markers.MODEL.getMarker(),
-          "{} | {} | MapQuest " + "response successfully read as DOM object.",
-          Actions.PARSE,
-          StatusCodes.OK.getCode());
-      return doc;
-    } catch (final ParserConfigurationException e) {
-      throw new ExecutionError(
-          "Error creating DOM builder",
-          e,
-          Markers.MODEL.getMarker(),
-          Actions.CREATE,
-          StatusCodes.INTERNAL_ERROR);
-    } catch (final SAXException e) {
-      throw new ExecutionError(
-          "Error parsing XML from MapQuest (SAX)",
-          e,
-          Markers.MODEL.getMarker(),
-          Actions.PARSE,
-          StatusCodes.SYNTAX_ERROR);
-    } catch (final IOException e) {
-      throw new ExecutionError(
-          "Error parsing XML from MapQuest (IO)",
-          e,
-          Markers.MODEL.getMarker(),
-          Actions.PARSE,
-          StatusCodes.INTERNAL_ERROR);
+  /*
+   * Sources without rate limit are called in the calling thread, so that there is nothing to be
+   * gained by batching their requests.
+   */
+  private void fetch(
+      final ElevationSource source,
+      final WaypointColumns points,
+      final double[] elevations,
+      final long delay) {
+    final ElevationBatch group = delay > 0 ? getBatch(source, delay) : null;
+    if (null == group) {
+      getRequests(source).fetch(points, elevations);
+    } else {
+      group.fetch(points, elevations);
     }
   }
 
-  private List<Double> processResponse(final Document xmlDocument) {
-    final List<Double> elevations = new ArrayList<>();
-    final NodeList nList = xmlDocument.getElementsByTagName("distanceHeight");
-    for (int temp = 0; temp < nList.getLength(); temp++) {
-      final Node nNode = nList.item(temp);
-      if (nNode.getNodeType() == Node.ELEMENT_NODE) {
-        final Element eElement = (Element) nNode;
-        final Double elevation =
-            Double.parseDouble(eElement.getElementsByTagName("height").item(0).getTextContent());
-        LOGGER.debug(
-            Markers.MODEL.getMarker(),
-            "{} | {} | MapQuest" + " response contains elevation data: {}.",
-            Actions.ANALYSE,
-            StatusCodes.OK.getCode(),
-            elevation);
-        elevations.add(elevation);
-      }
+  /*
+   * The batch is kept as long as the requests and the delay do not change. It is sent without
+   * waiting any longer once it holds enough points to fill all the requests in flight.
+   */
+  private synchronized ElevationBatch getBatch(final ElevationSource source, final long delay) {
+    final ElevationRequests current = getRequests(source);
+    if (!current.isConcurrent()) {
+      return null;
     }
-    if (0 == elevations.size()) {
-      final NodeList eList = xmlDocument.getElementsByTagName("message");
-      for (int temp = 0; temp < eList.getLength(); temp++) {
-        final Node nNode = eList.item(temp);
-        if (nNode.getNodeType() == Node.ELEMENT_NODE) {
-          final Element eElement = (Element) nNode;
-          final String msg = eElement.getTextContent();
-          if (-1 < msg.indexOf("maximum allowed distance")) {
-            throw new ExecutionError(
-                "Route is too long and need " + "to be splitted",
-                null,
-                Markers.MODEL.getMarker(),
-                Actions.GET,
-                StatusCodes.NOT_ACCEPTABLE);
-          } else {
-            throw new ExecutionError(
-                "Could not find elevation " + "data in the response from MapQuest.",
-                null,
-                Markers.MODEL.getMarker(),
-                Actions.GET,
-                StatusCodes.NOT_FOUND);
-          }
-        }
-      }
+    if (null == batch || batch.getRequests() != current || batchDelay != delay) {
+      final int concurrency =
+          Preferences.userRoot()
+              .node("ws.sosna.pinetrail.UserSettings")
+              .getInt("elevationConcurrency", DEFAULT_CONCURRENCY);
+      final long maxPoints = (long) source.getMaxPoints() * Math.max(1, concurrency);
+      batch = new ElevationBatch(current, (int) Math.min(Integer.MAX_VALUE, maxPoints), delay);
+      batchDelay = delay;
     }
-    return elevations;
+    return batch;
   }
 
-  private String compressPoints(final Set<Waypoint> points) {
-    int oldLat = 0;
-    int oldLng = 0;
-    final StringBuilder encoded = new StringBuilder();
-    final double precision = Math.pow(10, 6);
-    for (final Waypoint point : points) {
-      final int lat = (int) Math.round(point.getCoordinates().getLatitude() * precision);
-      final int lng = (int) Math.round(point.getCoordinates().getLongitude() * precision);
-      encoded.append(encodeNumber(lat - oldLat));
-      encoded.append(encodeNumber(lng - oldLng));
-      oldLat = lat;
-      oldLng = lng;
+  /*
+   * The requests (and the pool of threads sending them) are kept between trails, as long as the
+   * source and the settings do not change. The rate defaults to the one supported by the source.
+   */
+  private synchronized ElevationRequests getRequests(final ElevationSource source) {
+    final Preferences settings = Preferences.userRoot().node("ws.sosna.pinetrail.UserSettings");
+    final int concurrency = settings.getInt("elevationConcurrency", DEFAULT_CONCURRENCY);
+    final double limit = settings.getDouble("elevationRateLimit", 0);
+    final double rate = limit > 0 ? limit : source.getMaxRequestsPerSecond();
+    if (null == requests || !requests.hasSettings(source, concurrency, rate)) {
+      if (null != requests) {
+        requests.shutdown();
+      }
+      requests = new ElevationRequests(source, concurrency, rate);
     }
-    return encoded.toString();
+    return requests;
   }
 
-  private String encodeNumber(final int number) {
-    int num = number << 1;
-    if (num < 0) {
-      num = ~(num);
+  private ElevationSource getSource() {
+    if (null != plugin) {
+      return plugin;
     }
-    final StringBuilder encoded = new StringBuilder();
-    while (num >= HEXA_32) {
-      encoded.append(Character.toChars((HEXA_32 | (num & HEXA_31)) + ASCII_QM));
-      num >>= BITS_CHUNK_SIZE;
+    final Preferences settings = Preferences.userRoot().node("ws.sosna.pinetrail.UserSettings");
+    final String directory = settings.get("elevationTiles", "");
+    if (!directory.isEmpty()) {
+      final Path path = Paths.get(directory);
+      if (Files.isDirectory(path)) {
+        return getTiles(path);
+      }
+      LOGGER.warn(
+          Markers.MODEL.getMarker(),
+          "{} | {} | Elevation tiles directory {} not found.",
+          Actions.ANALYSE,
+          StatusCodes.NOT_FOUND.getCode(),
+          directory);
     }
-    encoded.append(Character.toChars(num + ASCII_QM));
-    return encoded.toString();
+    final String key = settings.get("mapQuestKey", "");
+    return key.isEmpty() ? null : new MapQuestElevationSource(key);
   }
 
-  private SortedSet<Waypoint> replaceElevation(
-      final Set<Waypoint> points, final List<Double> elevations) {
-    if (points.size() != elevations.size()) {
-      throw new ExecutionError(
-          "Elevation data is incomplete. Expected "
-              + points.size()
-              + " but found only "
-              + elevations.size()
-              + " points in the response from MapQuest.",
-          null,
-          Markers.MODEL.getMarker(),
-          Actions.GET,
-          StatusCodes.NOT_FOUND);
-    }
-    final SortedSet<Waypoint> augmentedPoints = new TreeSet<>();
-    int i = 0;
-    for (final Waypoint point : points) {
-      final Coordinates c =
-          CoordinatesBuilder.of(point.getCoordinates()).elevation(elevations.get(i)).build();
-      augmentedPoints.add(WaypointBuilder.of(point).coordinates(c).build());
-      i++;
+  /*
+   * The tiles are kept mapped between trails, as long as the directory does not change.
+   */
+  private synchronized SrtmElevationSource getTiles(final Path directory) {
+    if (null == tiles || !tiles.getDirectory().equals(directory)) {
+      tiles = new SrtmElevationSource(directory);
     }
-    return augmentedPoints;
+    return tiles;
   }
 }
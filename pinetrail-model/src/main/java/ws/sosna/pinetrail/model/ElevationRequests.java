@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ws.sosna.pinetrail.utils.error.ExecutionError;
+import ws.sosna.pinetrail.utils.logging.Actions;
+import ws.sosna.pinetrail.utils.logging.Markers;
+import ws.sosna.pinetrail.utils.logging.StatusCodes;
+
+/**
+ * Sends the points of a trail to an {@code ElevationSource}, in chunks.
+ *
+ * <p>The chunks are planned up front: the points are walked once and a new chunk is started
+ * whenever the next point would exceed the maximum number of points or the maximum length of the
+ * route accepted by the source in one request. For sources with a limited rate of requests, the
+ * chunks are then sent concurrently by a pool of threads, with at most {@code concurrency} requests
+ * in flight and at most {@code rate} requests started per second. This pool is shared by all the
+ * trails using the source, so that the limits apply to the whole process. For other sources, the
+ * chunks are sent in the calling thread.
+ *
+ * <p>Each chunk writes the elevations it receives at the position of its points in the result, so
+ * that no stitching is needed once all chunks are completed. A chunk that is still too large for
+ * the source (i.e. it fails with status {@code NOT_ACCEPTABLE}) is splitted in two halves that are
+ * submitted again, without blocking the other chunks. Chunks that fail for other reasons get {@code
+ * Double.NaN} elevations, so that the initial elevation data is used.
+ *
+ * @author Xavier Sosnovsky
+ */
+final class ElevationRequests {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ElevationRequests.class);
+  private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+  private final ElevationSource source;
+  private final int concurrency;
+  private final double rate;
+  private final long interval;
+  private final AtomicLong nextSlot;
+  private final ExecutorService executor;
+
+  /**
+   * Creates a new instance, sending requests to the supplied source.
+   *
+   * @param source the source of elevation data
+   * @param concurrency the maximum number of requests in flight, for sources with a limited rate
+   * @param rate the maximum number of requests started per second. Use {@code
+   *     Double.POSITIVE_INFINITY} (or any value that is not strictly positive) for sources without
+   *     limits, which are then called in the calling thread
+   */
+  ElevationRequests(final ElevationSource source, final int concurrency, final double rate) {
+    super();
+    this.source = source;
+    this.concurrency = Math.max(1, concurrency);
+    this.rate = rate > 0 ? rate : Double.POSITIVE_INFINITY;
+    if (Double.isInfinite(this.rate)) {
+      interval = 0;
+      executor = null;
+    } else {
+      interval = (long) (NANOS_PER_SECOND / this.rate);
+      final AtomicInteger counter = new AtomicInteger();
+      executor =
+          Executors.newFixedThreadPool(
+              this.concurrency,
+              r -> {
+                final Thread thread =
+                    new Thread(r, "pinetrail-elevation-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+              });
+    }
+    nextSlot = new AtomicLong(System.nanoTime());
+  }
+
+  /**
+   * Fills the elevations of the supplied points, using the source.
+   *
+   * @param points the columns holding the points
+   * @param elevations the array receiving the elevations, with one entry per point. Entries are
+   *     set to {@code Double.NaN} for the points whose elevation could not be retrieved
+   */
+  void fetch(final WaypointColumns points, final double[] elevations) {
+    final List<int[]> chunks =
+        plan(points, 0, points.size(), source.getMaxPoints(), source.getMaxDistance());
+    if (null == executor) {
+      for (final int[] chunk : chunks) {
+        fetchInline(points, chunk[0], chunk[1], elevations);
+      }
+    } else {
+      final CompletableFuture<?>[] futures = new CompletableFuture<?>[chunks.size()];
+      for (int i = 0; i < futures.length; i++) {
+        futures[i] = dispatch(points, chunks.get(i)[0], chunks.get(i)[1], elevations);
+      }
+      try {
+        CompletableFuture.allOf(futures).join();
+      } catch (final CompletionException e) {
+        throw e.getCause() instanceof ExecutionError
+            ? (ExecutionError) e.getCause()
+            : new ExecutionError(
+                "Error retrieving elevation data",
+                e.getCause(),
+                Markers.NETWORK.getMarker(),
+                Actions.GET,
+                StatusCodes.INTERNAL_ERROR);
+      }
+    }
+    LOGGER.info(
+        Markers.MODEL.getMarker(),
+        "{} | {} | Requested elevation data for {} points from {} ({} chunks planned)",
+        Actions.GET,
+        StatusCodes.OK.getCode(),
+        points.size(),
+        source.getName(),
+        chunks.size());
+  }
+
+  /**
+   * Returns whether this instance has been created with the supplied settings.
+   *
+   * @param otherSource the source of elevation data
+   * @param otherConcurrency the maximum number of requests in flight
+   * @param otherRate the maximum number of requests started per second
+   * @return true if the settings are the same
+   */
+  boolean hasSettings(
+      final ElevationSource otherSource, final int otherConcurrency, final double otherRate) {
+    return source.equals(otherSource)
+        && concurrency == Math.max(1, otherConcurrency)
+        && Double.compare(rate, otherRate > 0 ? otherRate : Double.POSITIVE_INFINITY) == 0;
+  }
+
+  /**
+   * Returns whether the requests are sent concurrently, i.e. whether the source has a limited rate.
+   *
+   * @return true if the requests are sent by a pool of threads
+   */
+  boolean isConcurrent() {
+    return null != executor;
+  }
+
+  /** Stops the threads sending the requests, once the pending requests are completed. */
+  void shutdown() {
+    if (null != executor) {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Splits the supplied range of points into chunks complying with the supplied limits.
+   *
+   * <p>Chunks always contain at least one point, so that a single point further away from its
+   * predecessor than the maximum distance still makes up a chunk of its own.
+   *
+   * @param points the columns holding the points
+   * @param from the position of the first point in the range (inclusive)
+   * @param to the position of the last point in the range (exclusive)
+   * @param maxPoints the maximum number of points per chunk
+   * @param maxDistance the maximum length, in meters, of the route per chunk
+   * @return the bounds of the chunks, as {@code [from, to)} pairs
+   */
+  static List<int[]> plan(
+      final WaypointColumns points,
+      final int from,
+      final int to,
+      final int maxPoints,
+      final double maxDistance) {
+    final List<int[]> chunks = new ArrayList<>();
+    int start = from;
+    double distance = 0;
+    for (int i = from + 1; i < to; i++) {
+      final double step = PointsAugmenter.calculateDistance(points, i, i - 1);
+      if (i - start >= maxPoints || distance + step > maxDistance) {
+        chunks.add(new int[] {start, i});
+        start = i;
+        distance = 0;
+      } else {
+        distance += step;
+      }
+    }
+    if (start < to) {
+      chunks.add(new int[] {start, to});
+    }
+    return chunks;
+  }
+
+  private void fetchInline(
+      final WaypointColumns points, final int from, final int to, final double[] elevations) {
+    if (!request(points, from, to, elevations)) {
+      final int mid = (from + to) >>> 1;
+      fetchInline(points, from, mid, elevations);
+      fetchInline(points, mid, to, elevations);
+    }
+  }
+
+  private CompletableFuture<Void> dispatch(
+      final WaypointColumns points, final int from, final int to, final double[] elevations) {
+    return CompletableFuture.supplyAsync(
+            () -> {
+              awaitSlot();
+              return request(points, from, to, elevations);
+            },
+            executor)
+        .thenCompose(
+            done -> {
+              if (done) {
+                return CompletableFuture.completedFuture(null);
+              }
+              final int mid = (from + to) >>> 1;
+              return CompletableFuture.allOf(
+                  dispatch(points, from, mid, elevations), dispatch(points, mid, to, elevations));
+            });
+  }
+
+  /*
+   * Returns false if the range must be splitted and resubmitted.
+   */
+  private boolean request(
+      final WaypointColumns points, final int from, final int to, final double[] elevations) {
+    try {
+      final double[] response = source.getElevations(points, from, to);
+      System.arraycopy(response, 0, elevations, from, to - from);
+      LOGGER.debug(
+          Markers.MODEL.getMarker(),
+          "{} | {} | Successfully retrieved elevation data for points {} to {} with {}",
+          Actions.GET,
+          StatusCodes.OK.getCode(),
+          from,
+          to,
+          source.getName());
+      return true;
+    } catch (final ExecutionError e) {
+      if (StatusCodes.NOT_ACCEPTABLE == e.getErrorCode() && to - from >= 2) {
+        LOGGER.info(
+            Markers.MODEL.getMarker(),
+            "{} | {} | Route is too long for {} ({} points). It will be splitted and resubmitted.",
+            Actions.GET,
+            StatusCodes.NOT_ACCEPTABLE.getCode(),
+            source.getName(),
+            to - from);
+        return false;
+      }
+      LOGGER.warn(
+          Markers.MODEL.getMarker(),
+          "{} | {} | {}",
+          Actions.GET,
+          StatusCodes.INTERNAL_ERROR.getCode(),
+          "There was an error getting elevation data from "
+              + source.getName()
+              + ". Initial elevation data will be used "
+              + "instead. The error was: "
+              + e.getMessage());
+      Arrays.fill(elevations, from, to, Double.NaN);
+      return true;
+    }
+  }
+
+  /*
+   * Requests are spaced by the interval matching the rate: each request reserves the next free
+   * slot and waits until then.
+   */
+  private void awaitSlot() {
+    if (0 == interval) {
+      return;
+    }
+    final long now = System.nanoTime();
+    long previous;
+    long slot;
+    do {
+      previous = nextSlot.get();
+      slot = Math.max(previous, now);
+    } while (!nextSlot.compareAndSet(previous, slot + interval));
+    try {
+      TimeUnit.NANOSECONDS.sleep(slot - now);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ExecutionError(
+          "Interrupted while waiting to send a request to " + source.getName(),
+          e,
+          Markers.NETWORK.getMarker(),
+          Actions.GET,
+          StatusCodes.INTERNAL_ERROR);
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+/**
+ * A source of elevation data, used to correct the elevation recorded by GPS devices.
+ *
+ * <p>Out of the box, elevation data can be read from local SRTM height tiles (see {@link
+ * SrtmElevationSource}) or retrieved from the MapQuest elevation web service. Additional sources
+ * can be plugged in using the standard {@code ServiceLoader} mechanism: a source registered in
+ * {@code META-INF/services/ws.sosna.pinetrail.model.ElevationSource} takes precedence over the
+ * built-in ones.
+ *
+ * <p>Implementations must be safe for use by multiple threads, as trails may be analysed in
+ * parallel.
+ *
+ * @author Xavier Sosnovsky
+ */
+public interface ElevationSource {
+
+  /**
+   * Returns the elevation, in meters, of the points in the supplied range.
+   *
+   * <p>The returned array contains one elevation per point in the range, in the same order. The
+   * elevation of a point for which no data is available must be set to {@code Double.NaN}, in which
+   * case the initial elevation of the point is kept.
+   *
+   * @param points the columns holding the points of the trail
+   * @param from the position of the first point in the range (inclusive)
+   * @param to the position of the last point in the range (exclusive)
+   * @return the elevations of the points in the range
+   * @throws ws.sosna.pinetrail.utils.error.ExecutionError if elevation data cannot be retrieved.
+   *     The status code should be {@code NOT_ACCEPTABLE} if the range is too large and should be
+   *     splitted into smaller ranges.
+   */
+  double[] getElevations(WaypointColumns points, int from, int to);
+
+  /**
+   * Returns the maximum number of points that can be sent in one request.
+   *
+   * <p>Trails are splitted into chunks complying with this limit before being sent to the source.
+   * By default, there is no limit.
+   *
+   * @return the maximum number of points per request
+   */
+  default int getMaxPoints() {
+    return Integer.MAX_VALUE;
+  }
+
+  /**
+   * Returns the maximum length, in meters, of the route that can be sent in one request.
+   *
+   * <p>Trails are splitted into chunks complying with this limit before being sent to the source.
+   * By default, there is no limit.
+   *
+   * @return the maximum length of the route per request
+   */
+  default double getMaxDistance() {
+    return Double.POSITIVE_INFINITY;
+  }
+
+  /**
+   * Returns the maximum number of requests per second accepted by the source.
+   *
+   * <p>This applies to remote sources, which throttle or reject clients sending too many requests.
+   * Requests to a source with a finite rate are sent by a pool of threads (see the {@code
+   * elevationConcurrency} and {@code elevationRateLimit} user settings). Requests to other sources
+   * are executed in the calling thread. By default, the rate is not limited.
+   *
+   * @return the maximum number of requests per second
+   */
+  default double getMaxRequestsPerSecond() {
+    return Double.POSITIVE_INFINITY;
+  }
+
+  /**
+   * Returns the name of the source, used for logging purposes.
+   *
+   * @return the name of the source
+   */
+  String getName();
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON parser, used to read the (GeoJSON) files containing reference data, such as
+ * country boundaries.
+ *
+ * <p>Objects are returned as {@code Map}s, arrays as {@code List}s, numbers as {@code Double}s,
+ * and strings, booleans and null as themselves.
+ *
+ * @author Xavier Sosnovsky
+ */
+final class JsonParser {
+
+  private final String input;
+  private int pos;
+
+  private JsonParser(final String input) {
+    super();
+    this.input = input;
+  }
+
+  /**
+   * Parses the supplied JSON text.
+   *
+   * @param input the JSON text
+   * @return the parsed value
+   * @throws IllegalArgumentException if the text is not valid JSON
+   */
+  static Object parse(final String input) {
+    final JsonParser parser = new JsonParser(input);
+    final Object value = parser.readValue();
+    parser.skipWhitespace();
+    if (parser.pos != input.length()) {
+      throw parser.error("Unexpected content after the JSON value");
+    }
+    return value;
+  }
+
+  private Object readValue() {
+    skipWhitespace();
+    if (pos >= input.length()) {
+      throw error("Unexpected end of input");
+    }
+    final char c = input.charAt(pos);
+    switch (c) {
+      case '{':
+        return readObject();
+      case '[':
+        return readArray();
+      case '"':
+        return readString();
+      case 't':
+        return readLiteral("true", Boolean.TRUE);
+      case 'f':
+        return readLiteral("false", Boolean.FALSE);
+      case 'n':
+        return readLiteral("null", null);
+      default:
+        return readNumber();
+    }
+  }
+
+  private Map<String, Object> readObject() {
+    final Map<String, Object> object = new LinkedHashMap<>();
+    pos++;
+    skipWhitespace();
+    if (peek() == '}') {
+      pos++;
+      return object;
+    }
+    while (true) {
+      skipWhitespace();
+      if (peek() != '"') {
+        throw error("Expected a member name");
+      }
+      final String name = readString();
+      skipWhitespace();
+      expect(':');
+      object.put(name, readValue());
+      skipWhitespace();
+      if (peek() == ',') {
+        pos++;
+      } else {
+        expect('}');
+        return object;
+      }
+    }
+  }
+
+  private List<Object> readArray() {
+    final List<Object> array = new ArrayList<>();
+    pos++;
+    skipWhitespace();
+    if (peek() == ']') {
+      pos++;
+      return array;
+    }
+    while (true) {
+      array.add(readValue());
+      skipWhitespace();
+      if (peek() == ',') {
+        pos++;
+      } else {
+        expect(']');
+        return array;
+      }
+    }
+  }
+
+  private String readString() {
+    pos++;
+    final StringBuilder value = new StringBuilder();
+    while (pos < input.length()) {
+      final char c = input.charAt(pos++);
+      if (c == '"') {
+        return value.toString();
+      } else if (c == '\\') {
+        if (pos >= input.length()) {
+          break;
+        }
+        final char escaped = input.charAt(pos++);
+        switch (escaped) {
+          case 'b':
+            value.append('\b');
+            break;
+          case 'f':
+            value.append('\f');
+            break;
+          case 'n':
+            value.append('\n');
+            break;
+          case 'r':
+            value.append('\r');
+            break;
+          case 't':
+            value.append('\t');
+            break;
+          case 'u':
+            if (pos + 4 > input.length()) {
+              throw error("Invalid unicode escape");
+            }
+            value.append((char) Integer.parseInt(input.substring(pos, pos + 4), 16));
+            pos += 4;
+            break;
+          default:
+            value.append(escaped);
+        }
+      } else {
+        value.append(c);
+      }
+    }
+    throw error("Unterminated string");
+  }
+
+  private Double readNumber() {
+    final int start = pos;
+    while (pos < input.length() && "+-0123456789.eE".indexOf(input.charAt(pos)) >= 0) {
+      pos++;
+    }
+    if (start == pos) {
+      throw error("Unexpected character '" + input.charAt(pos) + "'");
+    }
+    try {
+      return Double.valueOf(input.substring(start, pos));
+    } catch (final NumberFormatException e) {
+      throw error("Invalid number");
+    }
+  }
+
+  private Object readLiteral(final String literal, final Object value) {
+    if (!input.startsWith(literal, pos)) {
+      throw error("Unexpected character '" + input.charAt(pos) + "'");
+    }
+    pos += literal.length();
+    return value;
+  }
+
+  private void skipWhitespace() {
+    while (pos < input.length() && Character.isWhitespace(input.charAt(pos))) {
+      pos++;
+    }
+  }
+
+  private char peek() {
+    if (pos >= input.length()) {
+      throw error("Unexpected end of input");
+    }
+    return input.charAt(pos);
+  }
+
+  private void expect(final char expected) {
+    if (peek() != expected) {
+      throw error("Expected '" + expected + "'");
+    }
+    pos++;
+  }
+
+  private IllegalArgumentException error(final String msg) {
+    return new IllegalArgumentException(msg + " at position " + pos);
+  }
+}
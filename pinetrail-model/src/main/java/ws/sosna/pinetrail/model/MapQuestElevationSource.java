@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+import ws.sosna.pinetrail.utils.error.ExecutionError;
+import ws.sosna.pinetrail.utils.logging.Actions;
+import ws.sosna.pinetrail.utils.logging.Markers;
+import ws.sosna.pinetrail.utils.logging.StatusCodes;
+
+/**
+ * Gets elevation data from the elevation web service kindly offered by MapQuest.
+ *
+ * <p>The service rejects routes that are too long. Trails are therefore sent in chunks of limited
+ * length and, if the service still rejects a chunk, an {@code ExecutionError} with status {@code
+ * NOT_ACCEPTABLE} is thrown, so that the chunk can be splitted and resubmitted.
+ *
+ * @author Xavier Sosnovsky
+ */
+final class MapQuestElevationSource implements ElevationSource {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MapQuestElevationSource.class);
+  private static final int DEFAULT_TIME_OUT = 5000;
+  private static final int ASCII_QM = 63;
+  private static final int HEXA_32 = 0x20;
+  private static final int HEXA_31 = 0x1f;
+  private static final int BITS_CHUNK_SIZE = 5;
+  private static final int MAX_POINTS = 1000;
+  private static final double MAX_DISTANCE = 200_000;
+  private static final double MAX_REQUESTS_PER_SECOND = 2;
+  private final String key;
+
+  MapQuestElevationSource(final String key) {
+    super();
+    this.key = key;
+  }
+
+  @Override
+  public double[] getElevations(final WaypointColumns points, final int from, final int to) {
+    final List<Double> response =
+        processResponse(parseXml(askMapQuest(compressPoints(points, from, to), key)));
+    if (to - from != response.size()) {
+      throw new ExecutionError(
+          "Elevation data is incomplete. Expected "
+              + (to - from)
+              + " but found only "
+              + response.size()
+              + " points in the response from MapQuest.",
+          null,
+          Markers.MODEL.getMarker(),
+          Actions.GET,
+          StatusCodes.NOT_FOUND);
+    }
+    final double[] elevations = new double[to - from];
+    for (int i = 0; i < elevations.length; i++) {
+      elevations[i] = response.get(i);
+    }
+    return elevations;
+  }
+
+  /*
+   * The limits are conservative: requests still rejected by the service are splitted again.
+   */
+  @Override
+  public int getMaxPoints() {
+    return MAX_POINTS;
+  }
+
+  @Override
+  public double getMaxDistance() {
+    return MAX_DISTANCE;
+  }
+
+  @Override
+  public double getMaxRequestsPerSecond() {
+    return MAX_REQUESTS_PER_SECOND;
+  }
+
+  @Override
+  public String getName() {
+    return "MapQuest";
+  }
+
+  /*
+   * Sources using the same key are interchangeable, so that the pool sending the requests can be
+   * kept between trails.
+   */
+  @Override
+  public boolean equals(final Object obj) {
+    return obj instanceof MapQuestElevationSource
+        && key.equals(((MapQuestElevationSource) obj).key);
+  }
+
+  @Override
+  public int hashCode() {
+    return key.hashCode();
+  }
+
+  /*
+   * Retrieve elevation data using the service provided by MapQuest.
+   */
+  private InputStream askMapQuest(final String compressedInput, final String key) {
+    final String url = "http://open.mapquestapi.com/elevation/v1/profile?key=" + key;
+    final String params =
+        "outFormat=xml"
+            + "&shapeFormat=cmp6"
+            + "&useFilter=true"
+            + "&latLngCollection="
+            + compressedInput;
+    final byte[] postData = params.getBytes(StandardCharsets.UTF_8);
+    final int postDataLength = postData.length;
+
+    try {
+      final URL target = new URL(url);
+      LOGGER.debug(
+          Markers.NETWORK.getMarker(),
+          "{} | {} | Created URL " + "for reverse elevation: {}",
+          Actions.CREATE,
+          StatusCodes.OK.getCode(),
+          url);
+      final HttpURLConnection conn = (HttpURLConnection) target.openConnection();
+      // Abort after 5 seconds
+      conn.setConnectTimeout(DEFAULT_TIME_OUT);
+      conn.setRequestMethod("POST");
+      conn.setDoOutput(true);
+      conn.setInstanceFollowRedirects(false);
+      conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+      conn.setRequestProperty("charset", "utf-8");
+      conn.setRequestProperty("Content-Length", Integer.toString(postDataLength));
+      conn.setUseCaches(false);
+      try (DataOutputStream wr = new DataOutputStream(conn.getOutputStream())) {
+        wr.write(postData);
+        wr.flush();
+      }
+      // conn.connect();
+      return conn.getInputStream();
+    } catch (final SocketTimeoutException e) {
+      throw new ExecutionError(
+          "Connection to MapQuest timed out",
+          e,
+          Markers.NETWORK.getMarker(),
+          Actions.GET,
+          StatusCodes.TIME_OUT);
+    } catch (final IOException e) {
+      throw new ExecutionError(
+          e.getMessage(),
+          e.getCause(),
+          Markers.NETWORK.getMarker(),
+          Actions.OPEN,
+          StatusCodes.INTERNAL_ERROR);
+    }
+  }
+
+  private Document parseXml(final InputStream xmlInput) {
+    final DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
+    try {
+      final DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
+      final Document doc = dBuilder.parse(xmlInput);
+      LOGGER.debug(
+          Markers.MODEL.getMarker(),
+          "{} | {} | MapQuest " + "response successfully read as DOM object.",
+          Actions.PARSE,
+          StatusCodes.OK.getCode());
+      return doc;
+    } catch (final ParserConfigurationException e) {
+      throw new ExecutionError(
+          "Error creating DOM builder",
+          e,
+          Markers.MODEL.getMarker(),
+          Actions.CREATE,
+          StatusCodes.INTERNAL_ERROR);
+    } catch (final SAXException e) {
+      throw new ExecutionError(
+          "Error parsing XML from MapQuest (SAX)",
+          e,
+          Markers.MODEL.getMarker(),
+          Actions.PARSE,
+          StatusCodes.SYNTAX_ERROR);
+    } catch (final IOException e) {
+      throw new ExecutionError(
+          "Error parsing XML from MapQuest (IO)",
+          e,
+          Markers.MODEL.getMarker(),
+          Actions.PARSE,
+          StatusCodes.INTERNAL_ERROR);
+    }
+  }
+
+  private List<Double> processResponse(final Document xmlDocument) {
+    final List<Double> elevations = new ArrayList<>();
+    final NodeList nList = xmlDocument.getElementsByTagName("distanceHeight");
+    for (int temp = 0; temp < nList.getLength(); temp++) {
+      final Node nNode = nList.item(temp);
+      if (nNode.getNodeType() == Node.ELEMENT_NODE) {
+        final Element eElement = (Element) nNode;
+        final Double elevation =
+            Double.parseDouble(eElement.getElementsByTagName("height").item(0).getTextContent());
+        LOGGER.debug(
+            Markers.MODEL.getMarker(),
+            "{} | {} | MapQuest" + " response contains elevation data: {}.",
+            Actions.ANALYSE,
+            StatusCodes.OK.getCode(),
+            elevation);
+        elevations.add(elevation);
+      }
+    }
+    if (0 == elevations.size()) {
+      final NodeList eList = xmlDocument.getElementsByTagName("message");
+      for (int temp = 0; temp < eList.getLength(); temp++) {
+        final Node nNode = eList.item(temp);
+        if (nNode.getNodeType() == Node.ELEMENT_NODE) {
+          final Element eElement = (Element) nNode;
+          final String msg = eElement.getTextContent();
+          if (-1 < msg.indexOf("maximum allowed distance")) {
+            throw new ExecutionError(
+                "Route is too long and need " + "to be splitted",
+                null,
+                Markers.MODEL.getMarker(),
+                Actions.GET,
+                StatusCodes.NOT_ACCEPTABLE);
+          } else {
+            throw new ExecutionError(
+                "Could not find elevation " + "data in the response from MapQuest.",
+                null,
+                Markers.MODEL.getMarker(),
+                Actions.GET,
+                StatusCodes.NOT_FOUND);
+          }
+        }
+      }
+    }
+    return elevations;
+  }
+
+  private String compressPoints(final WaypointColumns points, final int from, final int to) {
+    int oldLat = 0;
+    int oldLng = 0;
+    final StringBuilder encoded = new StringBuilder();
+    final double precision = Math.pow(10, 6);
+    for (int i = from; i < to; i++) {
+      final int lat = (int) Math.round(points.getLatitude(i) * precision);
+      final int lng = (int) Math.round(points.getLongitude(i) * precision);
+      encoded.append(encodeNumber(lat - oldLat));
+      encoded.append(encodeNumber(lng - oldLng));
+      oldLat = lat;
+      oldLng = lng;
+    }
+    return encoded.toString();
+  }
+
+  private String encodeNumber(final int number) {
+    int num = number << 1;
+    if (num < 0) {
+      num = ~(num);
+    }
+    final StringBuilder encoded = new StringBuilder();
+    while (num >= HEXA_32) {
+      encoded.append(Character.toChars((HEXA_32 | (num & HEXA_31)) + ASCII_QM));
+      num >>= BITS_CHUNK_SIZE;
+    }
+    encoded.append(Character.toChars(num + ASCII_QM));
+    return encoded.toString();
+  }
+}
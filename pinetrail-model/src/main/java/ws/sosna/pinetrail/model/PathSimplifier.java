@@ -0,0 +1,388 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Reduces the number of points of a trail, while keeping its shape within a tolerance.
+ *
+ * <p>The simplification uses the Douglas-Peucker algorithm: the first and last points are kept,
+ * and a segment is split at its farthest point for as long as a point lies further than the
+ * tolerance from the segment. Every point left out is therefore within the tolerance of the
+ * simplified path. The distance is measured to the segment, not to the line through its ends, so
+ * that the turning point of an out-and-back leg is kept.
+ *
+ * <p>The coordinates are projected once, on primitive arrays, to a local plane in metres. Instead
+ * of scanning all the points of a segment, the farthest points are looked up in a tree of convex
+ * hulls (the farthest point from a segment is always a vertex of the hull of the points), built in
+ * O(n log n). Each segment then costs O(log^2 n), whatever its length (short segments are simply
+ * scanned), and there are at most twice as many segments as points kept: a trail of n points,
+ * simplified to k points, costs O(n log n + k log^2 n), including when the splits are unbalanced.
+ *
+ * <p>The hulls give, for each segment, the extreme points across and along the segment, which bound
+ * the distance of all the points. When the bound exceeds the tolerance but none of the extreme
+ * points does, the segment is split at the farthest of them anyway: the simplified path may then
+ * keep a few more points than strictly needed, but never leaves out a point beyond the tolerance.
+ *
+ * <p>Only the horizontal position is taken into account, as the simplified path is meant to be
+ * shared or displayed on a map.
+ *
+ * @author Xavier Sosnovsky
+ */
+public enum PathSimplifier {
+  /** The singleton instance. */
+  INSTANCE;
+
+  private static final double EARTH_RADIUS = 6_371_008.8;
+  /** Segments with fewer points are scanned, which is faster than looking up their hulls. */
+  private static final int SCAN_SIZE = 64;
+
+  /**
+   * Returns the points to keep, out of the supplied candidates, so that none of the candidates
+   * lies further than the tolerance from the simplified path.
+   *
+   * @param points the points of the trail
+   * @param candidates the positions of the points that may be kept (e.g. the points that are
+   *     neither outliers nor inactive)
+   * @param tolerance the maximum distance, in metres, between a point left out and the simplified
+   *     path. If 0 or negative, all candidates are kept.
+   * @return the positions of the points to keep. The supplied set is not modified.
+   */
+  public BitSet simplify(
+      final WaypointColumns points, final BitSet candidates, final double tolerance) {
+    final int size = candidates.cardinality();
+    if (!(tolerance > 0) || size < 3) {
+      return (BitSet) candidates.clone();
+    }
+    final int[] positions = new int[size];
+    final double[] x = new double[size];
+    final double[] y = new double[size];
+    project(points, candidates, positions, x, y);
+    final HullTree hulls = new HullTree(x, y);
+    final BitSet kept = new BitSet(points.size());
+    kept.set(positions[0]);
+    kept.set(positions[size - 1]);
+    final double squaredTolerance = tolerance * tolerance;
+    final int[] extremes = new int[HullTree.DIRECTIONS];
+    // Each pending segment ends on a kept point, so there are never more than size segments
+    final int[] stack = new int[2 * size];
+    int top = 0;
+    stack[top++] = 0;
+    stack[top++] = size - 1;
+    while (top > 0) {
+      final int last = stack[--top];
+      final int first = stack[--top];
+      final int farthest =
+          last - first <= SCAN_SIZE
+              ? scan(x, y, first, last, squaredTolerance)
+              : find(hulls, x, y, first, last, squaredTolerance, extremes);
+      if (-1 < farthest) {
+        kept.set(positions[farthest]);
+        if (farthest - first > 1) {
+          stack[top++] = first;
+          stack[top++] = farthest;
+        }
+        if (last - farthest > 1) {
+          stack[top++] = farthest;
+          stack[top++] = last;
+        }
+      }
+    }
+    return kept;
+  }
+
+  /*
+   * Returns the point of the segment that is the farthest from it, or -1 if all the points are
+   * within the tolerance.
+   */
+  private int scan(
+      final double[] x,
+      final double[] y,
+      final int first,
+      final int last,
+      final double squaredTolerance) {
+    int farthest = -1;
+    double max = squaredTolerance;
+    for (int i = first + 1; i < last; i++) {
+      final double distance = squaredDistance(x, y, i, first, last);
+      if (distance > max) {
+        max = distance;
+        farthest = i;
+      }
+    }
+    return farthest;
+  }
+
+  /*
+   * Same as scan, using the extreme points of the hulls. Returns the farthest of the extreme
+   * points when the bound exceeds the tolerance, even if that point is within the tolerance.
+   */
+  private int find(
+      final HullTree hulls,
+      final double[] x,
+      final double[] y,
+      final int first,
+      final int last,
+      final double squaredTolerance,
+      final int[] extremes) {
+    final double length = Math.hypot(x[last] - x[first], y[last] - y[first]);
+    // Unit vector along the segment, or any direction if both ends are at the same place
+    final double ux = length > 0 ? (x[last] - x[first]) / length : 1;
+    final double uy = length > 0 ? (y[last] - y[first]) / length : 0;
+    hulls.findExtremes(first + 1, last, ux, uy, extremes);
+    double maxAcross = 0;
+    double maxOverhang = 0;
+    double max = -1;
+    int farthest = -1;
+    for (final int i : extremes) {
+      final double dx = x[i] - x[first];
+      final double dy = y[i] - y[first];
+      final double along = dx * ux + dy * uy;
+      final double across = Math.abs(dy * ux - dx * uy);
+      final double overhang = Math.max(0, Math.max(-along, along - length));
+      maxAcross = Math.max(maxAcross, across);
+      maxOverhang = Math.max(maxOverhang, overhang);
+      final double distance = across * across + overhang * overhang;
+      if (distance > max) {
+        max = distance;
+        farthest = i;
+      }
+    }
+    return maxAcross * maxAcross + maxOverhang * maxOverhang > squaredTolerance ? farthest : -1;
+  }
+
+  /*
+   * Squared distance between point i and the segment [first, last].
+   */
+  private double squaredDistance(
+      final double[] x, final double[] y, final int i, final int first, final int last) {
+    final double dx = x[last] - x[first];
+    final double dy = y[last] - y[first];
+    double px = x[i] - x[first];
+    double py = y[i] - y[first];
+    final double length = dx * dx + dy * dy;
+    if (length > 0) {
+      final double t = Math.max(0, Math.min(1, (px * dx + py * dy) / length));
+      px -= t * dx;
+      py -= t * dy;
+    }
+    return px * px + py * py;
+  }
+
+  /*
+   * Equirectangular projection around the mean latitude of the candidates. Longitudes are
+   * unwrapped, so that trails crossing the antimeridian stay continuous.
+   */
+  private void project(
+      final WaypointColumns points,
+      final BitSet candidates,
+      final int[] positions,
+      final double[] x,
+      final double[] y) {
+    double latitudes = 0;
+    int n = 0;
+    for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+      positions[n++] = i;
+      latitudes += points.getLatitude(i);
+    }
+    final double scale = Math.cos(Math.toRadians(latitudes / n));
+    double longitude = points.getLongitude(positions[0]);
+    double unwrapped = longitude;
+    for (int k = 0; k < n; k++) {
+      final double current = points.getLongitude(positions[k]);
+      double delta = current - longitude;
+      if (delta > 180) {
+        delta -= 360;
+      } else if (delta < -180) {
+        delta += 360;
+      }
+      unwrapped += delta;
+      longitude = current;
+      x[k] = Math.toRadians(unwrapped) * EARTH_RADIUS * scale;
+      y[k] = Math.toRadians(points.getLatitude(positions[k])) * EARTH_RADIUS;
+    }
+  }
+
+  /*
+   * Segment tree over the projected points, holding the convex hull of the points of each node as
+   * an upper and a lower chain, sorted by x. The extreme point of a node in a given direction is
+   * found by binary search on one of the chains. Small nodes are scanned instead.
+   */
+  private static final class HullTree {
+
+    static final int DIRECTIONS = 4;
+    private static final int LEAF_SIZE = 16;
+    private final double[] x;
+    private final double[] y;
+    private final int size;
+    private final int[][] upper;
+    private final int[][] lower;
+    private final double[] directionX = new double[DIRECTIONS];
+    private final double[] directionY = new double[DIRECTIONS];
+    private final double[] best = new double[DIRECTIONS];
+    private int[] extremes;
+
+    HullTree(final double[] x, final double[] y) {
+      super();
+      this.x = x;
+      this.y = y;
+      size = x.length;
+      final int nodes = 4 * (size / LEAF_SIZE + 1);
+      upper = new int[nodes][];
+      lower = new int[nodes][];
+      build(1, 0, size);
+    }
+
+    /*
+     * Finds, among the points in [from, to), the farthest points on the left and on the right of
+     * the direction (ux, uy), and the farthest points forward and backward along it.
+     */
+    void findExtremes(
+        final int from, final int to, final double ux, final double uy, final int[] result) {
+      directionX[0] = -uy;
+      directionY[0] = ux;
+      directionX[1] = uy;
+      directionY[1] = -ux;
+      directionX[2] = ux;
+      directionY[2] = uy;
+      directionX[3] = -ux;
+      directionY[3] = -uy;
+      Arrays.fill(best, Double.NEGATIVE_INFINITY);
+      extremes = result;
+      find(1, 0, size, from, to);
+    }
+
+    /*
+     * The hull of a node is the hull of the hulls of its children, so that only the points of the
+     * leaves are sorted.
+     */
+    private void build(final int node, final int from, final int to) {
+      if (to - from <= LEAF_SIZE) {
+        final int[] sorted = new int[to - from];
+        for (int i = from; i < to; i++) {
+          int k = i - from;
+          while (k > 0 && compare(sorted[k - 1], i) > 0) {
+            sorted[k] = sorted[k - 1];
+            k--;
+          }
+          sorted[k] = i;
+        }
+        upper[node] = chain(sorted, true);
+        lower[node] = chain(sorted, false);
+      } else {
+        final int middle = (from + to) >>> 1;
+        build(2 * node, from, middle);
+        build(2 * node + 1, middle, to);
+        upper[node] = chain(merge(upper[2 * node], upper[2 * node + 1]), true);
+        lower[node] = chain(merge(lower[2 * node], lower[2 * node + 1]), false);
+      }
+    }
+
+    private int[] merge(final int[] left, final int[] right) {
+      final int[] merged = new int[left.length + right.length];
+      int i = 0;
+      int j = 0;
+      for (int k = 0; k < merged.length; k++) {
+        if (j == right.length || i < left.length && compare(left[i], right[j]) <= 0) {
+          merged[k] = left[i++];
+        } else {
+          merged[k] = right[j++];
+        }
+      }
+      return merged;
+    }
+
+    /*
+     * Andrew's monotone chain: the upper chain only turns clockwise, the lower one only
+     * counterclockwise.
+     */
+    private int[] chain(final int[] sorted, final boolean isUpper) {
+      final int[] hull = new int[sorted.length];
+      int k = 0;
+      for (final int i : sorted) {
+        while (k >= 2) {
+          final double turn = cross(hull[k - 2], hull[k - 1], i);
+          if (isUpper ? turn < 0 : turn > 0) {
+            break;
+          }
+          k--;
+        }
+        hull[k++] = i;
+      }
+      return Arrays.copyOf(hull, k);
+    }
+
+    private void find(final int node, final int lo, final int hi, final int from, final int to) {
+      if (to <= lo || hi <= from) {
+        return;
+      }
+      if (hi - lo <= LEAF_SIZE) {
+        for (int i = Math.max(lo, from); i < Math.min(hi, to); i++) {
+          for (int d = 0; d < DIRECTIONS; d++) {
+            update(d, i);
+          }
+        }
+      } else if (from <= lo && hi <= to) {
+        for (int d = 0; d < DIRECTIONS; d++) {
+          update(d, extreme(directionY[d] >= 0 ? upper[node] : lower[node], d));
+        }
+      } else {
+        final int middle = (lo + hi) >>> 1;
+        find(2 * node, lo, middle, from, to);
+        find(2 * node + 1, middle, hi, from, to);
+      }
+    }
+
+    /*
+     * Along a chain, the projection on the direction increases, then decreases: the extreme point
+     * is the first one after which the chain stops going in the direction.
+     */
+    private int extreme(final int[] chain, final int d) {
+      int lo = 0;
+      int hi = chain.length - 1;
+      while (lo < hi) {
+        final int mid = (lo + hi) >>> 1;
+        final int a = chain[mid];
+        final int b = chain[mid + 1];
+        if (directionX[d] * (x[b] - x[a]) + directionY[d] * (y[b] - y[a]) > 0) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      return chain[lo];
+    }
+
+    private void update(final int d, final int i) {
+      final double value = directionX[d] * x[i] + directionY[d] * y[i];
+      if (value > best[d]) {
+        best[d] = value;
+        extremes[d] = i;
+      }
+    }
+
+    private int compare(final int a, final int b) {
+      final int byX = Double.compare(x[a], x[b]);
+      return 0 == byX ? Double.compare(y[a], y[b]) : byX;
+    }
+
+    private double cross(final int o, final int a, final int b) {
+      return (x[a] - x[o]) * (y[b] - y[o]) - (y[a] - y[o]) * (x[b] - x[o]);
+    }
+  }
+}
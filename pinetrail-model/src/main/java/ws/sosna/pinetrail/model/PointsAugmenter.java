@@ -15,11 +15,8 @@
  */
 package ws.sosna.pinetrail.model;
 
-import java.time.Duration;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.BitSet;
 import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.function.Function;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,67 +51,113 @@ enum PointsAugmenter implements Function<SortedSet<Waypoint>, SortedSet<Waypoint
    */
   @Override
   public SortedSet<Waypoint> apply(final SortedSet<Waypoint> points) {
-    final SortedSet<Waypoint> output = new TreeSet<>();
-    if (!points.isEmpty()) {
-      final List<Waypoint> received = new ArrayList<>(points);
-      output.add(handleFirstPoint(received.get(0)));
-      for (int i = 1; i < received.size(); i++) {
-        output.add(augmentPoint(received.get(i), received.get(i - 1)));
-      }
-    }
-    return output;
+    return apply(WaypointColumns.of(points)).asSortedSet();
   }
 
-  private Waypoint handleFirstPoint(final Waypoint current) {
-    return WaypointBuilder.of(current)
-        .distance(0.0)
-        .elevationDifference(0.0)
-        .grade(0.0)
-        .speed(0.0)
-        .isActive(false)
-        .timeDifference(0)
-        .build();
+  /**
+   * Add distance, speed, grade, time difference and elevation difference to the points contained in
+   * the supplied columns.
+   *
+   * <p>The time and coordinates of the points are shared with the supplied columns.
+   *
+   * @param points the columns holding the points that will be augmented
+   * @return the columns holding the augmented points
+   */
+  WaypointColumns apply(final WaypointColumns points) {
+    final BitSet all = new BitSet(points.size());
+    all.set(0, points.size());
+    return apply(points, all);
   }
 
-  private Waypoint augmentPoint(final Waypoint current, final Waypoint previous) {
-    final Double distance = calculateDistance(current, previous);
-    final Double eleDiff = calculateEleDiff(current, previous);
-    final Double grade = calculateGrade(distance, eleDiff);
-    final long elapsed = Duration.between(previous.getTime(), current.getTime()).getSeconds();
-    final Double speed = calculateSpeed(distance, elapsed);
-    final boolean isActive = isActive(speed);
-    final WaypointBuilder bld = WaypointBuilder.of(current);
-    return bld.distance(distance)
-        .elevationDifference(eleDiff)
-        .grade(grade)
-        .speed(speed)
-        .isActive(isActive)
-        .timeDifference(elapsed)
-        .build();
+  /**
+   * Recomputes the distance, speed, grade, time difference and elevation difference of the points
+   * at the supplied positions only.
+   *
+   * <p>This is typically used after some points have been removed from the trail, in which case
+   * only the points that follow the removed ones need to be augmented again.
+   *
+   * @param points the columns holding the points that will be augmented
+   * @param indexes the positions of the points to be augmented
+   * @return the columns holding the augmented points
+   */
+  WaypointColumns apply(final WaypointColumns points, final BitSet indexes) {
+    final int size = points.size();
+    final double[] distances = new double[size];
+    final double[] eleDiffs = new double[size];
+    final double[] speeds = new double[size];
+    final double[] grades = new double[size];
+    final long[] elapsed = new long[size];
+    final BitSet active = new BitSet(size);
+    for (int i = 0; i < size; i++) {
+      if (!indexes.get(i)) {
+        distances[i] = points.getDistance(i);
+        eleDiffs[i] = points.getElevationDifference(i);
+        speeds[i] = points.getSpeed(i);
+        grades[i] = points.getGrade(i);
+        elapsed[i] = points.getTimeDifference(i);
+        active.set(i, points.isActive(i));
+      } else if (0 < i) {
+        final double distance = calculateDistance(points, i, i - 1);
+        final double eleDiff = calculateEleDiff(points, i, i - 1);
+        final long duration = calculateElapsed(points, i, i - 1);
+        final double speed = calculateSpeed(distance, duration);
+        distances[i] = distance;
+        eleDiffs[i] = eleDiff;
+        grades[i] = calculateGrade(distance, eleDiff);
+        speeds[i] = speed;
+        elapsed[i] = duration;
+        active.set(i, isActive(speed));
+      }
+    }
+    return points.withAugmentation(distances, eleDiffs, speeds, grades, elapsed, active);
   }
 
   /**
    * Java implementation of the JavaScript formula kindly published on movable type:
    * http://www.movable-type.co.uk/scripts/latlong.html.
+   *
+   * @param points the columns holding the points
+   * @param p1 the position of the first point
+   * @param p2 the position of the second point
+   * @return the distance between the two points, in meters
+   */
+  static double calculateDistance(final WaypointColumns points, final int p1, final int p2) {
+    return calculateDistance(
+        points.getLatitude(p1),
+        points.getLongitude(p1),
+        points.getLatitude(p2),
+        points.getLongitude(p2));
+  }
+
+  /**
+   * Same as {@link #calculateDistance(WaypointColumns, int, int)}, for points given by their
+   * coordinates.
+   *
+   * @param lat1 the latitude of the first point
+   * @param lon1 the longitude of the first point
+   * @param lat2 the latitude of the second point
+   * @param lon2 the longitude of the second point
+   * @return the distance between the two points, in meters
    */
-  private Double calculateDistance(final Waypoint p1, final Waypoint p2) {
-    final double dLat =
-        Math.toRadians(p2.getCoordinates().getLatitude() - p1.getCoordinates().getLatitude());
-    final double dLon =
-        Math.toRadians(p2.getCoordinates().getLongitude() - p1.getCoordinates().getLongitude());
-    final double lat1 = Math.toRadians(p1.getCoordinates().getLatitude());
-    final double lat2 = Math.toRadians(p2.getCoordinates().getLatitude());
+  static double calculateDistance(
+      final double lat1, final double lon1, final double lat2, final double lon2) {
+    final double dLat = Math.toRadians(lat2 - lat1);
+    final double dLon = Math.toRadians(lon2 - lon1);
+    final double radLat1 = Math.toRadians(lat1);
+    final double radLat2 = Math.toRadians(lat2);
 
     final double a =
         Math.sin(dLat / 2) * Math.sin(dLat / 2)
-            + Math.cos(lat1) * Math.cos(lat2) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+            + Math.cos(radLat1) * Math.cos(radLat2) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
     final double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
     return EARTH_RADIUS * KM2M * c;
   }
 
-  private Double calculateEleDiff(final Waypoint current, final Waypoint previous) {
-    if (null == current.getCoordinates().getElevation()
-        || null == previous.getCoordinates().getElevation()) {
+  private double calculateEleDiff(
+      final WaypointColumns points, final int current, final int previous) {
+    final double currentEle = points.getElevation(current);
+    final double previousEle = points.getElevation(previous);
+    if (Double.isNaN(currentEle) || Double.isNaN(previousEle)) {
       LOGGER.warn(
           Markers.MODEL.getMarker(),
           "{} | {} | Missing "
@@ -122,14 +165,35 @@ enum PointsAugmenter implements Function<SortedSet<Waypoint>, SortedSet<Waypoint
               + "point(s). Elevation difference set to 0 for point {}",
           Actions.ANALYSE,
           StatusCodes.NOT_FOUND.getCode(),
-          current.getTime());
+          points.getTime(current));
       return 0.0;
     } else {
-      return current.getCoordinates().getElevation() - previous.getCoordinates().getElevation();
+      return currentEle - previousEle;
     }
   }
 
-  private Double calculateGrade(final Double distance, final Double elevationDifference) {
+  /*
+   * Same as Duration.between(previous, current).getSeconds(), without the allocations.
+   */
+  private long calculateElapsed(
+      final WaypointColumns points, final int current, final int previous) {
+    return calculateElapsed(
+        points.getEpochSecond(current),
+        points.getNano(current),
+        points.getEpochSecond(previous),
+        points.getNano(previous));
+  }
+
+  static long calculateElapsed(
+      final long currentSecond,
+      final int currentNano,
+      final long previousSecond,
+      final int previousNano) {
+    final long seconds = currentSecond - previousSecond;
+    return currentNano < previousNano ? seconds - 1 : seconds;
+  }
+
+  static double calculateGrade(final double distance, final double elevationDifference) {
     if (0 == distance) {
       return 0.0;
     } else {
@@ -137,12 +201,12 @@ enum PointsAugmenter implements Function<SortedSet<Waypoint>, SortedSet<Waypoint
     }
   }
 
-  private Double calculateSpeed(final Double distance, final long elapsed) {
+  static double calculateSpeed(final double distance, final long elapsed) {
     // Distance in m and duration in sec converted to km/h.
     return elapsed > 0 ? (distance / elapsed) * MS2KMH : 0;
   }
 
-  private boolean isActive(final Double speed) {
+  static boolean isActive(final double speed) {
     return speed >= ACTIVE_SPEED;
   }
 }
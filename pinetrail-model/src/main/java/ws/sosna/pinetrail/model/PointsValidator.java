@@ -0,0 +1,356 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.ResourceBundle;
+import javax.validation.ValidationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ws.sosna.pinetrail.utils.logging.Actions;
+import ws.sosna.pinetrail.utils.logging.Markers;
+import ws.sosna.pinetrail.utils.logging.StatusCodes;
+
+/**
+ * Checks points against the constraints declared on the {@code Waypoint} and {@code Coordinates}
+ * interfaces.
+ *
+ * <p>Bean validation relies on reflection and allocates a lot of objects for every single point,
+ * which becomes expensive when validating the hundreds of thousands of points of a batch. This
+ * validator implements the very same constraints with plain comparisons on primitive values, and
+ * can check whole columns of points in tight loops. Violations are reported using the same
+ * messages as bean validation (see ValidationMessages.properties).
+ *
+ * <p>The constraints must be kept in sync with the annotations of the model interfaces.
+ *
+ * @author Xavier Sosnovsky
+ */
+enum PointsValidator {
+
+  /** Singleton that returns an instance of the PointsValidator. */
+  INSTANCE;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(PointsValidator.class);
+  private static final double MIN_LATITUDE = -90;
+  private static final double MAX_LATITUDE = 90;
+  private static final double MIN_LONGITUDE = -180;
+  private static final double MAX_LONGITUDE = 180;
+  private static final double MIN_ELEVATION = -450;
+  private static final double MAX_ELEVATION = 9000;
+  private static final double MAX_ELEVATION_DIFF = 9450;
+  private static final double MAX_GRADE = 90;
+
+  private final transient ResourceBundle messages;
+
+  PointsValidator() {
+    messages = ResourceBundle.getBundle("ValidationMessages");
+  }
+
+  /**
+   * Returns the violations of the constraints for the supplied point.
+   *
+   * @param point the point to be validated
+   * @return the messages describing the violations, or an empty list if the point is valid
+   */
+  List<String> validate(final Waypoint point) {
+    final List<String> violations = new ArrayList<>(0);
+    final Instant time = point.getTime();
+    if (null == time) {
+      violations.add(getMessage("Model.Waypoint.Time.NotNull", null, null));
+    } else if (!time.isBefore(Instant.now())) {
+      violations.add(getMessage("Model.Waypoint.Time.Past", null, time));
+    }
+    final Coordinates coordinates = point.getCoordinates();
+    if (null == coordinates) {
+      violations.add(getMessage("Model.Waypoint.Coordinates.NotNull", null, null));
+    } else {
+      checkRequired(
+          violations,
+          coordinates.getLatitude(),
+          "Model.Coordinates.Latitude",
+          MIN_LATITUDE,
+          MAX_LATITUDE,
+          true);
+      checkRequired(
+          violations,
+          coordinates.getLongitude(),
+          "Model.Coordinates.Longitude",
+          MIN_LONGITUDE,
+          MAX_LONGITUDE,
+          false);
+      checkOptional(
+          violations,
+          coordinates.getElevation(),
+          "Model.Coordinates.Elevation.MinValue",
+          MIN_ELEVATION,
+          "Model.Coordinates.Elevation.MaxValue",
+          MAX_ELEVATION,
+          "-450",
+          "9000");
+    }
+    checkAugmentation(
+        violations,
+        point.getTimeDifference(),
+        point.getDistance(),
+        point.getElevationDifference(),
+        point.getSpeed(),
+        point.getGrade());
+    return violations;
+  }
+
+  /**
+   * Returns the violations of the constraints for the point at the supplied position.
+   *
+   * <p>In columns, a missing latitude or longitude is stored as {@code Double.NaN}, and is
+   * therefore reported as missing.
+   *
+   * @param points the columns holding the points
+   * @param index the position of the point to be validated
+   * @return the messages describing the violations, or an empty list if the point is valid
+   */
+  List<String> validate(final WaypointColumns points, final int index) {
+    final List<String> violations = new ArrayList<>(0);
+    final Instant time = points.getTime(index);
+    if (!time.isBefore(Instant.now())) {
+      violations.add(getMessage("Model.Waypoint.Time.Past", null, time));
+    }
+    checkRequired(
+        violations,
+        toObject(points.getLatitude(index)),
+        "Model.Coordinates.Latitude",
+        MIN_LATITUDE,
+        MAX_LATITUDE,
+        true);
+    checkRequired(
+        violations,
+        toObject(points.getLongitude(index)),
+        "Model.Coordinates.Longitude",
+        MIN_LONGITUDE,
+        MAX_LONGITUDE,
+        false);
+    checkOptional(
+        violations,
+        toObject(points.getElevation(index)),
+        "Model.Coordinates.Elevation.MinValue",
+        MIN_ELEVATION,
+        "Model.Coordinates.Elevation.MaxValue",
+        MAX_ELEVATION,
+        "-450",
+        "9000");
+    checkAugmentation(
+        violations,
+        points.getTimeDifference(index),
+        toObject(points.getDistance(index)),
+        toObject(points.getElevationDifference(index)),
+        toObject(points.getSpeed(index)),
+        toObject(points.getGrade(index)));
+    return violations;
+  }
+
+  /**
+   * Returns the positions of the points that violate at least one constraint.
+   *
+   * <p>Each constraint is checked for all the points in a single loop over the corresponding
+   * column. The messages describing the violations can then be obtained, for the (typically few)
+   * invalid points, using {@link #validate(WaypointColumns, int)}.
+   *
+   * @param points the columns holding the points to be validated
+   * @return the positions of the invalid points
+   */
+  BitSet findInvalidPoints(final WaypointColumns points) {
+    final int size = points.size();
+    final BitSet invalid = new BitSet(size);
+    final Instant now = Instant.now();
+    final long nowSecond = now.getEpochSecond();
+    final int nowNano = now.getNano();
+    for (int i = 0; i < size; i++) {
+      final long second = points.getEpochSecond(i);
+      if (second > nowSecond || (second == nowSecond && points.getNano(i) >= nowNano)) {
+        invalid.set(i);
+      }
+    }
+    for (int i = 0; i < size; i++) {
+      final double latitude = points.getLatitude(i);
+      if (!(latitude >= MIN_LATITUDE && latitude <= MAX_LATITUDE)) {
+        invalid.set(i);
+      }
+    }
+    for (int i = 0; i < size; i++) {
+      final double longitude = points.getLongitude(i);
+      if (!(longitude >= MIN_LONGITUDE && longitude < MAX_LONGITUDE)) {
+        invalid.set(i);
+      }
+    }
+    for (int i = 0; i < size; i++) {
+      final double elevation = points.getElevation(i);
+      if (elevation < MIN_ELEVATION || elevation > MAX_ELEVATION) {
+        invalid.set(i);
+      }
+    }
+    for (int i = 0; i < size; i++) {
+      if (points.getTimeDifference(i) < 0) {
+        invalid.set(i);
+      }
+    }
+    for (int i = 0; i < size; i++) {
+      if (points.getDistance(i) < 0 || points.getSpeed(i) < 0) {
+        invalid.set(i);
+      }
+    }
+    for (int i = 0; i < size; i++) {
+      final double elevationDiff = points.getElevationDifference(i);
+      if (elevationDiff < -MAX_ELEVATION_DIFF || elevationDiff > MAX_ELEVATION_DIFF) {
+        invalid.set(i);
+      }
+    }
+    for (int i = 0; i < size; i++) {
+      final double grade = points.getGrade(i);
+      if (grade < -MAX_GRADE || grade > MAX_GRADE) {
+        invalid.set(i);
+      }
+    }
+    return invalid;
+  }
+
+  /**
+   * Checks that all the points comply with the constraints.
+   *
+   * @param points the columns holding the points to be validated
+   * @throws ValidationException if at least one of the points is invalid
+   */
+  void check(final WaypointColumns points) {
+    final BitSet invalid = findInvalidPoints(points);
+    if (!invalid.isEmpty()) {
+      final StringBuilder msg = new StringBuilder();
+      for (int i = invalid.nextSetBit(0); i >= 0; i = invalid.nextSetBit(i + 1)) {
+        for (final String violation : validate(points, i)) {
+          msg.append(violation);
+          msg.append(" Waypoint: ");
+          msg.append(points.get(i));
+        }
+      }
+      final String errorMsg = msg.toString();
+      LOGGER.warn(
+          Markers.MODEL.getMarker(),
+          "{} | {} | Error validating {} waypoints:  {}",
+          Actions.CREATE,
+          StatusCodes.SYNTAX_ERROR.getCode(),
+          invalid.cardinality(),
+          errorMsg);
+      throw new ValidationException(errorMsg);
+    }
+  }
+
+  private void checkAugmentation(
+      final List<String> violations,
+      final long timeDiff,
+      final Double distance,
+      final Double elevationDiff,
+      final Double speed,
+      final Double grade) {
+    if (timeDiff < 0) {
+      violations.add(getMessage("Model.Waypoint.TimeDiff.Positive", "0", timeDiff));
+    }
+    checkOptional(
+        violations, distance, "Model.Waypoint.Distance.Positive", 0, null, Double.NaN, "0", null);
+    checkOptional(
+        violations,
+        elevationDiff,
+        "Model.Waypoint.EleDiff.Positive",
+        -MAX_ELEVATION_DIFF,
+        "Model.Waypoint.EleDiff.Max",
+        MAX_ELEVATION_DIFF,
+        "-9450",
+        "9450");
+    checkOptional(
+        violations, speed, "Model.Waypoint.Speed.Positive", 0, null, Double.NaN, "0", null);
+    checkOptional(
+        violations,
+        grade,
+        "Model.Waypoint.Grade.MinValue",
+        -MAX_GRADE,
+        "Model.Waypoint.Grade.MaxValue",
+        MAX_GRADE,
+        "-90",
+        "90.0");
+  }
+
+  /*
+   * Latitude and longitude: not null, with a min and a max (the max of the longitude is
+   * exclusive). NaN violates both bounds, as with bean validation.
+   */
+  private void checkRequired(
+      final List<String> violations,
+      final Double value,
+      final String key,
+      final double min,
+      final double max,
+      final boolean maxInclusive) {
+    if (null == value) {
+      violations.add(getMessage(key + ".NotNull", null, null));
+    } else {
+      final double val = value;
+      if (Double.isNaN(val) || val < min) {
+        violations.add(getMessage(key + ".MinValue", format(min), value));
+      }
+      if (Double.isNaN(val) || val > max || (!maxInclusive && val == max)) {
+        violations.add(getMessage(key + ".MaxValue", format(max), value));
+      }
+    }
+  }
+
+  /*
+   * Optional values, with a min and, optionally, a max.
+   */
+  private void checkOptional(
+      final List<String> violations,
+      final Double value,
+      final String minKey,
+      final double min,
+      final String maxKey,
+      final double max,
+      final String minLabel,
+      final String maxLabel) {
+    if (null != value) {
+      final double val = value;
+      if (Double.isNaN(val) || val < min) {
+        violations.add(getMessage(minKey, minLabel, value));
+      }
+      if (null != maxKey && (Double.isNaN(val) || val > max)) {
+        violations.add(getMessage(maxKey, maxLabel, value));
+      }
+    }
+  }
+
+  private String getMessage(final String key, final String bound, final Object value) {
+    String msg = messages.containsKey(key) ? messages.getString(key) : "{" + key + "}";
+    if (null != bound) {
+      msg = msg.replace("{value}", bound);
+    }
+    return msg.replace("${validatedValue}", String.valueOf(value));
+  }
+
+  private static String format(final double bound) {
+    return Long.toString((long) bound);
+  }
+
+  private static Double toObject(final double value) {
+    return Double.isNaN(value) ? null : value;
+  }
+}
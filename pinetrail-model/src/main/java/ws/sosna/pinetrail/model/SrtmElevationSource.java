@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ws.sosna.pinetrail.utils.logging.Actions;
+import ws.sosna.pinetrail.utils.logging.Markers;
+import ws.sosna.pinetrail.utils.logging.StatusCodes;
+
+/**
+ * Reads elevation data from SRTM height tiles (.hgt files) stored in a local directory.
+ *
+ * <p>Each tile covers one degree of latitude and one degree of longitude, and is named after its
+ * south-west corner (e.g. N50E007.hgt). It contains a square grid of big-endian, signed 16 bits
+ * heights in meters, stored row by row from north to south. Both SRTM-3 (1201 x 1201 samples)
+ * and SRTM-1 (3601 x 3601 samples) tiles are supported, as well as any other square grid. Voids
+ * (-32768) are ignored.
+ *
+ * <p>Tiles are memory-mapped when first needed, and the most recently used ones are kept mapped,
+ * so that reading the elevation of a point is a matter of a few memory accesses. The elevation of
+ * a point is interpolated (bilinear interpolation) out of the 4 surrounding samples.
+ *
+ * <p>Instances are safe for use by multiple threads.
+ *
+ * @author Xavier Sosnovsky
+ */
+public final class SrtmElevationSource implements ElevationSource {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SrtmElevationSource.class);
+  private static final int DEFAULT_MAPPED_TILES = 16;
+  private static final short VOID = Short.MIN_VALUE;
+  private static final Tile MISSING = new Tile(null, 0);
+  private final Path directory;
+  private final Map<Integer, Tile> tiles;
+
+  /**
+   * Creates a new source reading the tiles stored in the supplied directory.
+   *
+   * @param directory the directory containing the .hgt files
+   */
+  public SrtmElevationSource(final Path directory) {
+    this(directory, DEFAULT_MAPPED_TILES);
+  }
+
+  /**
+   * Creates a new source reading the tiles stored in the supplied directory.
+   *
+   * @param directory the directory containing the .hgt files
+   * @param mappedTiles the maximum number of tiles that are kept mapped in memory
+   */
+  public SrtmElevationSource(final Path directory, final int mappedTiles) {
+    super();
+    this.directory = directory;
+    this.tiles = new TileCache(Math.max(1, mappedTiles));
+  }
+
+  @Override
+  public double[] getElevations(final WaypointColumns points, final int from, final int to) {
+    final double[] elevations = new double[to - from];
+    int currentKey = Integer.MIN_VALUE;
+    Tile current = MISSING;
+    for (int i = from; i < to; i++) {
+      final double latitude = points.getLatitude(i);
+      final double longitude = points.getLongitude(i);
+      final int south = (int) Math.floor(latitude);
+      final int west = (int) Math.floor(longitude);
+      final int key = getKey(south, west);
+      if (key != currentKey) {
+        current = getTile(south, west);
+        currentKey = key;
+      }
+      elevations[i - from] = current.getElevation(latitude, longitude, south, west);
+    }
+    return elevations;
+  }
+
+  /**
+   * Returns the elevation, in meters, at the supplied location.
+   *
+   * @param latitude the latitude of the location, in decimal degrees
+   * @param longitude the longitude of the location, in decimal degrees
+   * @return the elevation at the supplied location, or {@code Double.NaN} if there is no data for
+   *     the location
+   */
+  public double getElevation(final double latitude, final double longitude) {
+    final int south = (int) Math.floor(latitude);
+    final int west = (int) Math.floor(longitude);
+    return getTile(south, west).getElevation(latitude, longitude, south, west);
+  }
+
+  /**
+   * Returns the directory containing the .hgt files.
+   *
+   * @return the directory containing the .hgt files
+   */
+  public Path getDirectory() {
+    return directory;
+  }
+
+  @Override
+  public String getName() {
+    return "SRTM tiles in " + directory;
+  }
+
+  private static int getKey(final int south, final int west) {
+    return (south + 90) * 360 + (west + 180);
+  }
+
+  private Tile getTile(final int south, final int west) {
+    final Integer key = getKey(south, west);
+    synchronized (tiles) {
+      Tile tile = tiles.get(key);
+      if (null == tile) {
+        tile = openTile(south, west);
+        tiles.put(key, tile);
+      }
+      return tile;
+    }
+  }
+
+  private Tile openTile(final int south, final int west) {
+    final String name =
+        String.format(
+            Locale.ROOT,
+            "%s%02d%s%03d.hgt",
+            south < 0 ? "S" : "N",
+            Math.abs(south),
+            west < 0 ? "W" : "E",
+            Math.abs(west));
+    Path file = directory.resolve(name);
+    if (!Files.isRegularFile(file)) {
+      file = directory.resolve(name.toLowerCase(Locale.ROOT));
+    }
+    if (!Files.isRegularFile(file)) {
+      LOGGER.debug(
+          Markers.IO.getMarker(),
+          "{} | {} | No elevation tile {} in {}",
+          Actions.OPEN,
+          StatusCodes.NOT_FOUND.getCode(),
+          name,
+          directory);
+      return MISSING;
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      final long length = channel.size();
+      final int size = (int) Math.round(Math.sqrt(length / 2.0));
+      if (size < 2 || 2L * size * size != length) {
+        LOGGER.warn(
+            Markers.IO.getMarker(),
+            "{} | {} | {} is not a valid elevation tile ({} bytes). It will be ignored.",
+            Actions.OPEN,
+            StatusCodes.SYNTAX_ERROR.getCode(),
+            file,
+            length);
+        return MISSING;
+      }
+      final ShortBuffer samples =
+          channel
+              .map(FileChannel.MapMode.READ_ONLY, 0, length)
+              .order(ByteOrder.BIG_ENDIAN)
+              .asShortBuffer();
+      LOGGER.debug(
+          Markers.IO.getMarker(),
+          "{} | {} | Mapped elevation tile {} ({} x {} samples)",
+          Actions.OPEN,
+          StatusCodes.OK.getCode(),
+          file,
+          size,
+          size);
+      return new Tile(samples, size);
+    } catch (final IOException e) {
+      LOGGER.warn(
+          Markers.IO.getMarker(),
+          "{} | {} | Could not read elevation tile {}: {}",
+          Actions.OPEN,
+          StatusCodes.INTERNAL_ERROR.getCode(),
+          file,
+          e.getMessage());
+      return MISSING;
+    }
+  }
+
+  private static final class Tile {
+
+    private final ShortBuffer samples;
+    private final int size;
+
+    Tile(final ShortBuffer samples, final int size) {
+      super();
+      this.samples = samples;
+      this.size = size;
+    }
+
+    /*
+     * Bilinear interpolation out of the 4 surrounding samples. Voids are ignored, and the weights
+     * of the remaining samples are normalised.
+     */
+    double getElevation(
+        final double latitude, final double longitude, final int south, final int west) {
+      if (null == samples || Double.isNaN(latitude) || Double.isNaN(longitude)) {
+        return Double.NaN;
+      }
+      final int last = size - 1;
+      final double y = (south + 1 - latitude) * last;
+      final double x = (longitude - west) * last;
+      final int row = Math.max(0, Math.min((int) y, last - 1));
+      final int col = Math.max(0, Math.min((int) x, last - 1));
+      final double dy = y - row;
+      final double dx = x - col;
+      final int idx = row * size + col;
+      final short nw = samples.get(idx);
+      final short ne = samples.get(idx + 1);
+      final short sw = samples.get(idx + size);
+      final short se = samples.get(idx + size + 1);
+      if (VOID != nw && VOID != ne && VOID != sw && VOID != se) {
+        return (nw * (1 - dx) + ne * dx) * (1 - dy) + (sw * (1 - dx) + se * dx) * dy;
+      }
+      final double[] weights = {(1 - dx) * (1 - dy), dx * (1 - dy), (1 - dx) * dy, dx * dy};
+      final short[] values = {nw, ne, sw, se};
+      double sum = 0;
+      double total = 0;
+      for (int i = 0; i < values.length; i++) {
+        if (VOID != values[i] && weights[i] > 0) {
+          sum += weights[i] * values[i];
+          total += weights[i];
+        }
+      }
+      return 0 == total ? Double.NaN : sum / total;
+    }
+  }
+
+  private static final class TileCache extends LinkedHashMap<Integer, Tile> {
+
+    private static final long serialVersionUID = -2427651936307718465L;
+    private final int capacity;
+
+    TileCache(final int capacity) {
+      super(capacity * 2, 0.75f, true);
+      this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<Integer, Tile> eldest) {
+      return size() > capacity;
+    }
+  }
+}
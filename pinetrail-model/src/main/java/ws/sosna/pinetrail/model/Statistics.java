@@ -17,7 +17,7 @@ package ws.sosna.pinetrail.model;
 
 import java.io.Serializable;
 import java.util.Set;
-import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
+import org.apache.commons.math3.stat.descriptive.StatisticalSummary;
 
 /**
  * Provides statistics about the trail for a particular aspect, such as distance, elevation or
@@ -32,7 +32,7 @@ public interface Statistics extends Serializable {
    *
    * @return the statistics for all the points in the trail
    */
-  SummaryStatistics getAll();
+  StatisticalSummary getAll();
 
   /**
    * Get the statistics for all the points in the trail where the person recording the trail was
@@ -40,7 +40,7 @@ public interface Statistics extends Serializable {
    *
    * @return the statistics for all the active points in the trail
    */
-  SummaryStatistics getActive();
+  StatisticalSummary getActive();
 
   /**
    * Get the statistics for all the points in the trail where the person recording the trail was
@@ -48,7 +48,7 @@ public interface Statistics extends Serializable {
    *
    * @return the statistics for all the active points going up in the trail
    */
-  SummaryStatistics getActiveUp();
+  StatisticalSummary getActiveUp();
 
   /**
    * Get the statistics for all the points in the trail where the person recording the trail was
@@ -56,7 +56,7 @@ public interface Statistics extends Serializable {
    *
    * @return the statistics for all the active points going down in the trail
    */
-  SummaryStatistics getActiveDown();
+  StatisticalSummary getActiveDown();
 
   /**
    * Get the statistics for all the points in the trail where the person recording the trail was
@@ -64,7 +64,7 @@ public interface Statistics extends Serializable {
    *
    * @return the statistics for all the active in the trail that are neither up nor down
    */
-  SummaryStatistics getActiveFlat();
+  StatisticalSummary getActiveFlat();
 
   /**
    * Get the points that could be considered outliers in the trail.
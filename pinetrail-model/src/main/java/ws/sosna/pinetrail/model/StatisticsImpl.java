@@ -22,7 +22,7 @@ import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.Objects;
 import java.util.Set;
-import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
+import org.apache.commons.math3.stat.descriptive.StatisticalSummary;
 
 /**
  * Base implementation of the Statistics interface.
@@ -32,20 +32,20 @@ import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
 final class StatisticsImpl implements Statistics {
 
   private static final long serialVersionUID = 3272647220016375249L;
-  private final SummaryStatistics all;
-  private final SummaryStatistics active;
-  private final SummaryStatistics up;
-  private final SummaryStatistics down;
-  private final SummaryStatistics flat;
+  private final StatisticalSummary all;
+  private final StatisticalSummary active;
+  private final StatisticalSummary up;
+  private final StatisticalSummary down;
+  private final StatisticalSummary flat;
   private final Set<Waypoint> outliers;
   private final transient int hash;
 
   StatisticsImpl(
-      final SummaryStatistics all,
-      final SummaryStatistics active,
-      final SummaryStatistics up,
-      final SummaryStatistics down,
-      final SummaryStatistics flat,
+      final StatisticalSummary all,
+      final StatisticalSummary active,
+      final StatisticalSummary up,
+      final StatisticalSummary down,
+      final StatisticalSummary flat,
       final Set<Waypoint> outliers) {
     this.all = all;
     this.active = active;
@@ -58,31 +58,31 @@ final class StatisticsImpl implements Statistics {
 
   /** {@inheritDoc} */
   @Override
-  public SummaryStatistics getAll() {
+  public StatisticalSummary getAll() {
     return all;
   }
 
   /** {@inheritDoc} */
   @Override
-  public SummaryStatistics getActive() {
+  public StatisticalSummary getActive() {
     return active;
   }
 
   /** {@inheritDoc} */
   @Override
-  public SummaryStatistics getActiveUp() {
+  public StatisticalSummary getActiveUp() {
     return up;
   }
 
   /** {@inheritDoc} */
   @Override
-  public SummaryStatistics getActiveDown() {
+  public StatisticalSummary getActiveDown() {
     return down;
   }
 
   /** {@inheritDoc} */
   @Override
-  public SummaryStatistics getActiveFlat() {
+  public StatisticalSummary getActiveFlat() {
     return flat;
   }
 
@@ -141,12 +141,12 @@ final class StatisticsImpl implements Statistics {
   }
 
   private static final class SerializationProxy implements Serializable {
-    private static final long serialVersionUID = 3272647220016375249L;
-    private final SummaryStatistics all;
-    private final SummaryStatistics active;
-    private final SummaryStatistics up;
-    private final SummaryStatistics down;
-    private final SummaryStatistics flat;
+    private static final long serialVersionUID = -1850362906512874017L;
+    private final StatisticalSummary all;
+    private final StatisticalSummary active;
+    private final StatisticalSummary up;
+    private final StatisticalSummary down;
+    private final StatisticalSummary flat;
     private final Set<Waypoint> outliers;
 
     SerializationProxy(final Statistics statistics) {
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+import org.apache.commons.math3.stat.descriptive.StatisticalSummary;
+import org.apache.commons.math3.stat.descriptive.StatisticalSummaryValues;
+
+/**
+ * Accumulates the count, sum, min, max, mean and variance of a series of values.
+ *
+ * <p>The mean and variance are updated using the same recurrence as {@code SummaryStatistics}, so
+ * that both give the exact same results, but without the cost of the statistics that are not used
+ * by the application (e.g. the geometric mean, which requires a logarithm per value).
+ *
+ * @author Xavier Sosnovsky
+ */
+final class SummaryAccumulator {
+
+  private long n;
+  private double m1;
+  private double m2;
+  private double sum;
+  private double min = Double.NaN;
+  private double max = Double.NaN;
+  private boolean staleExtrema;
+
+  /**
+   * Adds a value to the series.
+   *
+   * @param value the value to be added
+   */
+  void add(final double value) {
+    if (0 == n) {
+      m1 = 0.0;
+      m2 = 0.0;
+    }
+    n++;
+    final double dev = value - m1;
+    final double nDev = dev / n;
+    m1 += nDev;
+    m2 += ((double) n - 1) * dev * nDev;
+    sum += value;
+    if (value < min || Double.isNaN(min)) {
+      min = value;
+    }
+    if (value > max || Double.isNaN(max)) {
+      max = value;
+    }
+  }
+
+  /**
+   * Removes a value, previously added, from the series.
+   *
+   * <p>The count, sum, mean and variance are updated by reverting the recurrence used when adding
+   * values. The minimum and maximum cannot be recovered if the removed value was one of them, in
+   * which case a snapshot can no longer be taken.
+   *
+   * @param value the value to be removed
+   */
+  void remove(final double value) {
+    if (1 >= n) {
+      n = 0;
+      m1 = Double.NaN;
+      m2 = Double.NaN;
+      sum = 0.0;
+      min = Double.NaN;
+      max = Double.NaN;
+      staleExtrema = false;
+      return;
+    }
+    final double previousMean = m1;
+    n--;
+    m1 -= (value - m1) / n;
+    m2 = Math.max(0.0, m2 - (value - m1) * (value - previousMean));
+    sum -= value;
+    if (value == min || value == max) {
+      staleExtrema = true;
+    }
+  }
+
+  long getN() {
+    return n;
+  }
+
+  double getMean() {
+    return 0 == n ? Double.NaN : m1;
+  }
+
+  double getVariance() {
+    if (0 == n) {
+      return Double.NaN;
+    } else if (1 == n) {
+      return 0.0;
+    } else {
+      return m2 / (n - 1.0);
+    }
+  }
+
+  double getStandardDeviation() {
+    return Math.sqrt(getVariance());
+  }
+
+  /**
+   * Returns an immutable snapshot of the statistics accumulated so far.
+   *
+   * @return the statistics accumulated so far
+   * @throws IllegalStateException if the minimum or maximum has been removed
+   */
+  StatisticalSummary snapshot() {
+    if (staleExtrema) {
+      throw new IllegalStateException("Minimum or maximum removed from the series");
+    }
+    return new StatisticalSummaryValues(getMean(), getVariance(), n, max, min, sum);
+  }
+}
@@ -15,6 +15,7 @@
  */
 package ws.sosna.pinetrail.model;
 
+import java.time.Instant;
 import java.util.Set;
 import java.util.SortedSet;
 import javax.validation.constraints.NotNull;
@@ -66,4 +67,36 @@ public interface Trail {
    * @return the time, distance, elevation and speed statistics for the trail
    */
   TrailStatistics getStatistics();
+
+  /**
+   * Returns the points describing the trail, in columnar form.
+   *
+   * <p>The columns contain the same points as {@link #getWaypoints()}, but store their properties
+   * as arrays of primitives. This is the preferred way to access the points when processing large
+   * trails.
+   *
+   * @return the points describing the trail, in columnar form
+   */
+  default WaypointColumns getColumns() {
+    return WaypointColumns.of(getWaypoints());
+  }
+
+  /**
+   * Returns the point recorded at the supplied time or, if there is none, the last point recorded
+   * before, i.e. where the trail was at that time.
+   *
+   * <p>The point is looked up using a binary search.
+   *
+   * @param time the moment in time
+   * @return the point recorded at or last before the supplied time, or null if the supplied time is
+   *     before the first point or after the last point of the trail
+   */
+  default Waypoint getWaypointAt(final Instant time) {
+    final WaypointColumns columns = getColumns();
+    final int index = columns.lowerBound(time);
+    if (index < columns.size() && columns.getTime(index).equals(time)) {
+      return columns.get(index);
+    }
+    return 0 == index || columns.size() == index ? null : columns.get(index - 1);
+  }
 }
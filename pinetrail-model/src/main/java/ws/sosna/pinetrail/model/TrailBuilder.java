@@ -18,16 +18,14 @@ package ws.sosna.pinetrail.model;
 import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.LinkedHashSet;
-import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 import java.util.prefs.Preferences;
-import java.util.stream.Collectors;
 import javax.validation.ConstraintViolation;
 import javax.validation.ValidationException;
 import org.slf4j.Logger;
@@ -35,6 +33,8 @@ import org.slf4j.LoggerFactory;
 import ws.sosna.pinetrail.utils.logging.Actions;
 import ws.sosna.pinetrail.utils.logging.Markers;
 import ws.sosna.pinetrail.utils.logging.StatusCodes;
+import ws.sosna.pinetrail.utils.metrics.Metrics;
+import ws.sosna.pinetrail.utils.metrics.Stages;
 
 /**
  * Builds immutable instances of the {@code Trail} interface.
@@ -61,6 +61,7 @@ public final class TrailBuilder implements Builder<Trail> {
 
   private Set<Waypoint> points;
   private Set<String> countries;
+  private long elevationBatchDelay = -1;
   private static final Logger LOGGER = LoggerFactory.getLogger(TrailBuilder.class);
 
   /**
@@ -75,6 +76,18 @@ public final class TrailBuilder implements Builder<Trail> {
     this.points = points;
   }
 
+  /**
+   * Instantiates a new TrailBuilder out of the columnar representation of the points.
+   *
+   * <p>The columns are used as they are: the points are neither copied nor validated again.
+   *
+   * @param points the columns holding the points describing the trail
+   * @see WaypointColumnsBuilder
+   */
+  public TrailBuilder(final WaypointColumns points) {
+    this(points.asSortedSet());
+  }
+
   /**
    * Sets the ordered list of points describing the trail.
    *
@@ -103,6 +116,21 @@ public final class TrailBuilder implements Builder<Trail> {
     return this;
   }
 
+  /**
+   * Sets how long, in milliseconds, the points of the trail may wait for the points of other
+   * trails, so that they are sent to a remote elevation source in the same requests.
+   *
+   * <p>This applies to the trail being built only, and takes precedence over the {@code
+   * elevationBatchDelay} user setting, unless it is negative (the default). 0 disables batching.
+   *
+   * @param elevationBatchDelay the delay, in milliseconds
+   * @return the builder, with an updated delay
+   */
+  public TrailBuilder elevationBatchDelay(final long elevationBatchDelay) {
+    this.elevationBatchDelay = elevationBatchDelay;
+    return this;
+  }
+
   /**
    * Instantiate a new TrailBuilder out of an existing {@code Trail} instance.
    *
@@ -118,6 +146,15 @@ public final class TrailBuilder implements Builder<Trail> {
     return new TrailBuilder(trail.getWaypoints()).countries(trail.getCountries());
   }
 
+  /*
+   * Restores a trail out of values that have already been computed (see TrailCodec), without
+   * analysing it again.
+   */
+  static Trail restore(
+      final WaypointColumns columns, final Set<String> countries, final TrailStatistics stats) {
+    return new TrailImpl(columns, countries, stats);
+  }
+
   /**
    * Builds a new immutable instance of the {@code Trail} interface.
    *
@@ -140,49 +177,50 @@ public final class TrailBuilder implements Builder<Trail> {
             Preferences.userRoot()
                 .node("ws.sosna.pinetrail.model.Trail")
                 .get("keepIdlePoints", "false")));
-    Trail obj;
-    int i = 0;
-    do {
-      obj = createTrail(i, i == 0 && removeIdle);
-      i++;
-    } while (!skip && hasOutliers(obj) && i < iterations);
+    Trail obj = createTrail(removeIdle);
+    if (!skip && 1 < iterations && null != obj.getStatistics()) {
+      obj = removeOutliers(obj, iterations);
+    }
     validateTrail(obj);
     return obj;
   }
 
-  private Trail createTrail(final int iteration, final boolean removeIdle) {
-    final SortedSet<Waypoint> sortedPoints =
-        null == points ? Collections.emptySortedSet() : new TreeSet(points);
+  private Trail createTrail(final boolean removeIdle) {
+    final WaypointColumns sortedPoints = WaypointColumns.of(points);
 
-    final long start = System.currentTimeMillis();
-    final SortedSet<Waypoint> elePoints =
-        0 == iteration ? ElevationFixer.INSTANCE.apply(sortedPoints) : sortedPoints;
+    final long start = System.nanoTime();
+    final WaypointColumns elePoints =
+        ElevationFixer.INSTANCE.apply(sortedPoints, elevationBatchDelay);
 
-    final long eleTs = System.currentTimeMillis();
-    final SortedSet<Waypoint> augmentedPoints = PointsAugmenter.INSTANCE.apply(elePoints);
+    final long eleTs = System.nanoTime();
+    WaypointColumns augmentedPoints = PointsAugmenter.INSTANCE.apply(elePoints);
 
     if (removeIdle) {
-      final SortedSet<Waypoint> activePoints =
-          augmentedPoints.stream()
-              .filter(Waypoint::isActive)
-              .collect(Collectors.toCollection(TreeSet::new));
+      final BitSet active = new BitSet(augmentedPoints.size());
+      for (int i = 0; i < augmentedPoints.size(); i++) {
+        active.set(i, augmentedPoints.isActive(i));
+      }
+      final WaypointColumns activePoints = augmentedPoints.filter(active);
       LOGGER.info(
           Markers.MODEL.getMarker(),
           "{} | {} | Removed {} idle" + " points from trail",
           Actions.ANALYSE,
           StatusCodes.OK.getCode(),
           (augmentedPoints.size() - activePoints.size()));
-      augmentedPoints.clear();
-      augmentedPoints.addAll(PointsAugmenter.INSTANCE.apply(activePoints));
+      augmentedPoints = PointsAugmenter.INSTANCE.apply(activePoints);
     }
 
-    final long augmentTs = System.currentTimeMillis();
+    final long augmentTs = System.nanoTime();
     final TrailStatistics trailStatistics = StatisticsProvider.INSTANCE.apply(augmentedPoints);
 
-    final long statsTs = System.currentTimeMillis();
+    final long statsTs = System.nanoTime();
     augmentTrail(trailStatistics, augmentedPoints);
-    final long guessTs = System.currentTimeMillis();
+    final long guessTs = System.nanoTime();
 
+    Metrics.INSTANCE.record(Stages.ELEVATION, eleTs - start);
+    Metrics.INSTANCE.record(Stages.AUGMENT, augmentTs - eleTs);
+    Metrics.INSTANCE.record(Stages.STATISTICS, statsTs - augmentTs);
+    Metrics.INSTANCE.record(Stages.GEOCODE, guessTs - statsTs);
     LOGGER.info(
         Markers.PERFORMANCE.getMarker(),
         "{} | {} | Performed trail"
@@ -190,11 +228,11 @@ public final class TrailBuilder implements Builder<Trail> {
             + "Compute stats: {} - Reverse geocoding: {})",
         Actions.ANALYSE,
         StatusCodes.OK.getCode(),
-        guessTs - start,
-        eleTs - start,
-        augmentTs - eleTs,
-        statsTs - augmentTs,
-        guessTs - statsTs);
+        TimeUnit.NANOSECONDS.toMillis(guessTs - start),
+        TimeUnit.NANOSECONDS.toMillis(eleTs - start),
+        TimeUnit.NANOSECONDS.toMillis(augmentTs - eleTs),
+        TimeUnit.NANOSECONDS.toMillis(statsTs - augmentTs),
+        TimeUnit.NANOSECONDS.toMillis(guessTs - statsTs));
     return new TrailImpl(augmentedPoints, countries, trailStatistics);
   }
 
@@ -225,60 +263,59 @@ public final class TrailBuilder implements Builder<Trail> {
     }
   }
 
-  private void augmentTrail(final TrailStatistics stats, final SortedSet<Waypoint> points) {
+  private void augmentTrail(final TrailStatistics stats, final WaypointColumns points) {
     if (null == countries || countries.isEmpty()) {
-      countries = CountryGuesser.INSTANCE.apply(points);
+      countries = CountryGuesser.INSTANCE.apply(points.asSortedSet());
     }
   }
 
-  private boolean hasOutliers(final Trail trail) {
-    final Set<Waypoint> outliers = new LinkedHashSet<>();
-    if (null != trail.getStatistics()) {
-      outliers.addAll(trail.getStatistics().getSpeedSummary().getOutliers());
-      outliers.addAll(trail.getStatistics().getGradeSummary().getOutliers());
-      if (outliers.size() > 0) {
-        final List<Waypoint> cleanPoints = new ArrayList<>(trail.getWaypoints());
-        final Set<Waypoint> remove = new LinkedHashSet<>();
-        for (final Waypoint outlier : outliers) {
-          final int index = cleanPoints.indexOf(outlier);
-          if (0 < index) {
-            remove.add(cleanPoints.get(index - 1));
-          }
-          if (cleanPoints.size() - 1 > index) {
-            remove.add(cleanPoints.get(index + 1));
-          }
-        }
-        outliers.addAll(remove);
-        cleanPoints.removeAll(outliers);
-        LOGGER.info(
-            Markers.MODEL.getMarker(),
-            "{} | {} | {}",
-            Actions.ANALYSE,
-            StatusCodes.NOT_ACCEPTABLE.getCode(),
-            outliers.size()
-                + " points (outliers and their neighbours) "
-                + "have been removed. The analysis will be performed "
-                + "again.");
-        points = new LinkedHashSet<>(cleanPoints);
-      }
+  /*
+   * The analysis is not performed again after each pass: the cleaner only updates what is affected
+   * by the removal of the points. The final statistics are then computed once, from scratch, so
+   * that they do not carry the rounding errors of the successive updates.
+   */
+  private Trail removeOutliers(final Trail trail, final int iterations) {
+    final long start = System.nanoTime();
+    final TrailCleaner cleaner = new TrailCleaner(trail.getColumns());
+    int i = 1;
+    while (i < iterations && cleaner.removeOutliers()) {
+      i++;
+    }
+    if (!cleaner.isModified()) {
+      Metrics.INSTANCE.record(Stages.CLEANUP, System.nanoTime() - start);
+      return trail;
     }
-    return outliers.size() > 0;
+    final WaypointColumns cleanPoints = cleaner.getPoints();
+    final Trail cleanTrail =
+        new TrailImpl(cleanPoints, countries, StatisticsProvider.INSTANCE.apply(cleanPoints));
+    final long elapsed = System.nanoTime() - start;
+    Metrics.INSTANCE.record(Stages.CLEANUP, elapsed);
+    LOGGER.info(
+        Markers.PERFORMANCE.getMarker(),
+        "{} | {} | Removed outliers in {} ms ({} passes)",
+        Actions.ANALYSE,
+        StatusCodes.OK.getCode(),
+        TimeUnit.NANOSECONDS.toMillis(elapsed),
+        i - 1);
+    return cleanTrail;
   }
 
   private static final class TrailImpl implements Trail, Serializable {
 
     private static final long serialVersionUID = -5323040838868491171L;
+    private final WaypointColumns columns;
     private final SortedSet<Waypoint> points;
     private final Set<String> countries;
     private final transient int hashCode;
     private final TrailStatistics stats;
 
     TrailImpl(
-        final SortedSet<Waypoint> points,
+        final WaypointColumns columns,
         final Set<String> countries,
         final TrailStatistics stats) {
       super();
-      this.points = Collections.unmodifiableSortedSet(points);
+      this.columns = columns;
+      this.points = columns.asSortedSet();
       this.countries = Collections.unmodifiableSet(new LinkedHashSet<>(countries));
       this.stats = stats;
       hashCode = Objects.hash(this.points, this.countries);
@@ -289,6 +326,11 @@ public final class TrailBuilder implements Builder<Trail> {
       return points;
     }
 
+    @Override
+    public WaypointColumns getColumns() {
+      return columns;
+    }
+
     @Override
     public Set<String> getCountries() {
       return countries;
@@ -333,20 +375,20 @@ public final class TrailBuilder implements Builder<Trail> {
 
     private static final class SerializationProxy implements Serializable {
 
-      private static final long serialVersionUID = -5323040838868491171L;
-      private final SortedSet<Waypoint> points;
+      private static final long serialVersionUID = 6127553010475209583L;
+      private final WaypointColumns columns;
       private final Set<String> countries;
       private final TrailStatistics stats;
 
       SerializationProxy(final Trail trail) {
         super();
-        points = trail.getWaypoints();
+        columns = trail.getColumns();
         countries = trail.getCountries();
         stats = trail.getStatistics();
       }
 
       private Object readResolve() {
-        return new TrailImpl(points, countries, stats);
+        return new TrailImpl(columns, countries, stats);
       }
     }
   }
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+import java.util.BitSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ws.sosna.pinetrail.utils.logging.Actions;
+import ws.sosna.pinetrail.utils.logging.Markers;
+import ws.sosna.pinetrail.utils.logging.StatusCodes;
+
+/**
+ * Removes the speed and grade outliers (and their neighbours) from a trail, pass after pass.
+ *
+ * <p>The engine keeps running statistics about the points. After each pass, the contributions of
+ * the removed points are subtracted from the statistics, and only the points that follow a removed
+ * run are augmented again (their predecessor changed), so that a pass costs a scan of the active
+ * points instead of a full analysis of the trail.
+ *
+ * @author Xavier Sosnovsky
+ */
+final class TrailCleaner {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(TrailCleaner.class);
+  private final TrailStatisticsAccumulator statistics;
+  private WaypointColumns points;
+  private boolean modified;
+
+  /**
+   * Creates a new cleaner for the supplied (augmented) points.
+   *
+   * @param points the columns holding the augmented points of the trail
+   */
+  TrailCleaner(final WaypointColumns points) {
+    super();
+    this.points = points;
+    statistics = new TrailStatisticsAccumulator();
+    for (int i = 0; i < points.size(); i++) {
+      statistics.add(points, i);
+    }
+  }
+
+  /**
+   * Removes the current outliers and their neighbours.
+   *
+   * @return true if points have been removed, false if the trail has no outlier
+   */
+  boolean removeOutliers() {
+    final int size = points.size();
+    final BitSet remove = new BitSet(size);
+    for (int i = 0; i < size; i++) {
+      if (points.isActive(i)
+          && (statistics.isOutlier(TrailStatisticsAccumulator.SPEED, points.getSpeed(i))
+              || statistics.isOutlier(TrailStatisticsAccumulator.GRADE, points.getGrade(i)))) {
+        remove.set(Math.max(0, i - 1), Math.min(size, i + 2));
+      }
+    }
+    if (remove.isEmpty()) {
+      return false;
+    }
+    final BitSet keep = new BitSet(size);
+    keep.set(0, size);
+    keep.andNot(remove);
+    final BitSet changed = new BitSet();
+    int removed = 0;
+    int start = remove.nextSetBit(0);
+    while (start >= 0) {
+      final int end = remove.nextClearBit(start);
+      for (int i = start; i < end; i++) {
+        statistics.remove(points, i);
+      }
+      removed += end - start;
+      if (end < size) {
+        // The predecessor of the first point after the run has changed
+        statistics.remove(points, end);
+        changed.set(end - removed);
+      }
+      start = remove.nextSetBit(end);
+    }
+    final WaypointColumns cleanPoints =
+        PointsAugmenter.INSTANCE.apply(points.filter(keep), changed);
+    for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+      statistics.add(cleanPoints, i);
+    }
+    points = cleanPoints;
+    modified = true;
+    LOGGER.info(
+        Markers.MODEL.getMarker(),
+        "{} | {} | {}",
+        Actions.ANALYSE,
+        StatusCodes.NOT_ACCEPTABLE.getCode(),
+        removed
+            + " points (outliers and their neighbours) "
+            + "have been removed. The analysis will be performed "
+            + "again.");
+    return true;
+  }
+
+  /**
+   * Returns the points that are left after the passes performed so far.
+   *
+   * @return the columns holding the remaining points
+   */
+  WaypointColumns getPoints() {
+    return points;
+  }
+
+  /**
+   * Returns whether points have been removed since the cleaner was created.
+   *
+   * @return true if points have been removed
+   */
+  boolean isModified() {
+    return modified;
+  }
+}
@@ -0,0 +1,665 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import org.apache.commons.math3.stat.descriptive.StatisticalSummary;
+import org.apache.commons.math3.stat.descriptive.StatisticalSummaryValues;
+import ws.sosna.pinetrail.utils.error.ExecutionError;
+import ws.sosna.pinetrail.utils.logging.Actions;
+import ws.sosna.pinetrail.utils.logging.Markers;
+import ws.sosna.pinetrail.utils.logging.StatusCodes;
+
+/**
+ * Encodes trails into, and decodes them from, a compact binary representation.
+ *
+ * <p>The representation holds everything needed to restore a trail as it was built, so that it
+ * does not need to be analysed again: the points, including the corrected elevations and the values
+ * computed out of consecutive points, the countries and the statistics. Decoding a trail gives back
+ * a trail equal to the encoded one.
+ *
+ * <ul>
+ *   <li>Times are stored in seconds, using a delta-of-delta encoding, so that points recorded at a
+ *       regular interval take a single byte. Fractions of seconds are stored only if at least one
+ *       point has one;
+ *   <li>Latitudes, longitudes and elevations are stored as fixed-point numbers, as differences with
+ *       the previous point. Each column uses the smallest number of decimal digits that gives back
+ *       the exact same {@code double}s. A column that cannot be stored that way is stored as raw
+ *       {@code double}s;
+ *   <li>The distance, elevation difference, speed, grade, time difference and activity of the
+ *       points are computed again when the trail is decoded (see {@code PointsAugmenter}). Only the
+ *       values that differ from the computed ones (e.g. after the trail has been cleaned) are
+ *       stored;
+ *   <li>The statistics are stored as they are, the outliers being stored as positions in the trail.
+ * </ul>
+ *
+ * <p>Integers are stored as variable-length quantities (7 bits per byte). Signed integers are
+ * zig-zag encoded first, so that small negative numbers take little space as well.
+ *
+ * @author Xavier Sosnovsky
+ */
+public enum TrailCodec {
+
+  /** Singleton instance of the codec. */
+  INSTANCE;
+
+  private static final int NANOS = 1;
+  private static final int STATISTICS = 2;
+  private static final int NO_STATISTICS = 4;
+  private static final int RAW = 0xFF;
+  private static final int MAX_SCALE = 12;
+  private static final double MAX_UNITS = 0x1p53;
+  private static final double[] POWERS = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12
+  };
+
+  /**
+   * Encodes the supplied trail.
+   *
+   * @param trail the trail to be encoded
+   * @return the binary representation of the trail
+   */
+  public byte[] encode(final Trail trail) {
+    final WaypointColumns points = trail.getColumns();
+    final int size = points.size();
+    final Output out = new Output(64 + 12 * size);
+    final int[][] outliers = getOutliers(trail.getStatistics(), points);
+    int flags = 0;
+    for (int i = 0; i < size && 0 == flags; i++) {
+      flags = 0 == points.getNano(i) ? 0 : NANOS;
+    }
+    if (null == trail.getStatistics()) {
+      flags |= NO_STATISTICS;
+    } else if (null != outliers) {
+      flags |= STATISTICS;
+    }
+    out.writeVarLong(size);
+    out.writeByte(flags);
+    out.writeVarLong(trail.getCountries().size());
+    for (final String country : trail.getCountries()) {
+      out.writeString(country);
+    }
+    writeTimes(out, points, 0 != (flags & NANOS));
+    final double[] values = new double[size];
+    for (int i = 0; i < size; i++) {
+      values[i] = points.getLatitude(i);
+    }
+    writeColumn(out, values);
+    for (int i = 0; i < size; i++) {
+      values[i] = points.getLongitude(i);
+    }
+    writeColumn(out, values);
+    for (int i = 0; i < size; i++) {
+      values[i] = points.getElevation(i);
+    }
+    writeColumn(out, values);
+    writeAugmentation(out, points);
+    if (0 != (flags & STATISTICS)) {
+      writeStatistics(out, trail.getStatistics(), outliers);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Decodes the trail held in the supplied buffer, starting at its position. The position of the
+   * buffer is moved past the trail.
+   *
+   * @param input the buffer holding the binary representation of the trail
+   * @return the decoded trail
+   * @throws ExecutionError if the buffer does not hold a valid representation of a trail
+   */
+  public Trail decode(final ByteBuffer input) {
+    final ByteOrder order = input.order();
+    input.order(ByteOrder.BIG_ENDIAN);
+    try {
+      final Input in = new Input(input);
+      final int size = in.readInt();
+      final int flags = in.readByte();
+      final int countryCount = in.readInt();
+      final Set<String> countries = new LinkedHashSet<>();
+      for (int i = 0; i < countryCount; i++) {
+        countries.add(in.readString());
+      }
+      final long[] seconds = new long[size];
+      final int[] nanos = 0 == (flags & NANOS) ? null : new int[size];
+      readTimes(in, seconds, nanos);
+      final double[] latitudes = readColumn(in, size);
+      final double[] longitudes = readColumn(in, size);
+      final double[] elevations = readColumn(in, size);
+      final WaypointColumns base =
+          new WaypointColumns(
+              seconds,
+              nanos,
+              latitudes,
+              longitudes,
+              elevations,
+              new double[size],
+              new double[size],
+              new double[size],
+              new double[size],
+              new long[size],
+              new BitSet(size));
+      final WaypointColumns points = readAugmentation(in, PointsAugmenter.INSTANCE.apply(base));
+      final TrailStatistics stats;
+      if (0 != (flags & STATISTICS)) {
+        stats = readStatistics(in, points);
+      } else if (0 != (flags & NO_STATISTICS)) {
+        stats = null;
+      } else {
+        stats = StatisticsProvider.INSTANCE.apply(points);
+      }
+      return TrailBuilder.restore(points, countries, stats);
+    } catch (final BufferUnderflowException | IllegalArgumentException e) {
+      throw new ExecutionError(
+          "Malformed trail data",
+          e,
+          Markers.IO.getMarker(),
+          Actions.PARSE,
+          StatusCodes.SYNTAX_ERROR);
+    } finally {
+      input.order(order);
+    }
+  }
+
+  private static void writeTimes(
+      final Output out, final WaypointColumns points, final boolean withNanos) {
+    long previous = 0;
+    long delta = 0;
+    for (int i = 0; i < points.size(); i++) {
+      final long second = points.getEpochSecond(i);
+      final long newDelta = second - previous;
+      out.writeSignedVarLong(0 == i ? second : newDelta - delta);
+      delta = 0 == i ? 0 : newDelta;
+      previous = second;
+    }
+    if (withNanos) {
+      for (int i = 0; i < points.size(); i++) {
+        out.writeVarLong(points.getNano(i));
+      }
+    }
+  }
+
+  private static void readTimes(final Input in, final long[] seconds, final int[] nanos) {
+    long previous = 0;
+    long delta = 0;
+    for (int i = 0; i < seconds.length; i++) {
+      if (0 == i) {
+        previous = in.readSignedVarLong();
+      } else {
+        delta += in.readSignedVarLong();
+        previous += delta;
+      }
+      seconds[i] = previous;
+    }
+    if (null != nanos) {
+      for (int i = 0; i < nanos.length; i++) {
+        nanos[i] = in.readInt();
+      }
+    }
+  }
+
+  private static void writeColumn(final Output out, final double[] values) {
+    final int scale = getScale(values);
+    int missing = 0;
+    for (final double value : values) {
+      missing += Double.isNaN(value) ? 1 : 0;
+    }
+    out.writeByte(scale);
+    out.writeVarLong(missing);
+    if (0 < missing) {
+      for (int i = 0; i < values.length; i += 8) {
+        int bits = 0;
+        for (int j = i; j < Math.min(i + 8, values.length); j++) {
+          bits |= Double.isNaN(values[j]) ? 1 << (j - i) : 0;
+        }
+        out.writeByte(bits);
+      }
+    }
+    long previous = 0;
+    for (final double value : values) {
+      if (Double.isNaN(value)) {
+        continue;
+      }
+      if (RAW == scale) {
+        out.writeDouble(value);
+      } else {
+        final long units = Math.round(value * POWERS[scale]);
+        out.writeSignedVarLong(units - previous);
+        previous = units;
+      }
+    }
+  }
+
+  private static double[] readColumn(final Input in, final int size) {
+    final int scale = in.readByte();
+    if (RAW != scale && MAX_SCALE < scale) {
+      throw new IllegalArgumentException("Unknown scale: " + scale);
+    }
+    final int missing = in.readInt();
+    final BitSet nan = new BitSet(size);
+    if (0 < missing) {
+      for (int i = 0; i < size; i += 8) {
+        final int bits = in.readByte();
+        for (int j = i; j < Math.min(i + 8, size); j++) {
+          nan.set(j, 0 != (bits & 1 << (j - i)));
+        }
+      }
+    }
+    final double[] values = new double[size];
+    long units = 0;
+    for (int i = 0; i < size; i++) {
+      if (nan.get(i)) {
+        values[i] = Double.NaN;
+      } else if (RAW == scale) {
+        values[i] = in.readDouble();
+      } else {
+        units += in.readSignedVarLong();
+        values[i] = units / POWERS[scale];
+      }
+    }
+    return values;
+  }
+
+  /*
+   * Returns the smallest number of decimal digits with which all the values can be stored exactly.
+   */
+  private static int getScale(final double[] values) {
+    for (int scale = 0; scale <= MAX_SCALE; scale++) {
+      if (isExact(values, POWERS[scale])) {
+        return scale;
+      }
+    }
+    return RAW;
+  }
+
+  private static boolean isExact(final double[] values, final double power) {
+    for (final double value : values) {
+      if (Double.isNaN(value)) {
+        continue;
+      }
+      final double scaled = value * power;
+      if (!(Math.abs(scaled) < MAX_UNITS)
+          || Double.doubleToRawLongBits(Math.round(scaled) / power)
+              != Double.doubleToRawLongBits(value)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /*
+   * Only the values that differ from the ones computed by the augmenter are written, as pairs of
+   * gap since the previous difference and value.
+   */
+  private static void writeAugmentation(final Output out, final WaypointColumns points) {
+    final WaypointColumns expected = PointsAugmenter.INSTANCE.apply(points);
+    final int size = points.size();
+    final double[] actual = new double[size];
+    final double[] computed = new double[size];
+    for (int column = 0; column < 4; column++) {
+      for (int i = 0; i < size; i++) {
+        actual[i] = getAugmentation(points, column, i);
+        computed[i] = getAugmentation(expected, column, i);
+      }
+      int count = 0;
+      for (int i = 0; i < size; i++) {
+        count += sameBits(actual[i], computed[i]) ? 0 : 1;
+      }
+      out.writeVarLong(count);
+      int previous = 0;
+      for (int i = 0; i < size; i++) {
+        if (!sameBits(actual[i], computed[i])) {
+          out.writeVarLong(i - previous);
+          out.writeDouble(actual[i]);
+          previous = i;
+        }
+      }
+    }
+    int count = 0;
+    for (int i = 0; i < size; i++) {
+      count += points.getTimeDifference(i) == expected.getTimeDifference(i) ? 0 : 1;
+    }
+    out.writeVarLong(count);
+    int previous = 0;
+    for (int i = 0; i < size; i++) {
+      if (points.getTimeDifference(i) != expected.getTimeDifference(i)) {
+        out.writeVarLong(i - previous);
+        out.writeSignedVarLong(points.getTimeDifference(i));
+        previous = i;
+      }
+    }
+    count = 0;
+    for (int i = 0; i < size; i++) {
+      count += points.isActive(i) == expected.isActive(i) ? 0 : 1;
+    }
+    out.writeVarLong(count);
+    previous = 0;
+    for (int i = 0; i < size; i++) {
+      if (points.isActive(i) != expected.isActive(i)) {
+        out.writeVarLong(i - previous);
+        previous = i;
+      }
+    }
+  }
+
+  private static WaypointColumns readAugmentation(final Input in, final WaypointColumns computed) {
+    final int size = computed.size();
+    double[][] values = null;
+    for (int column = 0; column < 4; column++) {
+      final int count = in.readInt();
+      int idx = 0;
+      for (int i = 0; i < count; i++) {
+        idx = checkIndex(idx + in.readInt(), size);
+        if (null == values) {
+          values = new double[4][];
+          for (int c = 0; c < 4; c++) {
+            values[c] = new double[size];
+            for (int j = 0; j < size; j++) {
+              values[c][j] = getAugmentation(computed, c, j);
+            }
+          }
+        }
+        values[column][idx] = in.readDouble();
+      }
+    }
+    long[] timeDiffs = null;
+    int count = in.readInt();
+    int idx = 0;
+    for (int i = 0; i < count; i++) {
+      idx = checkIndex(idx + in.readInt(), size);
+      if (null == timeDiffs) {
+        timeDiffs = new long[size];
+        for (int j = 0; j < size; j++) {
+          timeDiffs[j] = computed.getTimeDifference(j);
+        }
+      }
+      timeDiffs[idx] = in.readSignedVarLong();
+    }
+    BitSet active = null;
+    count = in.readInt();
+    idx = 0;
+    for (int i = 0; i < count; i++) {
+      idx = checkIndex(idx + in.readInt(), size);
+      if (null == active) {
+        active = new BitSet(size);
+        for (int j = 0; j < size; j++) {
+          active.set(j, computed.isActive(j));
+        }
+      }
+      active.flip(idx);
+    }
+    if (null == values && null == timeDiffs && null == active) {
+      return computed;
+    }
+    if (null == values) {
+      values = new double[4][size];
+      for (int c = 0; c < 4; c++) {
+        for (int j = 0; j < size; j++) {
+          values[c][j] = getAugmentation(computed, c, j);
+        }
+      }
+    }
+    if (null == timeDiffs) {
+      timeDiffs = new long[size];
+      for (int j = 0; j < size; j++) {
+        timeDiffs[j] = computed.getTimeDifference(j);
+      }
+    }
+    if (null == active) {
+      active = new BitSet(size);
+      for (int j = 0; j < size; j++) {
+        active.set(j, computed.isActive(j));
+      }
+    }
+    return computed.withAugmentation(values[0], values[1], values[2], values[3], timeDiffs, active);
+  }
+
+  private static double getAugmentation(
+      final WaypointColumns points, final int column, final int index) {
+    switch (column) {
+      case 0:
+        return points.getDistance(index);
+      case 1:
+        return points.getElevationDifference(index);
+      case 2:
+        return points.getSpeed(index);
+      default:
+        return points.getGrade(index);
+    }
+  }
+
+  /*
+   * Returns the positions of the outliers of each metric, or null if one of them is not a point of
+   * the trail, in which case the statistics will be computed again when the trail is decoded.
+   */
+  private static int[][] getOutliers(final TrailStatistics stats, final WaypointColumns points) {
+    if (null == stats) {
+      return null;
+    }
+    final Statistics[] metrics = getMetrics(stats);
+    final int[][] outliers = new int[metrics.length][];
+    for (int m = 0; m < metrics.length; m++) {
+      final Set<Waypoint> set = metrics[m].getOutliers();
+      outliers[m] = new int[set.size()];
+      int i = 0;
+      for (final Waypoint point : set) {
+        final int idx = points.indexOf(point);
+        if (0 > idx) {
+          return null;
+        }
+        outliers[m][i++] = idx;
+      }
+      Arrays.sort(outliers[m]);
+    }
+    return outliers;
+  }
+
+  private static Statistics[] getMetrics(final TrailStatistics stats) {
+    return new Statistics[] {
+      stats.getTimeDifferenceSummary(),
+      stats.getDistanceSummary(),
+      stats.getElevationSummary(),
+      stats.getElevationDifferenceSummary(),
+      stats.getSpeedSummary(),
+      stats.getGradeSummary()
+    };
+  }
+
+  private static void writeStatistics(
+      final Output out, final TrailStatistics stats, final int[][] outliers) {
+    final Statistics[] metrics = getMetrics(stats);
+    for (int m = 0; m < metrics.length; m++) {
+      final Statistics metric = metrics[m];
+      writeSummary(out, metric.getAll());
+      writeSummary(out, metric.getActive());
+      writeSummary(out, metric.getActiveUp());
+      writeSummary(out, metric.getActiveDown());
+      writeSummary(out, metric.getActiveFlat());
+      out.writeVarLong(outliers[m].length);
+      int previous = 0;
+      for (final int idx : outliers[m]) {
+        out.writeVarLong(idx - previous);
+        previous = idx;
+      }
+    }
+  }
+
+  private static TrailStatistics readStatistics(final Input in, final WaypointColumns points) {
+    final Statistics[] metrics = new Statistics[6];
+    for (int m = 0; m < metrics.length; m++) {
+      final StatisticalSummary all = readSummary(in);
+      final StatisticalSummary active = readSummary(in);
+      final StatisticalSummary up = readSummary(in);
+      final StatisticalSummary down = readSummary(in);
+      final StatisticalSummary flat = readSummary(in);
+      final int count = in.readInt();
+      final Set<Waypoint> outliers = new LinkedHashSet<>();
+      int idx = 0;
+      for (int i = 0; i < count; i++) {
+        idx = checkIndex(idx + in.readInt(), points.size());
+        outliers.add(points.get(idx));
+      }
+      metrics[m] = new StatisticsImpl(all, active, up, down, flat, outliers);
+    }
+    return new TrailStatisticsImpl(
+        metrics[0], metrics[1], metrics[2], metrics[3], metrics[4], metrics[5]);
+  }
+
+  private static void writeSummary(final Output out, final StatisticalSummary summary) {
+    out.writeVarLong(summary.getN());
+    out.writeDouble(summary.getMean());
+    out.writeDouble(summary.getVariance());
+    out.writeDouble(summary.getMax());
+    out.writeDouble(summary.getMin());
+    out.writeDouble(summary.getSum());
+  }
+
+  private static StatisticalSummary readSummary(final Input in) {
+    final long n = in.readVarLong();
+    final double mean = in.readDouble();
+    final double variance = in.readDouble();
+    final double max = in.readDouble();
+    final double min = in.readDouble();
+    final double sum = in.readDouble();
+    return new StatisticalSummaryValues(mean, variance, n, max, min, sum);
+  }
+
+  private static boolean sameBits(final double a, final double b) {
+    return Double.doubleToRawLongBits(a) == Double.doubleToRawLongBits(b);
+  }
+
+  private static int checkIndex(final int index, final int size) {
+    if (0 > index || index >= size) {
+      throw new IllegalArgumentException("Invalid point position: " + index);
+    }
+    return index;
+  }
+
+  /*
+   * A growable array of bytes.
+   */
+  private static final class Output {
+
+    private byte[] bytes;
+    private int size;
+
+    Output(final int capacity) {
+      super();
+      bytes = new byte[capacity];
+    }
+
+    void writeByte(final int value) {
+      ensure(1);
+      bytes[size++] = (byte) value;
+    }
+
+    void writeVarLong(final long value) {
+      ensure(10);
+      long remaining = value;
+      while (0 != (remaining & ~0x7FL)) {
+        bytes[size++] = (byte) (remaining & 0x7F | 0x80);
+        remaining >>>= 7;
+      }
+      bytes[size++] = (byte) remaining;
+    }
+
+    void writeSignedVarLong(final long value) {
+      writeVarLong(value << 1 ^ value >> 63);
+    }
+
+    void writeDouble(final double value) {
+      ensure(8);
+      final long bits = Double.doubleToRawLongBits(value);
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        bytes[size++] = (byte) (bits >>> shift);
+      }
+    }
+
+    void writeString(final String value) {
+      final byte[] text = value.getBytes(StandardCharsets.UTF_8);
+      writeVarLong(text.length);
+      ensure(text.length);
+      System.arraycopy(text, 0, bytes, size, text.length);
+      size += text.length;
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(bytes, size);
+    }
+
+    private void ensure(final int length) {
+      if (size + length > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, size + length));
+      }
+    }
+  }
+
+  private static final class Input {
+
+    private final ByteBuffer buffer;
+
+    Input(final ByteBuffer buffer) {
+      super();
+      this.buffer = buffer;
+    }
+
+    int readByte() {
+      return buffer.get() & 0xFF;
+    }
+
+    long readVarLong() {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        final byte b = buffer.get();
+        value |= (long) (b & 0x7F) << shift;
+        if (0 <= b) {
+          return value;
+        }
+      }
+      throw new IllegalArgumentException("Malformed variable-length quantity");
+    }
+
+    long readSignedVarLong() {
+      final long value = readVarLong();
+      return value >>> 1 ^ -(value & 1);
+    }
+
+    int readInt() {
+      final long value = readVarLong();
+      if (Integer.MAX_VALUE < value || 0 > value) {
+        throw new IllegalArgumentException("Value out of range: " + value);
+      }
+      return (int) value;
+    }
+
+    double readDouble() {
+      return Double.longBitsToDouble(buffer.getLong());
+    }
+
+    String readString() {
+      final byte[] text = new byte[readInt()];
+      buffer.get(text);
+      return new String(text, StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Accumulates the statistics of all the metrics of a trail (time difference, distance, elevation,
+ * elevation difference, speed and grade), for all the buckets (all, active, up, down and flat).
+ *
+ * <p>Points are classified once, when added or removed, and their values are fed to the
+ * accumulators of all the metrics at the same time.
+ *
+ * @author Xavier Sosnovsky
+ */
+final class TrailStatisticsAccumulator {
+
+  static final int TIME_DIFF = 0;
+  static final int DISTANCE = 1;
+  static final int ELEVATION = 2;
+  static final int ELEVATION_DIFF = 3;
+  static final int SPEED = 4;
+  static final int GRADE = 5;
+  static final int METRICS = 6;
+  static final int OUTLIERS_BOUNDARY = 4;
+  private static final int BUCKETS = 5;
+  private static final int ALL = 0;
+  private static final int ACTIVE = 1;
+  private static final int UP = 2;
+  private static final int DOWN = 3;
+  private static final int FLAT = 4;
+  /**
+   * The angle of the slope that acts as boundary between flat, uphill and downhill segments.
+   *
+   * <p>An angle of 2.9 degree is considered the maximum for wheelchair navigable trails and is
+   * therefore considered as a good boundary value to describe flat segments.
+   */
+  private static final double SLOPE_ANGLE = 2.9;
+
+  private final SummaryAccumulator[][] accumulators;
+  private final double[] values;
+
+  TrailStatisticsAccumulator() {
+    super();
+    accumulators = new SummaryAccumulator[METRICS][BUCKETS];
+    for (int metric = 0; metric < METRICS; metric++) {
+      for (int bucket = 0; bucket < BUCKETS; bucket++) {
+        accumulators[metric][bucket] = new SummaryAccumulator();
+      }
+    }
+    values = new double[METRICS];
+  }
+
+  /**
+   * Adds the values of the point at the supplied position to the statistics.
+   *
+   * @param points the columns holding the points
+   * @param index the position of the point
+   */
+  void add(final WaypointColumns points, final int index) {
+    update(points, index, true);
+  }
+
+  /**
+   * Adds the values of a point to the statistics.
+   *
+   * @param point the values of the point, indexed by metric (e.g. {@code SPEED})
+   * @param active whether the point is active
+   */
+  void add(final double[] point, final boolean active) {
+    System.arraycopy(point, 0, values, 0, METRICS);
+    update(active, true);
+  }
+
+  /**
+   * Removes the values of the point at the supplied position from the statistics.
+   *
+   * <p>The point must have been added before, with the exact same values.
+   *
+   * @param points the columns holding the points
+   * @param index the position of the point
+   */
+  void remove(final WaypointColumns points, final int index) {
+    update(points, index, false);
+  }
+
+  /**
+   * Returns whether the supplied value is an outlier for the active points of the metric.
+   *
+   * @param metric the metric (e.g. {@code SPEED})
+   * @param value the value to be checked
+   * @return whether the value is an outlier
+   */
+  boolean isOutlier(final int metric, final double value) {
+    return getDeviation(metric, value) > OUTLIERS_BOUNDARY;
+  }
+
+  /**
+   * Returns the distance between the supplied value and the mean of the active points of the
+   * metric, in standard deviations.
+   *
+   * @param metric the metric (e.g. {@code SPEED})
+   * @param value the value to be checked
+   * @return the distance to the mean, in standard deviations, or NaN if the value is missing
+   */
+  double getDeviation(final int metric, final double value) {
+    final SummaryAccumulator active = accumulators[metric][ACTIVE];
+    return Math.abs((value - active.getMean()) / active.getStandardDeviation());
+  }
+
+  /**
+   * Returns the mean of the active points of the metric.
+   *
+   * @param metric the metric (e.g. {@code SPEED})
+   * @return the mean, or NaN if no value has been accumulated
+   */
+  double getMean(final int metric) {
+    return accumulators[metric][ACTIVE].getMean();
+  }
+
+  /**
+   * Returns the standard deviation of the active points of the metric.
+   *
+   * @param metric the metric (e.g. {@code SPEED})
+   * @return the standard deviation, or NaN if no value has been accumulated
+   */
+  double getStandardDeviation(final int metric) {
+    return accumulators[metric][ACTIVE].getStandardDeviation();
+  }
+
+  /**
+   * Returns the statistics accumulated so far, including the outliers found in the supplied
+   * points.
+   *
+   * @param points the columns holding the points that have been accumulated
+   * @return the statistics accumulated so far
+   */
+  TrailStatistics snapshot(final WaypointColumns points) {
+    final List<Set<Waypoint>> outliers = new ArrayList<>(METRICS);
+    for (int metric = 0; metric < METRICS; metric++) {
+      outliers.add(new LinkedHashSet<>());
+    }
+    for (int i = 0; i < points.size(); i++) {
+      if (points.isActive(i)) {
+        readValues(points, i);
+        for (int metric = 0; metric < METRICS; metric++) {
+          if (isOutlier(metric, values[metric])) {
+            outliers.get(metric).add(points.get(i));
+          }
+        }
+      }
+    }
+    return snapshot(outliers);
+  }
+
+  /**
+   * Returns the statistics accumulated so far, with the supplied outliers.
+   *
+   * @param outliers the outliers of each metric, indexed by metric (e.g. {@code SPEED})
+   * @return the statistics accumulated so far
+   */
+  TrailStatistics snapshot(final List<Set<Waypoint>> outliers) {
+    return new TrailStatisticsImpl(
+        getStatistics(TIME_DIFF, outliers),
+        getStatistics(DISTANCE, outliers),
+        getStatistics(ELEVATION, outliers),
+        getStatistics(ELEVATION_DIFF, outliers),
+        getStatistics(SPEED, outliers),
+        getStatistics(GRADE, outliers));
+  }
+
+  private void update(final WaypointColumns points, final int index, final boolean add) {
+    readValues(points, index);
+    update(points.isActive(index), add);
+  }
+
+  private void update(final boolean active, final boolean add) {
+    for (int metric = 0; metric < METRICS; metric++) {
+      update(accumulators[metric][ALL], values[metric], add);
+    }
+    if (active) {
+      final int slopeBucket = getSlopeBucket(values[GRADE]);
+      final int eleBucket = getElevationBucket(values[ELEVATION_DIFF]);
+      for (int metric = 0; metric < METRICS; metric++) {
+        final SummaryAccumulator[] buckets = accumulators[metric];
+        final double value = values[metric];
+        update(buckets[ACTIVE], value, add);
+        if (ELEVATION == metric || ELEVATION_DIFF == metric) {
+          if (FLAT != eleBucket) {
+            update(buckets[eleBucket], value, add);
+          }
+        } else if (-1 != slopeBucket) {
+          update(buckets[slopeBucket], value, add);
+        }
+      }
+    }
+  }
+
+  /*
+   * Missing values (NaN) are ignored, as null values used to be.
+   */
+  private void update(final SummaryAccumulator accumulator, final double value, final boolean add) {
+    if (!Double.isNaN(value)) {
+      if (add) {
+        accumulator.add(value);
+      } else {
+        accumulator.remove(value);
+      }
+    }
+  }
+
+  private void readValues(final WaypointColumns points, final int index) {
+    values[TIME_DIFF] = points.getTimeDifference(index);
+    values[DISTANCE] = points.getDistance(index);
+    values[ELEVATION] = points.getElevation(index);
+    values[ELEVATION_DIFF] = points.getElevationDifference(index);
+    values[SPEED] = points.getSpeed(index);
+    values[GRADE] = points.getGrade(index);
+  }
+
+  private int getSlopeBucket(final double grade) {
+    if (grade > SLOPE_ANGLE) {
+      return UP;
+    } else if (grade < -SLOPE_ANGLE) {
+      return DOWN;
+    } else if (Double.isNaN(grade)) {
+      return -1;
+    } else {
+      return FLAT;
+    }
+  }
+
+  /*
+   * Elevation and differences of elevation are only split between up and down.
+   */
+  private int getElevationBucket(final double elevationDifference) {
+    if (elevationDifference >= 0.0) {
+      return UP;
+    } else if (elevationDifference < 0.0) {
+      return DOWN;
+    } else {
+      return FLAT;
+    }
+  }
+
+  private Statistics getStatistics(final int metric, final List<Set<Waypoint>> outliers) {
+    final SummaryAccumulator[] buckets = accumulators[metric];
+    return new StatisticsImpl(
+        buckets[ALL].snapshot(),
+        buckets[ACTIVE].snapshot(),
+        buckets[UP].snapshot(),
+        buckets[DOWN].snapshot(),
+        buckets[FLAT].snapshot(),
+        outliers.get(metric));
+  }
+}
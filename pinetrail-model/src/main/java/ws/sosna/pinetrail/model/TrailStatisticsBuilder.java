@@ -0,0 +1,372 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Builds the statistics of a trail incrementally, as its points are recorded.
+ *
+ * <p>Points are appended one at a time (or in small batches), in chronological order. Each point is
+ * augmented against the previous one (distance, speed, grade, etc.) and its values are fed to the
+ * accumulators of all the metrics and buckets right away, so that appending a point costs O(1)
+ * amortised, whatever the number of points already recorded. A snapshot of the statistics can be
+ * built at any moment, and more points can be appended afterwards. The statistics are the same as
+ * the ones compiled from scratch over the same points, augmented in one go.
+ *
+ * <p>Outliers depend on the mean and standard deviation of all the points, which change as points
+ * are appended. To avoid checking every point again for each snapshot, the builder keeps, for each
+ * metric, the candidates that are further than 3 standard deviations from a reference mean, and
+ * only checks them against the actual boundary (4 standard deviations) when building a snapshot.
+ * The reference is the mean and standard deviation at the last refresh of the candidates. A point
+ * that is not a candidate is within {@code 3 * refDeviation} of the reference mean, hence within
+ * {@code 3 * refDeviation + |mean - refMean|} of the current mean: it cannot be an outlier as long
+ * as this bound does not exceed {@code 4 * deviation}. The candidates are therefore refreshed as
+ * soon as the bound is exceeded, i.e. when the values narrow (by a quarter, if the mean did not
+ * move) or when the mean shifts, and in any case each time the number of points doubles, which
+ * keeps the candidates few. Narrowing and shifting both take a number of points proportional to
+ * the points already recorded, so that the cost per point remains constant in practice.
+ *
+ * <p>Unlike {@code TrailBuilder}, the builder neither fixes elevations nor removes outliers: the
+ * statistics describe the points as recorded.
+ *
+ * @author Xavier Sosnovsky
+ */
+public final class TrailStatisticsBuilder implements Builder<TrailStatistics> {
+
+  private static final double CANDIDATES_BOUNDARY = 3;
+  private static final int MIN_REFRESH = 16;
+  private final TrailStatisticsAccumulator statistics;
+  private final BitSet[] candidates;
+  private final double[] point;
+  private final double[][] values;
+  private final BitSet active;
+  private final double[] refMeans;
+  private final double[] refDeviations;
+  private long[] seconds;
+  private int[] nanos;
+  private double[] latitudes;
+  private double[] longitudes;
+  private int size;
+  private int nextRefresh;
+
+  /** Instantiates a new TrailStatisticsBuilder. */
+  public TrailStatisticsBuilder() {
+    this(16);
+  }
+
+  /**
+   * Instantiates a new TrailStatisticsBuilder, sized for the expected number of points.
+   *
+   * @param expectedSize the expected number of points
+   */
+  public TrailStatisticsBuilder(final int expectedSize) {
+    super();
+    final int capacity = Math.max(1, expectedSize);
+    statistics = new TrailStatisticsAccumulator();
+    candidates = new BitSet[TrailStatisticsAccumulator.METRICS];
+    values = new double[TrailStatisticsAccumulator.METRICS][];
+    for (int metric = 0; metric < TrailStatisticsAccumulator.METRICS; metric++) {
+      candidates[metric] = new BitSet();
+      values[metric] = new double[capacity];
+    }
+    point = new double[TrailStatisticsAccumulator.METRICS];
+    refMeans = new double[TrailStatisticsAccumulator.METRICS];
+    refDeviations = new double[TrailStatisticsAccumulator.METRICS];
+    Arrays.fill(refMeans, Double.NaN);
+    Arrays.fill(refDeviations, Double.NaN);
+    seconds = new long[capacity];
+    nanos = new int[capacity];
+    latitudes = new double[capacity];
+    longitudes = new double[capacity];
+    active = new BitSet(capacity);
+    nextRefresh = MIN_REFRESH;
+  }
+
+  /**
+   * Appends a point to the trail and updates the statistics.
+   *
+   * <p>As with {@code WaypointColumns}, a point recorded at the same time as the last point is
+   * ignored.
+   *
+   * @param epochSecond the number of seconds since the epoch at which the point was recorded
+   * @param nano the nanoseconds, within the second, at which the point was recorded
+   * @param longitude the longitude of the point, in decimal degrees
+   * @param latitude the latitude of the point, in decimal degrees
+   * @param elevation the elevation of the point, in meters, or {@code Double.NaN} if unknown
+   * @return the builder, with the additional point
+   * @throws IllegalArgumentException if the point was recorded before the last point
+   */
+  public TrailStatisticsBuilder add(
+      final long epochSecond,
+      final int nano,
+      final double longitude,
+      final double latitude,
+      final double elevation) {
+    if (0 < size) {
+      final int last = size - 1;
+      final int order =
+          epochSecond == seconds[last]
+              ? Integer.compare(nano, nanos[last])
+              : Long.compare(epochSecond, seconds[last]);
+      if (0 == order) {
+        return this;
+      } else if (0 > order) {
+        throw new IllegalArgumentException("Points must be added in chronological order");
+      }
+    }
+    ensureCapacity();
+    seconds[size] = epochSecond;
+    nanos[size] = nano;
+    longitudes[size] = longitude;
+    latitudes[size] = latitude;
+    final boolean isActive = augment(elevation);
+    statistics.add(point, isActive);
+    for (int metric = 0; metric < TrailStatisticsAccumulator.METRICS; metric++) {
+      values[metric][size] = point[metric];
+    }
+    active.set(size, isActive);
+    size++;
+    if (size >= nextRefresh || isStale()) {
+      refreshCandidates();
+    } else if (isActive) {
+      addCandidates(size - 1);
+    }
+    return this;
+  }
+
+  /**
+   * Appends a point to the trail and updates the statistics.
+   *
+   * <p>Only the time and coordinates of the point are used: the augmented values are computed
+   * against the previous point.
+   *
+   * @param point the point to be added
+   * @return the builder, with the additional point
+   * @throws IllegalArgumentException if the point was recorded before the last point
+   */
+  public TrailStatisticsBuilder add(final Waypoint point) {
+    final Coordinates coordinates = point.getCoordinates();
+    final Double elevation = coordinates.getElevation();
+    return add(
+        point.getTime().getEpochSecond(),
+        point.getTime().getNano(),
+        coordinates.getLongitude(),
+        coordinates.getLatitude(),
+        null == elevation ? Double.NaN : elevation);
+  }
+
+  /**
+   * Appends a batch of points to the trail and updates the statistics.
+   *
+   * @param points the columns holding the points to be added
+   * @return the builder, with the additional points
+   * @throws IllegalArgumentException if the first point was recorded before the last point
+   */
+  public TrailStatisticsBuilder addAll(final WaypointColumns points) {
+    for (int i = 0; i < points.size(); i++) {
+      add(
+          points.getEpochSecond(i),
+          points.getNano(i),
+          points.getLongitude(i),
+          points.getLatitude(i),
+          points.getElevation(i));
+    }
+    return this;
+  }
+
+  /**
+   * Returns the number of points added so far.
+   *
+   * @return the number of points added so far
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Builds a snapshot of the statistics of the points added so far.
+   *
+   * @return the statistics of the points added so far, or null if no point has been added yet
+   */
+  @Override
+  public TrailStatistics build() {
+    if (0 == size) {
+      return null;
+    }
+    final BitSet[] outliers = new BitSet[TrailStatisticsAccumulator.METRICS];
+    final BitSet all = new BitSet();
+    for (int metric = 0; metric < TrailStatisticsAccumulator.METRICS; metric++) {
+      outliers[metric] = new BitSet();
+      final BitSet metricCandidates = candidates[metric];
+      for (int i = metricCandidates.nextSetBit(0); i >= 0; i = metricCandidates.nextSetBit(i + 1)) {
+        if (statistics.isOutlier(metric, values[metric][i])) {
+          outliers[metric].set(i);
+        }
+      }
+      all.or(outliers[metric]);
+    }
+    final List<Set<Waypoint>> sets = new ArrayList<>(TrailStatisticsAccumulator.METRICS);
+    for (int metric = 0; metric < TrailStatisticsAccumulator.METRICS; metric++) {
+      sets.add(new LinkedHashSet<>());
+    }
+    final WaypointColumns points = select(all);
+    int k = 0;
+    for (int i = all.nextSetBit(0); i >= 0; i = all.nextSetBit(i + 1)) {
+      final Waypoint outlier = points.get(k++);
+      for (int metric = 0; metric < TrailStatisticsAccumulator.METRICS; metric++) {
+        if (outliers[metric].get(i)) {
+          sets.get(metric).add(outlier);
+        }
+      }
+    }
+    return statistics.snapshot(sets);
+  }
+
+  /*
+   * Same computations as PointsAugmenter, against the previous point. The first point has no
+   * predecessor and is therefore neither moving nor active.
+   */
+  private boolean augment(final double elevation) {
+    Arrays.fill(point, 0);
+    point[TrailStatisticsAccumulator.ELEVATION] = elevation;
+    if (0 == size) {
+      return false;
+    }
+    final int previous = size - 1;
+    final double distance =
+        PointsAugmenter.calculateDistance(
+            latitudes[size], longitudes[size], latitudes[previous], longitudes[previous]);
+    final double previousElevation = values[TrailStatisticsAccumulator.ELEVATION][previous];
+    final double eleDiff =
+        Double.isNaN(elevation) || Double.isNaN(previousElevation)
+            ? 0.0
+            : elevation - previousElevation;
+    final long duration =
+        PointsAugmenter.calculateElapsed(
+            seconds[size], nanos[size], seconds[previous], nanos[previous]);
+    final double speed = PointsAugmenter.calculateSpeed(distance, duration);
+    point[TrailStatisticsAccumulator.TIME_DIFF] = duration;
+    point[TrailStatisticsAccumulator.DISTANCE] = distance;
+    point[TrailStatisticsAccumulator.ELEVATION_DIFF] = eleDiff;
+    point[TrailStatisticsAccumulator.SPEED] = speed;
+    point[TrailStatisticsAccumulator.GRADE] = PointsAugmenter.calculateGrade(distance, eleDiff);
+    return PointsAugmenter.isActive(speed);
+  }
+
+  private void addCandidates(final int index) {
+    for (int metric = 0; metric < TrailStatisticsAccumulator.METRICS; metric++) {
+      final double deviation = (values[metric][index] - refMeans[metric]) / refDeviations[metric];
+      if (Math.abs(deviation) > CANDIDATES_BOUNDARY) {
+        candidates[metric].set(index);
+      }
+    }
+  }
+
+  /*
+   * Whether a point that is not a candidate could be an outlier. Without deviation, there is no
+   * outlier, and a reference without deviation must be replaced as soon as there is one.
+   */
+  private boolean isStale() {
+    for (int metric = 0; metric < TrailStatisticsAccumulator.METRICS; metric++) {
+      final double deviation = statistics.getStandardDeviation(metric);
+      final double bound =
+          CANDIDATES_BOUNDARY * refDeviations[metric]
+              + Math.abs(statistics.getMean(metric) - refMeans[metric]);
+      if (!Double.isNaN(deviation)
+          && !(bound <= TrailStatisticsAccumulator.OUTLIERS_BOUNDARY * deviation)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void refreshCandidates() {
+    for (int metric = 0; metric < TrailStatisticsAccumulator.METRICS; metric++) {
+      candidates[metric].clear();
+      refMeans[metric] = statistics.getMean(metric);
+      refDeviations[metric] = statistics.getStandardDeviation(metric);
+    }
+    for (int i = active.nextSetBit(0); i >= 0; i = active.nextSetBit(i + 1)) {
+      addCandidates(i);
+    }
+    nextRefresh = 2 * size;
+  }
+
+  /*
+   * The outliers are usually few: the points are copied into dedicated columns, instead of sharing
+   * the arrays of the builder, which are still growing.
+   */
+  private WaypointColumns select(final BitSet indexes) {
+    final int count = indexes.cardinality();
+    final long[] pointSeconds = new long[count];
+    final int[] pointNanos = new int[count];
+    final double[] pointLatitudes = new double[count];
+    final double[] pointLongitudes = new double[count];
+    final double[] elevations = new double[count];
+    final double[] distances = new double[count];
+    final double[] eleDiffs = new double[count];
+    final double[] speeds = new double[count];
+    final double[] grades = new double[count];
+    final long[] timeDiffs = new long[count];
+    final BitSet pointActive = new BitSet(count);
+    int k = 0;
+    for (int i = indexes.nextSetBit(0); i >= 0; i = indexes.nextSetBit(i + 1)) {
+      pointSeconds[k] = seconds[i];
+      pointNanos[k] = nanos[i];
+      pointLatitudes[k] = latitudes[i];
+      pointLongitudes[k] = longitudes[i];
+      elevations[k] = values[TrailStatisticsAccumulator.ELEVATION][i];
+      distances[k] = values[TrailStatisticsAccumulator.DISTANCE][i];
+      eleDiffs[k] = values[TrailStatisticsAccumulator.ELEVATION_DIFF][i];
+      speeds[k] = values[TrailStatisticsAccumulator.SPEED][i];
+      grades[k] = values[TrailStatisticsAccumulator.GRADE][i];
+      timeDiffs[k] = (long) values[TrailStatisticsAccumulator.TIME_DIFF][i];
+      pointActive.set(k, active.get(i));
+      k++;
+    }
+    return new WaypointColumns(
+        pointSeconds,
+        pointNanos,
+        pointLatitudes,
+        pointLongitudes,
+        elevations,
+        distances,
+        eleDiffs,
+        speeds,
+        grades,
+        timeDiffs,
+        pointActive);
+  }
+
+  private void ensureCapacity() {
+    if (size == seconds.length) {
+      final int capacity = size + (size >> 1) + 1;
+      seconds = Arrays.copyOf(seconds, capacity);
+      nanos = Arrays.copyOf(nanos, capacity);
+      latitudes = Arrays.copyOf(latitudes, capacity);
+      longitudes = Arrays.copyOf(longitudes, capacity);
+      for (int metric = 0; metric < TrailStatisticsAccumulator.METRICS; metric++) {
+        values[metric] = Arrays.copyOf(values[metric], capacity);
+      }
+    }
+  }
+}
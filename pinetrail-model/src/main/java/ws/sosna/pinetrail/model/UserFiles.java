@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Locates the files that Pinetrail keeps between runs, such as caches.
+ *
+ * @author Xavier Sosnovsky
+ */
+final class UserFiles {
+
+  private UserFiles() {
+    super();
+  }
+
+  /**
+   * Returns the directory where Pinetrail stores its files for the current user.
+   *
+   * <p>This is the pinetrail directory in {@code $XDG_CONFIG_HOME} if the variable is set, and in
+   * {@code ~/.config} otherwise. The directory is not created by this method.
+   *
+   * @return the directory where Pinetrail stores its files
+   */
+  static Path getConfigDirectory() {
+    final String xdg = System.getenv("XDG_CONFIG_HOME");
+    final Path base =
+        null == xdg || xdg.isEmpty()
+            ? Paths.get(System.getProperty("user.home"), ".config")
+            : Paths.get(xdg);
+    return base.resolve("pinetrail");
+  }
+}
@@ -20,9 +20,8 @@ import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.time.Instant;
+import java.util.List;
 import java.util.Objects;
-import java.util.Set;
-import javax.validation.ConstraintViolation;
 import javax.validation.ValidationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -223,8 +222,7 @@ public final class WaypointBuilder implements Builder<Waypoint> {
             isActive,
             grade,
             timeDiff);
-    final Set<ConstraintViolation<Waypoint>> violations =
-        ValidationService.INSTANCE.getValidator().validate(obj);
+    final List<String> violations = PointsValidator.INSTANCE.validate(obj);
     if (violations.isEmpty()) {
       LOGGER.debug(
           Markers.MODEL.getMarker(),
@@ -235,10 +233,10 @@ public final class WaypointBuilder implements Builder<Waypoint> {
       return obj;
     } else {
       final StringBuilder msg = new StringBuilder();
-      for (final ConstraintViolation<Waypoint> violation : violations) {
-        msg.append(violation.getMessage());
+      for (final String violation : violations) {
+        msg.append(violation);
         msg.append(" Waypoint: ");
-        msg.append(violation.getRootBean());
+        msg.append(obj);
       }
       final String errorMsg = msg.toString();
       LOGGER.warn(
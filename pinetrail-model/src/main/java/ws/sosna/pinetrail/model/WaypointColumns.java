@@ -0,0 +1,914 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.SortedSet;
+import java.util.function.Predicate;
+
+/**
+ * Columnar, primitive representation of the points of a trail.
+ *
+ * <p>Each property of the points is stored in its own array, sorted by time in ascending order,
+ * so that the analysis stages can run tight loops over primitive values instead of chasing
+ * references to boxed objects. Missing values (e.g. an unknown elevation, or a point that has not
+ * been augmented yet) are stored as {@code Double.NaN}. The time is stored as seconds since the
+ * epoch plus nanoseconds, so that the whole range of {@code Instant} is supported.
+ *
+ * <p>Instances are immutable and the arrays are shared between instances whenever possible (for
+ * example, augmenting the points does not copy the coordinates). The {@code Waypoint} and {@code
+ * Coordinates} views returned by this class are lightweight flyweights created on demand, that
+ * behave exactly like the instances created by the builders.
+ *
+ * @see Trail#getColumns()
+ * @author Xavier Sosnovsky
+ */
+public final class WaypointColumns implements Serializable {
+
+  private static final long serialVersionUID = 4046187003683011422L;
+  private static final WaypointColumns EMPTY =
+      new WaypointColumns(
+          new long[0],
+          null,
+          new double[0],
+          new double[0],
+          new double[0],
+          new double[0],
+          new double[0],
+          new double[0],
+          new double[0],
+          new long[0],
+          new BitSet());
+  private final long[] seconds;
+  private final int[] nanos;
+  private final double[] latitudes;
+  private final double[] longitudes;
+  private final double[] elevations;
+  private final double[] distances;
+  private final double[] elevationDiffs;
+  private final double[] speeds;
+  private final double[] grades;
+  private final long[] timeDiffs;
+  private final BitSet active;
+
+  WaypointColumns(
+      final long[] seconds,
+      final int[] nanos,
+      final double[] latitudes,
+      final double[] longitudes,
+      final double[] elevations,
+      final double[] distances,
+      final double[] elevationDiffs,
+      final double[] speeds,
+      final double[] grades,
+      final long[] timeDiffs,
+      final BitSet active) {
+    super();
+    this.seconds = seconds;
+    this.nanos = nanos;
+    this.latitudes = latitudes;
+    this.longitudes = longitudes;
+    this.elevations = elevations;
+    this.distances = distances;
+    this.elevationDiffs = elevationDiffs;
+    this.speeds = speeds;
+    this.grades = grades;
+    this.timeDiffs = timeDiffs;
+    this.active = active;
+  }
+
+  /**
+   * Returns an empty set of columns.
+   *
+   * @return an empty set of columns
+   */
+  public static WaypointColumns empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Creates the columnar representation of the supplied points.
+   *
+   * <p>The points are sorted by time and, as with a {@code SortedSet}, only the first of several
+   * points recorded at the same time is kept. A null collection results in empty columns.
+   *
+   * @param points the points to be stored in columns
+   * @return the columnar representation of the points
+   */
+  public static WaypointColumns of(final Collection<? extends Waypoint> points) {
+    if (null == points || points.isEmpty()) {
+      return EMPTY;
+    }
+    if (points instanceof SortedView) {
+      final SortedView view = (SortedView) points;
+      return view.columns.slice(view.from, view.to);
+    }
+    final Waypoint[] input = points.toArray(new Waypoint[0]);
+    boolean sorted = true;
+    for (int i = 1; i < input.length && sorted; i++) {
+      sorted = input[i - 1].getTime().compareTo(input[i].getTime()) < 0;
+    }
+    if (!sorted) {
+      Arrays.sort(input, Comparator.comparing(Waypoint::getTime));
+    }
+    int size = 0;
+    for (int i = 0; i < input.length; i++) {
+      if (0 == size || !input[i].getTime().equals(input[size - 1].getTime())) {
+        input[size++] = input[i];
+      }
+    }
+    final long[] seconds = new long[size];
+    int[] nanos = null;
+    final double[] latitudes = new double[size];
+    final double[] longitudes = new double[size];
+    final double[] elevations = new double[size];
+    final double[] distances = new double[size];
+    final double[] elevationDiffs = new double[size];
+    final double[] speeds = new double[size];
+    final double[] grades = new double[size];
+    final long[] timeDiffs = new long[size];
+    final BitSet active = new BitSet(size);
+    for (int i = 0; i < size; i++) {
+      final Waypoint point = input[i];
+      final Coordinates coordinates = point.getCoordinates();
+      seconds[i] = point.getTime().getEpochSecond();
+      final int nano = point.getTime().getNano();
+      if (0 != nano) {
+        if (null == nanos) {
+          nanos = new int[size];
+        }
+        nanos[i] = nano;
+      }
+      latitudes[i] = toPrimitive(coordinates.getLatitude());
+      longitudes[i] = toPrimitive(coordinates.getLongitude());
+      elevations[i] = toPrimitive(coordinates.getElevation());
+      distances[i] = toPrimitive(point.getDistance());
+      elevationDiffs[i] = toPrimitive(point.getElevationDifference());
+      speeds[i] = toPrimitive(point.getSpeed());
+      grades[i] = toPrimitive(point.getGrade());
+      timeDiffs[i] = point.getTimeDifference();
+      active.set(i, point.isActive());
+    }
+    return new WaypointColumns(
+        seconds,
+        nanos,
+        latitudes,
+        longitudes,
+        elevations,
+        distances,
+        elevationDiffs,
+        speeds,
+        grades,
+        timeDiffs,
+        active);
+  }
+
+  /**
+   * Returns the number of points.
+   *
+   * @return the number of points
+   */
+  public int size() {
+    return seconds.length;
+  }
+
+  /**
+   * Returns whether there are no points.
+   *
+   * @return true if there are no points
+   */
+  public boolean isEmpty() {
+    return 0 == seconds.length;
+  }
+
+  /**
+   * Returns the number of seconds since the epoch at which the point was recorded.
+   *
+   * @param index the position of the point
+   * @return the number of seconds since the epoch
+   */
+  public long getEpochSecond(final int index) {
+    return seconds[index];
+  }
+
+  /**
+   * Returns the nanoseconds, within the second, at which the point was recorded.
+   *
+   * @param index the position of the point
+   * @return the nanoseconds within the second
+   */
+  public int getNano(final int index) {
+    return null == nanos ? 0 : nanos[index];
+  }
+
+  /**
+   * Returns the moment in time when the point was recorded.
+   *
+   * @param index the position of the point
+   * @return the moment in time when the point was recorded
+   */
+  public Instant getTime(final int index) {
+    final long second = seconds[index];
+    final int nano = getNano(index);
+    if (0 == nano && Instant.MIN.getEpochSecond() == second) {
+      return Instant.MIN;
+    }
+    return Instant.ofEpochSecond(second, nano);
+  }
+
+  /**
+   * Returns the latitude of the point, in decimal degrees.
+   *
+   * @param index the position of the point
+   * @return the latitude of the point
+   */
+  public double getLatitude(final int index) {
+    return latitudes[index];
+  }
+
+  /**
+   * Returns the longitude of the point, in decimal degrees.
+   *
+   * @param index the position of the point
+   * @return the longitude of the point
+   */
+  public double getLongitude(final int index) {
+    return longitudes[index];
+  }
+
+  /**
+   * Returns the elevation of the point, in meters, or {@code Double.NaN} if unknown.
+   *
+   * @param index the position of the point
+   * @return the elevation of the point
+   */
+  public double getElevation(final int index) {
+    return elevations[index];
+  }
+
+  /**
+   * Returns the distance, in meters, since the previous point, or {@code Double.NaN} if unknown.
+   *
+   * @param index the position of the point
+   * @return the distance since the previous point
+   */
+  public double getDistance(final int index) {
+    return distances[index];
+  }
+
+  /**
+   * Returns the difference in elevation, in meters, since the previous point, or {@code
+   * Double.NaN} if unknown.
+   *
+   * @param index the position of the point
+   * @return the difference in elevation since the previous point
+   */
+  public double getElevationDifference(final int index) {
+    return elevationDiffs[index];
+  }
+
+  /**
+   * Returns the speed, in km/h, since the previous point, or {@code Double.NaN} if unknown.
+   *
+   * @param index the position of the point
+   * @return the speed since the previous point
+   */
+  public double getSpeed(final int index) {
+    return speeds[index];
+  }
+
+  /**
+   * Returns the grade, in degrees, since the previous point, or {@code Double.NaN} if unknown.
+   *
+   * @param index the position of the point
+   * @return the grade since the previous point
+   */
+  public double getGrade(final int index) {
+    return grades[index];
+  }
+
+  /**
+   * Returns the elapsed time, in seconds, since the previous point.
+   *
+   * @param index the position of the point
+   * @return the elapsed time since the previous point
+   */
+  public long getTimeDifference(final int index) {
+    return timeDiffs[index];
+  }
+
+  /**
+   * Returns whether the person recording the trail was in movement.
+   *
+   * @param index the position of the point
+   * @return whether the person recording the trail was in movement
+   */
+  public boolean isActive(final int index) {
+    return active.get(index);
+  }
+
+  /**
+   * Returns a {@code Waypoint} view of the point at the supplied position.
+   *
+   * @param index the position of the point
+   * @return the point at the supplied position
+   */
+  public Waypoint get(final int index) {
+    Objects.checkIndex(index, seconds.length);
+    return new PointView(this, index);
+  }
+
+  /**
+   * Returns the position of the supplied point, or -1 if it is not part of the columns.
+   *
+   * <p>The point is looked up by time, using a binary search, and must have the same coordinates
+   * to be considered as found.
+   *
+   * @param point the point to be found
+   * @return the position of the point, or -1
+   */
+  public int indexOf(final Waypoint point) {
+    return indexOf(point, 0, seconds.length);
+  }
+
+  /**
+   * Returns the position of the first point recorded at or after the supplied time.
+   *
+   * @param time the moment in time
+   * @return the position of the first point recorded at or after the supplied time, or the number
+   *     of points if there is none
+   */
+  public int lowerBound(final Instant time) {
+    return lowerBound(time.getEpochSecond(), time.getNano(), 0, seconds.length);
+  }
+
+  /**
+   * Returns a new instance containing only the points whose bit is set in the supplied mask.
+   *
+   * @param keep the mask of points to be kept
+   * @return the filtered columns
+   */
+  public WaypointColumns filter(final BitSet keep) {
+    final int size = keep.get(0, seconds.length).cardinality();
+    if (size == seconds.length) {
+      return this;
+    }
+    final int[] indexes = new int[size];
+    int j = 0;
+    for (int i = keep.nextSetBit(0); i >= 0 && i < seconds.length; i = keep.nextSetBit(i + 1)) {
+      indexes[j++] = i;
+    }
+    return select(indexes);
+  }
+
+  /**
+   * Returns a view of the points as an immutable {@code SortedSet}.
+   *
+   * @return an immutable sorted set of points
+   */
+  public SortedSet<Waypoint> asSortedSet() {
+    return new SortedView(this, 0, seconds.length);
+  }
+
+  /*
+   * Returns a copy of the points between from (inclusive) and to (exclusive).
+   */
+  WaypointColumns slice(final int from, final int to) {
+    if (0 == from && seconds.length == to) {
+      return this;
+    }
+    final int[] indexes = new int[to - from];
+    for (int i = 0; i < indexes.length; i++) {
+      indexes[i] = from + i;
+    }
+    return select(indexes);
+  }
+
+  /*
+   * Returns a new instance with the supplied elevations and the same time and positions.
+   */
+  WaypointColumns withElevations(final double[] newElevations) {
+    return new WaypointColumns(
+        seconds,
+        nanos,
+        latitudes,
+        longitudes,
+        newElevations,
+        distances,
+        elevationDiffs,
+        speeds,
+        grades,
+        timeDiffs,
+        active);
+  }
+
+  /*
+   * Returns a new instance with the supplied augmented data and the same time and coordinates.
+   */
+  WaypointColumns withAugmentation(
+      final double[] newDistances,
+      final double[] newElevationDiffs,
+      final double[] newSpeeds,
+      final double[] newGrades,
+      final long[] newTimeDiffs,
+      final BitSet newActive) {
+    return new WaypointColumns(
+        seconds,
+        nanos,
+        latitudes,
+        longitudes,
+        elevations,
+        newDistances,
+        newElevationDiffs,
+        newSpeeds,
+        newGrades,
+        newTimeDiffs,
+        newActive);
+  }
+
+  /*
+   * Same as Objects.hash(time, coordinates), which is what Waypoint implementations use.
+   */
+  int pointHash(final int index) {
+    final long second = seconds[index];
+    final int timeHash = ((int) (second ^ (second >>> 32))) + 51 * getNano(index);
+    return 31 * (31 + timeHash) + coordinatesHash(index);
+  }
+
+  /*
+   * Same as Objects.hash(longitude, latitude, elevation), which is what Coordinates
+   * implementations use.
+   */
+  int coordinatesHash(final int index) {
+    final double elevation = elevations[index];
+    return 31 * (31 * (31 + Double.hashCode(longitudes[index])) + Double.hashCode(latitudes[index]))
+        + (Double.isNaN(elevation) ? 0 : Double.hashCode(elevation));
+  }
+
+  private WaypointColumns select(final int[] indexes) {
+    final int size = indexes.length;
+    final long[] newSeconds = new long[size];
+    final int[] newNanos = null == nanos ? null : new int[size];
+    final double[] newLatitudes = new double[size];
+    final double[] newLongitudes = new double[size];
+    final double[] newElevations = new double[size];
+    final double[] newDistances = new double[size];
+    final double[] newElevationDiffs = new double[size];
+    final double[] newSpeeds = new double[size];
+    final double[] newGrades = new double[size];
+    final long[] newTimeDiffs = new long[size];
+    final BitSet newActive = new BitSet(size);
+    for (int i = 0; i < size; i++) {
+      final int j = indexes[i];
+      newSeconds[i] = seconds[j];
+      if (null != nanos) {
+        newNanos[i] = nanos[j];
+      }
+      newLatitudes[i] = latitudes[j];
+      newLongitudes[i] = longitudes[j];
+      newElevations[i] = elevations[j];
+      newDistances[i] = distances[j];
+      newElevationDiffs[i] = elevationDiffs[j];
+      newSpeeds[i] = speeds[j];
+      newGrades[i] = grades[j];
+      newTimeDiffs[i] = timeDiffs[j];
+      newActive.set(i, active.get(j));
+    }
+    return new WaypointColumns(
+        newSeconds,
+        newNanos,
+        newLatitudes,
+        newLongitudes,
+        newElevations,
+        newDistances,
+        newElevationDiffs,
+        newSpeeds,
+        newGrades,
+        newTimeDiffs,
+        newActive);
+  }
+
+  private int indexOf(final Waypoint point, final int from, final int to) {
+    if (null == point || null == point.getTime()) {
+      return -1;
+    }
+    if (point instanceof PointView) {
+      final PointView view = (PointView) point;
+      if (this == view.columns) {
+        return view.index >= from && view.index < to ? view.index : -1;
+      }
+    }
+    final Instant time = point.getTime();
+    final int index = lowerBound(time.getEpochSecond(), time.getNano(), from, to);
+    if (index < to
+        && compareTime(index, time.getEpochSecond(), time.getNano()) == 0
+        && sameCoordinates(index, point.getCoordinates())) {
+      return index;
+    }
+    return -1;
+  }
+
+  private int lowerBound(final long second, final int nano, final int from, final int to) {
+    int low = from;
+    int high = to;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (compareTime(mid, second, nano) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private int compareTime(final int index, final long second, final int nano) {
+    final int cmp = Long.compare(seconds[index], second);
+    return 0 != cmp ? cmp : Integer.compare(getNano(index), nano);
+  }
+
+  private boolean sameCoordinates(final int index, final Coordinates other) {
+    if (null == other) {
+      return false;
+    }
+    if (other instanceof CoordinatesView) {
+      final CoordinatesView view = (CoordinatesView) other;
+      return sameCoordinates(index, view.columns, view.index);
+    }
+    return Objects.equals(toObject(latitudes[index]), other.getLatitude())
+        && Objects.equals(toObject(longitudes[index]), other.getLongitude())
+        && Objects.equals(toObject(elevations[index]), other.getElevation());
+  }
+
+  private boolean sameCoordinates(
+      final int index, final WaypointColumns other, final int otherIndex) {
+    return sameValue(latitudes[index], other.latitudes[otherIndex])
+        && sameValue(longitudes[index], other.longitudes[otherIndex])
+        && sameValue(elevations[index], other.elevations[otherIndex]);
+  }
+
+  private boolean samePoint(final int index, final WaypointColumns other, final int otherIndex) {
+    return seconds[index] == other.seconds[otherIndex]
+        && getNano(index) == other.getNano(otherIndex)
+        && sameCoordinates(index, other, otherIndex);
+  }
+
+  private static boolean sameValue(final double first, final double second) {
+    return Double.doubleToLongBits(first) == Double.doubleToLongBits(second);
+  }
+
+  private static double toPrimitive(final Double value) {
+    return null == value ? Double.NaN : value;
+  }
+
+  private static Double toObject(final double value) {
+    return Double.isNaN(value) ? null : value;
+  }
+
+  /*
+   * Flyweight view of a point stored in columns.
+   */
+  private static final class PointView implements Waypoint, Serializable {
+
+    private static final long serialVersionUID = -7004185036312581736L;
+    private final WaypointColumns columns;
+    private final int index;
+
+    PointView(final WaypointColumns columns, final int index) {
+      super();
+      this.columns = columns;
+      this.index = index;
+    }
+
+    @Override
+    public Instant getTime() {
+      return columns.getTime(index);
+    }
+
+    @Override
+    public Coordinates getCoordinates() {
+      return new CoordinatesView(columns, index);
+    }
+
+    @Override
+    public long getTimeDifference() {
+      return columns.timeDiffs[index];
+    }
+
+    @Override
+    public Double getDistance() {
+      return toObject(columns.distances[index]);
+    }
+
+    @Override
+    public Double getElevationDifference() {
+      return toObject(columns.elevationDiffs[index]);
+    }
+
+    @Override
+    public Double getSpeed() {
+      return toObject(columns.speeds[index]);
+    }
+
+    @Override
+    public boolean isActive() {
+      return columns.active.get(index);
+    }
+
+    @Override
+    public Double getGrade() {
+      return toObject(columns.grades[index]);
+    }
+
+    @Override
+    public int compareTo(final Waypoint point) {
+      if (point instanceof PointView) {
+        final PointView other = (PointView) point;
+        return -other.columns.compareTime(
+            other.index, columns.seconds[index], columns.getNano(index));
+      }
+      return getTime().compareTo(point.getTime());
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (obj == null) {
+        return false;
+      }
+      if (obj instanceof PointView) {
+        final PointView other = (PointView) obj;
+        return columns.samePoint(index, other.columns, other.index);
+      }
+      if (!(obj instanceof Waypoint)) {
+        return false;
+      }
+      final Waypoint other = (Waypoint) obj;
+      return Objects.equals(getTime(), other.getTime())
+          && columns.sameCoordinates(index, other.getCoordinates());
+    }
+
+    @Override
+    public int hashCode() {
+      return columns.pointHash(index);
+    }
+
+    @Override
+    public String toString() {
+      return "Waypoint{time="
+          + getTime()
+          + ", coordinates="
+          + getCoordinates()
+          + ", distance="
+          + getDistance()
+          + ", "
+          + "elevationDifference="
+          + getElevationDifference()
+          + ", grade="
+          + getGrade()
+          + ", speed="
+          + getSpeed()
+          + ", isActive="
+          + isActive()
+          + ", timeDifference="
+          + getTimeDifference()
+          + "}";
+    }
+  }
+
+  /*
+   * Flyweight view of the coordinates of a point stored in columns.
+   */
+  private static final class CoordinatesView implements Coordinates {
+
+    private static final long serialVersionUID = 8307431594470405524L;
+    private final WaypointColumns columns;
+    private final int index;
+
+    CoordinatesView(final WaypointColumns columns, final int index) {
+      super();
+      this.columns = columns;
+      this.index = index;
+    }
+
+    @Override
+    public Double getLatitude() {
+      return toObject(columns.latitudes[index]);
+    }
+
+    @Override
+    public Double getLongitude() {
+      return toObject(columns.longitudes[index]);
+    }
+
+    @Override
+    public Double getElevation() {
+      return toObject(columns.elevations[index]);
+    }
+
+    @Override
+    public int hashCode() {
+      return columns.coordinatesHash(index);
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (obj == null) {
+        return false;
+      }
+      if (!(obj instanceof Coordinates)) {
+        return false;
+      }
+      return columns.sameCoordinates(index, (Coordinates) obj);
+    }
+
+    @Override
+    public String toString() {
+      return "Coordinates{"
+          + "latitude="
+          + getLatitude()
+          + ", "
+          + "longitude="
+          + getLongitude()
+          + ", elevation="
+          + getElevation()
+          + '}';
+    }
+  }
+
+  /*
+   * Immutable sorted set backed by a range of the columns.
+   */
+  private static final class SortedView extends AbstractSet<Waypoint>
+      implements SortedSet<Waypoint>, Serializable {
+
+    private static final long serialVersionUID = -2811826017385453302L;
+    private final WaypointColumns columns;
+    private final int from;
+    private final int to;
+
+    SortedView(final WaypointColumns columns, final int from, final int to) {
+      super();
+      this.columns = columns;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    public Iterator<Waypoint> iterator() {
+      return new Iterator<Waypoint>() {
+        private int cursor = from;
+
+        @Override
+        public boolean hasNext() {
+          return cursor < to;
+        }
+
+        @Override
+        public Waypoint next() {
+          if (cursor >= to) {
+            throw new NoSuchElementException();
+          }
+          return new PointView(columns, cursor++);
+        }
+      };
+    }
+
+    @Override
+    public int size() {
+      return to - from;
+    }
+
+    @Override
+    public boolean contains(final Object obj) {
+      return obj instanceof Waypoint && -1 < columns.indexOf((Waypoint) obj, from, to);
+    }
+
+    @Override
+    public Comparator<? super Waypoint> comparator() {
+      return null;
+    }
+
+    @Override
+    public SortedSet<Waypoint> subSet(final Waypoint fromElement, final Waypoint toElement) {
+      final int start = bound(fromElement);
+      return new SortedView(columns, start, Math.max(start, bound(toElement)));
+    }
+
+    @Override
+    public SortedSet<Waypoint> headSet(final Waypoint toElement) {
+      return new SortedView(columns, from, bound(toElement));
+    }
+
+    @Override
+    public SortedSet<Waypoint> tailSet(final Waypoint fromElement) {
+      return new SortedView(columns, bound(fromElement), to);
+    }
+
+    @Override
+    public Waypoint first() {
+      if (from == to) {
+        throw new NoSuchElementException();
+      }
+      return new PointView(columns, from);
+    }
+
+    @Override
+    public Waypoint last() {
+      if (from == to) {
+        throw new NoSuchElementException();
+      }
+      return new PointView(columns, to - 1);
+    }
+
+    @Override
+    public boolean add(final Waypoint point) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean remove(final Object obj) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean addAll(final Collection<? extends Waypoint> points) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean removeAll(final Collection<?> points) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean retainAll(final Collection<?> points) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean removeIf(final Predicate<? super Waypoint> filter) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void clear() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = 0;
+      for (int i = from; i < to; i++) {
+        hash += columns.pointHash(i);
+      }
+      return hash;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (obj instanceof SortedView) {
+        final SortedView other = (SortedView) obj;
+        if (size() != other.size()) {
+          return false;
+        }
+        for (int i = 0; i < size(); i++) {
+          if (!columns.samePoint(from + i, other.columns, other.from + i)) {
+            return false;
+          }
+        }
+        return true;
+      }
+      return super.equals(obj);
+    }
+
+    private int bound(final Waypoint point) {
+      final Instant time = point.getTime();
+      return columns.lowerBound(time.getEpochSecond(), time.getNano(), from, to);
+    }
+  }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ws.sosna.pinetrail.utils.logging.Actions;
+import ws.sosna.pinetrail.utils.logging.Markers;
+import ws.sosna.pinetrail.utils.logging.StatusCodes;
+
+/**
+ * Builds the columnar representation of the points of a trail, one point at a time, without
+ * creating a {@code Waypoint} instance per point.
+ *
+ * <p>A new instance can be built as follows:<br>
+ * <code>
+ * WaypointColumns points = new WaypointColumnsBuilder().add(second, nano, lon, lat, ele)
+ * .add(...).build();
+ * </code>
+ *
+ * <p>The points are validated in bulk when calling the {@code build} method, using the same
+ * constraints (and messages) as the {@code WaypointBuilder}. By default, a single invalid point
+ * makes the whole build fail. Readers that prefer to ignore the invalid points, as they did when
+ * validating points one by one, can use {@code skipInvalidPoints(true)}. Points coming from a
+ * trusted source (for example, points written by this library) can skip validation altogether,
+ * using {@code validate(false)}.
+ *
+ * @see WaypointColumns
+ * @see TrailBuilder#TrailBuilder(WaypointColumns)
+ * @author Xavier Sosnovsky
+ */
+public final class WaypointColumnsBuilder implements Builder<WaypointColumns> {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(WaypointColumnsBuilder.class);
+  private static final int DEFAULT_CAPACITY = 256;
+  private long[] seconds;
+  private int[] nanos;
+  private double[] latitudes;
+  private double[] longitudes;
+  private double[] elevations;
+  private double[] distances;
+  private double[] elevationDiffs;
+  private double[] speeds;
+  private double[] grades;
+  private long[] timeDiffs;
+  private final BitSet active;
+  private int size;
+  private boolean hasNanos;
+  private boolean validate;
+  private boolean skipInvalid;
+
+  /** Instantiates a new WaypointColumnsBuilder. */
+  public WaypointColumnsBuilder() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Instantiates a new WaypointColumnsBuilder, sized for the expected number of points.
+   *
+   * <p>The builder grows as needed if more points are added.
+   *
+   * @param expectedSize the expected number of points
+   */
+  public WaypointColumnsBuilder(final int expectedSize) {
+    super();
+    final int capacity = Math.max(1, expectedSize);
+    seconds = new long[capacity];
+    nanos = new int[capacity];
+    latitudes = new double[capacity];
+    longitudes = new double[capacity];
+    elevations = new double[capacity];
+    distances = new double[capacity];
+    elevationDiffs = new double[capacity];
+    speeds = new double[capacity];
+    grades = new double[capacity];
+    timeDiffs = new long[capacity];
+    active = new BitSet(capacity);
+    validate = true;
+  }
+
+  /**
+   * Adds a point, out of its primitive values.
+   *
+   * <p>Points can be added in any order: they will be sorted by time when building the columns.
+   *
+   * @param epochSecond the number of seconds since the epoch at which the point was recorded
+   * @param nano the nanoseconds, within the second, at which the point was recorded
+   * @param longitude the longitude of the point, in decimal degrees
+   * @param latitude the latitude of the point, in decimal degrees
+   * @param elevation the elevation of the point, in meters, or {@code Double.NaN} if unknown
+   * @return the builder, with the additional point
+   */
+  public WaypointColumnsBuilder add(
+      final long epochSecond,
+      final int nano,
+      final double longitude,
+      final double latitude,
+      final double elevation) {
+    ensureCapacity();
+    seconds[size] = epochSecond;
+    nanos[size] = nano;
+    hasNanos |= 0 != nano;
+    longitudes[size] = longitude;
+    latitudes[size] = latitude;
+    elevations[size] = elevation;
+    distances[size] = Double.NaN;
+    elevationDiffs[size] = Double.NaN;
+    speeds[size] = Double.NaN;
+    grades[size] = Double.NaN;
+    timeDiffs[size] = 0;
+    active.set(size);
+    size++;
+    return this;
+  }
+
+  /**
+   * Adds a point, including its augmented values (distance, speed, etc.).
+   *
+   * <p>Missing values are reported when validating the points. A point without time is considered
+   * as recorded at the end of times, and is therefore reported as not being in the past.
+   *
+   * @param point the point to be added
+   * @return the builder, with the additional point
+   */
+  public WaypointColumnsBuilder add(final Waypoint point) {
+    final Coordinates coordinates = point.getCoordinates();
+    final boolean noTime = null == point.getTime();
+    add(
+        noTime ? Instant.MAX.getEpochSecond() : point.getTime().getEpochSecond(),
+        noTime ? 0 : point.getTime().getNano(),
+        null == coordinates ? Double.NaN : toPrimitive(coordinates.getLongitude()),
+        null == coordinates ? Double.NaN : toPrimitive(coordinates.getLatitude()),
+        null == coordinates ? Double.NaN : toPrimitive(coordinates.getElevation()));
+    final int idx = size - 1;
+    distances[idx] = toPrimitive(point.getDistance());
+    elevationDiffs[idx] = toPrimitive(point.getElevationDifference());
+    speeds[idx] = toPrimitive(point.getSpeed());
+    grades[idx] = toPrimitive(point.getGrade());
+    timeDiffs[idx] = point.getTimeDifference();
+    active.set(idx, point.isActive());
+    return this;
+  }
+
+  /**
+   * Sets whether the points must be validated when building the columns.
+   *
+   * <p>Defaults to true. It should only be set to false for points coming from a trusted source,
+   * for example points that have been validated already, before being written by this library.
+   *
+   * @param flag whether the points must be validated
+   * @return the builder, with an updated validation flag
+   */
+  public WaypointColumnsBuilder validate(final boolean flag) {
+    this.validate = flag;
+    return this;
+  }
+
+  /**
+   * Sets whether invalid points must be ignored instead of making the build fail.
+   *
+   * <p>Defaults to false. Ignored points are reported in the logs.
+   *
+   * @param flag whether invalid points must be ignored
+   * @return the builder, with an updated flag
+   */
+  public WaypointColumnsBuilder skipInvalidPoints(final boolean flag) {
+    this.skipInvalid = flag;
+    return this;
+  }
+
+  /**
+   * Returns the number of points added so far.
+   *
+   * @return the number of points added so far
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Builds the columns holding the points added so far.
+   *
+   * <p>The points are sorted by time and, as with {@code WaypointColumns.of}, only the first of
+   * several points recorded at the same time is kept.
+   *
+   * @return the columnar representation of the points
+   * @throws javax.validation.ValidationException if validation fails
+   */
+  @Override
+  public WaypointColumns build() {
+    if (0 == size) {
+      return WaypointColumns.empty();
+    }
+    WaypointColumns columns = select(sortAndDeduplicate());
+    if (validate) {
+      if (skipInvalid) {
+        columns = removeInvalidPoints(columns);
+      } else {
+        PointsValidator.INSTANCE.check(columns);
+      }
+    }
+    LOGGER.debug(
+        Markers.MODEL.getMarker(),
+        "{} | {} | Built columns for {} points",
+        Actions.CREATE,
+        StatusCodes.OK.getCode(),
+        columns.size());
+    return columns;
+  }
+
+  private WaypointColumns removeInvalidPoints(final WaypointColumns columns) {
+    final BitSet invalid = PointsValidator.INSTANCE.findInvalidPoints(columns);
+    if (invalid.isEmpty()) {
+      return columns;
+    }
+    for (int i = invalid.nextSetBit(0); i >= 0; i = invalid.nextSetBit(i + 1)) {
+      LOGGER.warn(
+          Markers.MODEL.getMarker(),
+          "{} | {} | Bean validation failed. Waypoint will be ignored. Problem was: {}",
+          Actions.CREATE,
+          StatusCodes.SYNTAX_ERROR.getCode(),
+          String.join(" ", PointsValidator.INSTANCE.validate(columns, i))
+              + " Waypoint: "
+              + columns.get(i));
+    }
+    final BitSet keep = new BitSet(columns.size());
+    keep.set(0, columns.size());
+    keep.andNot(invalid);
+    return columns.filter(keep);
+  }
+
+  /*
+   * Returns the positions of the points to be kept, in chronological order, or null if the
+   * points were added in strictly ascending order.
+   */
+  private int[] sortAndDeduplicate() {
+    boolean sorted = true;
+    for (int i = 1; i < size && sorted; i++) {
+      sorted = compareTime(i - 1, i) < 0;
+    }
+    if (sorted) {
+      return null;
+    }
+    final Integer[] order = new Integer[size];
+    for (int i = 0; i < size; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, Comparator.comparing(i -> i, this::compareTime));
+    final int[] indexes = new int[size];
+    int count = 0;
+    for (int i = 0; i < size; i++) {
+      if (0 == count || 0 != compareTime(indexes[count - 1], order[i])) {
+        indexes[count++] = order[i];
+      }
+    }
+    return Arrays.copyOf(indexes, count);
+  }
+
+  private int compareTime(final int first, final int second) {
+    final int cmp = Long.compare(seconds[first], seconds[second]);
+    return 0 == cmp ? Integer.compare(nanos[first], nanos[second]) : cmp;
+  }
+
+  private WaypointColumns select(final int[] indexes) {
+    if (null == indexes) {
+      final BitSet flags = new BitSet(size);
+      flags.or(active);
+      return new WaypointColumns(
+          Arrays.copyOf(seconds, size),
+          hasNanos ? Arrays.copyOf(nanos, size) : null,
+          Arrays.copyOf(latitudes, size),
+          Arrays.copyOf(longitudes, size),
+          Arrays.copyOf(elevations, size),
+          Arrays.copyOf(distances, size),
+          Arrays.copyOf(elevationDiffs, size),
+          Arrays.copyOf(speeds, size),
+          Arrays.copyOf(grades, size),
+          Arrays.copyOf(timeDiffs, size),
+          flags);
+    }
+    final int count = indexes.length;
+    final long[] newSeconds = new long[count];
+    final int[] newNanos = hasNanos ? new int[count] : null;
+    final double[] newLatitudes = new double[count];
+    final double[] newLongitudes = new double[count];
+    final double[] newElevations = new double[count];
+    final double[] newDistances = new double[count];
+    final double[] newElevationDiffs = new double[count];
+    final double[] newSpeeds = new double[count];
+    final double[] newGrades = new double[count];
+    final long[] newTimeDiffs = new long[count];
+    final BitSet newActive = new BitSet(count);
+    for (int i = 0; i < count; i++) {
+      final int idx = indexes[i];
+      newSeconds[i] = seconds[idx];
+      if (hasNanos) {
+        newNanos[i] = nanos[idx];
+      }
+      newLatitudes[i] = latitudes[idx];
+      newLongitudes[i] = longitudes[idx];
+      newElevations[i] = elevations[idx];
+      newDistances[i] = distances[idx];
+      newElevationDiffs[i] = elevationDiffs[idx];
+      newSpeeds[i] = speeds[idx];
+      newGrades[i] = grades[idx];
+      newTimeDiffs[i] = timeDiffs[idx];
+      newActive.set(i, active.get(idx));
+    }
+    return new WaypointColumns(
+        newSeconds,
+        newNanos,
+        newLatitudes,
+        newLongitudes,
+        newElevations,
+        newDistances,
+        newElevationDiffs,
+        newSpeeds,
+        newGrades,
+        newTimeDiffs,
+        newActive);
+  }
+
+  private void ensureCapacity() {
+    if (size == seconds.length) {
+      final int capacity = size + (size >> 1) + 1;
+      seconds = Arrays.copyOf(seconds, capacity);
+      nanos = Arrays.copyOf(nanos, capacity);
+      latitudes = Arrays.copyOf(latitudes, capacity);
+      longitudes = Arrays.copyOf(longitudes, capacity);
+      elevations = Arrays.copyOf(elevations, capacity);
+      distances = Arrays.copyOf(distances, capacity);
+      elevationDiffs = Arrays.copyOf(elevationDiffs, capacity);
+      speeds = Arrays.copyOf(speeds, capacity);
+      grades = Arrays.copyOf(grades, capacity);
+      timeDiffs = Arrays.copyOf(timeDiffs, capacity);
+    }
+  }
+
+  private static double toPrimitive(final Double value) {
+    return null == value ? Double.NaN : value;
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ws.sosna.pinetrail.utils.error.ExecutionError;
+
+/** @author Xavier Sosnovsky */
+public class CountryBoundariesTest {
+
+  private Path file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = Files.createTempFile("pinetrail-countries", ".geojson");
+    final StringBuilder json = new StringBuilder("{\"type\": \"FeatureCollection\", ");
+    json.append("\"features\": [");
+    // A square with a hole, and a country made of two islands
+    final String germany = "[" + square(0, 0, 10) + "," + square(4, 4, 2) + "]";
+    json.append(feature("ISO_A2", "de", "Polygon", germany));
+    json.append(',');
+    final String france = "[[" + square(10, 0, 5) + "],[" + square(20, 20, 1) + "]]";
+    json.append(feature("ISO_A2_EH", "FR", "MultiPolygon", france));
+    // Many small countries, so that the tree has several levels
+    for (int i = 0; i < 400; i++) {
+      final String code = "Q" + (char) ('A' + i % 26);
+      final String polygon = "[" + square(-100 + (i % 20), -50 + (i / 20), 1) + "]";
+      json.append(',');
+      json.append(feature("ISO_A2", code, "Polygon", polygon));
+    }
+    json.append(",{\"type\": \"Feature\", \"properties\": {\"ISO_A2\": \"-99\"}, ");
+    json.append("\"geometry\": null}");
+    json.append("]}");
+    Files.write(file, json.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(file);
+  }
+
+  @Test
+  public void getCountry() {
+    final CountryBoundaries boundaries = CountryBoundaries.load(file);
+    assertEquals(403, boundaries.size());
+    assertEquals("DE", boundaries.getCountry(1, 1));
+    assertNull(boundaries.getCountry(5, 5));
+    assertEquals("FR", boundaries.getCountry(2.5, 12.5));
+    assertEquals("FR", boundaries.getCountry(20.5, 20.5));
+    assertNull(boundaries.getCountry(-1, -1));
+    assertEquals("QA", boundaries.getCountry(-49.5, -99.5));
+    assertEquals("QB", boundaries.getCountry(-49.5, -98.5));
+    assertEquals("QI", boundaries.getCountry(-30.5, -81.5));
+  }
+
+  @Test
+  public void getCountries() {
+    final List<Waypoint> points = new ArrayList<>();
+    points.add(newWaypoint(0, 1.0, 1.0));
+    points.add(newWaypoint(1, 1.0, 2.0));
+    points.add(newWaypoint(2, 1.0, 11.0));
+    points.add(newWaypoint(3, 5.0, 5.0));
+    points.add(newWaypoint(4, 1.0, 3.0));
+    assertEquals(
+        Arrays.asList("DE", "FR"),
+        new ArrayList<>(CountryBoundaries.load(file).getCountries(WaypointColumns.of(points))));
+  }
+
+  @Test(expected = ExecutionError.class)
+  public void invalidFile() throws IOException {
+    final String json = "{\"type\": \"FeatureCollection\", \"features\": [";
+    Files.write(file, json.getBytes(StandardCharsets.UTF_8));
+    CountryBoundaries.load(file);
+  }
+
+  private String feature(
+      final String property, final String code, final String type, final String coordinates) {
+    return "{\"type\": \"Feature\", \"properties\": {\""
+        + property
+        + "\": \""
+        + code
+        + "\"}, \"geometry\": {\"type\": \""
+        + type
+        + "\", \"coordinates\": "
+        + coordinates
+        + "}}";
+  }
+
+  private String square(final double x, final double y, final double size) {
+    return String.format(
+        Locale.ROOT,
+        "[[%1$s, %2$s], [%3$s, %2$s], [%3$s, %4$s], [%1$s, %4$s], [%1$s, %2$s]]",
+        x,
+        y,
+        x + size,
+        y + size);
+  }
+
+  private Waypoint newWaypoint(final long second, final double latitude, final double longitude) {
+    return new WaypointBuilder(
+            Instant.ofEpochSecond(second), new CoordinatesBuilder(longitude, latitude).build())
+        .build();
+  }
+}
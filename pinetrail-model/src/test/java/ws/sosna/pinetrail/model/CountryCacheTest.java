@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ws.sosna.pinetrail.utils.error.ExecutionError;
+import ws.sosna.pinetrail.utils.logging.Actions;
+import ws.sosna.pinetrail.utils.logging.Markers;
+import ws.sosna.pinetrail.utils.logging.StatusCodes;
+
+/** @author Xavier Sosnovsky */
+public class CountryCacheTest {
+
+  private Path directory;
+  private Path file;
+  private AtomicInteger calls;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("pinetrail-countries");
+    file = directory.resolve("countries.cache");
+    calls = new AtomicInteger();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(file);
+    Files.deleteIfExists(directory);
+  }
+
+  @Test
+  public void geohash() {
+    assertEquals("u4pruydqqvj", CountryCache.encode(57.64911, 10.40744, 11));
+    assertEquals("u0vt", CountryCache.encode(50.1181208342, 7.9630853701, 4));
+    final double[] box = CountryCache.decode("u4pruydqqvj");
+    assertEquals(57.64911, (box[0] + box[1]) / 2, 1e-5);
+    assertEquals(10.40744, (box[2] + box[3]) / 2, 1e-5);
+  }
+
+  @Test
+  public void cellInsideCountry() {
+    final CountryCache cache = CountryCache.open(file);
+    assertEquals("DE", cache.getCountry(50.1181208342, 7.9630853701, this::geocode));
+    // The point and the 4 corners of the cell
+    assertEquals(5, calls.get());
+    assertEquals("DE", cache.getCountry(50.1186041348, 7.9631261062, this::geocode));
+    assertEquals("DE", cache.getCountry(50.2, 7.8, this::geocode));
+    assertEquals(5, calls.get());
+  }
+
+  @Test
+  public void mixedCell() {
+    final CountryCache cache = CountryCache.inMemory();
+    // Cell u0yj spans longitudes 8.4375 to 8.7890625
+    assertEquals("DE", cache.getCountry(50.2, 8.5, this::geocode));
+    assertEquals("FR", cache.getCountry(50.2, 8.7, this::geocode));
+    final int count = calls.get();
+    assertEquals("FR", cache.getCountry(50.2, 8.7, this::geocode));
+    assertEquals(count, calls.get());
+    assertEquals("DE", cache.getCountry(50.15, 8.5, this::geocode));
+    assertEquals(count + 1, calls.get());
+  }
+
+  @Test
+  public void persistence() {
+    CountryCache.open(file).getCountry(50.1181208342, 7.9630853701, this::geocode);
+    final CountryCache cache = CountryCache.open(file);
+    assertEquals(6, cache.size());
+    assertEquals("DE", cache.getCountry(50.1186041348, 7.9631261062, this::geocode));
+    assertEquals(5, calls.get());
+  }
+
+  @Test
+  public void failedGeocoding() {
+    final CountryCache cache = CountryCache.inMemory();
+    assertEquals(
+        "DE",
+        cache.getCountry(
+            50.1181208342,
+            7.9630853701,
+            (lat, lon) -> {
+              if (calls.incrementAndGet() > 1) {
+                throw new ExecutionError(
+                    "Unreachable", null, Markers.NETWORK.getMarker(), Actions.GET,
+                    StatusCodes.TIME_OUT);
+              }
+              return "DE";
+            }));
+    // Only the point is known, the cell is checked again next time
+    assertEquals(1, cache.size());
+  }
+
+  @Test(expected = ExecutionError.class)
+  public void unknownLocation() {
+    CountryCache.inMemory()
+        .getCountry(
+            0,
+            0,
+            (lat, lon) -> {
+              throw new ExecutionError(
+                  "Not found", null, Markers.MODEL.getMarker(), Actions.GET,
+                  StatusCodes.NOT_FOUND);
+            });
+  }
+
+  private String geocode(final double latitude, final double longitude) {
+    calls.incrementAndGet();
+    return longitude < 8.6 ? "DE" : "FR";
+  }
+}
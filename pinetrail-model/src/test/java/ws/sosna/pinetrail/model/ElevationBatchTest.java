@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/** @author Xavier Sosnovsky */
+public class ElevationBatchTest {
+
+  private static final long SECOND = 1400401532L;
+
+  @Test
+  public void singleTrail() {
+    final FakeSource source = new FakeSource();
+    final ElevationRequests requests = new ElevationRequests(source, 2, 1000);
+    final WaypointColumns points = newTrail(30, 50);
+    final double[] elevations = new double[points.size()];
+    new ElevationBatch(requests, 1000, 10).fetch(points, elevations);
+    requests.shutdown();
+    assertElevations(points, elevations);
+    assertEquals(30, source.points.get());
+  }
+
+  @Test
+  public void concurrentTrails() throws InterruptedException {
+    final FakeSource source = new FakeSource();
+    final ElevationRequests requests = new ElevationRequests(source, 2, 1000);
+    final ElevationBatch batch = new ElevationBatch(requests, 100, 5000);
+    final int trails = 5;
+    final WaypointColumns[] points = new WaypointColumns[trails];
+    final double[][] elevations = new double[trails][];
+    final CountDownLatch done = new CountDownLatch(trails);
+    for (int i = 0; i < trails; i++) {
+      // The first two trails share all their cells
+      points[i] = newTrail(20, 50 + Math.max(0, i - 1) * 0.01);
+      elevations[i] = new double[points[i].size()];
+      final int idx = i;
+      new Thread(
+              () -> {
+                batch.fetch(points[idx], elevations[idx]);
+                done.countDown();
+              })
+          .start();
+    }
+    done.await();
+    requests.shutdown();
+    for (int i = 0; i < trails; i++) {
+      assertElevations(points[i], elevations[i]);
+    }
+    assertEquals(80, source.points.get());
+    assertTrue(source.requests.get() < trails);
+  }
+
+  private void assertElevations(final WaypointColumns points, final double[] elevations) {
+    for (int i = 0; i < points.size(); i++) {
+      assertEquals(points.getLatitude(i), elevations[i], 0);
+    }
+  }
+
+  private WaypointColumns newTrail(final int size, final double latitude) {
+    final WaypointColumnsBuilder builder = new WaypointColumnsBuilder(size);
+    for (int i = 0; i < size; i++) {
+      builder.add(SECOND + i, 0, 7.96, latitude + i * 0.0001, Double.NaN);
+    }
+    return builder.build();
+  }
+
+  /*
+   * Returns the latitude as elevation, and counts the requests and the points received.
+   */
+  private static final class FakeSource implements ElevationSource {
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger points = new AtomicInteger();
+
+    @Override
+    public double[] getElevations(final WaypointColumns columns, final int from, final int to) {
+      requests.incrementAndGet();
+      points.addAndGet(to - from);
+      final double[] elevations = new double[to - from];
+      for (int i = from; i < to; i++) {
+        elevations[i - from] = columns.getLatitude(i);
+      }
+      return elevations;
+    }
+
+    @Override
+    public double getMaxRequestsPerSecond() {
+      return 1000;
+    }
+
+    @Override
+    public String getName() {
+      return "Fake";
+    }
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** @author Xavier Sosnovsky */
+public class ElevationCacheTest {
+
+  private static final String SOURCE = "MapQuest";
+
+  private Path directory;
+  private Path file;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("pinetrail-cache");
+    file = directory.resolve("elevation.cache");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(file);
+    Files.deleteIfExists(directory);
+  }
+
+  @Test
+  public void getAndPut() {
+    final ElevationCache cache = ElevationCache.inMemory(64);
+    assertTrue(Double.isNaN(cache.get(SOURCE, 50.1834285166, 8.7450412475)));
+    cache.put(SOURCE, 50.1834285166, 8.7450412475, 112.5);
+    assertEquals(112.5, cache.get(SOURCE, 50.1834285166, 8.7450412475), 0);
+    // Same cell
+    assertEquals(112.5, cache.get(SOURCE, 50.18343, 8.74504), 0);
+    assertTrue(Double.isNaN(cache.get(SOURCE, 50.1835285166, 8.7450412475)));
+    cache.put(SOURCE, -33.8567844, -151.2152967, -12.25);
+    assertEquals(-12.25, cache.get(SOURCE, -33.8567844, -151.2152967), 0);
+  }
+
+  @Test
+  public void keyedBySource() {
+    final ElevationCache cache = ElevationCache.inMemory(64);
+    cache.put(SOURCE, 50.1834285166, 8.7450412475, 112.5);
+    assertTrue(Double.isNaN(cache.get("Other source", 50.1834285166, 8.7450412475)));
+    cache.put("Other source", 50.1834285166, 8.7450412475, 110);
+    assertEquals(110, cache.get("Other source", 50.1834285166, 8.7450412475), 0);
+    assertEquals(112.5, cache.get(SOURCE, 50.1834285166, 8.7450412475), 0);
+  }
+
+  @Test
+  public void persistence() {
+    final int entries = 1024;
+    final ElevationCache cache = ElevationCache.open(file, entries);
+    for (int i = 0; i < 100; i++) {
+      cache.put(SOURCE, 50 + i * 0.001, 8, i);
+    }
+    assertEquals(16 + 16 * entries, file.toFile().length());
+    // The file is locked by the first instance: another one falls back to memory
+    assertTrue(Double.isNaN(ElevationCache.open(file, entries).get(SOURCE, 50, 8)));
+    cache.close();
+    final ElevationCache reopened = ElevationCache.open(file, entries);
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, reopened.get(SOURCE, 50 + i * 0.001, 8), 0);
+    }
+    reopened.close();
+    // A different size discards the entries
+    final ElevationCache resized = ElevationCache.open(file, 2 * entries);
+    assertTrue(Double.isNaN(resized.get(SOURCE, 50, 8)));
+    resized.close();
+  }
+
+  @Test
+  public void boundedSize() {
+    final ElevationCache cache = ElevationCache.inMemory(64);
+    assertEquals(64, cache.capacity());
+    for (int i = 0; i < 10_000; i++) {
+      cache.put(SOURCE, 45 + i * 0.001, 6, i);
+    }
+    int found = 0;
+    for (int i = 0; i < 10_000; i++) {
+      if (!Double.isNaN(cache.get(SOURCE, 45 + i * 0.001, 6))) {
+        found++;
+      }
+    }
+    assertTrue(found <= 64);
+    // Recently used entries are kept
+    assertEquals(9_999, cache.get(SOURCE, 45 + 9_999 * 0.001, 6), 0);
+  }
+
+  @Test
+  public void concurrentAccess() throws InterruptedException {
+    final ElevationCache cache = ElevationCache.inMemory(1 << 16);
+    final List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      final int offset = t;
+      threads.add(
+          new Thread(
+              () -> {
+                for (int i = 0; i < 2_000; i++) {
+                  cache.put(SOURCE, offset, i * 0.001, i);
+                  cache.get(SOURCE, offset, i * 0.001);
+                }
+              }));
+    }
+    for (final Thread thread : threads) {
+      thread.start();
+    }
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    for (int t = 0; t < 4; t++) {
+      for (int i = 0; i < 2_000; i += 100) {
+        assertEquals(i, cache.get(SOURCE, t, i * 0.001), 0);
+      }
+    }
+  }
+}
@@ -15,9 +15,11 @@
  */
 package ws.sosna.pinetrail.model;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.time.Instant;
+import java.util.Arrays;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import org.junit.Test;
@@ -39,6 +41,36 @@ public class ElevationFixerTest {
     }
   }
 
+  @Test
+  public void cacheKeyedBySource() {
+    final WaypointColumns points = WaypointColumns.of(getWaypoints());
+    final ElevationCache cache = ElevationCache.inMemory(64);
+    final ElevationFixer instance = ElevationFixer.INSTANCE;
+    final StubSource first = new StubSource("First", 120, 10);
+    final StubSource second = new StubSource("Second", 130, 10);
+    assertElevations(120, instance.apply(points, first, () -> cache, 0));
+    assertElevations(130, instance.apply(points, second, () -> cache, 0));
+    // Switching back serves the cached elevations of the first source
+    final StubSource changed = new StubSource("First", 125, 10);
+    assertElevations(120, instance.apply(points, changed, () -> cache, 0));
+  }
+
+  @Test
+  public void localSourceNotCached() {
+    final WaypointColumns points = WaypointColumns.of(getWaypoints());
+    final ElevationCache cache = ElevationCache.inMemory(64);
+    final ElevationFixer instance = ElevationFixer.INSTANCE;
+    final StubSource local = new StubSource("Local", 140.123, Double.POSITIVE_INFINITY);
+    assertElevations(140.123, instance.apply(points, local, () -> cache, 0));
+    assertTrue(Double.isNaN(cache.get("Local", points.getLatitude(0), points.getLongitude(0))));
+  }
+
+  private void assertElevations(final double expected, final WaypointColumns points) {
+    for (int i = 0; i < points.size(); i++) {
+      assertEquals(expected, points.getElevation(i), 0.001);
+    }
+  }
+
   private Waypoint createWaypoint(final double latitude, final double longitude) {
     final Coordinates coordinates = new CoordinatesBuilder(longitude, latitude).build();
     return new WaypointBuilder(Instant.EPOCH, coordinates).build();
@@ -59,4 +91,35 @@ public class ElevationFixerTest {
     points.add(createWaypoint(50.1839823090, 8.7444794085));
     return points;
   }
+
+  private static final class StubSource implements ElevationSource {
+
+    private final String name;
+    private final double elevation;
+    private final double rate;
+
+    StubSource(final String name, final double elevation, final double rate) {
+      super();
+      this.name = name;
+      this.elevation = elevation;
+      this.rate = rate;
+    }
+
+    @Override
+    public double[] getElevations(final WaypointColumns points, final int from, final int to) {
+      final double[] elevations = new double[to - from];
+      Arrays.fill(elevations, elevation);
+      return elevations;
+    }
+
+    @Override
+    public double getMaxRequestsPerSecond() {
+      return rate;
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+  }
 }
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import ws.sosna.pinetrail.utils.error.ExecutionError;
+import ws.sosna.pinetrail.utils.logging.Actions;
+import ws.sosna.pinetrail.utils.logging.Markers;
+import ws.sosna.pinetrail.utils.logging.StatusCodes;
+
+/** @author Xavier Sosnovsky */
+public class ElevationRequestsTest {
+
+  private static final long SECOND = 1400401532L;
+
+  @Test
+  public void planByPoints() {
+    final List<int[]> chunks = ElevationRequests.plan(newTrail(25, 0.0001), 0, 25, 10, 1e6);
+    assertEquals(3, chunks.size());
+    assertArrayEquals(new int[] {0, 10}, chunks.get(0));
+    assertArrayEquals(new int[] {10, 20}, chunks.get(1));
+    assertArrayEquals(new int[] {20, 25}, chunks.get(2));
+  }
+
+  @Test
+  public void planByDistance() {
+    // Points are approx. 111 meters apart
+    final List<int[]> chunks =
+        ElevationRequests.plan(newTrail(10, 0.001), 0, 10, Integer.MAX_VALUE, 500);
+    assertEquals(2, chunks.size());
+    assertArrayEquals(new int[] {0, 5}, chunks.get(0));
+    assertArrayEquals(new int[] {5, 10}, chunks.get(1));
+  }
+
+  @Test
+  public void planSinglePoints() {
+    final List<int[]> chunks = ElevationRequests.plan(newTrail(3, 1), 0, 3, 100, 500);
+    assertEquals(3, chunks.size());
+    assertEquals(0, ElevationRequests.plan(newTrail(3, 1), 0, 0, 100, 500).size());
+  }
+
+  @Test
+  public void fetchInline() {
+    final FakeSource source = new FakeSource(8, 6, Double.POSITIVE_INFINITY);
+    final WaypointColumns points = newTrail(50, 0.0001);
+    final double[] elevations = new double[points.size()];
+    new ElevationRequests(source, 4, 0).fetch(points, elevations);
+    assertElevations(points, elevations);
+    assertTrue(source.rejected.get() > 0);
+  }
+
+  @Test
+  public void fetchConcurrently() {
+    final FakeSource source = new FakeSource(8, 6, 1000);
+    final WaypointColumns points = newTrail(200, 0.0001);
+    final double[] elevations = new double[points.size()];
+    final ElevationRequests requests = new ElevationRequests(source, 3, 1000);
+    requests.fetch(points, elevations);
+    requests.shutdown();
+    assertElevations(points, elevations);
+    assertTrue(source.rejected.get() > 0);
+    assertTrue(source.maxInFlight.get() <= 3);
+  }
+
+  @Test
+  public void failedChunk() {
+    final FakeSource source = new FakeSource(10, 10, 1000);
+    source.failing = 3;
+    final WaypointColumns points = newTrail(30, 0.0001);
+    final double[] elevations = new double[points.size()];
+    final ElevationRequests requests = new ElevationRequests(source, 2, 0);
+    requests.fetch(points, elevations);
+    for (int i = 0; i < points.size(); i++) {
+      if (i < 10) {
+        assertTrue(Double.isNaN(elevations[i]));
+      } else {
+        assertEquals(points.getLatitude(i), elevations[i], 0);
+      }
+    }
+  }
+
+  @Test
+  public void settings() {
+    final FakeSource source = new FakeSource(10, 10, 2);
+    final ElevationRequests requests = new ElevationRequests(source, 4, 2);
+    assertTrue(requests.hasSettings(source, 4, 2));
+    assertTrue(!requests.hasSettings(source, 3, 2));
+    assertTrue(!requests.hasSettings(source, 4, 0));
+    requests.shutdown();
+  }
+
+  private void assertElevations(final WaypointColumns points, final double[] elevations) {
+    for (int i = 0; i < points.size(); i++) {
+      assertEquals(points.getLatitude(i), elevations[i], 0);
+    }
+  }
+
+  private WaypointColumns newTrail(final int size, final double step) {
+    final WaypointColumnsBuilder builder = new WaypointColumnsBuilder(size);
+    for (int i = 0; i < size; i++) {
+      builder.add(SECOND + i, 0, 7.96, 50 + i * step, Double.NaN);
+    }
+    return builder.build();
+  }
+
+  /*
+   * Returns the latitude as elevation. Accepts chunks up to maxAccepted points, rejects larger
+   * ones, and fails for the chunk containing the point at the position of failing.
+   */
+  private static final class FakeSource implements ElevationSource {
+
+    private final int maxPoints;
+    private final int maxAccepted;
+    private final double rate;
+    private final AtomicInteger rejected = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private volatile int failing = -1;
+
+    FakeSource(final int maxPoints, final int maxAccepted, final double rate) {
+      this.maxPoints = maxPoints;
+      this.maxAccepted = maxAccepted;
+      this.rate = rate;
+    }
+
+    @Override
+    public double[] getElevations(final WaypointColumns points, final int from, final int to) {
+      final int current = inFlight.incrementAndGet();
+      maxInFlight.accumulateAndGet(current, Math::max);
+      try {
+        Thread.sleep(2);
+        if (to - from > maxAccepted) {
+          rejected.incrementAndGet();
+          throw new ExecutionError(
+              "Too long", null, Markers.MODEL.getMarker(), Actions.GET,
+              StatusCodes.NOT_ACCEPTABLE);
+        }
+        if (failing >= from && failing < to) {
+          throw new ExecutionError(
+              "Failed", null, Markers.NETWORK.getMarker(), Actions.GET,
+              StatusCodes.INTERNAL_ERROR);
+        }
+        final double[] elevations = new double[to - from];
+        for (int i = from; i < to; i++) {
+          elevations[i - from] = points.getLatitude(i);
+        }
+        return elevations;
+      } catch (final InterruptedException e) {
+        throw new IllegalStateException(e);
+      } finally {
+        inFlight.decrementAndGet();
+      }
+    }
+
+    @Override
+    public int getMaxPoints() {
+      return maxPoints;
+    }
+
+    @Override
+    public double getMaxRequestsPerSecond() {
+      return rate;
+    }
+
+    @Override
+    public String getName() {
+      return "Fake";
+    }
+  }
+}
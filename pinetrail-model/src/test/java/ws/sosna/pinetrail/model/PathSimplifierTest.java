@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import java.util.Random;
+import org.junit.Test;
+
+/** @author Xavier Sosnovsky */
+public class PathSimplifierTest {
+
+  private static final long SECOND = 1400401532L;
+  private static final double LATITUDE = 50;
+  private static final double LONGITUDE = 7.96;
+  private static final double METRES_PER_DEGREE = 6_371_008.8 * Math.PI / 180;
+
+  @Test
+  public void straightLine() {
+    final WaypointColumns points =
+        newTrail(new double[] {0, 0, 0, 0, 0, 0}, new double[] {0, 100, 200, 300, 400, 500});
+    final BitSet kept = PathSimplifier.INSTANCE.simplify(points, all(points), 1);
+    assertEquals(2, kept.cardinality());
+    assertTrue(kept.get(0));
+    assertTrue(kept.get(5));
+  }
+
+  @Test
+  public void tolerance() {
+    // The spike is 10 metres away from the line, its neighbours less than 7 metres away
+    final WaypointColumns points =
+        newTrail(
+            new double[] {0, 0, 0, 10, 0, 0, 0}, new double[] {0, 100, 200, 300, 400, 500, 600});
+    final BitSet kept = PathSimplifier.INSTANCE.simplify(points, all(points), 7);
+    assertEquals(3, kept.cardinality());
+    assertTrue(kept.get(3));
+    assertEquals(2, PathSimplifier.INSTANCE.simplify(points, all(points), 20).cardinality());
+  }
+
+  @Test
+  public void noTolerance() {
+    final WaypointColumns points =
+        newTrail(new double[] {0, 0, 0, 0}, new double[] {0, 100, 200, 300});
+    final BitSet candidates = all(points);
+    candidates.clear(1);
+    assertEquals(candidates, PathSimplifier.INSTANCE.simplify(points, candidates, 0));
+  }
+
+  @Test
+  public void onlyCandidates() {
+    final WaypointColumns points =
+        newTrail(
+            new double[] {50, 0, 0, 50, 0, 0}, new double[] {0, 100, 200, 300, 400, 500});
+    final BitSet candidates = all(points);
+    candidates.clear(0);
+    candidates.clear(3);
+    final BitSet kept = PathSimplifier.INSTANCE.simplify(points, candidates, 5);
+    assertEquals(2, kept.cardinality());
+    assertTrue(kept.get(1));
+    assertTrue(kept.get(5));
+  }
+
+  @Test
+  public void loop() {
+    final WaypointColumns points =
+        newTrail(new double[] {0, 0, 100, 100, 0}, new double[] {0, 100, 100, 0, 0});
+    final BitSet kept = PathSimplifier.INSTANCE.simplify(points, all(points), 5);
+    assertEquals(5, kept.cardinality());
+    assertEquals(2, PathSimplifier.INSTANCE.simplify(points, all(points), 200).cardinality());
+  }
+
+  @Test
+  public void randomWalk() {
+    // A walk that keeps crossing its own path, with a few out-and-back legs
+    final Random random = new Random(7);
+    final int size = 5000;
+    final double[] east = new double[size];
+    final double[] north = new double[size];
+    double heading = 0;
+    for (int i = 1; i < size; i++) {
+      heading += 0 == i % 500 ? Math.PI : (random.nextDouble() - 0.5) * 0.6;
+      east[i] = east[i - 1] + 5 * Math.cos(heading);
+      north[i] = north[i - 1] + 5 * Math.sin(heading);
+    }
+    final WaypointColumns points = newTrail(east, north);
+    final double tolerance = 10;
+    final BitSet kept = PathSimplifier.INSTANCE.simplify(points, all(points), tolerance);
+    assertTrue(kept.cardinality() < size / 4);
+    assertWithinTolerance(east, north, kept, tolerance);
+  }
+
+  @Test
+  public void spiral() {
+    // All the points are on the hull of the trail
+    final int size = 20000;
+    final double[] east = new double[size];
+    final double[] north = new double[size];
+    for (int i = 0; i < size; i++) {
+      final double angle = i * 0.001;
+      final double radius = 100 + i * 0.05;
+      east[i] = radius * Math.cos(angle);
+      north[i] = radius * Math.sin(angle);
+    }
+    final WaypointColumns points = newTrail(east, north);
+    final BitSet kept = PathSimplifier.INSTANCE.simplify(points, all(points), 0.5);
+    assertTrue(kept.cardinality() < size / 10);
+    assertWithinTolerance(east, north, kept, 0.5);
+  }
+
+  private void assertWithinTolerance(
+      final double[] east, final double[] north, final BitSet kept, final double tolerance) {
+    assertTrue(kept.get(0));
+    assertTrue(kept.get(east.length - 1));
+    int first = 0;
+    for (int last = kept.nextSetBit(1); last >= 0; last = kept.nextSetBit(last + 1)) {
+      for (int i = first + 1; i < last; i++) {
+        // The projection of the simplifier differs slightly from the local plane of the test
+        assertTrue(distance(east, north, i, first, last) <= tolerance * 1.01);
+      }
+      first = last;
+    }
+  }
+
+  /*
+   * Distance between point i and the segment [first, last], in metres.
+   */
+  private double distance(
+      final double[] east, final double[] north, final int i, final int first, final int last) {
+    final double dx = east[last] - east[first];
+    final double dy = north[last] - north[first];
+    double px = east[i] - east[first];
+    double py = north[i] - north[first];
+    final double length = dx * dx + dy * dy;
+    if (length > 0) {
+      final double t = Math.max(0, Math.min(1, (px * dx + py * dy) / length));
+      px -= t * dx;
+      py -= t * dy;
+    }
+    return Math.hypot(px, py);
+  }
+
+  private BitSet all(final WaypointColumns points) {
+    final BitSet all = new BitSet();
+    all.set(0, points.size());
+    return all;
+  }
+
+  /*
+   * Points at the supplied distances east and north, in metres, of a reference point.
+   */
+  private WaypointColumns newTrail(final double[] east, final double[] north) {
+    final double scale = METRES_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE));
+    final WaypointColumnsBuilder builder = new WaypointColumnsBuilder(east.length);
+    for (int i = 0; i < east.length; i++) {
+      builder.add(
+          SECOND + i,
+          0,
+          LONGITUDE + east[i] / scale,
+          LATITUDE + north[i] / METRES_PER_DEGREE,
+          Double.NaN);
+    }
+    return builder.build();
+  }
+}
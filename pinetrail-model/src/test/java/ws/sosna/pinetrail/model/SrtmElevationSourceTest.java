@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** @author Xavier Sosnovsky */
+public class SrtmElevationSourceTest {
+
+  private Path directory;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("pinetrail-srtm");
+    // 3 x 3 samples, from north-west to south-east, with a void in the south-east corner
+    writeTile("N50E008.hgt", new short[] {100, 200, 300, 400, 500, 600, 700, 800, -32768});
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(directory.resolve("N50E008.hgt"));
+    Files.deleteIfExists(directory);
+  }
+
+  @Test
+  public void samples() {
+    final SrtmElevationSource source = new SrtmElevationSource(directory);
+    assertEquals(100, source.getElevation(50.9999999999, 8.0), 1e-6);
+    assertEquals(300, source.getElevation(50.9999999999, 8.9999999999), 1e-6);
+    assertEquals(500, source.getElevation(50.5, 8.5), 0);
+    assertEquals(700, source.getElevation(50.0, 8.0), 0);
+    // The northern edge belongs to the next tile
+    assertTrue(Double.isNaN(source.getElevation(51.0, 8.0)));
+  }
+
+  @Test
+  public void bilinearInterpolation() {
+    final SrtmElevationSource source = new SrtmElevationSource(directory);
+    assertEquals(150, source.getElevation(50.9999999999, 8.25), 1e-6);
+    assertEquals(250, source.getElevation(50.75, 8.0), 1e-9);
+    assertEquals(300, source.getElevation(50.75, 8.25), 1e-9);
+  }
+
+  @Test
+  public void voidsAndMissingTiles() {
+    final SrtmElevationSource source = new SrtmElevationSource(directory, 1);
+    // Only the 3 valid samples around the point are used
+    assertEquals((500 + 600 + 800) / 3.0, source.getElevation(50.25, 8.75), 1e-9);
+    assertTrue(Double.isNaN(source.getElevation(50.0, 9.0)));
+    assertTrue(Double.isNaN(source.getElevation(48.5, 8.5)));
+    assertEquals(500, source.getElevation(50.5, 8.5), 0);
+  }
+
+  @Test
+  public void columns() {
+    final List<Waypoint> points = new ArrayList<>();
+    points.add(newWaypoint(0, 50.5, 8.5, 1000.0));
+    points.add(newWaypoint(1, 50.9999999999, 8.25, null));
+    points.add(newWaypoint(2, 48.5, 8.5, null));
+    final double[] elevations =
+        new SrtmElevationSource(directory).getElevations(WaypointColumns.of(points), 0, 3);
+    assertEquals(500, elevations[0], 0);
+    assertEquals(150, elevations[1], 1e-6);
+    assertTrue(Double.isNaN(elevations[2]));
+  }
+
+  private void writeTile(final String name, final short[] samples) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(samples.length * 2);
+    for (final short sample : samples) {
+      buffer.putShort(sample);
+    }
+    Files.write(directory.resolve(name), buffer.array());
+  }
+
+  private Waypoint newWaypoint(
+      final long second, final double latitude, final double longitude, final Double elevation) {
+    return new WaypointBuilder(
+            Instant.ofEpochSecond(second),
+            new CoordinatesBuilder(longitude, latitude).elevation(elevation).build())
+        .build();
+  }
+}
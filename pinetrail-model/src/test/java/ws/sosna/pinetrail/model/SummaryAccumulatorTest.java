@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import org.apache.commons.math3.stat.descriptive.StatisticalSummary;
+import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
+import org.junit.Test;
+
+/** @author Xavier Sosnovsky */
+public class SummaryAccumulatorTest {
+
+  @Test
+  public void empty() {
+    final StatisticalSummary stats = new SummaryAccumulator().snapshot();
+    assertEquals(0, stats.getN());
+    assertEquals(0.0, stats.getSum(), 0);
+    assertEquals(Double.NaN, stats.getMean(), 0);
+    assertEquals(Double.NaN, stats.getVariance(), 0);
+    assertEquals(Double.NaN, stats.getMin(), 0);
+    assertEquals(Double.NaN, stats.getMax(), 0);
+  }
+
+  @Test
+  public void singleValue() {
+    final SummaryAccumulator accumulator = new SummaryAccumulator();
+    accumulator.add(12.5);
+    final StatisticalSummary stats = accumulator.snapshot();
+    assertEquals(1, stats.getN());
+    assertEquals(12.5, stats.getMean(), 0);
+    assertEquals(0.0, stats.getVariance(), 0);
+    assertEquals(0.0, stats.getStandardDeviation(), 0);
+  }
+
+  @Test
+  public void sameAsSummaryStatistics() {
+    final Random random = new Random(42);
+    final SummaryAccumulator accumulator = new SummaryAccumulator();
+    final SummaryStatistics expected = new SummaryStatistics();
+    for (int i = 0; i < 10000; i++) {
+      final double value = random.nextGaussian() * 100;
+      accumulator.add(value);
+      expected.addValue(value);
+    }
+    final StatisticalSummary stats = accumulator.snapshot();
+    assertEquals(expected.getN(), stats.getN());
+    assertEquals(expected.getSum(), stats.getSum(), 0);
+    assertEquals(expected.getMin(), stats.getMin(), 0);
+    assertEquals(expected.getMax(), stats.getMax(), 0);
+    assertEquals(expected.getMean(), stats.getMean(), 0);
+    assertEquals(expected.getVariance(), stats.getVariance(), 0);
+    assertEquals(expected.getStandardDeviation(), stats.getStandardDeviation(), 0);
+  }
+
+  @Test
+  public void removeValues() {
+    final Random random = new Random(42);
+    final SummaryAccumulator accumulator = new SummaryAccumulator();
+    final SummaryStatistics expected = new SummaryStatistics();
+    accumulator.add(-1000);
+    for (int i = 0; i < 1000; i++) {
+      final double value = random.nextGaussian() * 100;
+      accumulator.add(value);
+      expected.addValue(value);
+    }
+    accumulator.add(1000);
+    accumulator.remove(-1000);
+    accumulator.remove(1000);
+    assertEquals(expected.getN(), accumulator.getN());
+    assertEquals(expected.getMean(), accumulator.getMean(), 1e-9);
+    assertEquals(expected.getVariance(), accumulator.getVariance(), 1e-9);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void removeExtremum() {
+    final SummaryAccumulator accumulator = new SummaryAccumulator();
+    accumulator.add(1);
+    accumulator.add(2);
+    accumulator.add(3);
+    accumulator.remove(3);
+    accumulator.snapshot();
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+/** @author Xavier Sosnovsky */
+public class TrailCleanerTest {
+
+  @Test
+  public void removeOutlierAndNeighbours() {
+    final WaypointColumns points = PointsAugmenter.INSTANCE.apply(newPoints(200, 100));
+    final TrailCleaner cleaner = new TrailCleaner(points);
+    assertTrue(cleaner.removeOutliers());
+    assertTrue(cleaner.isModified());
+    final WaypointColumns cleanPoints = cleaner.getPoints();
+    // Going to and coming back from the outlier are both too fast
+    assertEquals(196, cleanPoints.size());
+    assertEquals(-1, cleanPoints.indexOf(points.get(99)));
+    assertEquals(-1, cleanPoints.indexOf(points.get(100)));
+    assertEquals(-1, cleanPoints.indexOf(points.get(101)));
+    assertEquals(-1, cleanPoints.indexOf(points.get(102)));
+    assertEquals(99, cleanPoints.indexOf(points.get(103)));
+  }
+
+  @Test
+  public void sameAsFullAnalysis() {
+    final TrailCleaner cleaner =
+        new TrailCleaner(PointsAugmenter.INSTANCE.apply(newPoints(200, 0)));
+    assertTrue(cleaner.removeOutliers());
+    final WaypointColumns cleanPoints = cleaner.getPoints();
+    final WaypointColumns expected = PointsAugmenter.INSTANCE.apply(cleanPoints);
+    for (int i = 0; i < cleanPoints.size(); i++) {
+      assertEquals(expected.getDistance(i), cleanPoints.getDistance(i), 0);
+      assertEquals(expected.getSpeed(i), cleanPoints.getSpeed(i), 0);
+      assertEquals(expected.getGrade(i), cleanPoints.getGrade(i), 0);
+      assertEquals(expected.getElevationDifference(i), cleanPoints.getElevationDifference(i), 0);
+      assertEquals(expected.getTimeDifference(i), cleanPoints.getTimeDifference(i));
+      assertEquals(expected.isActive(i), cleanPoints.isActive(i));
+    }
+  }
+
+  @Test
+  public void noOutlier() {
+    final TrailCleaner cleaner =
+        new TrailCleaner(PointsAugmenter.INSTANCE.apply(newPoints(200, -1)));
+    assertFalse(cleaner.removeOutliers());
+    assertFalse(cleaner.isModified());
+    assertEquals(200, cleaner.getPoints().size());
+  }
+
+  /*
+   * Points recorded every 10 seconds, about 30 meters apart, with a jump of several kilometers
+   * at the supplied position (if any).
+   */
+  private WaypointColumns newPoints(final int size, final int outlier) {
+    final List<Waypoint> points = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      final double latitude = 50.1 + i * 0.00027 + (i == outlier ? 0.1 : 0);
+      final double elevation = 200 + (i % 7);
+      points.add(
+          new WaypointBuilder(
+                  Instant.ofEpochSecond(1400000000L + i * 10L),
+                  new CoordinatesBuilder(7.96, latitude).elevation(elevation).build())
+              .build());
+    }
+    return WaypointColumns.of(points);
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+import ws.sosna.pinetrail.utils.error.ExecutionError;
+import ws.sosna.pinetrail.utils.logging.StatusCodes;
+
+/** @author Xavier Sosnovsky */
+public class TrailCodecTest {
+
+  private static final long SECOND = 1400000000L;
+
+  @Test
+  public void roundTrip() {
+    final Trail trail = newTrail(newPoints(1000, 500), true);
+    assertFalse(trail.getStatistics().getElevationSummary().getOutliers().isEmpty());
+    final byte[] bytes = TrailCodec.INSTANCE.encode(trail);
+    final Trail decoded = TrailCodec.INSTANCE.decode(ByteBuffer.wrap(bytes));
+    assertSame(trail, decoded);
+    assertEquals(trail.getStatistics(), decoded.getStatistics());
+    // Regular timestamps and 6 decimal digits: a few bytes per point, plus the statistics
+    assertTrue(bytes.length < 6 * 1000 + 2000);
+  }
+
+  @Test
+  public void fractionsOfSecondsAndMissingValues() {
+    final Random random = new Random(42);
+    final WaypointColumnsBuilder builder = new WaypointColumnsBuilder(100);
+    for (int i = 0; i < 100; i++) {
+      builder.add(
+          SECOND + i * (1 + random.nextInt(5)) * 10L,
+          i % 3 * 250_000_000,
+          7.96 + random.nextDouble() / 100,
+          50.1 + random.nextDouble() / 100,
+          0 == i % 10 ? Double.NaN : 200 + random.nextGaussian());
+    }
+    final Trail trail = newTrail(builder.build(), false);
+    final Trail decoded =
+        TrailCodec.INSTANCE.decode(ByteBuffer.wrap(TrailCodec.INSTANCE.encode(trail)));
+    assertSame(trail, decoded);
+    assertNull(decoded.getStatistics());
+  }
+
+  @Test
+  public void augmentationDifferingFromComputedValues() {
+    final WaypointColumns computed = PointsAugmenter.INSTANCE.apply(newPoints(50, -1));
+    final double[] distances = new double[computed.size()];
+    final double[] eleDiffs = new double[computed.size()];
+    final double[] speeds = new double[computed.size()];
+    final double[] grades = new double[computed.size()];
+    final long[] timeDiffs = new long[computed.size()];
+    final BitSet active = new BitSet();
+    for (int i = 0; i < computed.size(); i++) {
+      distances[i] = computed.getDistance(i);
+      eleDiffs[i] = computed.getElevationDifference(i);
+      speeds[i] = computed.getSpeed(i);
+      grades[i] = computed.getGrade(i);
+      timeDiffs[i] = computed.getTimeDifference(i);
+      active.set(i, computed.isActive(i));
+    }
+    distances[3] = 1234.5;
+    speeds[49] = Double.NaN;
+    timeDiffs[0] = -7;
+    active.flip(10);
+    final WaypointColumns points =
+        computed.withAugmentation(distances, eleDiffs, speeds, grades, timeDiffs, active);
+    final TrailStatistics stats = StatisticsProvider.INSTANCE.apply(points);
+    final Trail trail = TrailBuilder.restore(points, Collections.emptySet(), stats);
+    final Trail decoded =
+        TrailCodec.INSTANCE.decode(ByteBuffer.wrap(TrailCodec.INSTANCE.encode(trail)));
+    assertSame(trail, decoded);
+    assertEquals(trail.getStatistics(), decoded.getStatistics());
+  }
+
+  @Test
+  public void emptyTrail() {
+    final Trail trail = TrailBuilder.restore(WaypointColumns.empty(), Collections.emptySet(), null);
+    final Trail decoded =
+        TrailCodec.INSTANCE.decode(ByteBuffer.wrap(TrailCodec.INSTANCE.encode(trail)));
+    assertEquals(0, decoded.getColumns().size());
+  }
+
+  @Test
+  public void malformed() {
+    final byte[] bytes = TrailCodec.INSTANCE.encode(newTrail(newPoints(100, 50), true));
+    try {
+      TrailCodec.INSTANCE.decode(ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length / 2)));
+      fail("Expected a syntax error");
+    } catch (final ExecutionError e) {
+      assertEquals(StatusCodes.SYNTAX_ERROR, e.getErrorCode());
+    }
+  }
+
+  private void assertSame(final Trail expected, final Trail actual) {
+    assertEquals(expected.getCountries(), actual.getCountries());
+    assertEquals(expected.getWaypoints(), actual.getWaypoints());
+    final WaypointColumns e = expected.getColumns();
+    final WaypointColumns a = actual.getColumns();
+    assertEquals(e.size(), a.size());
+    for (int i = 0; i < e.size(); i++) {
+      assertEquals(e.getTime(i), a.getTime(i));
+      assertEquals(e.getLatitude(i), a.getLatitude(i), 0);
+      assertEquals(e.getLongitude(i), a.getLongitude(i), 0);
+      assertEquals(e.getElevation(i), a.getElevation(i), 0);
+      assertEquals(e.getDistance(i), a.getDistance(i), 0);
+      assertEquals(e.getElevationDifference(i), a.getElevationDifference(i), 0);
+      assertEquals(e.getSpeed(i), a.getSpeed(i), 0);
+      assertEquals(e.getGrade(i), a.getGrade(i), 0);
+      assertEquals(e.getTimeDifference(i), a.getTimeDifference(i));
+      assertEquals(e.isActive(i), a.isActive(i));
+    }
+  }
+
+  private Trail newTrail(final WaypointColumns columns, final boolean withStatistics) {
+    final WaypointColumns points = PointsAugmenter.INSTANCE.apply(columns);
+    final Set<String> countries = new LinkedHashSet<>(Arrays.asList("DE", "FR"));
+    return TrailBuilder.restore(
+        points, countries, withStatistics ? StatisticsProvider.INSTANCE.apply(points) : null);
+  }
+
+  /*
+   * Points recorded every 10 seconds, about 30 meters apart, with an elevation way off the mark at
+   * the supplied position (if any).
+   */
+  private WaypointColumns newPoints(final int size, final int outlier) {
+    final WaypointColumnsBuilder builder = new WaypointColumnsBuilder(size);
+    for (int i = 0; i < size; i++) {
+      // As parsed out of a file holding 6 decimal digits
+      final double latitude = (50_100_000 + i * 270) / 1e6;
+      final double elevation = i == outlier ? 900 : 200 + (i % 7);
+      builder.add(SECOND + i * 10L, 0, 7.96, latitude, elevation);
+    }
+    return builder.build();
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.function.IntToDoubleFunction;
+import org.junit.Test;
+
+/** @author Xavier Sosnovsky */
+public class TrailStatisticsBuilderTest {
+
+  private static final long SECOND = 1400401532L;
+
+  @Test
+  public void sameAsFromScratch() {
+    final WaypointColumns points = newTrail(600);
+    final TrailStatisticsBuilder instance = new TrailStatisticsBuilder();
+    for (int i = 0; i < points.size(); i++) {
+      instance.add(points.get(i));
+      if (0 == (i + 1) % 150) {
+        assertEquals(fromScratch(points.filter(range(0, i + 1))), instance.build());
+      }
+    }
+    final TrailStatistics statistics = instance.build();
+    assertEquals(fromScratch(points), statistics);
+    assertFalse(statistics.getSpeedSummary().getOutliers().isEmpty());
+  }
+
+  @Test
+  public void narrowingValues() {
+    // Erratic steps first, then steady ones: the early steps end up far from the narrow mean
+    final Random random = new Random(42);
+    final WaypointColumns points =
+        newWalk(
+            800,
+            i ->
+                i < 100
+                    ? 0.00004 + random.nextDouble() * 0.00005
+                    : 0.00006 + random.nextDouble() * 0.000001);
+    assertSnapshots(points, 10);
+    assertFalse(fromScratch(points).getSpeedSummary().getOutliers().isEmpty());
+  }
+
+  @Test
+  public void shiftingMean() {
+    // A short walk, then a faster pace: the mean moves away from the walking steps
+    final Random random = new Random(42);
+    final WaypointColumns points =
+        newWalk(600, i -> (i < 28 ? 0.00003 : 0.00008) + random.nextDouble() * 0.000005);
+    assertSnapshots(points, 10);
+    assertFalse(fromScratch(points).getSpeedSummary().getOutliers().isEmpty());
+  }
+
+  @Test
+  public void batches() {
+    final WaypointColumns points = newTrail(300);
+    final TrailStatisticsBuilder instance = new TrailStatisticsBuilder(points.size());
+    instance.addAll(points.filter(range(0, 100)));
+    instance.addAll(points.filter(range(100, points.size())));
+    assertEquals(points.size(), instance.size());
+    assertEquals(fromScratch(points), instance.build());
+  }
+
+  @Test
+  public void noPoint() {
+    assertNull(new TrailStatisticsBuilder().build());
+  }
+
+  @Test
+  public void duplicatePoint() {
+    final TrailStatisticsBuilder instance = new TrailStatisticsBuilder();
+    instance.add(SECOND, 0, 7.96, 50.0, 100);
+    instance.add(SECOND, 0, 7.97, 50.0, 100);
+    assertEquals(1, instance.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void pointInThePast() {
+    final TrailStatisticsBuilder instance = new TrailStatisticsBuilder();
+    instance.add(SECOND, 0, 7.96, 50.0, 100);
+    instance.add(SECOND - 1, 0, 7.96, 50.001, 100);
+  }
+
+  private void assertSnapshots(final WaypointColumns points, final int step) {
+    final TrailStatisticsBuilder instance = new TrailStatisticsBuilder();
+    for (int i = 0; i < points.size(); i++) {
+      instance.add(points.get(i));
+      if (0 == (i + 1) % step) {
+        assertEquals(fromScratch(points.filter(range(0, i + 1))), instance.build());
+      }
+    }
+  }
+
+  private TrailStatistics fromScratch(final WaypointColumns points) {
+    return StatisticsProvider.INSTANCE.apply(PointsAugmenter.INSTANCE.apply(points));
+  }
+
+  private BitSet range(final int from, final int to) {
+    final BitSet range = new BitSet();
+    range.set(from, to);
+    return range;
+  }
+
+  /*
+   * A walk to the north, with a break, a climb and a few jumps of the GPS.
+   */
+  private WaypointColumns newTrail(final int size) {
+    final Random random = new Random(42);
+    final WaypointColumnsBuilder builder = new WaypointColumnsBuilder(size);
+    double latitude = 50;
+    for (int i = 0; i < size; i++) {
+      if (i < 80 || i > 100) {
+        latitude += 0.00002 + random.nextDouble() * 0.00001;
+      }
+      final double jump = 0 == i % 97 ? 0.002 : 0;
+      final double elevation = 100 + i * 0.1 + random.nextDouble();
+      builder.add(SECOND + 2 * i, 0, 7.96, latitude + jump, 1 == i % 50 ? Double.NaN : elevation);
+    }
+    return builder.build();
+  }
+
+  /*
+   * A walk to the north, at a constant elevation, with the supplied steps (in degrees).
+   */
+  private WaypointColumns newWalk(final int size, final IntToDoubleFunction step) {
+    final WaypointColumnsBuilder builder = new WaypointColumnsBuilder(size);
+    double latitude = 50;
+    for (int i = 0; i < size; i++) {
+      latitude += step.applyAsDouble(i);
+      builder.add(SECOND + 2 * i, 0, 7.96, latitude, 100);
+    }
+    return builder.build();
+  }
+}
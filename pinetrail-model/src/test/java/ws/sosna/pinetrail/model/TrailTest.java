@@ -20,6 +20,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
@@ -337,6 +338,31 @@ public class TrailTest {
     assertEquals(trail, recoveredTrail);
   }
 
+  @Test
+  public void waypointAt() {
+    final Set<Waypoint> points = new LinkedHashSet<>();
+    for (int i = 0; i < 10; i++) {
+      points.add(
+          newWaypoint(
+              Instant.ofEpochSecond(1400401532L + i * 10),
+              newCoordinates(7.96, 50.1 + i * 0.0001, 200.0)));
+    }
+    final Trail trail = newTrail(points);
+    assertEquals(
+        50.1 + 3 * 0.0001,
+        trail.getWaypointAt(Instant.ofEpochSecond(1400401532L + 30)).getCoordinates().getLatitude(),
+        0);
+    assertEquals(
+        50.1 + 3 * 0.0001,
+        trail.getWaypointAt(Instant.ofEpochSecond(1400401532L + 39)).getCoordinates().getLatitude(),
+        0);
+    assertEquals(
+        Instant.ofEpochSecond(1400401532L + 90),
+        trail.getWaypointAt(Instant.ofEpochSecond(1400401532L + 90)).getTime());
+    assertNull(trail.getWaypointAt(Instant.ofEpochSecond(1400401531L)));
+    assertNull(trail.getWaypointAt(Instant.ofEpochSecond(1400401532L + 91)));
+  }
+
   private Coordinates newCoordinates(
       final Double longitude, final Double latitude, final Double elevation) {
     return new CoordinatesBuilder(longitude, latitude).elevation(elevation).build();
@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Instant;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.validation.ConstraintViolation;
+import javax.validation.ValidationException;
+import org.junit.Test;
+
+/** @author Xavier Sosnovsky */
+public class WaypointColumnsBuilderTest {
+
+  private static final long SECOND = Instant.parse("2014-05-18T08:27:02Z").getEpochSecond();
+
+  @Test
+  public void buildColumns() {
+    final WaypointColumns columns =
+        new WaypointColumnsBuilder(1)
+            .add(SECOND + 7, 0, 7.9631571192, 50.1184399333, 215.47)
+            .add(SECOND, 500, 7.9631012119, 50.1183273643, Double.NaN)
+            .add(SECOND + 7, 0, 7.9632132337, 50.1185519574, 214.89)
+            .build();
+    assertEquals(2, columns.size());
+    assertEquals(Instant.ofEpochSecond(SECOND, 500), columns.getTime(0));
+    assertTrue(Double.isNaN(columns.getElevation(0)));
+    assertEquals(215.47, columns.getElevation(1), 0);
+    assertTrue(columns.isActive(1));
+  }
+
+  @Test
+  public void sameAsBuilders() {
+    final Set<Waypoint> points = new TreeSet<>();
+    points.add(newWaypoint(SECOND, 7.9631012119, 50.1183273643, 216.43));
+    points.add(newWaypoint(SECOND + 7, 7.9631571192, 50.1184399333, null));
+    final WaypointColumnsBuilder builder = new WaypointColumnsBuilder();
+    for (final Waypoint point : points) {
+      builder.add(point);
+    }
+    assertEquals(points, builder.build().asSortedSet());
+  }
+
+  @Test(expected = ValidationException.class)
+  public void invalidPoint() {
+    new WaypointColumnsBuilder()
+        .add(SECOND, 0, 7.9631012119, 50.1183273643, 216.43)
+        .add(SECOND + 7, 0, 180, 50.1184399333, 215.47)
+        .build();
+  }
+
+  @Test
+  public void skipInvalidPoints() {
+    final WaypointColumns columns =
+        new WaypointColumnsBuilder()
+            .add(SECOND, 0, 7.9631012119, 50.1183273643, 216.43)
+            .add(SECOND + 7, 0, 7.9631571192, Double.NaN, 215.47)
+            .add(Instant.now().getEpochSecond() + 60, 0, 7.9632132337, 50.1185519574, 214.89)
+            .skipInvalidPoints(true)
+            .build();
+    assertEquals(1, columns.size());
+    assertEquals(216.43, columns.getElevation(0), 0);
+  }
+
+  @Test
+  public void trustedPoints() {
+    final WaypointColumns columns =
+        new WaypointColumnsBuilder()
+            .add(SECOND, 0, 7.9631012119, 95.0, 216.43)
+            .validate(false)
+            .build();
+    assertEquals(1, columns.size());
+  }
+
+  @Test
+  public void findInvalidPoints() {
+    final WaypointColumns columns =
+        new WaypointColumnsBuilder()
+            .add(SECOND, 0, -180, -90, -450)
+            .add(SECOND + 1, 0, 179.999, 90, 9000)
+            .add(SECOND + 2, 0, 0, 0, -450.1)
+            .add(SECOND + 3, 0, 0, 0, 9000.1)
+            .add(SECOND + 4, 0, -180.1, 0, 0)
+            .add(SECOND + 5, 0, 0, 90.1, 0)
+            .validate(false)
+            .build();
+    final BitSet expected = new BitSet();
+    expected.set(2, 6);
+    assertEquals(expected, PointsValidator.INSTANCE.findInvalidPoints(columns));
+  }
+
+  @Test
+  public void sameMessagesAsBeanValidation() {
+    final Waypoint[] points = {
+      new InvalidPoint(
+          Instant.ofEpochSecond(SECOND),
+          newCoordinates(7.96, 50.11, 9000.1),
+          0,
+          null,
+          9450.1,
+          null,
+          -90.1),
+      new InvalidPoint(
+          Instant.now().plusSeconds(60),
+          new InvalidCoordinates(180.0, Double.NaN, null),
+          -1,
+          -1.0,
+          null,
+          -1.0,
+          null),
+      new InvalidPoint(null, null, 0, null, -9450.1, null, 90.1),
+      new InvalidPoint(
+          Instant.ofEpochSecond(SECOND), new InvalidCoordinates(null, null, -450.1), 0, null, null,
+          null, null)
+    };
+    for (final Waypoint point : points) {
+      final Set<String> expected = new HashSet<>();
+      for (final ConstraintViolation<Waypoint> violation :
+          ValidationService.INSTANCE.getValidator().validate(point)) {
+        expected.add(violation.getMessage());
+      }
+      assertEquals(expected, new HashSet<>(PointsValidator.INSTANCE.validate(point)));
+    }
+  }
+
+  private static final class InvalidCoordinates implements Coordinates {
+
+    private static final long serialVersionUID = 1L;
+    private final Double longitude;
+    private final Double latitude;
+    private final Double elevation;
+
+    InvalidCoordinates(final Double longitude, final Double latitude, final Double elevation) {
+      this.longitude = longitude;
+      this.latitude = latitude;
+      this.elevation = elevation;
+    }
+
+    @Override
+    public Double getLatitude() {
+      return latitude;
+    }
+
+    @Override
+    public Double getLongitude() {
+      return longitude;
+    }
+
+    @Override
+    public Double getElevation() {
+      return elevation;
+    }
+  }
+
+  private static final class InvalidPoint implements Waypoint {
+
+    private final Instant time;
+    private final Coordinates coordinates;
+    private final long timeDiff;
+    private final Double distance;
+    private final Double elevationDiff;
+    private final Double speed;
+    private final Double grade;
+
+    InvalidPoint(
+        final Instant time,
+        final Coordinates coordinates,
+        final long timeDiff,
+        final Double distance,
+        final Double elevationDiff,
+        final Double speed,
+        final Double grade) {
+      this.time = time;
+      this.coordinates = coordinates;
+      this.timeDiff = timeDiff;
+      this.distance = distance;
+      this.elevationDiff = elevationDiff;
+      this.speed = speed;
+      this.grade = grade;
+    }
+
+    @Override
+    public Coordinates getCoordinates() {
+      return coordinates;
+    }
+
+    @Override
+    public Instant getTime() {
+      return time;
+    }
+
+    @Override
+    public long getTimeDifference() {
+      return timeDiff;
+    }
+
+    @Override
+    public Double getDistance() {
+      return distance;
+    }
+
+    @Override
+    public Double getElevationDifference() {
+      return elevationDiff;
+    }
+
+    @Override
+    public Double getSpeed() {
+      return speed;
+    }
+
+    @Override
+    public boolean isActive() {
+      return true;
+    }
+
+    @Override
+    public Double getGrade() {
+      return grade;
+    }
+
+    @Override
+    public int compareTo(final Waypoint other) {
+      return time.compareTo(other.getTime());
+    }
+  }
+
+  private Coordinates newCoordinates(
+      final Double longitude, final Double latitude, final Double elevation) {
+    return new CoordinatesBuilder(longitude, latitude).elevation(elevation).build();
+  }
+
+  private Waypoint newWaypoint(
+      final long second, final Double longitude, final Double latitude, final Double elevation) {
+    return new WaypointBuilder(
+            Instant.ofEpochSecond(second), newCoordinates(longitude, latitude, elevation))
+        .build();
+  }
+}
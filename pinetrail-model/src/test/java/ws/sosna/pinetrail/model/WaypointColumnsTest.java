@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import org.junit.Test;
+
+/** @author Xavier Sosnovsky */
+public class WaypointColumnsTest {
+
+  @Test
+  public void sortedByTime() {
+    final List<Waypoint> points = new ArrayList<>();
+    points.add(newWaypoint("2014-05-18T08:27:09Z", 7.9631571192, 50.1184399333, 215.47));
+    points.add(newWaypoint("2014-05-18T08:27:02Z", 7.9631012119, 50.1183273643, 216.43));
+    final WaypointColumns columns = WaypointColumns.of(points);
+    assertEquals(2, columns.size());
+    assertEquals(Instant.parse("2014-05-18T08:27:02Z"), columns.getTime(0));
+    assertEquals(216.43, columns.getElevation(0), 0);
+    assertEquals(Instant.parse("2014-05-18T08:27:09Z"), columns.getTime(1));
+  }
+
+  @Test
+  public void duplicatesRemoved() {
+    final List<Waypoint> points = new ArrayList<>();
+    points.add(newWaypoint("2014-05-18T08:27:02Z", 7.9631012119, 50.1183273643, 216.43));
+    points.add(newWaypoint("2014-05-18T08:27:02Z", 7.9631571192, 50.1184399333, 215.47));
+    final WaypointColumns columns = WaypointColumns.of(points);
+    assertEquals(1, columns.size());
+    assertEquals(216.43, columns.getElevation(0), 0);
+  }
+
+  @Test
+  public void missingElevation() {
+    final List<Waypoint> points = new ArrayList<>();
+    points.add(newWaypoint("2014-05-18T08:27:02Z", 7.9631012119, 50.1183273643, null));
+    final WaypointColumns columns = WaypointColumns.of(points);
+    assertTrue(Double.isNaN(columns.getElevation(0)));
+    assertNull(columns.get(0).getCoordinates().getElevation());
+  }
+
+  @Test
+  public void viewsBehaveLikePoints() {
+    final Waypoint point =
+        newWaypoint("2014-05-18T08:27:02.123Z", 7.9631012119, 50.1183273643, 216.43);
+    final List<Waypoint> points = new ArrayList<>();
+    points.add(point);
+    final Waypoint view = WaypointColumns.of(points).get(0);
+    assertEquals(point, view);
+    assertEquals(view, point);
+    assertEquals(point.hashCode(), view.hashCode());
+    assertEquals(point.getCoordinates().hashCode(), view.getCoordinates().hashCode());
+    assertEquals(point.toString(), view.toString());
+  }
+
+  @Test
+  public void sortedSetView() {
+    final SortedSet<Waypoint> points = new TreeSet<>();
+    points.add(newWaypoint("2014-05-18T08:27:02Z", 7.9631012119, 50.1183273643, 216.43));
+    points.add(newWaypoint("2014-05-18T08:27:09Z", 7.9631571192, 50.1184399333, 215.47));
+    points.add(newWaypoint("2014-05-18T08:27:16Z", 7.9632132337, 50.1185519574, 214.89));
+    final SortedSet<Waypoint> view = WaypointColumns.of(points).asSortedSet();
+    assertEquals(points, view);
+    assertEquals(view, points);
+    assertEquals(points.hashCode(), view.hashCode());
+    assertEquals(points.first(), view.first());
+    assertEquals(points.last(), view.last());
+    assertEquals(points.headSet(points.last()), view.headSet(points.last()));
+    assertEquals(points.tailSet(points.last()), view.tailSet(points.last()));
+    assertTrue(view.containsAll(points));
+    final Iterator<Waypoint> it = points.iterator();
+    for (final Waypoint point : view) {
+      assertEquals(it.next(), point);
+    }
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void sortedSetViewImmutable() {
+    final List<Waypoint> points = new ArrayList<>();
+    points.add(newWaypoint("2014-05-18T08:27:02Z", 7.9631012119, 50.1183273643, 216.43));
+    WaypointColumns.of(points).asSortedSet().clear();
+  }
+
+  @Test
+  public void filter() {
+    final List<Waypoint> points = new ArrayList<>();
+    final Waypoint point1 =
+        newWaypoint("2014-05-18T08:27:02Z", 7.9631012119, 50.1183273643, 216.43);
+    final Waypoint point2 =
+        newWaypoint("2014-05-18T08:27:09Z", 7.9631571192, 50.1184399333, 215.47);
+    points.add(point1);
+    points.add(point2);
+    final WaypointColumns columns = WaypointColumns.of(points);
+    final BitSet keep = new BitSet();
+    keep.set(1);
+    final WaypointColumns filtered = columns.filter(keep);
+    assertEquals(1, filtered.size());
+    assertEquals(-1, filtered.indexOf(point1));
+    assertEquals(0, filtered.indexOf(point2));
+    assertFalse(filtered.asSortedSet().contains(point1));
+  }
+
+  private Waypoint newWaypoint(
+      final String time, final Double longitude, final Double latitude, final Double elevation) {
+    return new WaypointBuilder(
+            Instant.parse(time),
+            new CoordinatesBuilder(longitude, latitude).elevation(elevation).build())
+        .build();
+  }
+}
@@ -0,0 +1,690 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.store;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ws.sosna.pinetrail.api.store.Store;
+import ws.sosna.pinetrail.api.store.TrailEntry;
+import ws.sosna.pinetrail.index.SpatialIndex;
+import ws.sosna.pinetrail.index.SpatialIndexBuilder;
+import ws.sosna.pinetrail.index.TimeIndex;
+import ws.sosna.pinetrail.index.TimeIndexBuilder;
+import ws.sosna.pinetrail.model.Trail;
+import ws.sosna.pinetrail.model.WaypointColumns;
+import ws.sosna.pinetrail.utils.error.ExecutionError;
+import ws.sosna.pinetrail.utils.logging.Actions;
+import ws.sosna.pinetrail.utils.logging.Markers;
+import ws.sosna.pinetrail.utils.logging.StatusCodes;
+
+/**
+ * A store keeping the trails in files, below a local directory.
+ *
+ * <p>The trails are appended to segment files, in their serialized form: loading a trail restores
+ * its points, countries and statistics as they were when the trail was stored, without parsing the
+ * original file or running the analysis again. Once a segment exceeds 64 MB, the next trails are
+ * appended to a new one.
+ *
+ * <p>The index is an append-only file as well. For each stored trail, it holds the identifier of
+ * the trail, the location of its data (segment, offset, length and checksum), its time range and
+ * its bounding box. The index is loaded in memory when the store is opened, later records replacing
+ * earlier records with the same identifier. Storing a trail again therefore does not rewrite
+ * anything: the data of the replaced trail is simply no longer referenced.
+ *
+ * <p>Each index record carries its own checksum. A record that has not been fully written (e.g.
+ * because the process was killed) is discarded, together with the records following it, when the
+ * store is opened again.
+ *
+ * <p>Queries about the paths of the trails are answered by a spatial index (see {@code
+ * SpatialIndex}), built in memory as trails are stored, and written next to the index when the
+ * store is closed. The spatial index file records the size of the index it matches: if the store
+ * has not been closed properly, the file is discarded, and the spatial index is rebuilt out of the
+ * stored trails the first time it is needed only. Until then, it is not written either, so that
+ * storing trails does not require loading all the other ones. Queries about time are answered by
+ * an interval tree (see {@code TimeIndex}), built out of the index entries when needed.
+ *
+ * <p>Instances are safe for use by multiple threads: writes are serialized, while reads are served
+ * concurrently.
+ *
+ * @author Xavier Sosnovsky
+ */
+final class FileStore implements Store {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(FileStore.class);
+  private static final String INDEX = "index";
+  private static final String SPATIAL = "spatial";
+  private static final String SEGMENT_SUFFIX = ".seg";
+  private static final long SEGMENT_SIZE = 64L << 20;
+  private static final Comparator<TrailEntry> BY_START =
+      Comparator.comparing(TrailEntry::getStart).thenComparing(TrailEntry::getId);
+  private final Path location;
+  private final Map<String, Entry> entries;
+  private final Map<Integer, FileChannel> segments;
+  private final Object lock;
+  private final FileChannel index;
+  private long indexSize;
+  private int segment;
+  private long segmentSize;
+  private boolean closed;
+  private SpatialIndex spatial;
+  private SpatialIndexBuilder spatialPaths;
+  private boolean spatialOutdated;
+  private boolean spatialUnsaved;
+  private TimeIndex times;
+
+  /**
+   * Opens the store below the supplied directory, which is created if it does not exist yet.
+   *
+   * @param location the directory holding the files of the store
+   * @throws ExecutionError if the store cannot be opened
+   */
+  FileStore(final Path location) {
+    super();
+    this.location = location;
+    entries = new ConcurrentHashMap<>();
+    segments = new ConcurrentHashMap<>();
+    lock = new Object();
+    FileChannel channel = null;
+    try {
+      Files.createDirectories(location);
+      channel = FileChannel.open(location.resolve(INDEX), CREATE, READ, WRITE);
+      indexSize = loadIndex(channel);
+      segment = Math.max(1, getLastSegment());
+      segmentSize = getSegment(segment).size();
+      spatial = loadSpatialIndex();
+      spatialUnsaved = null == spatial;
+    } catch (final IOException e) {
+      closeQuietly(channel);
+      throw newError("Could not open store " + location, e, Actions.OPEN);
+    } catch (final ExecutionError e) {
+      closeQuietly(channel);
+      throw e;
+    }
+    index = channel;
+    LOGGER.info(
+        Markers.DB.getMarker(),
+        "{} | {} | Opened store {} ({} trails).",
+        Actions.OPEN,
+        StatusCodes.OK.getCode(),
+        location,
+        entries.size());
+  }
+
+  @Override
+  public TrailEntry put(final String id, final Trail trail) {
+    final byte[] data = serialize(id, trail);
+    synchronized (lock) {
+      if (closed) {
+        throw newError("Store " + location + " has been closed", null, Actions.PERSIST);
+      }
+      if (0 < segmentSize && SEGMENT_SIZE < segmentSize + data.length) {
+        segment++;
+        segmentSize = 0;
+      }
+      final Entry entry =
+          new Entry(id, segment, segmentSize, data.length, checksum(data), trail.getColumns());
+      final ByteBuffer record = entry.toRecord();
+      final int recordSize = record.remaining();
+      try {
+        write(getSegment(segment), ByteBuffer.wrap(data), segmentSize);
+        write(index, record, indexSize);
+      } catch (final IOException e) {
+        throw newError("Could not store trail " + id, e, Actions.PERSIST);
+      }
+      segmentSize += data.length;
+      indexSize += recordSize;
+      entries.put(id, entry);
+      if (null != spatial || null != spatialPaths) {
+        getSpatialPaths().add(id, trail);
+        spatialOutdated = true;
+      }
+      spatialUnsaved = true;
+      times = null;
+      LOGGER.debug(
+          Markers.DB.getMarker(),
+          "{} | {} | Stored trail {} ({} bytes).",
+          Actions.PERSIST,
+          StatusCodes.OK.getCode(),
+          id,
+          data.length);
+      return entry;
+    }
+  }
+
+  @Override
+  public Trail get(final String id) {
+    final Entry entry = entries.get(id);
+    if (null == entry) {
+      return null;
+    }
+    final ByteBuffer data = ByteBuffer.allocate(entry.length);
+    try {
+      final FileChannel channel = getSegment(entry.segment);
+      while (data.hasRemaining()) {
+        if (0 > channel.read(data, entry.offset + data.position())) {
+          throw new EOFException("Unexpected end of segment " + entry.segment);
+        }
+      }
+    } catch (final IOException e) {
+      throw newError("Could not load trail " + id, e, Actions.GET);
+    }
+    if (checksum(data.array()) != entry.checksum) {
+      throw newError("Corrupted data for trail " + id, null, Actions.GET);
+    }
+    return deserialize(id, data.array());
+  }
+
+  @Override
+  public TrailEntry getEntry(final String id) {
+    return entries.get(id);
+  }
+
+  @Override
+  public Collection<TrailEntry> getEntries() {
+    return Collections.unmodifiableCollection(new ArrayList<>(entries.values()));
+  }
+
+  @Override
+  public List<TrailEntry> findByTime(final Instant from, final Instant to) {
+    return toEntries(getTimeIndex().find(from, to));
+  }
+
+  @Override
+  public List<TrailEntry> findByArea(
+      final double minLatitude,
+      final double minLongitude,
+      final double maxLatitude,
+      final double maxLongitude) {
+    return toEntries(
+            getSpatialIndex().findByArea(minLatitude, minLongitude, maxLatitude, maxLongitude))
+        .stream()
+        .sorted(BY_START)
+        .collect(Collectors.toList());
+  }
+
+  @Override
+  public List<TrailEntry> findNear(
+      final double latitude, final double longitude, final double radius) {
+    return toEntries(getSpatialIndex().findNear(latitude, longitude, radius));
+  }
+
+  @Override
+  public List<TrailEntry> findNearest(
+      final double latitude, final double longitude, final int count) {
+    return toEntries(getSpatialIndex().findNearest(latitude, longitude, count));
+  }
+
+  @Override
+  public void close() {
+    synchronized (lock) {
+      if (closed) {
+        return;
+      }
+      // An index that has never been rebuilt is left to the first spatial query
+      if (spatialUnsaved && (null != spatial || null != spatialPaths)) {
+        saveSpatialIndex();
+      }
+      closed = true;
+      try {
+        index.force(false);
+        getSegment(segment).force(false);
+      } catch (final IOException e) {
+        throw newError("Could not flush store " + location, e, Actions.CLOSE);
+      } finally {
+        closeQuietly(index);
+        segments.values().forEach(FileStore::closeQuietly);
+      }
+    }
+    LOGGER.debug(
+        Markers.DB.getMarker(),
+        "{} | {} | Closed store {}.",
+        Actions.CLOSE,
+        StatusCodes.OK.getCode(),
+        location);
+  }
+
+  private List<TrailEntry> toEntries(final List<String> ids) {
+    return ids.stream().map(entries::get).filter(Objects::nonNull).collect(Collectors.toList());
+  }
+
+  private TimeIndex getTimeIndex() {
+    synchronized (lock) {
+      if (null == times) {
+        final TimeIndexBuilder builder = new TimeIndexBuilder();
+        for (final Entry entry : entries.values()) {
+          builder.add(entry.id, entry.start, entry.end);
+        }
+        times = builder.build();
+      }
+      return times;
+    }
+  }
+
+  private SpatialIndexBuilder getSpatialPaths() {
+    if (null == spatialPaths) {
+      spatialPaths = null == spatial ? new SpatialIndexBuilder() : new SpatialIndexBuilder(spatial);
+    }
+    return spatialPaths;
+  }
+
+  /*
+   * Returns the spatial index, including the trails stored since it was last built. The index is
+   * rebuilt out of the stored trails if it has not been saved when the store was last closed.
+   */
+  private SpatialIndex getSpatialIndex() {
+    synchronized (lock) {
+      if (null == spatial && null == spatialPaths) {
+        LOGGER.info(
+            Markers.DB.getMarker(),
+            "{} | {} | Rebuilding the spatial index of {} ({} trails).",
+            Actions.UPDATE,
+            StatusCodes.OK.getCode(),
+            location,
+            entries.size());
+        final SpatialIndexBuilder paths = getSpatialPaths();
+        for (final String id : entries.keySet()) {
+          try {
+            paths.add(id, get(id));
+          } catch (final ExecutionError e) {
+            // Already logged, the trail cannot be found by area
+          }
+        }
+        spatialOutdated = true;
+      }
+      if (spatialOutdated) {
+        spatial = spatialPaths.build();
+        spatialOutdated = false;
+      }
+      return spatial;
+    }
+  }
+
+  /*
+   * Returns the saved spatial index, or null if it does not match the index of the store. A file
+   * that does not match is deleted, so that it cannot match the index once more trails are stored.
+   */
+  private SpatialIndex loadSpatialIndex() {
+    final Path file = location.resolve(SPATIAL);
+    if (Files.notExists(file)) {
+      return 0 == indexSize ? new SpatialIndexBuilder().build() : null;
+    }
+    try (CheckedInputStream checked =
+            new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(file)), new CRC32());
+        DataInputStream in = new DataInputStream(checked)) {
+      if (indexSize == in.readLong()) {
+        final SpatialIndex loaded = SpatialIndex.read(in);
+        final int checksum = (int) checked.getChecksum().getValue();
+        if (checksum == in.readInt()) {
+          return loaded;
+        }
+      }
+    } catch (final IOException e) {
+      // Rebuilt when needed
+    }
+    try {
+      Files.deleteIfExists(file);
+    } catch (final IOException e) {
+      // Replaced when the rebuilt index is saved
+    }
+    LOGGER.info(
+        Markers.DB.getMarker(),
+        "{} | {} | The spatial index of {} is out of date, and will be rebuilt when needed.",
+        Actions.OPEN,
+        StatusCodes.OK.getCode(),
+        location);
+    return null;
+  }
+
+  /*
+   * Writes the spatial index to a temporary file, moved over the previous one once complete. A
+   * failure is not fatal, as the spatial index can be rebuilt.
+   */
+  private void saveSpatialIndex() {
+    final Path file = location.resolve(SPATIAL);
+    final Path temp = location.resolve(SPATIAL + ".tmp");
+    try {
+      final SpatialIndex current = getSpatialIndex();
+      final CRC32 crc = new CRC32();
+      try (DataOutputStream out =
+          new DataOutputStream(
+              new CheckedOutputStream(
+                  new BufferedOutputStream(Files.newOutputStream(temp)), crc))) {
+        out.writeLong(indexSize);
+        current.write(out);
+        out.writeInt((int) crc.getValue());
+      }
+      Files.move(temp, file, REPLACE_EXISTING, ATOMIC_MOVE);
+      spatialUnsaved = false;
+    } catch (final IOException | ExecutionError e) {
+      LOGGER.warn(
+          Markers.DB.getMarker(),
+          "{} | {} | {}.",
+          Actions.PERSIST,
+          StatusCodes.INTERNAL_ERROR.getCode(),
+          "Could not save the spatial index of " + location + ": " + e.getMessage());
+    }
+  }
+
+  /*
+   * Reads the records of the index, and returns the size of the valid part of the file. Whatever
+   * follows the last valid record is truncated, so that new records are appended after it.
+   */
+  private long loadIndex(final FileChannel channel) throws IOException {
+    final long size = channel.size();
+    final ByteBuffer content = ByteBuffer.allocate((int) size);
+    while (content.hasRemaining()) {
+      if (0 > channel.read(content, content.position())) {
+        break;
+      }
+    }
+    content.flip();
+    long valid = 0;
+    while (Integer.BYTES * 2 <= content.remaining()) {
+      final int length = content.getInt();
+      final int checksum = content.getInt();
+      if (0 > length || length > content.remaining()) {
+        break;
+      }
+      final byte[] record = new byte[length];
+      content.get(record);
+      if (checksum(record) != checksum) {
+        break;
+      }
+      final Entry entry = Entry.of(record);
+      entries.put(entry.id, entry);
+      valid = content.position();
+    }
+    if (valid < size) {
+      LOGGER.warn(
+          Markers.DB.getMarker(),
+          "{} | {} | Discarded {} bytes of incomplete records from the index of {}.",
+          Actions.OPEN,
+          StatusCodes.SYNTAX_ERROR.getCode(),
+          size - valid,
+          location);
+      channel.truncate(valid);
+    }
+    return valid;
+  }
+
+  private int getLastSegment() throws IOException {
+    try (Stream<Path> files = Files.list(location)) {
+      return files
+          .map(file -> file.getFileName().toString())
+          .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+          .map(name -> name.substring(0, name.length() - SEGMENT_SUFFIX.length()))
+          .filter(name -> !name.isEmpty() && name.chars().allMatch(Character::isDigit))
+          .mapToInt(Integer::parseInt)
+          .max()
+          .orElse(0);
+    }
+  }
+
+  private FileChannel getSegment(final int number) {
+    return segments.computeIfAbsent(
+        number,
+        n -> {
+          final Path file = location.resolve(String.format("%08d%s", n, SEGMENT_SUFFIX));
+          try {
+            return FileChannel.open(file, CREATE, READ, WRITE);
+          } catch (final IOException e) {
+            throw newError("Could not open segment " + file, e, Actions.OPEN);
+          }
+        });
+  }
+
+  private static void write(final FileChannel channel, final ByteBuffer data, final long position)
+      throws IOException {
+    final long start = position - data.position();
+    while (data.hasRemaining()) {
+      channel.write(data, start + data.position());
+    }
+  }
+
+  private static byte[] serialize(final String id, final Trail trail) {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(out)) {
+      oos.writeObject(trail);
+    } catch (final IOException e) {
+      throw newError("Could not serialize trail " + id, e, Actions.PERSIST);
+    }
+    return out.toByteArray();
+  }
+
+  private static Trail deserialize(final String id, final byte[] data) {
+    try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data))) {
+      return (Trail) ois.readObject();
+    } catch (final IOException | ClassNotFoundException | ClassCastException e) {
+      throw newError("Could not deserialize trail " + id, e, Actions.GET);
+    }
+  }
+
+  private static int checksum(final byte[] data) {
+    final CRC32 crc = new CRC32();
+    crc.update(data, 0, data.length);
+    return (int) crc.getValue();
+  }
+
+  private static void closeQuietly(final FileChannel channel) {
+    if (null != channel) {
+      try {
+        channel.close();
+      } catch (final IOException e) {
+        LOGGER.warn(
+            Markers.DB.getMarker(),
+            "{} | {} | {}.",
+            Actions.CLOSE,
+            StatusCodes.INTERNAL_ERROR.getCode(),
+            "Could not close file: " + e.getMessage());
+      }
+    }
+  }
+
+  private static ExecutionError newError(
+      final String message, final Throwable cause, final Actions action) {
+    LOGGER.error(
+        Markers.DB.getMarker(),
+        "{} | {} | {}.",
+        action,
+        StatusCodes.INTERNAL_ERROR.getCode(),
+        message);
+    return new ExecutionError(
+        message, cause, Markers.DB.getMarker(), action, StatusCodes.INTERNAL_ERROR);
+  }
+
+  /*
+   * An index record: the location of the data of the trail, followed by its time range, bounding
+   * box and size. Records are framed by their length and checksum.
+   */
+  private static final class Entry implements TrailEntry {
+
+    private final String id;
+    private final int segment;
+    private final long offset;
+    private final int length;
+    private final int checksum;
+    private final Instant start;
+    private final Instant end;
+    private final double minLatitude;
+    private final double maxLatitude;
+    private final double minLongitude;
+    private final double maxLongitude;
+    private final int size;
+
+    Entry(
+        final String id,
+        final int segment,
+        final long offset,
+        final int length,
+        final int checksum,
+        final WaypointColumns points) {
+      super();
+      this.id = id;
+      this.segment = segment;
+      this.offset = offset;
+      this.length = length;
+      this.checksum = checksum;
+      size = points.size();
+      start = points.getTime(0);
+      end = points.getTime(size - 1);
+      double minLat = Double.POSITIVE_INFINITY;
+      double maxLat = Double.NEGATIVE_INFINITY;
+      double minLon = Double.POSITIVE_INFINITY;
+      double maxLon = Double.NEGATIVE_INFINITY;
+      for (int i = 0; i < size; i++) {
+        minLat = Math.min(minLat, points.getLatitude(i));
+        maxLat = Math.max(maxLat, points.getLatitude(i));
+        minLon = Math.min(minLon, points.getLongitude(i));
+        maxLon = Math.max(maxLon, points.getLongitude(i));
+      }
+      minLatitude = minLat;
+      maxLatitude = maxLat;
+      minLongitude = minLon;
+      maxLongitude = maxLon;
+    }
+
+    private Entry(final DataInputStream in) throws IOException {
+      super();
+      id = in.readUTF();
+      segment = in.readInt();
+      offset = in.readLong();
+      length = in.readInt();
+      checksum = in.readInt();
+      start = Instant.ofEpochSecond(in.readLong(), in.readInt());
+      end = Instant.ofEpochSecond(in.readLong(), in.readInt());
+      minLatitude = in.readDouble();
+      maxLatitude = in.readDouble();
+      minLongitude = in.readDouble();
+      maxLongitude = in.readDouble();
+      size = in.readInt();
+    }
+
+    static Entry of(final byte[] record) throws IOException {
+      return new Entry(new DataInputStream(new ByteArrayInputStream(record)));
+    }
+
+    ByteBuffer toRecord() {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (DataOutputStream out = new DataOutputStream(bytes)) {
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeUTF(id);
+        out.writeInt(segment);
+        out.writeLong(offset);
+        out.writeInt(length);
+        out.writeInt(checksum);
+        out.writeLong(start.getEpochSecond());
+        out.writeInt(start.getNano());
+        out.writeLong(end.getEpochSecond());
+        out.writeInt(end.getNano());
+        out.writeDouble(minLatitude);
+        out.writeDouble(maxLatitude);
+        out.writeDouble(minLongitude);
+        out.writeDouble(maxLongitude);
+        out.writeInt(size);
+      } catch (final IOException e) {
+        throw newError("Could not index trail " + id, e, Actions.PERSIST);
+      }
+      final ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+      final int payload = record.capacity() - Integer.BYTES * 2;
+      final CRC32 crc = new CRC32();
+      crc.update(record.array(), Integer.BYTES * 2, payload);
+      record.putInt(0, payload);
+      record.putInt(Integer.BYTES, (int) crc.getValue());
+      return record;
+    }
+
+    @Override
+    public String getId() {
+      return id;
+    }
+
+    @Override
+    public Instant getStart() {
+      return start;
+    }
+
+    @Override
+    public Instant getEnd() {
+      return end;
+    }
+
+    @Override
+    public double getMinLatitude() {
+      return minLatitude;
+    }
+
+    @Override
+    public double getMaxLatitude() {
+      return maxLatitude;
+    }
+
+    @Override
+    public double getMinLongitude() {
+      return minLongitude;
+    }
+
+    @Override
+    public double getMaxLongitude() {
+      return maxLongitude;
+    }
+
+    @Override
+    public int getSize() {
+      return size;
+    }
+
+    @Override
+    public String toString() {
+      return "TrailEntry{id=" + id + ", start=" + start + ", end=" + end + ", size=" + size + '}';
+    }
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.store;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import ws.sosna.pinetrail.api.store.Store;
+import ws.sosna.pinetrail.api.store.StoreProvider;
+
+/**
+ * Provider of stores keeping the trails in files, below a local directory.
+ *
+ * <p>Any location that is not a regular file is supported: the directory is created if it does not
+ * exist yet.
+ *
+ * @author Xavier Sosnovsky
+ */
+public final class FileStoreProvider implements StoreProvider {
+
+  /** Creates a new provider of file-backed stores. */
+  public FileStoreProvider() {
+    super();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Store newStore(final Path location) {
+    return Files.isRegularFile(location) ? null : new FileStore(location);
+  }
+}
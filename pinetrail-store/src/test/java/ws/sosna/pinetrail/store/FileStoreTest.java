@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.prefs.Preferences;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import ws.sosna.pinetrail.api.store.Store;
+import ws.sosna.pinetrail.api.store.TrailEntry;
+import ws.sosna.pinetrail.model.Trail;
+import ws.sosna.pinetrail.model.TrailBuilder;
+import ws.sosna.pinetrail.model.WaypointColumnsBuilder;
+
+/** @author Xavier Sosnovsky */
+public class FileStoreTest {
+
+  private static final long SECOND = 1400401532L;
+  private static Boolean keepOutliers;
+  private static Boolean keepIdlePoints;
+  private Path location;
+
+  @BeforeClass
+  public static void init() {
+    keepOutliers =
+        Boolean.valueOf(
+            Preferences.userRoot()
+                .node("ws.sosna.pinetrail.model.Trail")
+                .get("keepOutliers", "false"));
+    Preferences.userRoot().node("ws.sosna.pinetrail.model.Trail").put("keepOutliers", "true");
+    keepIdlePoints =
+        Boolean.valueOf(
+            Preferences.userRoot()
+                .node("ws.sosna.pinetrail.model.Trail")
+                .get("keepIdlePoints", "false"));
+    Preferences.userRoot().node("ws.sosna.pinetrail.model.Trail").put("keepIdlePoints", "true");
+  }
+
+  @AfterClass
+  public static void cleanup() {
+    Preferences.userRoot()
+        .node("ws.sosna.pinetrail.model.Trail")
+        .put("keepOutliers", keepOutliers.toString());
+    Preferences.userRoot()
+        .node("ws.sosna.pinetrail.model.Trail")
+        .put("keepIdlePoints", keepIdlePoints.toString());
+  }
+
+  @Before
+  public void setup() throws IOException {
+    location = Files.createTempDirectory("pinetrail-store");
+  }
+
+  @After
+  public void delete() throws IOException {
+    try (Stream<Path> files = Files.walk(location)) {
+      files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+    }
+  }
+
+  @Test
+  public void putAndGet() {
+    final Trail trail = newTrail(0, 50.1, 20);
+    try (Store store = new FileStoreProvider().newStore(location)) {
+      final TrailEntry entry = store.put("wispertal", trail);
+      assertEquals("wispertal", entry.getId());
+      assertEquals(20, entry.getSize());
+      assertEquals(Instant.ofEpochSecond(SECOND), entry.getStart());
+      assertEquals(Instant.ofEpochSecond(SECOND + 19 * 5), entry.getEnd());
+      assertEquals(50.1, entry.getMinLatitude(), 1e-9);
+      assertEquals(50.1 + 19 * 0.0001, entry.getMaxLatitude(), 1e-9);
+      final Trail stored = store.get("wispertal");
+      assertEquals(trail.getColumns().size(), stored.getColumns().size());
+      assertEquals(trail.getCountries(), stored.getCountries());
+      assertEquals(trail.getWaypoints(), stored.getWaypoints());
+      assertEquals(trail.getStatistics(), stored.getStatistics());
+      assertNull(store.get("unknown"));
+      assertNull(store.getEntry("unknown"));
+    }
+  }
+
+  @Test
+  public void reopen() {
+    try (Store store = new FileStoreProvider().newStore(location)) {
+      store.put("first", newTrail(0, 50.1, 10));
+      store.put("second", newTrail(3600, 50.2, 10));
+      store.put("first", newTrail(7200, 50.3, 15));
+    }
+    try (Store store = new FileStoreProvider().newStore(location)) {
+      assertEquals(2, store.getEntries().size());
+      assertEquals(15, store.getEntry("first").getSize());
+      assertEquals(15, store.get("first").getColumns().size());
+      assertEquals(10, store.get("second").getColumns().size());
+      store.put("third", newTrail(10800, 50.4, 10));
+    }
+    try (Store store = new FileStoreProvider().newStore(location)) {
+      assertEquals(3, store.getEntries().size());
+      assertNotNull(store.get("third"));
+    }
+  }
+
+  @Test
+  public void find() {
+    try (Store store = new FileStoreProvider().newStore(location)) {
+      store.put("first", newTrail(0, 50.1, 10));
+      store.put("second", newTrail(3600, 48.2, 10));
+      store.put("third", newTrail(7200, 50.1, 10));
+      final List<TrailEntry> byTime =
+          store.findByTime(
+              Instant.ofEpochSecond(SECOND + 3600 + 20), Instant.ofEpochSecond(SECOND + 7200));
+      assertEquals(2, byTime.size());
+      assertEquals("second", byTime.get(0).getId());
+      assertEquals("third", byTime.get(1).getId());
+      final Instant during = Instant.ofEpochSecond(SECOND + 3600 + 20);
+      assertEquals("second", store.findByTime(during, during).get(0).getId());
+      store.put("fourth", newTrail(3600, 50.1, 10));
+      assertEquals(2, store.findByTime(during, during).size());
+      final List<TrailEntry> byArea = store.findByArea(50, 7, 51, 9);
+      assertEquals(3, byArea.size());
+      assertEquals("first", byArea.get(0).getId());
+      assertEquals("fourth", byArea.get(1).getId());
+      assertEquals("third", byArea.get(2).getId());
+      assertTrue(store.findByArea(40, 7, 41, 9).isEmpty());
+    }
+  }
+
+  @Test
+  public void findNear() {
+    try (Store store = new FileStoreProvider().newStore(location)) {
+      store.put("first", newTrail(0, 50.1, 10));
+      store.put("second", newTrail(3600, 50.102, 10));
+      store.put("third", newTrail(7200, 48.2, 10));
+      final List<TrailEntry> near = store.findNear(50.1025, 7.96, 300);
+      assertEquals(2, near.size());
+      assertEquals("second", near.get(0).getId());
+      assertEquals("first", near.get(1).getId());
+      final List<TrailEntry> nearest = store.findNearest(48, 7.96, 2);
+      assertEquals("third", nearest.get(0).getId());
+      assertEquals("first", nearest.get(1).getId());
+    }
+  }
+
+  @Test
+  public void spatialIndex() throws IOException {
+    try (Store store = new FileStoreProvider().newStore(location)) {
+      store.put("first", newTrail(0, 50.1, 10));
+      store.put("second", newTrail(3600, 48.2, 10));
+    }
+    assertTrue(Files.exists(location.resolve("spatial")));
+    try (Store store = new FileStoreProvider().newStore(location)) {
+      assertEquals("first", store.findNearest(50, 7.96, 1).get(0).getId());
+      store.put("third", newTrail(7200, 49.1, 10));
+      assertEquals("third", store.findNearest(49, 7.96, 1).get(0).getId());
+    }
+    // Out of date, e.g. when the store has not been closed: rebuilt out of the stored trails
+    Files.delete(location.resolve("spatial"));
+    try (Store store = new FileStoreProvider().newStore(location)) {
+      assertEquals(3, store.findByArea(48, 7, 51, 9).size());
+    }
+    assertTrue(Files.exists(location.resolve("spatial")));
+  }
+
+  @Test
+  public void spatialIndexRebuiltLazily() throws IOException {
+    try (Store store = new FileStoreProvider().newStore(location)) {
+      store.put("first", newTrail(0, 50.1, 10));
+      store.put("second", newTrail(3600, 48.2, 10));
+    }
+    Files.delete(location.resolve("spatial"));
+    // Storing trails does not rebuild the index, neither does closing the store
+    try (Store store = new FileStoreProvider().newStore(location)) {
+      store.put("third", newTrail(7200, 49.1, 10));
+    }
+    assertFalse(Files.exists(location.resolve("spatial")));
+    try (Store store = new FileStoreProvider().newStore(location)) {
+      assertEquals(3, store.findByArea(48, 7, 51, 9).size());
+      store.put("fourth", newTrail(10800, 49.5, 10));
+    }
+    assertTrue(Files.exists(location.resolve("spatial")));
+    try (Store store = new FileStoreProvider().newStore(location)) {
+      assertEquals("fourth", store.findNearest(49.5, 7.96, 1).get(0).getId());
+    }
+  }
+
+  @Test
+  public void staleSpatialIndexDiscarded() throws IOException {
+    try (Store store = new FileStoreProvider().newStore(location)) {
+      store.put("first", newTrail(0, 50.1, 10));
+    }
+    final Path spatial = location.resolve("spatial");
+    final byte[] saved = Files.readAllBytes(spatial);
+    try (Store store = new FileStoreProvider().newStore(location)) {
+      store.put("second", newTrail(3600, 48.2, 10));
+    }
+    // As if the store had not been closed properly
+    Files.write(spatial, saved);
+    try (Store store = new FileStoreProvider().newStore(location)) {
+      assertFalse(Files.exists(spatial));
+      assertEquals(2, store.findByArea(48, 7, 51, 9).size());
+    }
+  }
+
+  @Test
+  public void incompleteIndexRecord() throws IOException {
+    try (Store store = new FileStoreProvider().newStore(location)) {
+      store.put("first", newTrail(0, 50.1, 10));
+      store.put("second", newTrail(3600, 50.2, 10));
+    }
+    final Path index = location.resolve("index");
+    try (FileChannel channel = FileChannel.open(index, StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 3);
+    }
+    try (Store store = new FileStoreProvider().newStore(location)) {
+      assertEquals(1, store.getEntries().size());
+      assertNotNull(store.get("first"));
+      store.put("third", newTrail(7200, 50.3, 10));
+    }
+    try (Store store = new FileStoreProvider().newStore(location)) {
+      assertEquals(2, store.getEntries().size());
+      assertEquals(10, store.get("third").getColumns().size());
+    }
+  }
+
+  @Test
+  public void regularFileNotSupported() throws IOException {
+    final Path file = Files.createFile(location.resolve("trails.gpx"));
+    assertNull(new FileStoreProvider().newStore(file));
+  }
+
+  private Trail newTrail(final long offset, final double latitude, final int size) {
+    final WaypointColumnsBuilder builder = new WaypointColumnsBuilder(size);
+    for (int i = 0; i < size; i++) {
+      builder.add(SECOND + offset + i * 5, 0, 7.96, latitude + i * 0.0001, 200 + i);
+    }
+    return new TrailBuilder(builder.build()).countries(Collections.singleton("DE")).build();
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.utils.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count that only goes up, such as the number of points parsed so far.
+ *
+ * <p>Instances are safe for use by multiple threads, and updates from many threads do not contend.
+ *
+ * @author Xavier Sosnovsky
+ */
+public final class Counter {
+
+  private final LongAdder value;
+
+  Counter() {
+    super();
+    value = new LongAdder();
+  }
+
+  /** Adds one to the count. */
+  public void increment() {
+    value.increment();
+  }
+
+  /**
+   * Adds the supplied amount to the count.
+   *
+   * @param amount the amount to be added
+   */
+  public void add(final long amount) {
+    value.add(amount);
+  }
+
+  /**
+   * Returns the current count.
+   *
+   * @return the current count
+   */
+  public long get() {
+    return value.sum();
+  }
+
+  void reset() {
+    value.reset();
+  }
+}
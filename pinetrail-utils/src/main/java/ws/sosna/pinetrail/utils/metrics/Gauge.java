@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.utils.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A value that can go up and down, such as the number of threads of a pool.
+ *
+ * <p>Instances are safe for use by multiple threads.
+ *
+ * @author Xavier Sosnovsky
+ */
+public final class Gauge {
+
+  private final AtomicLong value;
+
+  Gauge() {
+    super();
+    value = new AtomicLong();
+  }
+
+  /**
+   * Sets the current value.
+   *
+   * @param newValue the current value
+   */
+  public void set(final long newValue) {
+    value.set(newValue);
+  }
+
+  /**
+   * Adds the supplied amount, which may be negative, to the current value.
+   *
+   * @param amount the amount to be added
+   */
+  public void add(final long amount) {
+    value.addAndGet(amount);
+  }
+
+  /**
+   * Returns the current value.
+   *
+   * @return the current value
+   */
+  public long get() {
+    return value.get();
+  }
+
+  void reset() {
+    value.set(0);
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.utils.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations, in nanoseconds.
+ *
+ * <p>Values are counted in buckets whose width grows with the value: each power of two is split
+ * into 16 buckets, so that the percentiles are reported with a relative error below 7%, whatever
+ * the range of the values. Recording a value costs a couple of atomic increments, without any
+ * allocation or lock.
+ *
+ * <p>Instances are safe for use by multiple threads. Reading the histogram while values are being
+ * recorded is possible, but the values read may then be slightly inconsistent with each other.
+ *
+ * @author Xavier Sosnovsky
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+  private static final int BUCKETS = (Long.SIZE - SUB_BITS) * SUB_BUCKETS;
+  private final AtomicLongArray counts;
+  private final LongAdder count;
+  private final LongAdder sum;
+  private final AtomicLong max;
+
+  LatencyHistogram() {
+    super();
+    counts = new AtomicLongArray(BUCKETS);
+    count = new LongAdder();
+    sum = new LongAdder();
+    max = new AtomicLong();
+  }
+
+  /**
+   * Records a duration. Negative durations are recorded as 0.
+   *
+   * @param nanos the duration, in nanoseconds
+   */
+  public void record(final long nanos) {
+    final long value = Math.max(0, nanos);
+    counts.incrementAndGet(getBucket(value));
+    count.increment();
+    sum.add(value);
+    if (value > max.get()) {
+      max.accumulateAndGet(value, Math::max);
+    }
+  }
+
+  /**
+   * Records the time elapsed since the supplied start.
+   *
+   * @param startNanos the start, as returned by {@code System.nanoTime()}
+   */
+  public void recordSince(final long startNanos) {
+    record(System.nanoTime() - startNanos);
+  }
+
+  /**
+   * Returns the number of durations recorded.
+   *
+   * @return the number of durations recorded
+   */
+  public long getCount() {
+    return count.sum();
+  }
+
+  /**
+   * Returns the sum of the durations recorded, in nanoseconds.
+   *
+   * @return the sum of the durations recorded
+   */
+  public long getSum() {
+    return sum.sum();
+  }
+
+  /**
+   * Returns the longest duration recorded, in nanoseconds.
+   *
+   * @return the longest duration recorded, 0 if none has been recorded
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Returns the duration below which the supplied percentage of the durations fall.
+   *
+   * <p>The returned value is the upper bound of the bucket holding the percentile, capped to the
+   * longest duration recorded.
+   *
+   * @param percentile the percentage, between 0 and 100
+   * @return the duration, in nanoseconds, 0 if no duration has been recorded
+   */
+  public long getPercentile(final double percentile) {
+    final long total = getCount();
+    if (0 == total) {
+      return 0;
+    }
+    final long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, percentile) / 100));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(getUpperBound(i), getMax());
+      }
+    }
+    return getMax();
+  }
+
+  /**
+   * Returns the number of buckets of the histogram.
+   *
+   * @return the number of buckets
+   */
+  int getBuckets() {
+    return BUCKETS;
+  }
+
+  /**
+   * Returns the number of durations recorded in the supplied bucket.
+   *
+   * @param bucket the index of the bucket
+   * @return the number of durations recorded in the bucket
+   */
+  long getCount(final int bucket) {
+    return counts.get(bucket);
+  }
+
+  /**
+   * Returns the longest duration, in nanoseconds, counted in the supplied bucket.
+   *
+   * @param bucket the index of the bucket
+   * @return the upper bound (inclusive) of the bucket
+   */
+  static long getUpperBound(final int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    final int shift = bucket / SUB_BUCKETS - 1;
+    final long mantissa = SUB_BUCKETS + bucket % SUB_BUCKETS;
+    final long upper = ((mantissa + 1) << shift) - 1;
+    return upper < 0 ? Long.MAX_VALUE : upper;
+  }
+
+  /*
+   * Values below 16 get a bucket of their own. Above, the bucket is made of the position of the
+   * highest bit (i.e. the power of two) and of the 4 bits that follow it.
+   */
+  static int getBucket(final long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    final int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+    return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+  }
+
+  void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts.set(i, 0);
+    }
+    count.reset();
+    sum.reset();
+    max.set(0);
+  }
+}
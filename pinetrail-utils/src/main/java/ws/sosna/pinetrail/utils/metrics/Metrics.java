@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.utils.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.BiFunction;
+import ws.sosna.pinetrail.utils.error.ExecutionError;
+import ws.sosna.pinetrail.utils.logging.Actions;
+import ws.sosna.pinetrail.utils.logging.Markers;
+import ws.sosna.pinetrail.utils.logging.StatusCodes;
+
+/**
+ * Registry of the metrics of the process: counters, gauges and latency histograms.
+ *
+ * <p>Metrics are created the first time they are requested, and are then shared by all the callers
+ * using the same name. Callers on hot paths should keep the instances they use, for example in
+ * static fields, instead of looking them up each time. The durations of the processing stages
+ * (see {@link Stages}) are recorded using {@link #record(Stages, long)}.
+ *
+ * <p>The metrics are exported as JSON or in the Prometheus text format (see {@link #export(Path)}).
+ * Besides the values of the metrics, the export contains the rate per second of each counter,
+ * computed over the time elapsed since the registry has been created or reset (e.g. the number of
+ * points parsed per second over a batch run).
+ *
+ * @author Xavier Sosnovsky
+ */
+public enum Metrics {
+
+  /** Singleton holding the metrics of the process. */
+  INSTANCE;
+
+  private static final double NANOS_PER_SECOND = 1e9;
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+  private final Map<String, Counter> counters;
+  private final Map<String, Gauge> gauges;
+  private final Map<String, LatencyHistogram> histograms;
+  private final LatencyHistogram[] stages;
+  private volatile long start;
+
+  Metrics() {
+    counters = new ConcurrentSkipListMap<>();
+    gauges = new ConcurrentSkipListMap<>();
+    histograms = new ConcurrentSkipListMap<>();
+    stages = new LatencyHistogram[Stages.values().length];
+    for (final Stages stage : Stages.values()) {
+      stages[stage.ordinal()] = histogram(stage.getName());
+    }
+    start = System.nanoTime();
+  }
+
+  /**
+   * Returns the counter with the supplied name, creating it if needed.
+   *
+   * @param name the name of the counter, made of lower case letters, digits and underscores
+   * @return the counter
+   */
+  public Counter counter(final String name) {
+    return counters.computeIfAbsent(name, n -> new Counter());
+  }
+
+  /**
+   * Returns the gauge with the supplied name, creating it if needed.
+   *
+   * @param name the name of the gauge, made of lower case letters, digits and underscores
+   * @return the gauge
+   */
+  public Gauge gauge(final String name) {
+    return gauges.computeIfAbsent(name, n -> new Gauge());
+  }
+
+  /**
+   * Returns the histogram with the supplied name, creating it if needed.
+   *
+   * @param name the name of the histogram, made of lower case letters, digits and underscores
+   * @return the histogram
+   */
+  public LatencyHistogram histogram(final String name) {
+    return histograms.computeIfAbsent(name, n -> new LatencyHistogram());
+  }
+
+  /**
+   * Records the duration of a processing stage.
+   *
+   * @param stage the stage
+   * @param nanos the duration, in nanoseconds
+   */
+  public void record(final Stages stage, final long nanos) {
+    stages[stage.ordinal()].record(nanos);
+  }
+
+  /**
+   * Resets all the metrics, as well as the start of the period over which rates are computed.
+   * Instances kept by callers remain registered.
+   */
+  public void reset() {
+    counters.values().forEach(Counter::reset);
+    gauges.values().forEach(Gauge::reset);
+    histograms.values().forEach(LatencyHistogram::reset);
+    start = System.nanoTime();
+  }
+
+  /**
+   * Writes the metrics into the supplied file, replacing its content if it already exists.
+   *
+   * <p>Files whose name ends with {@code .json} are written as JSON, other files in the Prometheus
+   * text format.
+   *
+   * @param location the file to be written
+   * @throws ExecutionError if the file cannot be written
+   */
+  public void export(final Path location) {
+    final boolean json =
+        String.valueOf(location.getFileName()).toLowerCase(Locale.ROOT).endsWith(".json");
+    try (Writer out = Files.newBufferedWriter(location, StandardCharsets.UTF_8)) {
+      if (json) {
+        writeJson(out);
+      } else {
+        writePrometheus(out);
+      }
+    } catch (final IOException e) {
+      throw new ExecutionError(
+          "Could not write metrics to " + location,
+          e,
+          Markers.IO.getMarker(),
+          Actions.CREATE,
+          StatusCodes.INTERNAL_ERROR);
+    }
+  }
+
+  /**
+   * Writes the metrics as JSON.
+   *
+   * <p>Durations are expressed in nanoseconds. Histograms contain the count, sum, mean and maximum
+   * of the durations, a few percentiles and the non-empty buckets, as pairs of upper bound and
+   * count.
+   *
+   * @param out the destination
+   * @throws IOException if the metrics cannot be written
+   */
+  public void writeJson(final Writer out) throws IOException {
+    final double elapsed = getElapsedSeconds();
+    out.write("{\n  \"elapsed_seconds\": " + format(elapsed) + ",\n  \"counters\": {");
+    writeEntries(out, counters, (name, counter) -> quote(name) + ": " + counter.get());
+    out.write("},\n  \"rates\": {");
+    writeEntries(
+        out,
+        counters,
+        (name, counter) -> quote(name + "_per_second") + ": " + format(counter.get() / elapsed));
+    out.write("},\n  \"gauges\": {");
+    writeEntries(out, gauges, (name, gauge) -> quote(name) + ": " + gauge.get());
+    out.write("},\n  \"histograms\": {");
+    writeEntries(out, histograms, this::toJson);
+    out.write("}\n}\n");
+  }
+
+  /**
+   * Writes the metrics in the Prometheus text format.
+   *
+   * <p>All metrics are prefixed by {@code pinetrail_}. Histograms are expressed in seconds, with
+   * cumulative buckets limited to the non-empty ones.
+   *
+   * @param out the destination
+   * @throws IOException if the metrics cannot be written
+   */
+  public void writePrometheus(final Writer out) throws IOException {
+    final double elapsed = getElapsedSeconds();
+    for (final Map.Entry<String, Counter> entry : counters.entrySet()) {
+      final String name = "pinetrail_" + entry.getKey();
+      final long value = entry.getValue().get();
+      out.write("# TYPE " + name + "_total counter\n");
+      out.write(name + "_total " + value + "\n");
+      out.write("# TYPE " + name + "_per_second gauge\n");
+      out.write(name + "_per_second " + format(value / elapsed) + "\n");
+    }
+    for (final Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+      final String name = "pinetrail_" + entry.getKey();
+      out.write("# TYPE " + name + " gauge\n");
+      out.write(name + " " + entry.getValue().get() + "\n");
+    }
+    for (final Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+      final String name = "pinetrail_" + entry.getKey() + "_seconds";
+      final LatencyHistogram histogram = entry.getValue();
+      out.write("# TYPE " + name + " histogram\n");
+      long cumulated = 0;
+      for (int i = 0; i < histogram.getBuckets(); i++) {
+        final long count = histogram.getCount(i);
+        if (0 != count) {
+          cumulated += count;
+          out.write(
+              name
+                  + "_bucket{le=\""
+                  + format(LatencyHistogram.getUpperBound(i) / NANOS_PER_SECOND)
+                  + "\"} "
+                  + cumulated
+                  + "\n");
+        }
+      }
+      out.write(name + "_bucket{le=\"+Inf\"} " + histogram.getCount() + "\n");
+      out.write(name + "_sum " + format(histogram.getSum() / NANOS_PER_SECOND) + "\n");
+      out.write(name + "_count " + histogram.getCount() + "\n");
+    }
+  }
+
+  private String toJson(final String name, final LatencyHistogram histogram) {
+    final long count = histogram.getCount();
+    final StringBuilder json = new StringBuilder();
+    json.append(quote(name)).append(": {\"count\": ").append(count);
+    json.append(", \"sum\": ").append(histogram.getSum());
+    final double mean = 0 == count ? 0 : histogram.getSum() / (double) count;
+    json.append(", \"mean\": ").append(format(mean));
+    json.append(", \"max\": ").append(histogram.getMax());
+    for (final double percentile : PERCENTILES) {
+      json.append(", \"p").append(format(percentile).replace(".", "")).append("\": ");
+      json.append(histogram.getPercentile(percentile));
+    }
+    json.append(", \"buckets\": [");
+    boolean first = true;
+    for (int i = 0; i < histogram.getBuckets(); i++) {
+      final long bucketCount = histogram.getCount(i);
+      if (0 != bucketCount) {
+        json.append(first ? "" : ", ");
+        json.append('[').append(LatencyHistogram.getUpperBound(i)).append(", ");
+        json.append(bucketCount).append(']');
+        first = false;
+      }
+    }
+    return json.append("]}").toString();
+  }
+
+  private static <T> void writeEntries(
+      final Writer out, final Map<String, T> entries, final BiFunction<String, T, String> format)
+      throws IOException {
+    boolean first = true;
+    for (final Map.Entry<String, T> entry : entries.entrySet()) {
+      out.write(first ? "\n    " : ",\n    ");
+      out.write(format.apply(entry.getKey(), entry.getValue()));
+      first = false;
+    }
+    if (!first) {
+      out.write("\n  ");
+    }
+  }
+
+  private double getElapsedSeconds() {
+    return Math.max(1, System.nanoTime() - start) / NANOS_PER_SECOND;
+  }
+
+  private static String quote(final String name) {
+    return '"' + name + '"';
+  }
+
+  private static String format(final double value) {
+    return value == Math.rint(value) && Math.abs(value) < 1e15
+        ? Long.toString((long) value)
+        : Double.toString(value);
+  }
+}
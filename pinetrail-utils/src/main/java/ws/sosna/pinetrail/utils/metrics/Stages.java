@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.utils.metrics;
+
+import java.util.Locale;
+
+/**
+ * The stages of the processing of a trail, whose duration is recorded in a histogram of the
+ * metrics registry (see {@link Metrics#record(Stages, long)}).
+ *
+ * @author Xavier Sosnovsky
+ */
+public enum Stages {
+
+  /** Reading a file and building its trails (including the stages of the analysis). */
+  PARSE,
+  /** Correcting the elevation data. */
+  ELEVATION,
+  /** Adding distance, speed, grade, etc. to the points. */
+  AUGMENT,
+  /** Computing the statistics of a trail. */
+  STATISTICS,
+  /** Removing the outliers of a trail. */
+  CLEANUP,
+  /** Guessing the countries crossed by a trail. */
+  GEOCODE,
+  /** Writing a trail. */
+  WRITE;
+
+  /**
+   * Returns the name of the histogram holding the durations of the stage.
+   *
+   * @return the name of the histogram
+   */
+  public String getName() {
+    return name().toLowerCase(Locale.ROOT);
+  }
+}
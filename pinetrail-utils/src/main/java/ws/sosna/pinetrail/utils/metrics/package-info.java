@@ -0,0 +1,10 @@
+/**
+ * Provides a lightweight registry of metrics (see {@code Metrics}).
+ *
+ * <p>Counters, gauges and latency histograms are cheap enough to be updated for every file and
+ * every stage of the processing, and are exported once, for example at the end of a batch run, as
+ * JSON or in the Prometheus text format.
+ *
+ * @author Xavier Sosnovsky
+ */
+package ws.sosna.pinetrail.utils.metrics;
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.utils.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+/** @author Xavier Sosnovsky */
+public class LatencyHistogramTest {
+
+  @Test
+  public void buckets() {
+    for (long value = 0; value < 100_000; value++) {
+      final int bucket = LatencyHistogram.getBucket(value);
+      assertTrue(value <= LatencyHistogram.getUpperBound(bucket));
+      assertTrue(0 == bucket || value > LatencyHistogram.getUpperBound(bucket - 1));
+    }
+    assertEquals(15, LatencyHistogram.getBucket(15));
+    assertEquals(16, LatencyHistogram.getBucket(16));
+    assertEquals(
+        Long.MAX_VALUE,
+        LatencyHistogram.getUpperBound(LatencyHistogram.getBucket(Long.MAX_VALUE)));
+  }
+
+  @Test
+  public void emptyHistogram() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getMax());
+    assertEquals(0, histogram.getPercentile(50));
+  }
+
+  @Test
+  public void percentiles() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    final Random random = new Random(42);
+    final long[] values = new long[10_000];
+    long sum = 0;
+    for (int i = 0; i < values.length; i++) {
+      values[i] = (long) (Math.exp(random.nextGaussian() * 2 + 12));
+      histogram.record(values[i]);
+      sum += values[i];
+    }
+    Arrays.sort(values);
+    assertEquals(values.length, histogram.getCount());
+    assertEquals(sum, histogram.getSum());
+    assertEquals(values[values.length - 1], histogram.getMax());
+    assertEquals(values[values.length - 1], histogram.getPercentile(100));
+    for (final double percentile : new double[] {50, 90, 99, 99.9}) {
+      final long expected = values[(int) Math.ceil(values.length * percentile / 100) - 1];
+      final long actual = histogram.getPercentile(percentile);
+      assertTrue(actual >= expected);
+      assertTrue(actual <= expected * 1.07);
+    }
+  }
+
+  @Test
+  public void negativeDurations() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5);
+    assertEquals(1, histogram.getCount());
+    assertEquals(0, histogram.getPercentile(50));
+  }
+
+  @Test
+  public void reset() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(1000);
+    histogram.reset();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getSum());
+    assertEquals(0, histogram.getMax());
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2014, Xavier Sosnovsky <xso@sosna.ws>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES WITH
+ * REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY
+ * AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY SPECIAL, DIRECT,
+ * INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM
+ * LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR
+ * OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION WITH THE USE OR
+ * PERFORMANCE OF THIS SOFTWARE.
+ */
+package ws.sosna.pinetrail.utils.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.After;
+import org.junit.Test;
+
+/** @author Xavier Sosnovsky */
+public class MetricsTest {
+
+  @After
+  public void cleanup() {
+    Metrics.INSTANCE.reset();
+  }
+
+  @Test
+  public void sharedInstances() {
+    assertSame(Metrics.INSTANCE.counter("test_points"), Metrics.INSTANCE.counter("test_points"));
+    assertSame(Metrics.INSTANCE.gauge("test_threads"), Metrics.INSTANCE.gauge("test_threads"));
+    assertSame(Metrics.INSTANCE.histogram("parse"), Metrics.INSTANCE.histogram("parse"));
+    Metrics.INSTANCE.record(Stages.PARSE, 1000);
+    assertEquals(1, Metrics.INSTANCE.histogram("parse").getCount());
+  }
+
+  @Test
+  public void reset() {
+    final Counter counter = Metrics.INSTANCE.counter("test_points");
+    counter.add(5);
+    Metrics.INSTANCE.reset();
+    assertEquals(0, counter.get());
+    counter.increment();
+    assertEquals(1, Metrics.INSTANCE.counter("test_points").get());
+  }
+
+  @Test
+  public void json() throws IOException {
+    Metrics.INSTANCE.counter("test_points").add(779);
+    Metrics.INSTANCE.gauge("test_threads").set(4);
+    Metrics.INSTANCE.record(Stages.WRITE, 20);
+    Metrics.INSTANCE.record(Stages.WRITE, 20);
+    final StringWriter out = new StringWriter();
+    Metrics.INSTANCE.writeJson(out);
+    final String json = out.toString();
+    assertTrue(json.startsWith("{\n  \"elapsed_seconds\": "));
+    assertTrue(json.contains("\"test_points\": 779"));
+    assertTrue(json.contains("\"test_points_per_second\": "));
+    assertTrue(json.contains("\"test_threads\": 4"));
+    assertTrue(
+        json.contains(
+            "\"write\": {\"count\": 2, \"sum\": 40, \"mean\": 20, \"max\": 20, \"p50\": 20,"
+                + " \"p90\": 20, \"p99\": 20, \"p999\": 20, \"buckets\": [[20, 2]]}"));
+    assertTrue(json.contains("\"parse\": {\"count\": 0,"));
+  }
+
+  @Test
+  public void prometheus() throws IOException {
+    Metrics.INSTANCE.counter("test_points").add(779);
+    Metrics.INSTANCE.record(Stages.WRITE, 1_000_000);
+    final StringWriter out = new StringWriter();
+    Metrics.INSTANCE.writePrometheus(out);
+    final String text = out.toString();
+    assertTrue(text.contains("# TYPE pinetrail_test_points_total counter\n"));
+    assertTrue(text.contains("pinetrail_test_points_total 779\n"));
+    assertTrue(text.contains("# TYPE pinetrail_write_seconds histogram\n"));
+    assertTrue(text.contains("pinetrail_write_seconds_bucket{le=\"0.001015807\"} 1\n"));
+    assertTrue(text.contains("pinetrail_write_seconds_bucket{le=\"+Inf\"} 1\n"));
+    assertTrue(text.contains("pinetrail_write_seconds_sum 0.001\n"));
+    assertTrue(text.contains("pinetrail_write_seconds_count 1\n"));
+  }
+
+  @Test
+  public void export() throws IOException {
+    Metrics.INSTANCE.counter("test_points").add(779);
+    final Path json = Files.createTempFile("metrics", ".json");
+    final Path text = Files.createTempFile("metrics", ".prom");
+    try {
+      Metrics.INSTANCE.export(json);
+      Metrics.INSTANCE.export(text);
+      assertTrue(
+          new String(Files.readAllBytes(json), StandardCharsets.UTF_8)
+              .contains("\"test_points\": 779"));
+      assertTrue(
+          new String(Files.readAllBytes(text), StandardCharsets.UTF_8)
+              .contains("pinetrail_test_points_total 779"));
+    } finally {
+      Files.deleteIfExists(json);
+      Files.deleteIfExists(text);
+    }
+  }
+}